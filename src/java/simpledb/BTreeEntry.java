@@ -0,0 +1,72 @@
+package simpledb;
+
+import java.io.Serializable;
+
+/**
+ * Each instance of BTreeEntry stores one key and the two child page ids
+ * around it in a BTreeInternalPage. The record id of an entry read from a
+ * page is the page id plus the index of the key on that page.
+ *
+ * @see BTreeInternalPage
+ */
+public class BTreeEntry implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private Field key;
+    private BTreePageId leftChild;
+    private BTreePageId rightChild;
+    private RecordId rid;
+
+    /**
+     * Constructor.
+     *
+     * @param key the key of the entry
+     * @param leftChild the child page holding keys up to key
+     * @param rightChild the child page holding keys from key on
+     */
+    public BTreeEntry(Field key, BTreePageId leftChild, BTreePageId rightChild) {
+        this.key = key;
+        this.leftChild = leftChild;
+        this.rightChild = rightChild;
+    }
+
+    public Field getKey() {
+        return key;
+    }
+
+    public BTreePageId getLeftChild() {
+        return leftChild;
+    }
+
+    public BTreePageId getRightChild() {
+        return rightChild;
+    }
+
+    /**
+     * @return the page and key index this entry was read from, or null
+     */
+    public RecordId getRecordId() {
+        return rid;
+    }
+
+    public void setKey(Field key) {
+        this.key = key;
+    }
+
+    public void setLeftChild(BTreePageId leftChild) {
+        this.leftChild = leftChild;
+    }
+
+    public void setRightChild(BTreePageId rightChild) {
+        this.rightChild = rightChild;
+    }
+
+    public void setRecordId(RecordId rid) {
+        this.rid = rid;
+    }
+
+    public String toString() {
+        return "[" + leftChild.getPageNumber() + "|" + key + "|" + rightChild.getPageNumber() + "]";
+    }
+}
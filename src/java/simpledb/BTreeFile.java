@@ -0,0 +1,794 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.*;
+
+/**
+ * BTreeFile is an implementation of a DbFile that stores a B+ tree of
+ * tuples, sorted on one key field. Lookups and range scans descend from
+ * the root to the first leaf that can hold their key and walk the leaf
+ * level from there, instead of scanning the whole table.
+ * <p>
+ * The file is a sequence of pages of BufferPool.getPageSize() bytes. Page
+ * 0 is a BTreeRootPtrPage, which points to the root and to the first
+ * BTreeHeaderPage; every other page is an internal, leaf or header page.
+ * Pages are read and written through the BufferPool under page locks, so
+ * updates are logged like those of any other DbFile.
+ * <p>
+ * A full page is split in two, pushing a key into its parent; a page less
+ * than half full after a delete takes tuples (or entries) from a sibling
+ * or is merged with it. Pages freed by merges are recorded in the header
+ * pages and reused by later transactions.
+ *
+ * @see BTreeLeafPage
+ * @see BTreeInternalPage
+ */
+public class BTreeFile implements DbFile {
+
+    private final File f;
+    private final TupleDesc td;
+    private final int tableid;
+    private final int keyField;
+    // long-lived channel shared by all page reads and writes of this file,
+    // opened lazily by getChannel() and released by close()
+    private FileChannel channel;
+
+    /**
+     * Constructs a B+ tree file backed by the specified file.
+     *
+     * @param f
+     *            the file that stores the on-disk backing store for this
+     *            B+ tree file.
+     * @param key
+     *            the field which index is keyed on
+     * @param td
+     *            the tuple descriptor of tuples in the file
+     */
+    public BTreeFile(File f, int key, TupleDesc td) {
+        this.f = f;
+        this.td = td;
+        this.tableid = f.getAbsoluteFile().hashCode();
+        this.keyField = key;
+    }
+
+    /**
+     * Returns the File backing this BTreeFile on disk.
+     */
+    public File getFile() {
+        return f;
+    }
+
+    // see DbFile.java for javadocs
+    public int getId() {
+        return tableid;
+    }
+
+    /**
+     * Returns the index of the field that this B+ tree is keyed on
+     */
+    public int keyField() {
+        return keyField;
+    }
+
+    // see DbFile.java for javadocs
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    private synchronized FileChannel getChannel() throws IOException {
+        if (channel == null || !channel.isOpen()) {
+            channel = new RandomAccessFile(f, "rw").getChannel();
+        }
+        return channel;
+    }
+
+    // see DbFile.java for javadocs
+    public synchronized void close() {
+        if (channel == null) {
+            return;
+        }
+        try {
+            channel.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        channel = null;
+    }
+
+    /**
+     * Writes the root pointer page and an empty root leaf to an empty file.
+     */
+    private synchronized void init() throws IOException {
+        FileChannel ch = getChannel();
+        if (ch.size() > 0) {
+            return;
+        }
+        writePageData(0, BTreeRootPtrPage.createRootPageData());
+        writePageData(1, BTreePage.createEmptyPageData());
+    }
+
+    private synchronized void writePageData(int pageNo, byte[] data) throws IOException {
+        FileChannel ch = getChannel();
+        ByteBuffer buf = ByteBuffer.wrap(data);
+        long pos = (long) BufferPool.getPageSize() * pageNo;
+
+        while (buf.hasRemaining()) {
+            pos += ch.write(buf, pos);
+        }
+    }
+
+    // see DbFile.java for javadocs
+    public Page readPage(PageId pid) {
+        BTreePageId id = (BTreePageId) pid;
+        try {
+            init();
+            FileChannel ch = getChannel();
+            ByteBuffer buf = ByteBuffer.allocate(BufferPool.getPageSize());
+            long pos = (long) BufferPool.getPageSize() * id.getPageNumber();
+
+            if (pos + buf.capacity() > ch.size()) {
+                throw new IllegalArgumentException("page " + id + " is past the end of " + f);
+            }
+            while (buf.hasRemaining()) {
+                int n = ch.read(buf, pos);
+                if (n < 0) {
+                    break;
+                }
+                pos += n;
+            }
+            switch (id.pgcateg()) {
+            case BTreePageId.ROOT_PTR:
+                return new BTreeRootPtrPage(id, buf.array());
+            case BTreePageId.INTERNAL:
+                return new BTreeInternalPage(id, buf.array());
+            case BTreePageId.LEAF:
+                return new BTreeLeafPage(id, buf.array());
+            case BTreePageId.HEADER:
+                return new BTreeHeaderPage(id, buf.array());
+            default:
+                throw new IllegalArgumentException("unknown page category " + id.pgcateg());
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+
+            throw new IllegalArgumentException();
+        }
+    }
+
+    // see DbFile.java for javadocs
+    public void writePage(Page page) throws IOException {
+        init();
+        writePageData(page.getId().getPageNumber(), page.getPageData());
+    }
+
+    /**
+     * Returns the number of pages in this BTreeFile, including the root
+     * pointer page and header pages.
+     */
+    public int numPages() {
+        return (int) (f.length() / BufferPool.getPageSize());
+    }
+
+    /**
+     * Method to encapsulate the process of locking/fetching a page. First
+     * the method checks the local cache ("dirtypages"), and if it can't
+     * find the requested page there, it fetches it from the buffer pool.
+     * It also adds pages to the dirtypages cache if they are fetched with
+     * read-write permission, since presumably they will soon be dirtied by
+     * this transaction.
+     * <p>
+     * This method is needed to ensure that page updates are not lost if
+     * the same pages are accessed multiple times. Pages fetched for writing
+     * are marked dirty right away.
+     */
+    Page getPage(TransactionId tid, HashMap<PageId, Page> dirtypages, BTreePageId pid,
+            Permissions perm) throws DbException, TransactionAbortedException {
+        Page p = dirtypages.get(pid);
+        if (p != null) {
+            return p;
+        }
+        p = Database.getBufferPool().getPage(tid, pid, perm);
+        if (perm == Permissions.READ_WRITE) {
+            // marked dirty up front so that an abort half way through a
+            // split or merge still rolls the page back
+            p.markDirty(true, tid);
+            dirtypages.put(pid, p);
+        }
+        return p;
+    }
+
+    /**
+     * @return the root pointer page of this file, locked for reading
+     */
+    BTreeRootPtrPage getRootPtrPage(TransactionId tid, HashMap<PageId, Page> dirtypages)
+            throws DbException, TransactionAbortedException {
+        return (BTreeRootPtrPage) getPage(tid, dirtypages, BTreeRootPtrPage.getId(tableid),
+                Permissions.READ_ONLY);
+    }
+
+    /**
+     * Descends from page pid to the leftmost leaf page that can hold key
+     * f, or the leftmost leaf page of the tree if f is null. Internal pages
+     * are locked for reading, the leaf with permission perm.
+     */
+    BTreeLeafPage findLeafPage(TransactionId tid, HashMap<PageId, Page> dirtypages,
+            BTreePageId pid, Permissions perm, Field f)
+            throws DbException, TransactionAbortedException {
+        while (pid.pgcateg() == BTreePageId.INTERNAL) {
+            BTreeInternalPage page = (BTreeInternalPage) getPage(tid, dirtypages, pid,
+                    Permissions.READ_ONLY);
+            int n = page.getNumEntries();
+            int i = 0;
+
+            if (f == null) {
+                i = 0;
+            } else {
+                // the first key not below f
+                int hi = n;
+                while (i < hi) {
+                    int mid = (i + hi) >>> 1;
+                    if (page.getKey(mid).compare(Predicate.Op.LESS_THAN, f)) {
+                        i = mid + 1;
+                    } else {
+                        hi = mid;
+                    }
+                }
+            }
+            pid = page.getChildId(i);
+        }
+        return (BTreeLeafPage) getPage(tid, dirtypages, pid, perm);
+    }
+
+    /**
+     * Convenience method to find the leaf page that can hold key f, locked
+     * for reading.
+     */
+    BTreeLeafPage findLeafPage(TransactionId tid, Field f)
+            throws DbException, TransactionAbortedException {
+        HashMap<PageId, Page> dirtypages = new HashMap<PageId, Page>();
+        BTreePageId root = getRootPtrPage(tid, dirtypages).getRootId();
+        return findLeafPage(tid, dirtypages, root, Permissions.READ_ONLY, f);
+    }
+
+    // see DbFile.java for javadocs
+    public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        HashMap<PageId, Page> dirtypages = new HashMap<PageId, Page>();
+        Field key = t.getField(keyField);
+
+        BTreePageId root = getRootPtrPage(tid, dirtypages).getRootId();
+        BTreeLeafPage leaf = findLeafPage(tid, dirtypages, root, Permissions.READ_WRITE, key);
+        if (leaf.getNumEmptySlots() == 0) {
+            leaf = splitLeafPage(tid, dirtypages, leaf, key);
+        }
+        leaf.insertTuple(t);
+
+        return new ArrayList<Page>(dirtypages.values());
+    }
+
+    /**
+     * Splits a full leaf page, moving the upper half of its tuples to a
+     * new right sibling and adding the first key of that sibling to the
+     * parent, which is split in turn if it is full.
+     *
+     * @return the half of the split that tuples with key f go to
+     */
+    BTreeLeafPage splitLeafPage(TransactionId tid, HashMap<PageId, Page> dirtypages,
+            BTreeLeafPage page, Field f)
+            throws DbException, IOException, TransactionAbortedException {
+        BTreeLeafPage right = (BTreeLeafPage) getEmptyPage(tid, dirtypages, BTreePageId.LEAF);
+        int n = page.getNumTuples();
+        right.addTuples(0, page.removeTuples(n / 2, n));
+
+        BTreePageId oldRight = page.getRightSiblingId();
+        if (oldRight != null) {
+            BTreeLeafPage next = (BTreeLeafPage) getPage(tid, dirtypages, oldRight,
+                    Permissions.READ_WRITE);
+            next.setLeftSiblingId(right.getId());
+        }
+        right.setRightSiblingId(oldRight);
+        right.setLeftSiblingId(page.getId());
+        page.setRightSiblingId(right.getId());
+
+        Field splitKey = right.getKey(0);
+        BTreeInternalPage parent = getParentWithEmptySlots(tid, dirtypages, page.getParentId(),
+                page.getId());
+        parent.insertEntry(new BTreeEntry(splitKey, page.getId(), right.getId()));
+        page.setParentId(parent.getId());
+        right.setParentId(parent.getId());
+
+        return f.compare(Predicate.Op.GREATER_THAN_OR_EQ, splitKey) ? right : page;
+    }
+
+    /**
+     * Splits a full internal page, moving the keys above the middle one
+     * and their children to a new right sibling and pushing the middle
+     * key up into the parent.
+     *
+     * @return the half of the split that holds child childId
+     */
+    BTreeInternalPage splitInternalPage(TransactionId tid, HashMap<PageId, Page> dirtypages,
+            BTreeInternalPage page, BTreePageId childId)
+            throws DbException, IOException, TransactionAbortedException {
+        BTreeInternalPage right = (BTreeInternalPage) getEmptyPage(tid, dirtypages,
+                BTreePageId.INTERNAL);
+        int n = page.getNumEntries();
+        int mid = n / 2;
+        Field midKey = page.getKey(mid);
+
+        for (int i = mid + 1; i <= n; i++) {
+            right.addChild(page.getKey(i - 1), page.getChildId(i));
+        }
+        page.truncate(mid);
+        for (int i = 0; i <= right.getNumEntries(); i++) {
+            setParent(tid, dirtypages, right.getChildId(i), right.getId());
+        }
+
+        BTreeInternalPage parent = getParentWithEmptySlots(tid, dirtypages, page.getParentId(),
+                page.getId());
+        parent.insertEntry(new BTreeEntry(midKey, page.getId(), right.getId()));
+        page.setParentId(parent.getId());
+        right.setParentId(parent.getId());
+
+        return right.indexOfChild(childId) >= 0 ? right : page;
+    }
+
+    /**
+     * Returns the parent of child childId locked for writing, with room for
+     * one more entry: a full parent is split first, and a child without a
+     * parent (the root) gets a new, empty root above it.
+     */
+    private BTreeInternalPage getParentWithEmptySlots(TransactionId tid,
+            HashMap<PageId, Page> dirtypages, BTreePageId parentId, BTreePageId childId)
+            throws DbException, IOException, TransactionAbortedException {
+        if (parentId.pgcateg() == BTreePageId.ROOT_PTR) {
+            BTreeInternalPage root = (BTreeInternalPage) getEmptyPage(tid, dirtypages,
+                    BTreePageId.INTERNAL);
+            BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) getPage(tid, dirtypages, parentId,
+                    Permissions.READ_WRITE);
+            rootPtr.setRootId(root.getId());
+            return root;
+        }
+        BTreeInternalPage parent = (BTreeInternalPage) getPage(tid, dirtypages, parentId,
+                Permissions.READ_WRITE);
+        if (parent.getNumEmptySlots() == 0) {
+            parent = splitInternalPage(tid, dirtypages, parent, childId);
+        }
+        return parent;
+    }
+
+    /**
+     * Points the parent pointer of page childId at parentId.
+     */
+    private void setParent(TransactionId tid, HashMap<PageId, Page> dirtypages,
+            BTreePageId childId, BTreePageId parentId)
+            throws DbException, TransactionAbortedException {
+        BTreePage child = (BTreePage) getPage(tid, dirtypages, childId, Permissions.READ_ONLY);
+
+        if (!child.getParentId().equals(parentId)) {
+            child = (BTreePage) getPage(tid, dirtypages, childId, Permissions.READ_WRITE);
+            child.setParentId(parentId);
+        }
+    }
+
+    // see DbFile.java for javadocs
+    public ArrayList<Page> deleteTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        HashMap<PageId, Page> dirtypages = new HashMap<PageId, Page>();
+        Field key = t.getField(keyField);
+
+        BTreePageId root = getRootPtrPage(tid, dirtypages).getRootId();
+        BTreeLeafPage leaf = findLeafPage(tid, dirtypages, root, Permissions.READ_WRITE, key);
+        int i;
+        // tuples with key may continue on the following leaves
+        while ((i = leaf.indexOf(t)) < 0) {
+            BTreePageId next = leaf.getRightSiblingId();
+            if (next == null || leaf.getNumTuples() == 0
+                    || leaf.getKey(leaf.getNumTuples() - 1).compare(Predicate.Op.GREATER_THAN, key)) {
+                throw new DbException("tuple is not in the file");
+            }
+            leaf = (BTreeLeafPage) getPage(tid, dirtypages, next, Permissions.READ_WRITE);
+        }
+        leaf.deleteTuple(i);
+        if (leaf.getNumTuples() < leaf.getMaxTuples() / 2) {
+            handleMinOccupancyLeaf(tid, dirtypages, leaf);
+        }
+
+        return new ArrayList<Page>(dirtypages.values());
+    }
+
+    /**
+     * Refills a leaf page that is less than half full from a sibling with
+     * the same parent, or merges the two if the sibling has no tuples to
+     * spare. The root leaf may be as empty as it likes.
+     */
+    private void handleMinOccupancyLeaf(TransactionId tid, HashMap<PageId, Page> dirtypages,
+            BTreeLeafPage page) throws DbException, IOException, TransactionAbortedException {
+        BTreePageId parentId = page.getParentId();
+        if (parentId.pgcateg() == BTreePageId.ROOT_PTR) {
+            return;
+        }
+        BTreeInternalPage parent = (BTreeInternalPage) getPage(tid, dirtypages, parentId,
+                Permissions.READ_WRITE);
+        int i = parent.indexOfChild(page.getId());
+        int half = page.getMaxTuples() / 2;
+
+        if (i > 0) {
+            BTreeLeafPage left = (BTreeLeafPage) getPage(tid, dirtypages, parent.getChildId(i - 1),
+                    Permissions.READ_WRITE);
+            int n = left.getNumTuples();
+            if (n > half) {
+                int k = (n - page.getNumTuples()) / 2;
+                page.addTuples(0, left.removeTuples(n - k, n));
+                parent.setKey(i - 1, page.getKey(0));
+            } else {
+                mergeLeafPages(tid, dirtypages, left, page, parent, i - 1);
+            }
+        } else {
+            BTreeLeafPage right = (BTreeLeafPage) getPage(tid, dirtypages, parent.getChildId(i + 1),
+                    Permissions.READ_WRITE);
+            if (right.getNumTuples() > half) {
+                int k = (right.getNumTuples() - page.getNumTuples()) / 2;
+                page.addTuples(page.getNumTuples(), right.removeTuples(0, k));
+                parent.setKey(i, right.getKey(0));
+            } else {
+                mergeLeafPages(tid, dirtypages, page, right, parent, i);
+            }
+        }
+    }
+
+    /**
+     * Moves all tuples of right into its left sibling left, frees right and
+     * removes key keyIndex, which separates them, from their parent.
+     */
+    private void mergeLeafPages(TransactionId tid, HashMap<PageId, Page> dirtypages,
+            BTreeLeafPage left, BTreeLeafPage right, BTreeInternalPage parent, int keyIndex)
+            throws DbException, IOException, TransactionAbortedException {
+        left.addTuples(left.getNumTuples(), right.removeTuples(0, right.getNumTuples()));
+
+        BTreePageId next = right.getRightSiblingId();
+        left.setRightSiblingId(next);
+        if (next != null) {
+            BTreeLeafPage nextPage = (BTreeLeafPage) getPage(tid, dirtypages, next,
+                    Permissions.READ_WRITE);
+            nextPage.setLeftSiblingId(left.getId());
+        }
+        setEmptyPage(tid, dirtypages, right.getId().getPageNumber());
+        deleteParentEntry(tid, dirtypages, left, parent, keyIndex);
+    }
+
+    /**
+     * Removes key keyIndex and the child to its right from parent after a
+     * merge into left. An empty root is replaced by left; any other parent
+     * left less than half full is refilled or merged in turn.
+     */
+    private void deleteParentEntry(TransactionId tid, HashMap<PageId, Page> dirtypages,
+            BTreePage left, BTreeInternalPage parent, int keyIndex)
+            throws DbException, IOException, TransactionAbortedException {
+        parent.deleteKeyAndRightChild(keyIndex);
+
+        BTreePageId grandparentId = parent.getParentId();
+        if (grandparentId.pgcateg() == BTreePageId.ROOT_PTR) {
+            if (parent.getNumEntries() == 0) {
+                BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) getPage(tid, dirtypages,
+                        grandparentId, Permissions.READ_WRITE);
+                rootPtr.setRootId(left.getId());
+                left.setParentId(grandparentId);
+                setEmptyPage(tid, dirtypages, parent.getId().getPageNumber());
+            }
+        } else if (parent.getNumEntries() < parent.getMaxEntries() / 2) {
+            handleMinOccupancyInternal(tid, dirtypages, parent);
+        }
+    }
+
+    /**
+     * Refills an internal page that is less than half full from a sibling
+     * with the same parent, rotating entries through the parent, or merges
+     * the two if the sibling has no entries to spare.
+     */
+    private void handleMinOccupancyInternal(TransactionId tid, HashMap<PageId, Page> dirtypages,
+            BTreeInternalPage page) throws DbException, IOException, TransactionAbortedException {
+        BTreeInternalPage parent = (BTreeInternalPage) getPage(tid, dirtypages,
+                page.getParentId(), Permissions.READ_WRITE);
+        int i = parent.indexOfChild(page.getId());
+        int half = page.getMaxEntries() / 2;
+
+        if (i > 0) {
+            BTreeInternalPage left = (BTreeInternalPage) getPage(tid, dirtypages,
+                    parent.getChildId(i - 1), Permissions.READ_WRITE);
+            if (left.getNumEntries() > half) {
+                int k = (left.getNumEntries() - page.getNumEntries()) / 2;
+                for (int j = 0; j < k; j++) {
+                    int n = left.getNumEntries();
+                    BTreePageId moved = left.getChildId(n);
+                    Field lastKey = left.getKey(n - 1);
+                    left.deleteKeyAndRightChild(n - 1);
+                    page.addFirst(moved, parent.getKey(i - 1));
+                    parent.setKey(i - 1, lastKey);
+                    setParent(tid, dirtypages, moved, page.getId());
+                }
+            } else {
+                mergeInternalPages(tid, dirtypages, left, page, parent, i - 1);
+            }
+        } else {
+            BTreeInternalPage right = (BTreeInternalPage) getPage(tid, dirtypages,
+                    parent.getChildId(i + 1), Permissions.READ_WRITE);
+            if (right.getNumEntries() > half) {
+                int k = (right.getNumEntries() - page.getNumEntries()) / 2;
+                for (int j = 0; j < k; j++) {
+                    BTreePageId moved = right.getChildId(0);
+                    Field firstKey = right.getKey(0);
+                    right.deleteKeyAndLeftChild(0);
+                    page.addChild(parent.getKey(i), moved);
+                    parent.setKey(i, firstKey);
+                    setParent(tid, dirtypages, moved, page.getId());
+                }
+            } else {
+                mergeInternalPages(tid, dirtypages, page, right, parent, i);
+            }
+        }
+    }
+
+    /**
+     * Moves the separating key keyIndex of parent and all entries of right
+     * into its left sibling left, then frees right.
+     */
+    private void mergeInternalPages(TransactionId tid, HashMap<PageId, Page> dirtypages,
+            BTreeInternalPage left, BTreeInternalPage right, BTreeInternalPage parent, int keyIndex)
+            throws DbException, IOException, TransactionAbortedException {
+        left.addChild(parent.getKey(keyIndex), right.getChildId(0));
+        setParent(tid, dirtypages, right.getChildId(0), left.getId());
+        for (int j = 0; j < right.getNumEntries(); j++) {
+            left.addChild(right.getKey(j), right.getChildId(j + 1));
+            setParent(tid, dirtypages, right.getChildId(j + 1), left.getId());
+        }
+        setEmptyPage(tid, dirtypages, right.getId().getPageNumber());
+        deleteParentEntry(tid, dirtypages, left, parent, keyIndex);
+    }
+
+    /**
+     * Appends an empty page to the file.
+     *
+     * @return the number of the new page
+     */
+    private synchronized int appendEmptyPage() throws IOException {
+        init();
+        int pgNo = numPages();
+        writePageData(pgNo, BTreePage.createEmptyPageData());
+        return pgNo;
+    }
+
+    /**
+     * Returns an empty page of the given category, locked for writing:
+     * either a free page recorded in the header pages or a new page at the
+     * end of the file. Pages freed by this transaction are not reused
+     * before it commits, so that an abort can still restore them.
+     */
+    BTreePage getEmptyPage(TransactionId tid, HashMap<PageId, Page> dirtypages, int pgcateg)
+            throws DbException, IOException, TransactionAbortedException {
+        int pgNo = getEmptyPageNo(tid, dirtypages);
+        BTreePageId pid = new BTreePageId(tableid, pgNo, pgcateg);
+
+        if (pgNo < numPages()) {
+            // a cached copy of the page in its former role is stale
+            BufferPool bp = Database.getBufferPool();
+            for (int c = BTreePageId.INTERNAL; c <= BTreePageId.HEADER; c++) {
+                bp.discardPage(new BTreePageId(tableid, pgNo, c));
+            }
+            writePageData(pgNo, BTreePage.createEmptyPageData());
+        }
+        return (BTreePage) getPage(tid, dirtypages, pid, Permissions.READ_WRITE);
+    }
+
+    private int getEmptyPageNo(TransactionId tid, HashMap<PageId, Page> dirtypages)
+            throws DbException, IOException, TransactionAbortedException {
+        BTreePageId headerId = getRootPtrPage(tid, dirtypages).getHeaderId();
+        BufferPool bp = Database.getBufferPool();
+        int base = 0;
+
+        while (headerId != null) {
+            BTreeHeaderPage header = (BTreeHeaderPage) getPage(tid, dirtypages, headerId,
+                    Permissions.READ_ONLY);
+            int slot = header.nextEmptySlot(0);
+
+            while (slot >= 0 && (bp.holdsLock(tid, new BTreePageId(tableid, base + slot, BTreePageId.LEAF))
+                    || bp.holdsLock(tid, new BTreePageId(tableid, base + slot, BTreePageId.INTERNAL)))) {
+                slot = header.nextEmptySlot(slot + 1);
+            }
+            if (slot >= 0) {
+                header = (BTreeHeaderPage) getPage(tid, dirtypages, headerId, Permissions.READ_WRITE);
+                header.markSlotUsed(slot, true);
+                return base + slot;
+            }
+            base += BTreeHeaderPage.getNumSlots();
+            headerId = header.getNextPageId();
+        }
+        return appendEmptyPage();
+    }
+
+    /**
+     * Records page pgNo as free in the header pages, adding header pages
+     * as needed.
+     */
+    void setEmptyPage(TransactionId tid, HashMap<PageId, Page> dirtypages, int pgNo)
+            throws DbException, IOException, TransactionAbortedException {
+        BTreeRootPtrPage rootPtr = getRootPtrPage(tid, dirtypages);
+        BTreePageId headerId = rootPtr.getHeaderId();
+
+        if (headerId == null) {
+            rootPtr = (BTreeRootPtrPage) getPage(tid, dirtypages, rootPtr.getId(),
+                    Permissions.READ_WRITE);
+            headerId = newHeaderPage(tid, dirtypages, null);
+            rootPtr.setHeaderId(headerId);
+        }
+        BTreeHeaderPage header = (BTreeHeaderPage) getPage(tid, dirtypages, headerId,
+                Permissions.READ_WRITE);
+        int base = 0;
+
+        while (pgNo >= base + BTreeHeaderPage.getNumSlots()) {
+            BTreePageId next = header.getNextPageId();
+            if (next == null) {
+                next = newHeaderPage(tid, dirtypages, header.getId());
+                header.setNextPageId(next);
+            }
+            header = (BTreeHeaderPage) getPage(tid, dirtypages, next, Permissions.READ_WRITE);
+            base += BTreeHeaderPage.getNumSlots();
+        }
+        header.markSlotUsed(pgNo - base, false);
+    }
+
+    private BTreePageId newHeaderPage(TransactionId tid, HashMap<PageId, Page> dirtypages,
+            BTreePageId prev) throws DbException, IOException, TransactionAbortedException {
+        BTreePageId id = new BTreePageId(tableid, appendEmptyPage(), BTreePageId.HEADER);
+        BTreeHeaderPage header = (BTreeHeaderPage) getPage(tid, dirtypages, id,
+                Permissions.READ_WRITE);
+        header.init();
+        header.setPrevPageId(prev);
+        return id;
+    }
+
+    // see DbFile.java for javadocs
+    public DbFileIterator iterator(TransactionId tid) {
+        return new BTreeFileIterator(tid, null, true, null, true);
+    }
+
+    /**
+     * Returns an iterator over the tuples whose key satisfies ipred, in key
+     * order. Predicates with a bound only visit the leaves within it.
+     */
+    public DbFileIterator indexIterator(TransactionId tid, IndexPredicate ipred) {
+        Field v = ipred.getField();
+        switch (ipred.getOp()) {
+        case EQUALS:
+            return new BTreeFileIterator(tid, v, true, v, true);
+        case GREATER_THAN:
+            return new BTreeFileIterator(tid, v, false, null, true);
+        case GREATER_THAN_OR_EQ:
+            return new BTreeFileIterator(tid, v, true, null, true);
+        case LESS_THAN:
+            return new BTreeFileIterator(tid, null, true, v, false);
+        case LESS_THAN_OR_EQ:
+            return new BTreeFileIterator(tid, null, true, v, true);
+        default:
+            return new FilteredIterator(iterator(tid), ipred, keyField);
+        }
+    }
+
+    /**
+     * Returns an iterator over the tuples whose key lies between low and
+     * high, in key order. A null bound leaves that side of the range open.
+     */
+    public DbFileIterator rangeIterator(TransactionId tid, Field low, boolean lowInclusive,
+            Field high, boolean highInclusive) {
+        return new BTreeFileIterator(tid, low, lowInclusive, high, highInclusive);
+    }
+
+    /**
+     * Iterates over the leaf level from the first leaf that can hold the
+     * lower bound, stopping at the first key past the upper bound.
+     */
+    private class BTreeFileIterator extends AbstractDbFileIterator {
+        private final TransactionId tid;
+        private final Field low;
+        private final boolean lowInclusive;
+        private final Field high;
+        private final boolean highInclusive;
+        private BTreeLeafPage page;
+        private int next;
+
+        BTreeFileIterator(TransactionId tid, Field low, boolean lowInclusive, Field high,
+                boolean highInclusive) {
+            this.tid = tid;
+            this.low = low;
+            this.lowInclusive = lowInclusive;
+            this.high = high;
+            this.highInclusive = highInclusive;
+        }
+
+        public void open() throws DbException, TransactionAbortedException {
+            page = findLeafPage(tid, low);
+            next = 0;
+        }
+
+        @Override
+        protected Tuple readNext() throws DbException, TransactionAbortedException {
+            while (page != null) {
+                while (next < page.getNumTuples()) {
+                    Tuple t = page.getTuple(next++);
+                    Field key = t.getField(keyField);
+
+                    if (low != null && (key.compare(Predicate.Op.LESS_THAN, low)
+                            || (!lowInclusive && key.equals(low)))) {
+                        continue;
+                    }
+                    if (high != null && (key.compare(Predicate.Op.GREATER_THAN, high)
+                            || (!highInclusive && key.equals(high)))) {
+                        page = null;
+                        return null;
+                    }
+                    return t;
+                }
+                BTreePageId right = page.getRightSiblingId();
+                page = right == null ? null : (BTreeLeafPage) Database.getBufferPool().getPage(
+                        tid, right, Permissions.READ_ONLY);
+                next = 0;
+            }
+            return null;
+        }
+
+        public void rewind() throws DbException, TransactionAbortedException {
+            close();
+            open();
+        }
+
+        @Override
+        public void close() {
+            super.close();
+            page = null;
+        }
+    }
+
+    /**
+     * Returns the tuples of a full scan that satisfy a predicate without a
+     * usable bound, such as NOT_EQUALS.
+     */
+    private static class FilteredIterator extends AbstractDbFileIterator {
+        private final DbFileIterator child;
+        private final IndexPredicate ipred;
+        private final int keyField;
+
+        FilteredIterator(DbFileIterator child, IndexPredicate ipred, int keyField) {
+            this.child = child;
+            this.ipred = ipred;
+            this.keyField = keyField;
+        }
+
+        public void open() throws DbException, TransactionAbortedException {
+            child.open();
+        }
+
+        @Override
+        protected Tuple readNext() throws DbException, TransactionAbortedException {
+            while (child.hasNext()) {
+                Tuple t = child.next();
+                if (ipred.matches(t.getField(keyField))) {
+                    return t;
+                }
+            }
+            return null;
+        }
+
+        public void rewind() throws DbException, TransactionAbortedException {
+            close();
+            open();
+        }
+
+        @Override
+        public void close() {
+            super.close();
+            child.close();
+        }
+    }
+}
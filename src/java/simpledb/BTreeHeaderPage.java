@@ -0,0 +1,103 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.BitSet;
+
+/**
+ * BTreeHeaderPage tracks which pages of a BTreeFile are in use, so that
+ * pages freed by merges can be reused. Header pages form a linked list
+ * starting at the root pointer page; the k-th header page has one bit for
+ * each of the page numbers k * getNumSlots() .. (k + 1) * getNumSlots() - 1,
+ * set if the page is in use. Pages past the last header page are in use.
+ * <p>
+ * The format is the previous and next header page numbers (ints, 0 for
+ * none) followed by the bitmap.
+ *
+ * @see BTreeFile
+ */
+public class BTreeHeaderPage extends BTreePage {
+
+    private int prevPage;
+    private int nextPage;
+    private final int numSlots;
+    private final BitSet used;
+
+    /**
+     * Create a BTreeHeaderPage from a set of bytes of data read from disk.
+     */
+    public BTreeHeaderPage(BTreePageId id, byte[] data) throws IOException {
+        super(id);
+        this.numSlots = getNumSlots();
+        ByteBuffer buf = ByteBuffer.wrap(data);
+        this.prevPage = buf.getInt();
+        this.nextPage = buf.getInt();
+        byte[] bits = new byte[(numSlots + 7) / 8];
+        buf.get(bits);
+        this.used = BitSet.valueOf(bits);
+    }
+
+    /**
+     * @return the number of pages one header page keeps track of
+     */
+    public static int getNumSlots() {
+        return (BufferPool.getPageSize() - 2 * INDEX_SIZE) * 8;
+    }
+
+    @Override
+    protected BTreePage newPage(byte[] data) throws IOException {
+        return new BTreeHeaderPage(pid, data);
+    }
+
+    // see Page.java for javadocs
+    public void getPageData(ByteBuffer buf) {
+        int start = buf.position();
+        buf.putInt(prevPage);
+        buf.putInt(nextPage);
+        buf.put(used.toByteArray());
+        pad(buf, start);
+    }
+
+    /**
+     * Marks every slot as used; a new header page starts out like this.
+     */
+    public void init() {
+        beforeModify();
+        used.set(0, numSlots);
+    }
+
+    public BTreePageId getPrevPageId() {
+        return prevPage == 0 ? null : new BTreePageId(pid.getTableId(), prevPage, BTreePageId.HEADER);
+    }
+
+    public BTreePageId getNextPageId() {
+        return nextPage == 0 ? null : new BTreePageId(pid.getTableId(), nextPage, BTreePageId.HEADER);
+    }
+
+    public void setPrevPageId(BTreePageId id) {
+        beforeModify();
+        prevPage = id == null ? 0 : id.getPageNumber();
+    }
+
+    public void setNextPageId(BTreePageId id) {
+        beforeModify();
+        nextPage = id == null ? 0 : id.getPageNumber();
+    }
+
+    public boolean isSlotUsed(int i) {
+        return used.get(i);
+    }
+
+    public void markSlotUsed(int i, boolean value) {
+        beforeModify();
+        used.set(i, value);
+    }
+
+    /**
+     * @return the first free slot at or after from, or -1 if there is none
+     */
+    public int nextEmptySlot(int from) {
+        int i = used.nextClearBit(from);
+        return i < numSlots ? i : -1;
+    }
+}
@@ -0,0 +1,251 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.text.ParseException;
+import java.util.*;
+
+/**
+ * Each instance of BTreeInternalPage stores one internal page of a
+ * BTreeFile: n sorted keys and the n + 1 child pages between them. Child i
+ * holds the keys from key i - 1 up to key i; equal keys may be found on
+ * both sides of a key, so searches descend into the leftmost child that
+ * can hold their key. All children are of the same category, either
+ * internal or leaf pages.
+ * <p>
+ * The format is the parent page number (an int), the child category (a
+ * byte), the number of keys (an int), the child page numbers and then the
+ * keys, followed by zero padding.
+ *
+ * @see BTreeFile
+ */
+public class BTreeInternalPage extends BTreePage {
+
+    private final Type keyType;
+    private final int maxEntries;
+    private int childCategory;
+    private final ArrayList<Field> keys;
+    private final ArrayList<Integer> children;
+
+    /**
+     * Create a BTreeInternalPage from a set of bytes of data read from disk.
+     * An all-zero page is an empty page without children.
+     */
+    public BTreeInternalPage(BTreePageId id, byte[] data) throws IOException {
+        super(id);
+        TupleDesc td = Database.getCatalog().getTupleDesc(id.getTableId());
+        this.keyType = td.getFieldType(keyFieldOf(id));
+        this.maxEntries = getMaxEntries(keyType);
+
+        ByteBuffer buf = ByteBuffer.wrap(data);
+        this.parent = buf.getInt();
+        this.childCategory = buf.get();
+        int n = buf.getInt();
+        if (n < 0 || n > maxEntries) {
+            throw new IOException("corrupt internal page " + id + ": " + n + " keys");
+        }
+        this.keys = new ArrayList<Field>(maxEntries);
+        this.children = new ArrayList<Integer>(maxEntries + 1);
+
+        int childStart = buf.position();
+        int numChildren = (n == 0 && buf.getInt(childStart) == 0) ? 0 : n + 1;
+        for (int i = 0; i < numChildren; i++) {
+            children.add(buf.getInt());
+        }
+        buf.position(childStart + (maxEntries + 1) * INDEX_SIZE);
+        try {
+            for (int i = 0; i < n; i++) {
+                keys.add(keyType.parse(buf));
+            }
+        } catch (ParseException e) {
+            throw new IOException("corrupt internal page " + id + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * @return the number of keys an internal page with keys of the given
+     *   type holds
+     */
+    static int getMaxEntries(Type keyType) {
+        int header = INDEX_SIZE + 1 + INDEX_SIZE;
+        // n keys come with n + 1 children
+        return (BufferPool.getPageSize() - header - INDEX_SIZE) / (keyType.getLen() + INDEX_SIZE);
+    }
+
+    @Override
+    protected BTreePage newPage(byte[] data) throws IOException {
+        return new BTreeInternalPage(pid, data);
+    }
+
+    // see Page.java for javadocs
+    public void getPageData(ByteBuffer buf) {
+        int start = buf.position();
+        buf.putInt(parent);
+        buf.put((byte) childCategory);
+        buf.putInt(keys.size());
+        for (int c : children) {
+            buf.putInt(c);
+        }
+        for (int i = children.size(); i <= maxEntries; i++) {
+            buf.putInt(0);
+        }
+        for (Field key : keys) {
+            key.serialize(buf);
+        }
+        pad(buf, start);
+    }
+
+    /** @return the number of keys on this page */
+    public int getNumEntries() {
+        return keys.size();
+    }
+
+    /** @return the number of keys this page can hold */
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+
+    /** @return the number of keys that can still be added to this page */
+    public int getNumEmptySlots() {
+        return maxEntries - keys.size();
+    }
+
+    /** @return the category of the children of this page */
+    public int getChildCategory() {
+        return childCategory;
+    }
+
+    public Field getKey(int i) {
+        return keys.get(i);
+    }
+
+    public void setKey(int i, Field key) {
+        beforeModify();
+        keys.set(i, key);
+    }
+
+    /** @return the id of child i, 0 &lt;= i &lt;= getNumEntries() */
+    public BTreePageId getChildId(int i) {
+        return new BTreePageId(pid.getTableId(), children.get(i), childCategory);
+    }
+
+    /** @return the index of child id on this page, or -1 */
+    public int indexOfChild(BTreePageId id) {
+        if (id.pgcateg() != childCategory) {
+            return -1;
+        }
+        return children.indexOf(id.getPageNumber());
+    }
+
+    private void checkChild(BTreePageId child) throws DbException {
+        if (child.getTableId() != pid.getTableId()
+                || (child.pgcateg() != BTreePageId.INTERNAL && child.pgcateg() != BTreePageId.LEAF)) {
+            throw new DbException("child must be an internal or leaf page of this table");
+        }
+        if (!children.isEmpty() && child.pgcateg() != childCategory) {
+            throw new DbException("child category does not match the other children");
+        }
+    }
+
+    /**
+     * Adds an entry next to the child it splits off from: if the left
+     * child of e is on this page, the key and right child go right after
+     * it; otherwise the right child must be on this page and the left child
+     * and key go right before it. An empty page takes both children.
+     *
+     * @throws DbException if the page is full or neither child is on it
+     */
+    public void insertEntry(BTreeEntry e) throws DbException {
+        if (keys.size() >= maxEntries) {
+            throw new DbException("internal page is full");
+        }
+        checkChild(e.getLeftChild());
+        checkChild(e.getRightChild());
+        beforeModify();
+        int i;
+        if (children.isEmpty()) {
+            childCategory = e.getLeftChild().pgcateg();
+            children.add(e.getLeftChild().getPageNumber());
+            children.add(e.getRightChild().getPageNumber());
+            keys.add(e.getKey());
+            i = 0;
+        } else if ((i = indexOfChild(e.getLeftChild())) >= 0) {
+            keys.add(i, e.getKey());
+            children.add(i + 1, e.getRightChild().getPageNumber());
+        } else if ((i = indexOfChild(e.getRightChild())) >= 0) {
+            keys.add(i, e.getKey());
+            children.add(i, e.getLeftChild().getPageNumber());
+        } else {
+            throw new DbException("neither child of the entry is on this page");
+        }
+        e.setRecordId(new RecordId(pid, i));
+    }
+
+    /**
+     * Appends child as the last child, with key between it and the
+     * previous last child. key is ignored on a page without children.
+     */
+    public void addChild(Field key, BTreePageId child) throws DbException {
+        checkChild(child);
+        if (!children.isEmpty() && keys.size() >= maxEntries) {
+            throw new DbException("internal page is full");
+        }
+        beforeModify();
+        if (children.isEmpty()) {
+            childCategory = child.pgcateg();
+        } else {
+            keys.add(key);
+        }
+        children.add(child.getPageNumber());
+    }
+
+    /**
+     * Prepends child as the first child, with key between it and the
+     * previous first child.
+     */
+    public void addFirst(BTreePageId child, Field key) throws DbException {
+        checkChild(child);
+        if (keys.size() >= maxEntries) {
+            throw new DbException("internal page is full");
+        }
+        beforeModify();
+        keys.add(0, key);
+        children.add(0, child.getPageNumber());
+    }
+
+    /** Removes key i and the child to its right. */
+    public void deleteKeyAndRightChild(int i) {
+        beforeModify();
+        keys.remove(i);
+        children.remove(i + 1);
+    }
+
+    /** Removes key i and the child to its left. */
+    public void deleteKeyAndLeftChild(int i) {
+        beforeModify();
+        keys.remove(i);
+        children.remove(i);
+    }
+
+    /**
+     * Keeps the first n keys and n + 1 children and drops the rest.
+     */
+    public void truncate(int n) {
+        beforeModify();
+        keys.subList(n, keys.size()).clear();
+        children.subList(n + 1, children.size()).clear();
+    }
+
+    /**
+     * @return an iterator over the entries of this page, in key order
+     */
+    public Iterator<BTreeEntry> iterator() {
+        ArrayList<BTreeEntry> entries = new ArrayList<BTreeEntry>(keys.size());
+        for (int i = 0; i < keys.size(); i++) {
+            BTreeEntry e = new BTreeEntry(keys.get(i), getChildId(i), getChildId(i + 1));
+            e.setRecordId(new RecordId(pid, i));
+            entries.add(e);
+        }
+        return Collections.unmodifiableList(entries).iterator();
+    }
+}
@@ -0,0 +1,253 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.text.ParseException;
+import java.util.*;
+
+/**
+ * Each instance of BTreeLeafPage stores one leaf page of a BTreeFile: the
+ * tuples of the table, sorted on the key field, plus pointers to the
+ * neighbouring leaves so that range scans can walk the leaf level.
+ * <p>
+ * The format is the parent, left sibling and right sibling page numbers
+ * (ints, 0 for none), the number of tuples (an int) and the tuples
+ * themselves in key order, followed by zero padding. The record id of a
+ * tuple is its position on the page, which changes as tuples are added
+ * and removed; the tuples of the page are updated as that happens.
+ *
+ * @see BTreeFile
+ */
+public class BTreeLeafPage extends BTreePage {
+
+    private final TupleDesc td;
+    private final int keyField;
+    private final int maxTuples;
+    private int leftSibling;
+    private int rightSibling;
+    private final ArrayList<Tuple> tuples;
+
+    /**
+     * Create a BTreeLeafPage from a set of bytes of data read from disk.
+     */
+    public BTreeLeafPage(BTreePageId id, byte[] data) throws IOException {
+        super(id);
+        this.td = Database.getCatalog().getTupleDesc(id.getTableId());
+        this.keyField = keyFieldOf(id);
+        this.maxTuples = getMaxTuples(td);
+
+        ByteBuffer buf = ByteBuffer.wrap(data);
+        this.parent = buf.getInt();
+        this.leftSibling = buf.getInt();
+        this.rightSibling = buf.getInt();
+        int n = buf.getInt();
+        if (n < 0 || n > maxTuples) {
+            throw new IOException("corrupt leaf page " + id + ": " + n + " tuples");
+        }
+        this.tuples = new ArrayList<Tuple>(maxTuples);
+        try {
+            for (int i = 0; i < n; i++) {
+                Tuple t = new Tuple(td);
+                for (int j = 0; j < td.numFields(); j++) {
+                    t.setField(j, td.getFieldType(j).parse(buf));
+                }
+                t.setRecordId(new RecordId(pid, i));
+                tuples.add(t);
+            }
+        } catch (ParseException e) {
+            throw new IOException("corrupt leaf page " + id + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * @return the number of tuples of the given schema a leaf page holds
+     */
+    static int getMaxTuples(TupleDesc td) {
+        return (BufferPool.getPageSize() - 4 * INDEX_SIZE) / td.getSize();
+    }
+
+    @Override
+    protected BTreePage newPage(byte[] data) throws IOException {
+        return new BTreeLeafPage(pid, data);
+    }
+
+    // see Page.java for javadocs
+    public void getPageData(ByteBuffer buf) {
+        int start = buf.position();
+        buf.putInt(parent);
+        buf.putInt(leftSibling);
+        buf.putInt(rightSibling);
+        buf.putInt(tuples.size());
+        for (Tuple t : tuples) {
+            for (int j = 0; j < td.numFields(); j++) {
+                t.getField(j).serialize(buf);
+            }
+        }
+        pad(buf, start);
+    }
+
+    /** @return the number of tuples on this page */
+    public int getNumTuples() {
+        return tuples.size();
+    }
+
+    /** @return the number of tuples this page can hold */
+    public int getMaxTuples() {
+        return maxTuples;
+    }
+
+    /** @return the number of tuples that can still be added to this page */
+    public int getNumEmptySlots() {
+        return maxTuples - tuples.size();
+    }
+
+    /** @return the i-th tuple of this page in key order */
+    public Tuple getTuple(int i) {
+        return tuples.get(i);
+    }
+
+    /** @return the key of the i-th tuple of this page */
+    public Field getKey(int i) {
+        return tuples.get(i).getField(keyField);
+    }
+
+    public BTreePageId getLeftSiblingId() {
+        return leftSibling == 0 ? null : new BTreePageId(pid.getTableId(), leftSibling, BTreePageId.LEAF);
+    }
+
+    public BTreePageId getRightSiblingId() {
+        return rightSibling == 0 ? null : new BTreePageId(pid.getTableId(), rightSibling, BTreePageId.LEAF);
+    }
+
+    public void setLeftSiblingId(BTreePageId id) throws DbException {
+        checkSibling(id);
+        beforeModify();
+        leftSibling = id == null ? 0 : id.getPageNumber();
+    }
+
+    public void setRightSiblingId(BTreePageId id) throws DbException {
+        checkSibling(id);
+        beforeModify();
+        rightSibling = id == null ? 0 : id.getPageNumber();
+    }
+
+    private void checkSibling(BTreePageId id) throws DbException {
+        if (id != null && (id.getTableId() != pid.getTableId() || id.pgcateg() != BTreePageId.LEAF)) {
+            throw new DbException("sibling must be a leaf page of this table");
+        }
+    }
+
+    /**
+     * Adds the specified tuple to the page after any tuples with the same
+     * key; the tuple is updated to reflect that it is now stored on this
+     * page.
+     *
+     * @throws DbException if the page is full or tupledesc is mismatch.
+     */
+    public void insertTuple(Tuple t) throws DbException {
+        if (!t.getTupleDesc().equals(td)) {
+            throw new DbException("TupleDesc is not matched");
+        }
+        if (tuples.size() >= maxTuples) {
+            throw new DbException("leaf page is full");
+        }
+        Field key = t.getField(keyField);
+        int lo = 0;
+        int hi = tuples.size();
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (getKey(mid).compare(Predicate.Op.LESS_THAN_OR_EQ, key)) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        beforeModify();
+        tuples.add(lo, t);
+        renumber(lo);
+    }
+
+    /**
+     * Returns the position of t on this page: its record id if it still
+     * points at an equal tuple here, otherwise the first equal tuple.
+     *
+     * @return the position, or -1 if no tuple on the page equals t
+     */
+    public int indexOf(Tuple t) {
+        RecordId rid = t.getRecordId();
+        if (rid != null && pid.equals(rid.getPageId())) {
+            int i = rid.getTupleNumber();
+            if (i >= 0 && i < tuples.size() && sameFields(tuples.get(i), t)) {
+                return i;
+            }
+        }
+        for (int i = 0; i < tuples.size(); i++) {
+            if (sameFields(tuples.get(i), t)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private boolean sameFields(Tuple a, Tuple b) {
+        for (int j = 0; j < td.numFields(); j++) {
+            if (!a.getField(j).equals(b.getField(j))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Deletes the i-th tuple of the page.
+     */
+    public void deleteTuple(int i) {
+        beforeModify();
+        Tuple t = tuples.remove(i);
+        t.setRecordId(null);
+        renumber(i);
+    }
+
+    /**
+     * Removes the tuples at positions from .. to - 1 and returns them.
+     */
+    public List<Tuple> removeTuples(int from, int to) {
+        beforeModify();
+        List<Tuple> range = tuples.subList(from, to);
+        List<Tuple> removed = new ArrayList<Tuple>(range);
+        range.clear();
+        renumber(from);
+        return removed;
+    }
+
+    /**
+     * Inserts ts, which must be sorted and fit between the neighbouring
+     * keys, at position i.
+     *
+     * @throws DbException if the tuples do not fit on the page
+     */
+    public void addTuples(int i, List<Tuple> ts) throws DbException {
+        if (tuples.size() + ts.size() > maxTuples) {
+            throw new DbException("leaf page is full");
+        }
+        beforeModify();
+        tuples.addAll(i, ts);
+        renumber(i);
+    }
+
+    // point the record ids of the tuples from position i on at this page
+    private void renumber(int i) {
+        for (; i < tuples.size(); i++) {
+            tuples.get(i).setRecordId(new RecordId(pid, i));
+        }
+    }
+
+    /**
+     * @return an iterator over the tuples of this page in key order
+     *   (calling remove on this iterator throws an
+     *   UnsupportedOperationException)
+     */
+    public Iterator<Tuple> iterator() {
+        return Collections.unmodifiableList(new ArrayList<Tuple>(tuples)).iterator();
+    }
+}
@@ -0,0 +1,165 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+
+/**
+ * BTreePage holds what the pages of a BTreeFile have in common: the page
+ * id, the dirty flag and the before image, plus the parent pointer of
+ * internal and leaf pages. Subclasses parse the page bytes when they are
+ * built and serialize them again in getPageData(ByteBuffer).
+ *
+ * @see BTreeFile
+ */
+public abstract class BTreePage implements Page {
+
+    /** Size of a page pointer, in bytes. */
+    protected static final int INDEX_SIZE = Type.INT_TYPE.getLen();
+
+    protected final BTreePageId pid;
+    // page number of the parent; 0 is the root pointer page
+    protected int parent;
+    private volatile TransactionId dirtier;
+
+    // the page bytes as of the first modification since the last commit;
+    // null while the page is unmodified (see HeapPage)
+    byte[] oldData;
+    private final Object oldDataLock = new Object();
+
+    protected BTreePage(BTreePageId id) {
+        this.pid = id;
+    }
+
+    /**
+     * @return the key field of the BTreeFile that page id belongs to
+     */
+    static int keyFieldOf(BTreePageId id) {
+        return ((BTreeFile) Database.getCatalog().getDatabaseFile(id.getTableId())).keyField();
+    }
+
+    /**
+     * @return the PageId associated with this page.
+     */
+    public BTreePageId getId() {
+        return pid;
+    }
+
+    /**
+     * @return the id of the parent page, either an internal page or the
+     *   root pointer page
+     */
+    public BTreePageId getParentId() {
+        if (parent == 0) {
+            return new BTreePageId(pid.getTableId(), 0, BTreePageId.ROOT_PTR);
+        }
+        return new BTreePageId(pid.getTableId(), parent, BTreePageId.INTERNAL);
+    }
+
+    /**
+     * Sets the parent pointer of this page.
+     *
+     * @throws DbException if id is not an internal or root pointer page
+     *   of this table
+     */
+    public void setParentId(BTreePageId id) throws DbException {
+        if (id == null || id.getTableId() != pid.getTableId()
+                || (id.pgcateg() != BTreePageId.ROOT_PTR && id.pgcateg() != BTreePageId.INTERNAL)) {
+            throw new DbException("parent must be an internal or root pointer page of this table");
+        }
+        if (parent != id.getPageNumber()) {
+            beforeModify();
+            parent = id.getPageNumber();
+        }
+    }
+
+    /**
+     * Snapshots the before image on the first modification since the last
+     * commit. Every method that changes the page calls this first.
+     */
+    protected void beforeModify() {
+        synchronized (oldDataLock) {
+            if (oldData == null) {
+                oldData = getPageData();
+            }
+        }
+    }
+
+    /**
+     * Creates a page of the same kind as this one from serialized bytes.
+     */
+    protected abstract BTreePage newPage(byte[] data) throws IOException;
+
+    public byte[] getPageData() {
+        ByteBuffer buf = ByteBuffer.allocate(BufferPool.getPageSize());
+        getPageData(buf);
+        return buf.array();
+    }
+
+    /**
+     * Writes zeros from the position of buf up to start + page size.
+     */
+    protected static void pad(ByteBuffer buf, int start) {
+        int end = start + BufferPool.getPageSize();
+        while (buf.position() < end) {
+            buf.put((byte) 0);
+        }
+    }
+
+    /** Return a view of this page before it was modified
+        -- used by recovery */
+    public BTreePage getBeforeImage() {
+        try {
+            byte[] oldDataRef = null;
+            synchronized (oldDataLock) {
+                oldDataRef = oldData;
+            }
+            return newPage(oldDataRef != null ? oldDataRef : getPageData());
+        } catch (IOException e) {
+            e.printStackTrace();
+            //should never happen -- we parsed it OK before!
+            System.exit(1);
+        }
+        return null;
+    }
+
+    // see Page.java for javadocs
+    public void getBeforeImageData(ByteBuffer buf) {
+        byte[] oldDataRef = null;
+        synchronized (oldDataLock) {
+            oldDataRef = oldData;
+        }
+        if (oldDataRef != null) {
+            buf.put(oldDataRef, 0, BufferPool.getPageSize());
+        } else {
+            getPageData(buf);
+        }
+    }
+
+    public void setBeforeImage() {
+        synchronized (oldDataLock) {
+            oldData = null;
+        }
+    }
+
+    /**
+     * Marks this page as dirty/not dirty and record that transaction
+     * that did the dirtying
+     */
+    public void markDirty(boolean dirty, TransactionId tid) {
+        this.dirtier = dirty ? tid : null;
+    }
+
+    /**
+     * Returns the tid of the transaction that last dirtied this page, or null if the page is not dirty
+     */
+    public TransactionId isDirty() {
+        return dirtier;
+    }
+
+    /**
+     * @return a byte array for an empty page, valid for every kind of page
+     */
+    public static byte[] createEmptyPageData() {
+        return new byte[BufferPool.getPageSize()];
+    }
+}
@@ -0,0 +1,110 @@
+package simpledb;
+
+/** Unique identifier for the pages of a BTreeFile. */
+public class BTreePageId implements PageId {
+
+    /** Category of the root pointer page, always page 0 of the file. */
+    public final static int ROOT_PTR = 0;
+    /** Category of internal pages. */
+    public final static int INTERNAL = 1;
+    /** Category of leaf pages. */
+    public final static int LEAF = 2;
+    /** Category of the header pages that track free pages. */
+    public final static int HEADER = 3;
+
+    private final int tableId;
+    private final int pgNo;
+    private final int pgcateg;
+
+    /**
+     * Constructor. Create a page id structure for a specific page of a
+     * specific table.
+     *
+     * @param tableId The table that is being referenced
+     * @param pgNo The page number in that table.
+     * @param pgcateg which kind of page it is
+     */
+    public BTreePageId(int tableId, int pgNo, int pgcateg) {
+        this.tableId = tableId;
+        this.pgNo = pgNo;
+        this.pgcateg = pgcateg;
+    }
+
+    static String categToString(int categ) {
+        switch (categ) {
+        case ROOT_PTR:
+            return "ROOT_PTR";
+        case INTERNAL:
+            return "INTERNAL";
+        case LEAF:
+            return "LEAF";
+        case HEADER:
+            return "HEADER";
+        default:
+            return "UNKNOWN";
+        }
+    }
+
+    /** @return the table associated with this PageId */
+    public int getTableId() {
+        return tableId;
+    }
+
+    /**
+     * @return the page number in the table getTableId() associated with
+     *   this PageId
+     */
+    public int getPageNumber() {
+        return pgNo;
+    }
+
+    /**
+     * @return the category of this page, one of ROOT_PTR, INTERNAL, LEAF
+     *   and HEADER
+     */
+    public int pgcateg() {
+        return pgcateg;
+    }
+
+    /**
+     * @return a hash code for this page, represented by the concatenation of
+     *   the table number, page number and category
+     * @see BufferPool
+     */
+    public int hashCode() {
+        return ((31 * tableId) + pgNo) * 4 + pgcateg;
+    }
+
+    /**
+     * Compares one PageId to another.
+     *
+     * @param o The object to compare against (must be a PageId)
+     * @return true if the objects are equal (e.g., page numbers, table
+     *   ids and categories are the same)
+     */
+    public boolean equals(Object o) {
+        if (!(o instanceof BTreePageId)) {
+            return false;
+        }
+        BTreePageId pid = (BTreePageId) o;
+        return tableId == pid.tableId && pgNo == pid.pgNo && pgcateg == pid.pgcateg;
+    }
+
+    public String toString() {
+        return "(" + tableId + ", " + pgNo + ", " + categToString(pgcateg) + ")";
+    }
+
+    /**
+     *  Return a representation of this object as an array of
+     *  integers, for writing to disk.  Size of returned array must contain
+     *  number of integers that corresponds to number of args to one of the
+     *  constructors.
+     */
+    public int[] serialize() {
+        int data[] = new int[3];
+        data[0] = tableId;
+        data[1] = pgNo;
+        data[2] = pgcateg;
+        return data;
+    }
+}
@@ -0,0 +1,106 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+
+/**
+ * BTreeRootPtrPage is page 0 of every BTreeFile. It points to the root of
+ * the tree, which moves as the tree grows and shrinks, and to the first
+ * header page, if any. Its format is the root page number (an int), the
+ * root page category (a byte) and the first header page number (an int),
+ * followed by zero padding; 0 means "no page".
+ *
+ * @see BTreeFile
+ */
+public class BTreeRootPtrPage extends BTreePage {
+
+    private int root;
+    private int rootCategory;
+    private int header;
+
+    /**
+     * Create a BTreeRootPtrPage from a set of bytes of data read from disk.
+     */
+    public BTreeRootPtrPage(BTreePageId id, byte[] data) throws IOException {
+        super(id);
+        ByteBuffer buf = ByteBuffer.wrap(data);
+        this.root = buf.getInt();
+        this.rootCategory = buf.get();
+        this.header = buf.getInt();
+    }
+
+    /**
+     * @return the id of the root pointer page of table tableid
+     */
+    public static BTreePageId getId(int tableid) {
+        return new BTreePageId(tableid, 0, BTreePageId.ROOT_PTR);
+    }
+
+    /**
+     * @return the bytes of a root pointer page pointing to an empty root
+     *   leaf at page 1
+     */
+    public static byte[] createRootPageData() {
+        ByteBuffer buf = ByteBuffer.wrap(createEmptyPageData());
+        buf.putInt(1);
+        buf.put((byte) BTreePageId.LEAF);
+        return buf.array();
+    }
+
+    @Override
+    protected BTreePage newPage(byte[] data) throws IOException {
+        return new BTreeRootPtrPage(pid, data);
+    }
+
+    // see Page.java for javadocs
+    public void getPageData(ByteBuffer buf) {
+        int start = buf.position();
+        buf.putInt(root);
+        buf.put((byte) rootCategory);
+        buf.putInt(header);
+        pad(buf, start);
+    }
+
+    /**
+     * @return the id of the root page of the tree
+     */
+    public BTreePageId getRootId() {
+        return new BTreePageId(pid.getTableId(), root, rootCategory);
+    }
+
+    /**
+     * Points this page to a new root.
+     *
+     * @throws DbException if id is not a leaf or internal page of this table
+     */
+    public void setRootId(BTreePageId id) throws DbException {
+        if (id.getTableId() != pid.getTableId()
+                || (id.pgcateg() != BTreePageId.INTERNAL && id.pgcateg() != BTreePageId.LEAF)) {
+            throw new DbException("root must be an internal or leaf page of this table");
+        }
+        beforeModify();
+        root = id.getPageNumber();
+        rootCategory = id.pgcateg();
+    }
+
+    /**
+     * @return the id of the first header page, or null if there is none
+     */
+    public BTreePageId getHeaderId() {
+        if (header == 0) {
+            return null;
+        }
+        return new BTreePageId(pid.getTableId(), header, BTreePageId.HEADER);
+    }
+
+    /**
+     * Points this page to the first header page.
+     */
+    public void setHeaderId(BTreePageId id) throws DbException {
+        if (id.getTableId() != pid.getTableId() || id.pgcateg() != BTreePageId.HEADER) {
+            throw new DbException("not a header page of this table");
+        }
+        beforeModify();
+        header = id.getPageNumber();
+    }
+}
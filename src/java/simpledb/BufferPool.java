@@ -1,9 +1,11 @@
 package simpledb;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.util.*;
 import java.util.Map.Entry;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * BufferPool manages the reading and writing of pages into memory from
@@ -13,6 +15,31 @@ import java.util.concurrent.ConcurrentHashMap;
  * The BufferPool is also responsible for locking;  when a transaction fetches
  * a page, BufferPool checks that the transaction has the appropriate
  * locks to read/write the page.
+ * <p>
+ * An off-heap BufferPool keeps the pages of HeapFiles in the frames of a
+ * {@link PageArena} allocated outside the Java heap: cached pages are views
+ * over their frame. A page that a running transaction modifies is copied
+ * onto the heap, as before, and moves back into its frame once it is
+ * committed, rolled back or written out.
+ * <p>
+ * Which page is evicted when the pool is full is up to its
+ * {@link ReplacementPolicy}, CLOCK by default. Among the coldest quarter of
+ * the pool a clean page is evicted before a dirty one, which would have to be
+ * logged and written first. Scans of tables that do not fit into three
+ * quarters of the pool recycle the pages of a small {@link ScanRing}
+ * instead, so that they do not flush the working set of everybody else.
+ * <p>
+ * The page table is split into partitions by page id. Each partition has
+ * its own replacement policy and latch, which is held while pages enter or
+ * leave the partition; looking up a cached page takes no latch at all. The
+ * pool as a whole holds up to numPages pages: a partition that needs room
+ * evicts one of its own pages if it can, and otherwise one of the next
+ * partition's. No latch is held while a page is written, since LogFile
+ * calls into the pool with the log locked.
+ * <p>
+ * A background {@link PageCleaner} writes the dirty pages of completed
+ * transactions ahead of eviction, keeping a fraction of the pool clean or
+ * free, so that misses rarely have to write a page themselves.
  * 
  * @Threadsafe, all fields are final
  */
@@ -26,11 +53,39 @@ public class BufferPool {
     other classes. BufferPool should use the numPages argument to the
     constructor instead. */
     public static final int DEFAULT_PAGES = 50;
+
+    /** Default number of pages a sequential scan reads ahead of itself. */
+    public static final int DEFAULT_READ_AHEAD_PAGES = 8;
+
+    /** Default number of pages in the ring of a large sequential scan. */
+    public static final int DEFAULT_SCAN_RING_PAGES = 16;
+
+    /** Most partitions a pool is split into by default. */
+    public static final int MAX_PARTITIONS = 64;
+
+    /** Fewest pages per partition when the pool is split by default. */
+    public static final int MIN_PARTITION_PAGES = 64;
+
+    /** Default fraction of the pool the page cleaner keeps clean or free. */
+    public static final double DEFAULT_CLEAN_FRACTION = 0.1;
     
     // fields
     private int numPages;
-    private Map<PageId, Page> bufPool;
+    private final Partition[] partitions;
+    // pages cached in all partitions
+    private final AtomicInteger numCached;
     private LockManager lockManager;
+    private volatile int readAheadPages;
+    // background reads issued by prefetchPages that have not completed yet
+    private final Map<PageId, Prefetch> pendingReads;
+    private final ThreadPoolExecutor ioExecutor;
+    // frames of the cached pages in off-heap mode, null otherwise
+    private final PageArena arena;
+    // pages of HeapFiles cached on the heap because no frame was free
+    private final Set<PageId> unframed;
+    private final PageCleaner cleaner;
+    // run when the transaction commits, before its locks are released
+    private final Map<TransactionId, List<Runnable>> commitActions;
 
     /**
      * Creates a BufferPool that caches up to numPages pages.
@@ -38,11 +93,160 @@ public class BufferPool {
      * @param numPages maximum number of pages in this buffer pool.
      */
     public BufferPool(int numPages) {
+        this(numPages, false);
+    }
+
+    /**
+     * Creates a BufferPool that caches up to numPages pages, optionally in
+     * off-heap frames preallocated for all of them.
+     *
+     * @param numPages maximum number of pages in this buffer pool.
+     * @param offHeap true to keep the cached pages outside the Java heap
+     */
+    public BufferPool(int numPages, boolean offHeap) {
+        this(numPages, offHeap, new ClockPolicy());
+    }
+
+    /**
+     * Creates a BufferPool that caches up to numPages pages, optionally in
+     * off-heap frames, and evicts pages as the given policy decides.
+     *
+     * @param numPages maximum number of pages in this buffer pool.
+     * @param offHeap true to keep the cached pages outside the Java heap
+     * @param policy the replacement policy, used by this pool only
+     */
+    public BufferPool(int numPages, boolean offHeap, ReplacementPolicy policy) {
+        this(numPages, offHeap, policy,
+                Math.max(1, Math.min(MAX_PARTITIONS, numPages / MIN_PARTITION_PAGES)));
+    }
+
+    /**
+     * Creates a BufferPool that caches up to numPages pages in the given
+     * number of partitions.
+     *
+     * @param numPages maximum number of pages in this buffer pool.
+     * @param offHeap true to keep the cached pages outside the Java heap
+     * @param policy the replacement policy of the first partition; the
+     *   others get new policies of the same kind
+     * @param numPartitions the number of partitions
+     */
+    public BufferPool(int numPages, boolean offHeap, ReplacementPolicy policy, int numPartitions) {
         this.numPages = numPages;
-        this.bufPool = new ConcurrentHashMap<>();
+        this.partitions = new Partition[Math.max(1, numPartitions)];
+        for (int i = 0; i < partitions.length; i++) {
+            partitions[i] = new Partition(i, i == 0 ? policy : policy.newInstance());
+        }
+        this.numCached = new AtomicInteger();
+        this.arena = offHeap ? new PageArena(numPages, pageSize) : null;
+        this.unframed = Collections.newSetFromMap(new ConcurrentHashMap<PageId, Boolean>());
         this.lockManager = new LockManager();
+        this.commitActions = new ConcurrentHashMap<>();
+        this.readAheadPages = DEFAULT_READ_AHEAD_PAGES;
+        this.pendingReads = new ConcurrentHashMap<>();
+        // a single I/O thread that only exists while there is work for it
+        this.ioExecutor = new ThreadPoolExecutor(1, 1, 1, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                    public Thread newThread(Runnable r) {
+                        Thread t = new Thread(r, "BufferPool-io");
+                        t.setDaemon(true);
+                        return t;
+                    }
+                });
+        this.ioExecutor.allowCoreThreadTimeOut(true);
+        this.cleaner = new PageCleaner(this, numPages, DEFAULT_CLEAN_FRACTION);
     }
     
+    /**
+     * @return true if cached pages are kept in off-heap frames
+     */
+    public boolean isOffHeap() {
+        return arena != null;
+    }
+
+    /**
+     * @return the fraction of the pool the page cleaner keeps clean or free
+     */
+    public double getCleanFraction() {
+        return cleaner.getCleanFraction();
+    }
+
+    /**
+     * Sets the fraction of the pool the page cleaner keeps clean or free,
+     * between 0 and 1; 0 disables the cleaner.
+     */
+    public void setCleanFraction(double fraction) {
+        cleaner.setCleanFraction(fraction);
+    }
+
+    /**
+     * @return the number of partitions of the page table
+     */
+    public int getNumPartitions() {
+        return partitions.length;
+    }
+
+    /**
+     * One partition of the page table: the cached pages whose id hashes to
+     * it and their replacement state. The monitor of the partition is its
+     * latch. Pages are looked up without it, but are only added or removed
+     * while it is held, and only by the methods below.
+     */
+    private class Partition {
+        final int index;
+        final Map<PageId, Page> pages;
+        final ReplacementPolicy policy;
+
+        Partition(int index, ReplacementPolicy policy) {
+            this.index = index;
+            this.pages = new ConcurrentHashMap<PageId, Page>();
+            this.policy = policy;
+        }
+
+        /**
+         * Caches p, replacing any other version of it.
+         */
+        void put(PageId pid, Page p) {
+            if (pages.put(pid, p) == null) {
+                numCached.incrementAndGet();
+            }
+        }
+
+        /**
+         * Drops pid from the partition.
+         */
+        void remove(PageId pid) {
+            if (pages.remove(pid) != null) {
+                numCached.decrementAndGet();
+            }
+            policy.pageRemoved(pid);
+        }
+
+        /**
+         * @return the number of coldest pages of the partition among which a
+         *   clean page is evicted before a dirty one
+         */
+        int evictionWindow() {
+            return Math.max(1, numPages / partitions.length / 4);
+        }
+    }
+
+    /**
+     * @return the partition pid belongs to
+     */
+    private Partition partitionOf(PageId pid) {
+        int h = pid.hashCode();
+        // spread the page numbers, which fill the low bits
+        h ^= (h >>> 16);
+        return partitions[(h & 0x7fffffff) % partitions.length];
+    }
+
+    /**
+     * @return the cached version of pid, or null; takes no latch
+     */
+    private Page lookup(PageId pid) {
+        return partitionOf(pid).pages.get(pid);
+    }
+
     public static int getPageSize() {
         return pageSize;
     }
@@ -74,8 +278,18 @@ public class BufferPool {
      */
     public Page getPage(TransactionId tid, PageId pid, Permissions perm)
         throws TransactionAbortedException, DbException {
-        Page p;
-        
+        return getPage(tid, pid, perm, null);
+    }
+
+    /**
+     * Retrieves a page for a sequential scan, like {@link #getPage}. A page
+     * that is not cached yet is read into the ring of the scan, replacing
+     * the oldest page of the ring once it is full.
+     *
+     * @param ring the ring of the scan, or null for none
+     */
+    Page getPage(TransactionId tid, PageId pid, Permissions perm, ScanRing ring)
+        throws TransactionAbortedException, DbException {
         if (perm == Permissions.READ_ONLY) {
             // read only permission - acquire shared lock
             lockManager.acquireShared(tid, pid);
@@ -84,24 +298,362 @@ public class BufferPool {
             lockManager.acquireExclusive(tid, pid);
         }
         
-        p = bufPool.get(pid);
+        Page p = fetchPage(pid, ring);
+        partitionOf(pid).policy.pageAccessed(pid);
+        return p;
+    }
+
+    /**
+     * Acquires the lock on a page that {@link #getPage} would, without
+     * reading the page, e.g. for a page that is written around the pool.
+     */
+    void lockPage(TransactionId tid, PageId pid, Permissions perm)
+        throws TransactionAbortedException {
+        if (perm == Permissions.READ_ONLY) {
+            lockManager.acquireShared(tid, pid);
+        } else {
+            lockManager.acquireExclusive(tid, pid);
+        }
+    }
+
+    /**
+     * Runs action when tid commits, before its locks are released. Nothing
+     * is run if tid aborts.
+     */
+    void onCommit(TransactionId tid, Runnable action) {
+        List<Runnable> actions = commitActions.get(tid);
+        if (actions == null) {
+            actions = new ArrayList<Runnable>();
+            commitActions.put(tid, actions);
+        }
+        actions.add(action);
+    }
+
+    /**
+     * @return a ring for a sequential scan of a table with tablePages pages,
+     *   or null if the table fits into three quarters of the pool; such
+     *   tables are cached like any other, so that repeated scans of them,
+     *   e.g. as the inner side of a nested-loop join, hit the cache. The
+     *   ring holds at least the read-ahead window and two more pages, so
+     *   that read-ahead never recycles the page being scanned.
+     */
+    ScanRing newScanRing(int tablePages) {
+        if (tablePages <= numPages - numPages / 4) {
+            return null;
+        }
+        int size = Math.min(DEFAULT_SCAN_RING_PAGES, numPages / 8);
+        return new ScanRing(Math.max(size, getReadAheadPages() + 2));
+    }
+
+    /**
+     * Makes room in the ring of a scan for a page the scan is reading into
+     * the pool: the page pushed out of the ring leaves the pool unless it
+     * was modified meanwhile, in which case it is left to the replacement
+     * policy.
+     */
+    private void recycle(ScanRing ring, PageId pid) {
+        PageId old = ring.add(pid);
+        
+        if (old != null) {
+            Partition part = partitionOf(old);
+            
+            synchronized (part) {
+                Page p = part.pages.get(old);
+                
+                if (p != null && p.isDirty() == null) {
+                    invalidatePrefetch(old);
+                    uncache(part, old);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the cached version of a page, reading it into the pool if it
+     * is not cached.
+     *
+     * @param ring the ring to read the page into, or null for the pool
+     */
+    private Page fetchPage(PageId pid, ScanRing ring) throws DbException {
+        Page p = lookup(pid);
         
         if (p != null) {
            return p;
         }
         
-        p = Database.getCatalog().getDatabaseFile(pid.getTableId()).readPage(pid);
+        // a read-ahead of this page may already be in flight
+        Prefetch pending = pendingReads.get(pid);
+        if (pending != null) {
+            p = pending.await();
+            
+            Page cached = lookup(pid);
+            if (cached != null) {
+                return cached;
+            }
+        } else if ((p = lookup(pid)) != null) {
+            // a read-ahead completed since the lookup above
+            return p;
+        }
+        if (p == null) {
+            p = Database.getCatalog().getDatabaseFile(pid.getTableId()).readPage(pid);
+        }
+        if (ring != null) {
+            recycle(ring, pid);
+        }
+        cleaner.wake();
         
         // buffer pool is full, evict a page
-        while (bufPool.size() >= numPages) {
-            evictPage();
+        Partition part = partitionOf(pid);
+        while (numCached.get() >= numPages && evictPage(part)) {
         }
         // add page to buffer pool
-        bufPool.put(pid, p);
+        return cache(pid, p);
+    }
+
+    /**
+     * Puts a page read from disk into the pool, unless another thread
+     * cached it first. In off-heap mode a page of a HeapFile is copied into
+     * its frame and replaced by a view of the frame; if there is no frame to
+     * spare the page stays on the heap.
+     *
+     * @return the page as cached
+     */
+    private Page cache(PageId pid, Page p) {
+        Partition part = partitionOf(pid);
         
+        synchronized (part) {
+            Page cached = part.pages.get(pid);
+            if (cached != null) {
+                return cached;
+            }
+            part.policy.pageAdded(pid);
+            if (arena == null) {
+                part.put(pid, p);
+                return p;
+            }
+            return cacheInFrame(part, pid, p);
+        }
+    }
+
+    /**
+     * Caches a page that no running transaction is modifying in its frame,
+     * keeping its dirty mark. The caller holds the latch of part.
+     */
+    private Page cacheInFrame(Partition part, PageId pid, Page p) {
+        DbFile file = Database.getCatalog().getDatabaseFile(pid.getTableId());
+        
+        if (file instanceof HeapFile && arena.getFrameSize() == pageSize) {
+            ByteBuffer frame = arena.frame(pid);
+            
+            if (frame != null) {
+                try {
+                    p.getPageData(frame.duplicate());
+                    Page view = ((HeapFile) file).createPage((HeapPageId) pid, frame);
+                    TransactionId dirtier = p.isDirty();
+                    if (dirtier != null) {
+                        view.markDirty(true, dirtier);
+                    }
+                    p = view;
+                    unframed.remove(pid);
+                } catch (IOException e) {
+                    // the bytes came from a valid page; keep that one
+                    arena.release(pid);
+                }
+            } else {
+                unframed.add(pid);
+            }
+        }
+        part.put(pid, p);
         return p;
     }
 
+    /**
+     * Moves pages that no running transaction modifies any more back into
+     * their frames, unless another version of them was cached meanwhile.
+     */
+    private void rehome(Collection<Page> pages) {
+        if (arena == null) {
+            return;
+        }
+        for (Page p : pages) {
+            Partition part = partitionOf(p.getId());
+            
+            synchronized (part) {
+                if (part.pages.get(p.getId()) == p) {
+                    cacheInFrame(part, p.getId(), p);
+                }
+            }
+        }
+    }
+
+    /**
+     * Removes a page from the pool; the caller holds the latch of part. Its
+     * frame is kept as long as a transaction holds a lock on the page and
+     * may still read the old view; tuples handed out by the page get their
+     * own copy of its bytes right away.
+     */
+    private void uncache(Partition part, PageId pid) {
+        Page p = part.pages.get(pid);
+        part.remove(pid);
+        if (arena != null) {
+            if (p instanceof HeapPage) {
+                ((HeapPage) p).detachTuples();
+            }
+            unframed.remove(pid);
+            if (lockManager.isLocked(pid)) {
+                arena.retire(pid);
+            } else {
+                arena.release(pid);
+            }
+        }
+    }
+
+    /**
+     * Frees the frames of retired pages that are no longer locked, and
+     * moves clean pages that had to stay on the heap into the freed frames.
+     */
+    private void releaseRetiredFrames() {
+        for (PageId pid : arena.getRetired()) {
+            synchronized (partitionOf(pid)) {
+                if (!lockManager.isLocked(pid)) {
+                    arena.release(pid);
+                }
+            }
+        }
+        for (PageId pid : new ArrayList<PageId>(unframed)) {
+            if (arena.getNumFreeFrames() == 0) {
+                break;
+            }
+            Partition part = partitionOf(pid);
+            synchronized (part) {
+                Page p = part.pages.get(pid);
+                if (p == null) {
+                    unframed.remove(pid);
+                } else if (p.isDirty() == null) {
+                    cacheInFrame(part, pid, p);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the number of pages a sequential scan may read ahead of the
+     *   page it is on; capped at a quarter of the pool so that read-ahead
+     *   cannot flush the pool by itself.
+     */
+    public int getReadAheadPages() {
+        return Math.min(readAheadPages, numPages / 4);
+    }
+
+    /**
+     * Sets the read-ahead window of sequential scans; 0 disables read-ahead.
+     */
+    public void setReadAheadPages(int pages) {
+        this.readAheadPages = Math.max(0, pages);
+    }
+
+    /**
+     * Asynchronously reads the given pages into the buffer pool on the
+     * background I/O thread. No locks are acquired: a prefetched page only
+     * becomes visible through a later {@link #getPage}, which takes the lock
+     * as usual. Pages that are resident or already being read are skipped,
+     * and a prefetched page is only cached if there is a free frame or a
+     * clean page to replace.
+     *
+     * @param pids the pages to read, in the order they should be read
+     */
+    public void prefetchPages(List<PageId> pids) {
+        prefetchPages(pids, null);
+    }
+
+    /**
+     * Asynchronously reads the given pages into the ring of a scan, as
+     * {@link #prefetchPages(List)} reads them into the pool.
+     *
+     * @param ring the ring of the scan, or null for none
+     */
+    void prefetchPages(List<PageId> pids, ScanRing ring) {
+        for (PageId pid : pids) {
+            if (lookup(pid) != null) {
+                continue;
+            }
+            Prefetch task = new Prefetch(pid, ring);
+            if (pendingReads.putIfAbsent(pid, task) == null) {
+                ioExecutor.execute(task);
+            }
+        }
+    }
+
+    /**
+     * Cancels the effect of an in-flight prefetch of pid whose data may no
+     * longer match the page on disk or in the pool.
+     */
+    private void invalidatePrefetch(PageId pid) {
+        Prefetch pending = pendingReads.get(pid);
+        
+        if (pending != null) {
+            pending.valid = false;
+        }
+    }
+
+    /**
+     * A background read of one page. The page is installed only if nothing
+     * wrote or dropped the page while it was being read.
+     */
+    private class Prefetch implements Runnable {
+        private final PageId pid;
+        private final ScanRing ring;
+        private final CountDownLatch done = new CountDownLatch(1);
+        volatile boolean valid = true;
+        private Page page;
+
+        Prefetch(PageId pid, ScanRing ring) {
+            this.pid = pid;
+            this.ring = ring;
+        }
+
+        public void run() {
+            Page p = null;
+            try {
+                p = Database.getCatalog().getDatabaseFile(pid.getTableId()).readPage(pid);
+            } catch (RuntimeException e) {
+                // the table went away or the page does not exist; the reader
+                // that needs the page will hit the error itself
+            }
+            if (p != null && valid && lookup(pid) == null) {
+                Partition part = partitionOf(pid);
+                
+                if (ring != null) {
+                    recycle(ring, pid);
+                }
+                if (numCached.get() >= numPages) {
+                    evictCleanPage(part);
+                }
+                synchronized (part) {
+                    // discarding the page meanwhile invalidates this read
+                    if (valid) {
+                        page = numCached.get() < numPages ? cache(pid, p) : p;
+                    }
+                }
+            }
+            pendingReads.remove(pid);
+            done.countDown();
+        }
+
+        /**
+         * Waits for the read to finish.
+         * @return the page read, or null if it is not usable
+         */
+        Page await() {
+            try {
+                done.await();
+            } catch (InterruptedException e) {
+                return null;
+            }
+            return valid ? page : null;
+        }
+    }
+
     /**
      * Releases the lock on a page.
      * Calling this is very risky, and may result in wrong behavior. Think hard
@@ -113,6 +665,9 @@ public class BufferPool {
      */
     public void releasePage(TransactionId tid, PageId pid) {
         lockManager.release(tid, pid);
+        if (arena != null) {
+            releaseRetiredFrames();
+        }
     }
 
     /**
@@ -138,29 +693,61 @@ public class BufferPool {
      */
     public void transactionComplete(TransactionId tid, boolean commit)
         throws IOException {
-        Iterator<Entry<PageId, Page>> pages = bufPool.entrySet().iterator();
+        List<Page> committed = new ArrayList<Page>();
+        List<Page> restored = new ArrayList<Page>();
         
-        while (pages.hasNext()) {
-            Entry<PageId, Page> pageEntry = pages.next();
-            Page page = pageEntry.getValue();
-            PageId pid = pageEntry.getKey();
-            
-            if (tid.equals(page.isDirty())) {
+        for (Partition part : partitions) {
+            for (Page page : part.pages.values()) {
+                if (!tid.equals(page.isDirty())) {
+                    continue;
+                }
                 if (commit) {
-                    Database.getLogFile().logWrite(tid, page.getBeforeImage(), page);
-                    Database.getLogFile().force();
-                    // use current page contents as the before-image
-                    // for the next transaction that modifies this page.
-                    page.setBeforeImage();
+                    Database.getLogFile().logWrite(tid, page);
+                    committed.add(page);
                 } else {
                     // abort, revert changes made by the transaction
                     // by restoring the page to its on-disk state
-                    bufPool.put(pid, page.getBeforeImage());
+                    Page before = page.getBeforeImage();
+                    synchronized (part) {
+                        part.put(page.getId(), before);
+                    }
+                    restored.add(before);
                 }
             }
         }
+        if (!committed.isEmpty()) {
+            // one force covers the update records of every page
+            Database.getLogFile().force();
+            // use current page contents as the before-image
+            // for the next transaction that modifies this page.
+            for (Page page : committed) {
+                page.setBeforeImage();
+            }
+        }
+        for (Page page : restored) {
+            // the free space map still has the aborted version's space
+            DbFile file = Database.getCatalog().getDatabaseFile(page.getId().getTableId());
+            if (file instanceof HeapFile) {
+                ((HeapFile) file).refreshFreeSpace(page);
+            }
+        }
+        rehome(committed);
+        rehome(restored);
+        List<Runnable> actions = commitActions.remove(tid);
+        if (commit && actions != null) {
+            for (Runnable action : actions) {
+                action.run();
+            }
+        }
         // release all locks that the transaction held
         lockManager.releaseAll(tid);
+        if (arena != null) {
+            releaseRetiredFrames();
+        }
+        if (!committed.isEmpty()) {
+            // its pages can be written now that nobody holds them
+            cleaner.wake();
+        }
     }
 
     /**
@@ -174,17 +761,19 @@ public class BufferPool {
      * been dirtied to the cache (replacing any existing versions of those pages) so 
      * that future requests see up-to-date pages. 
      *
+     * The indexes of the table get an entry for the tuple as well.
+     *
      * @param tid the transaction adding the tuple
      * @param tableId the table to add the tuple to
      * @param t the tuple to add
      */
     public void insertTuple(TransactionId tid, int tableId, Tuple t)
         throws DbException, IOException, TransactionAbortedException {
-        ArrayList<Page> pages = Database.getCatalog().getDatabaseFile(tableId).insertTuple(tid, t);
+        Catalog catalog = Database.getCatalog();
         
-        for (Page p : pages) {
-            p.markDirty(true, tid);
-            bufPool.put(p.getId(), p);
+        cacheDirtyPages(tid, catalog.getDatabaseFile(tableId).insertTuple(tid, t));
+        for (TableIndex index : catalog.getIndexes(tableId)) {
+            cacheDirtyPages(tid, index.insertEntry(tid, t));
         }
     }
 
@@ -198,17 +787,41 @@ public class BufferPool {
      * been dirtied to the cache (replacing any existing versions of those pages) so 
      * that future requests see up-to-date pages. 
      *
+     * The entries of the tuple are removed from the indexes of its table.
+     *
      * @param tid the transaction deleting the tuple.
      * @param t the tuple to delete
      */
     public void deleteTuple(TransactionId tid, Tuple t)
         throws DbException, IOException, TransactionAbortedException {
-        ArrayList<Page> pages = Database.getCatalog().getDatabaseFile(
-                t.getRecordId().getPageId().getTableId()).deleteTuple(tid, t);
+        Catalog catalog = Database.getCatalog();
+        RecordId rid = t.getRecordId();
+        int tableId = rid.getPageId().getTableId();
         
+        cacheDirtyPages(tid, catalog.getDatabaseFile(tableId).deleteTuple(tid, t));
+        for (TableIndex index : catalog.getIndexes(tableId)) {
+            cacheDirtyPages(tid, index.deleteEntry(tid, t, rid));
+        }
+    }
+
+    /**
+     * Marks pages that tid modified as dirty and caches them, replacing any
+     * other versions in the pool.
+     */
+    private void cacheDirtyPages(TransactionId tid, List<Page> pages) {
         for (Page p : pages) {
+            Partition part = partitionOf(p.getId());
+            
             p.markDirty(true, tid);
-            bufPool.put(p.getId(), p);
+            synchronized (part) {
+                Page old = part.pages.get(p.getId());
+                if (old != p && old instanceof HeapPage) {
+                    // its frame will receive p's bytes at commit
+                    ((HeapPage) old).detachTuples();
+                }
+                part.policy.pageAdded(p.getId());
+                part.put(p.getId(), p);
+            }
         }
     }
 
@@ -218,9 +831,17 @@ public class BufferPool {
      *     break simpledb if running in NO STEAL mode.
      */
     public synchronized void flushAllPages() throws IOException {
-        for (Page p : bufPool.values()) {
-            flushPage(p.getId());
+        List<Page> dirty = new ArrayList<Page>();
+        
+        for (Partition part : partitions) {
+            for (Page p : part.pages.values()) {
+                if (p.isDirty() != null) {
+                    dirty.add(p);
+                }
+            }
         }
+        writePages(dirty);
+        rehomeClean(dirty);
     }
 
     /** Remove the specific page id from the buffer pool.
@@ -231,75 +852,255 @@ public class BufferPool {
         Also used by B+ tree files to ensure that deleted pages
         are removed from the cache so they can be reused safely
     */
-    public synchronized void discardPage(PageId pid) {
-        bufPool.remove(pid);
+    public void discardPage(PageId pid) {
+        Partition part = partitionOf(pid);
+        
+        synchronized (part) {
+            invalidatePrefetch(pid);
+            uncache(part, pid);
+        }
+    }
+
+    /** Write all pages of the specified transaction to disk.
+     */
+    public synchronized void flushPages(TransactionId tid) throws IOException {
+        List<Page> dirty = new ArrayList<Page>();
+        
+        for (Partition part : partitions) {
+            for (Page p : part.pages.values()) {
+                if (tid.equals(p.isDirty())) {
+                    dirty.add(p);
+                }
+            }
+        }
+        writePages(dirty);
+        rehomeClean(dirty);
     }
 
     /**
-     * Flushes a certain page to disk
-     * @param pid an ID indicating the page to flush
+     * Writes dirty pages of completed transactions to disk, the log first,
+     * until target pages of the pool are clean or free. A page is written
+     * under a shared lock, so that no transaction modifies it meanwhile;
+     * pages locked exclusively are left alone.
+     *
+     * @param target the number of pages that should be clean or free
+     * @param max the most pages to write
+     * @return the number of pages written
      */
-    private synchronized void flushPage(PageId pid) throws IOException {
-        Page p = bufPool.get(pid);
+    int cleanPages(int target, int max) throws IOException {
+        int clean = numPages - numCached.get();
+        List<Page> dirty = new ArrayList<Page>();
         
-        if (p == null) {
-            throw new IOException();
+        for (Partition part : partitions) {
+            for (Page p : part.pages.values()) {
+                if (p.isDirty() == null) {
+                    clean++;
+                } else if (!lockManager.isLocked(p.getId())) {
+                    dirty.add(p);
+                }
+            }
+        }
+        int wanted = Math.min(target - clean, max);
+        if (wanted <= 0 || dirty.isEmpty()) {
+            return 0;
+        }
+        
+        TransactionId cleanerTid = new TransactionId();
+        List<Page> batch = new ArrayList<Page>();
+        try {
+            for (Page p : dirty) {
+                if (batch.size() >= wanted) {
+                    break;
+                }
+                // the page may have been written, dropped or locked since
+                if (lockManager.tryAcquireShared(cleanerTid, p.getId())
+                        && p.isDirty() != null && lookup(p.getId()) == p) {
+                    batch.add(p);
+                }
+            }
+            writePages(batch);
+            rehomeClean(batch);
+        } finally {
+            lockManager.releaseAll(cleanerTid);
+            if (arena != null) {
+                releaseRetiredFrames();
+            }
         }
+        return batch.size();
+    }
+
+    /**
+     * Moves the pages of a batch that writing them made clean back into
+     * their frames; pages of running transactions stay where they are.
+     */
+    private void rehomeClean(List<Page> written) {
+        List<Page> clean = new ArrayList<Page>();
         
-        // append an update record to the log, with
-        // a before-image and after-image.
-        TransactionId dirtier = p.isDirty();
+        for (Page p : written) {
+            if (p.isDirty() == null) {
+                clean.add(p);
+            }
+        }
+        rehome(clean);
+    }
+
+    /**
+     * Writes a batch of pages to disk. An update record with a before-image
+     * and after-image is appended to the log for every dirty page, and the
+     * log is forced once for the whole batch before any page is written.
+     * The pages are then written table by table in page number order, so
+     * that adjacent pages of a HeapFile go out in a single gathering write.
+     * <p>
+     * A page whose dirtier has completed is clean once written; pages of
+     * running transactions stay dirty so that an abort still rolls them back.
+     */
+    private synchronized void writePages(Collection<Page> pages) throws IOException {
+        if (pages.isEmpty()) {
+            return;
+        }
+        LogFile log = Database.getLogFile();
+        Map<Integer, List<Page>> byTable = new HashMap<Integer, List<Page>>();
+        boolean logged = false;
+        
+        for (Page p : pages) {
+            TransactionId dirtier = p.isDirty();
+            
+            if (dirtier != null) {
+                log.logWrite(dirtier, p);
+                logged = true;
+            }
+            invalidatePrefetch(p.getId());
+            
+            List<Page> tablePages = byTable.get(p.getId().getTableId());
+            if (tablePages == null) {
+                tablePages = new ArrayList<Page>();
+                byTable.put(p.getId().getTableId(), tablePages);
+            }
+            tablePages.add(p);
+        }
+        if (logged) {
+            log.force();
+        }
         
-        if (dirtier != null){
-          Database.getLogFile().logWrite(dirtier, p.getBeforeImage(), p);
-          Database.getLogFile().force();
+        for (Entry<Integer, List<Page>> table : byTable.entrySet()) {
+            List<Page> tablePages = table.getValue();
+            Collections.sort(tablePages, new Comparator<Page>() {
+                public int compare(Page a, Page b) {
+                    return Integer.compare(a.getId().getPageNumber(), b.getId().getPageNumber());
+                }
+            });
+            DbFile file = Database.getCatalog().getDatabaseFile(table.getKey());
+            
+            if (file instanceof HeapFile) {
+                ((HeapFile) file).writePages(tablePages);
+            } else {
+                for (Page p : tablePages) {
+                    file.writePage(p);
+                }
+            }
         }
         
-        Database.getCatalog().getDatabaseFile(pid.getTableId()).writePage(p);
-//        p.markDirty(false, null);
+        for (Page p : pages) {
+            TransactionId dirtier = p.isDirty();
+            
+            if (dirtier != null && !holdsLock(dirtier, p.getId())) {
+                p.markDirty(false, null);
+            }
+        }
     }
 
-    /** Write all pages of the specified transaction to disk.
+    /**
+     * Picks the page of a partition to evict among the candidates of its
+     * replacement policy: the coldest clean page, or the coldest page if all
+     * of them are dirty and cleanOnly is false. The caller holds the latch
+     * of part.
+     *
+     * @return the page to evict, or null if there is none
      */
-    public synchronized void flushPages(TransactionId tid) throws IOException {
-        Iterator<Entry<PageId, Page>> pages = bufPool.entrySet().iterator();
+    private PageId chooseVictim(Partition part, boolean cleanOnly) {
+        PageId coldest = null;
         
-        while (pages.hasNext()) {
-            Entry<PageId, Page> pageEntry = pages.next();
-            Page page = pageEntry.getValue();
-            PageId pid = pageEntry.getKey();
+        for (PageId pid : part.policy.evictionCandidates(part.evictionWindow())) {
+            Page p = part.pages.get(pid);
+            
+            if (p == null) {
+                // left the pool behind the policy's back
+                part.policy.pageRemoved(pid);
+            } else if (p.isDirty() == null) {
+                return pid;
+            } else if (coldest == null) {
+                coldest = pid;
+            }
+        }
+        if (coldest == null && !cleanOnly && !part.pages.isEmpty()) {
+            // the candidates were all stale
+            coldest = part.pages.keySet().iterator().next();
+        }
+        return cleanOnly ? null : coldest;
+    }
+
+    /**
+     * Drops one clean page from the buffer pool to make room for a
+     * prefetched page, trying the partitions from start on; dirty pages are
+     * never written for read-ahead.
+     * @return true if a page was dropped
+     */
+    private boolean evictCleanPage(Partition start) {
+        for (int i = 0; i < partitions.length; i++) {
+            Partition part = partitions[(start.index + i) % partitions.length];
             
-            if (tid.equals(page.isDirty())) {
-                flushPage(pid);
-            }
-        }
-    }
-
-    /**
-     * Discards a page from the buffer pool.
-     * Flushes the page to disk to ensure dirty pages are updated on disk.
-     */
-    private synchronized void evictPage() throws DbException {
-         if (!bufPool.isEmpty()) {
-             Iterator<PageId> pids = bufPool.keySet().iterator();
-             
-             while (bufPool.size() >= numPages && pids.hasNext()) {
-                 PageId pid = pids.next();
-                 
-                 // STEAL - can flush any
-                 try {
-                    flushPage(pid);
-                    bufPool.remove(pid);
-                    
-                 } catch (IOException e) {
-                     // TODO Auto-generated catch block
-                     e.printStackTrace();
-                 }
-             }
-             // all pages are dirty, throw a DbException
-             if (bufPool.size() >= numPages) {
-                 throw new DbException("all pages are dirty");
-             }
-         }
+            synchronized (part) {
+                PageId victim = chooseVictim(part, true);
+                
+                if (victim != null) {
+                    invalidatePrefetch(victim);
+                    uncache(part, victim);
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Discards a page from the buffer pool, as chosen by the replacement
+     * policy of the first partition from start on that has a page to evict.
+     * A dirty page is flushed to disk first (STEAL); the latch is released
+     * meanwhile, since the log must not be locked under it.
+     * @return true if a page was evicted
+     */
+    private boolean evictPage(Partition start) throws DbException {
+        for (int i = 0; i < partitions.length; i++) {
+            Partition part = partitions[(start.index + i) % partitions.length];
+            PageId victim;
+            Page page;
+            
+            synchronized (part) {
+                victim = chooseVictim(part, false);
+                if (victim == null) {
+                    continue;
+                }
+                page = part.pages.get(victim);
+                if (page.isDirty() == null) {
+                    invalidatePrefetch(victim);
+                    uncache(part, victim);
+                    return true;
+                }
+            }
+            try {
+                writePages(Collections.singletonList(page));
+            } catch (IOException e) {
+                throw new DbException("could not flush page " + victim + ": " + e.getMessage());
+            }
+            synchronized (part) {
+                // unless a newer version was cached while it was written
+                if (part.pages.get(victim) == page) {
+                    invalidatePrefetch(victim);
+                    uncache(part, victim);
+                }
+            }
+            return true;
+        }
+        return false;
     }
 }
@@ -0,0 +1,315 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * BulkLoader appends the rows of a delimited text file to a HeapFile (or
+ * any of its layouts) without going through the BufferPool one tuple at a
+ * time.
+ * <p>
+ * The input is split into chunks at line boundaries. Worker threads parse
+ * the chunks in parallel and pack their rows into full pages in memory;
+ * the loading thread then appends the pages of each chunk, in input order,
+ * to the end of the file. Only a few chunks are in memory at any time.
+ * <p>
+ * Instead of an UPDATE record per page, each chunk is logged with a single
+ * BULK_LOAD record naming its page range, written before the pages. The
+ * pages are forced to disk before load returns, so the transaction may
+ * commit right after; if it aborts instead, the pages are emptied again.
+ * <p>
+ * The loaded pages are written around the BufferPool, but the loading
+ * transaction locks them exclusively first, so other transactions only
+ * see their tuples once it commits. The free space map keeps inserts away
+ * from them until then; their free space is published at commit.
+ * <p>
+ * The indexes of the table are updated through the BufferPool as usual.
+ *
+ * @see LogFile#logBulkLoad
+ */
+public class BulkLoader {
+
+    /** Default size of the input chunks parsed by one worker, in bytes. */
+    public static final int DEFAULT_CHUNK_SIZE = 1 << 22;
+
+    private final HeapFile file;
+    private final TupleDesc td;
+    private final char fieldSeparator;
+    private int numThreads = Runtime.getRuntime().availableProcessors();
+    private int chunkSize = DEFAULT_CHUNK_SIZE;
+
+    /**
+     * Constructor.
+     *
+     * @param file
+     *            the table to load into; must be in the Catalog
+     * @param fieldSeparator
+     *            the character between the fields of an input line
+     */
+    public BulkLoader(HeapFile file, char fieldSeparator) {
+        this.file = file;
+        this.td = file.getTupleDesc();
+        this.fieldSeparator = fieldSeparator;
+    }
+
+    /**
+     * Sets the number of threads that parse input chunks.
+     */
+    public void setNumThreads(int numThreads) {
+        this.numThreads = Math.max(1, numThreads);
+    }
+
+    /**
+     * Sets the approximate size of an input chunk, in bytes.
+     */
+    public void setChunkSize(int chunkSize) {
+        this.chunkSize = Math.max(1, chunkSize);
+    }
+
+    /**
+     * Appends the rows of input to the table. Each line holds one row, its
+     * fields separated by the field separator; integer fields are parsed
+     * and string fields are trimmed and truncated to Type.STRING_LEN.
+     * Malformed lines are reported and skipped.
+     *
+     * @param tid
+     *            the loading transaction, which must have been started
+     * @param input
+     *            the text file to load
+     * @return the number of rows loaded
+     */
+    public long load(TransactionId tid, File input)
+            throws IOException, DbException, TransactionAbortedException {
+        List<long[]> chunks = split(input);
+        ExecutorService workers = Executors.newFixedThreadPool(numThreads);
+        Deque<Future<Chunk>> pending = new ArrayDeque<Future<Chunk>>();
+        FileChannel in = new RandomAccessFile(input, "r").getChannel();
+        long rows = 0;
+
+        try {
+            int next = 0;
+
+            while (next < chunks.size() || !pending.isEmpty()) {
+                // keep every worker busy, but only a few chunks in memory
+                while (next < chunks.size() && pending.size() < 2 * numThreads) {
+                    final long[] range = chunks.get(next++);
+                    final FileChannel ch = in;
+                    pending.add(workers.submit(new Callable<Chunk>() {
+                        public Chunk call() throws Exception {
+                            return pack(ch, range[0], range[1]);
+                        }
+                    }));
+                }
+                Chunk chunk = await(pending.poll());
+                append(tid, chunk.pages);
+                rows += chunk.rows;
+            }
+            file.force();
+        } finally {
+            workers.shutdownNow();
+            in.close();
+        }
+        return rows;
+    }
+
+    /** The packed pages of one input chunk. */
+    private static class Chunk {
+        final List<byte[]> pages = new ArrayList<byte[]>();
+        long rows;
+    }
+
+    private static Chunk await(Future<Chunk> f) throws IOException, DbException {
+        try {
+            return f.get();
+        } catch (InterruptedException e) {
+            throw new IOException("bulk load interrupted");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof DbException) {
+                throw (DbException) cause;
+            }
+            throw new RuntimeException(cause);
+        }
+    }
+
+    /**
+     * Splits input into ranges of about chunkSize bytes that start and end
+     * at line boundaries.
+     */
+    private List<long[]> split(File input) throws IOException {
+        List<long[]> chunks = new ArrayList<long[]>();
+        RandomAccessFile raf = new RandomAccessFile(input, "r");
+
+        try {
+            long len = raf.length();
+            long start = 0;
+
+            while (start < len) {
+                long end = Math.min(start + chunkSize, len);
+
+                if (end < len) {
+                    raf.seek(end);
+                    int c;
+                    while ((c = raf.read()) != -1 && c != '\n') {
+                        // skip to the end of the line
+                    }
+                    end = raf.getFilePointer();
+                }
+                chunks.add(new long[] { start, end });
+                start = end;
+            }
+        } finally {
+            raf.close();
+        }
+        return chunks;
+    }
+
+    /**
+     * Parses the lines of input between start and end and packs them into
+     * pages.
+     */
+    private Chunk pack(FileChannel in, long start, long end) throws IOException, DbException {
+        ByteBuffer buf = ByteBuffer.allocate((int) (end - start));
+        long pos = start;
+
+        while (buf.hasRemaining()) {
+            int n = in.read(buf, pos);
+            if (n < 0) {
+                break;
+            }
+            pos += n;
+        }
+        byte[] bytes = buf.array();
+        int len = buf.position();
+        Chunk chunk = new Chunk();
+        Page page = null;
+        int lineStart = 0;
+
+        for (int i = 0; i <= len; i++) {
+            if (i < len && bytes[i] != '\n') {
+                continue;
+            }
+            int lineEnd = i;
+            // ignore Windows/Notepad special line endings
+            if (lineEnd > lineStart && bytes[lineEnd - 1] == '\r') {
+                lineEnd--;
+            }
+            if (lineEnd > lineStart) {
+                String line = new String(bytes, lineStart, lineEnd - lineStart, "ISO-8859-1");
+                Tuple t = parse(line);
+
+                if (t != null) {
+                    if (page == null || !file.insertIntoPage(page, t)) {
+                        if (page != null) {
+                            chunk.pages.add(page.getPageData());
+                        }
+                        page = newPage();
+                        if (!file.insertIntoPage(page, t)) {
+                            throw new DbException("tuple does not fit on an empty page");
+                        }
+                    }
+                    chunk.rows++;
+                }
+            }
+            lineStart = i + 1;
+        }
+        if (page != null) {
+            chunk.pages.add(page.getPageData());
+        }
+        return chunk;
+    }
+
+    private Page newPage() throws IOException {
+        // the page number is assigned when the page is appended
+        return file.createPage(new HeapPageId(file.getId(), 0),
+                ByteBuffer.wrap(HeapPage.createEmptyPageData()));
+    }
+
+    /**
+     * @return the tuple of one input line, or null if the line is malformed
+     */
+    private Tuple parse(String line) {
+        Tuple t = new Tuple(td);
+        int fieldStart = 0;
+
+        for (int i = 0; i < td.numFields(); i++) {
+            int fieldEnd = line.indexOf(fieldSeparator, fieldStart);
+            boolean last = i == td.numFields() - 1;
+
+            if (last != (fieldEnd < 0)) {
+                System.out.println("BAD LINE : " + line);
+                return null;
+            }
+            String s = line.substring(fieldStart, last ? line.length() : fieldEnd).trim();
+
+            if (td.getFieldType(i) == Type.INT_TYPE) {
+                try {
+                    t.setField(i, new IntField(Integer.parseInt(s)));
+                } catch (NumberFormatException e) {
+                    System.out.println("BAD LINE : " + line);
+                    return null;
+                }
+            } else {
+                t.setField(i, new StringField(s, Type.STRING_LEN));
+            }
+            fieldStart = fieldEnd + 1;
+        }
+        return t;
+    }
+
+    /**
+     * Logs and appends the pages of one chunk at the end of the file.
+     */
+    private void append(TransactionId tid, List<byte[]> data)
+            throws IOException, DbException, TransactionAbortedException {
+        if (data.isEmpty()) {
+            return;
+        }
+        final int n = data.size();
+        final int first = file.reservePages(n);
+        BufferPool bp = Database.getBufferPool();
+        // the record must be on disk before any of the pages; logged before
+        // locking, an abort while waiting for a lock releases the pages too
+        Database.getLogFile().logBulkLoad(tid, file.getId(), first, n);
+        for (int i = 0; i < n; i++) {
+            // a scan may still hold the reserved, empty page
+            bp.lockPage(tid, new HeapPageId(file.getId(), first + i), Permissions.READ_WRITE);
+        }
+        bp.onCommit(tid, new Runnable() {
+            public void run() {
+                file.releasePages(first, n);
+            }
+        });
+
+        List<Page> pages = new ArrayList<Page>(n);
+        for (int i = 0; i < n; i++) {
+            pages.add(file.createPage(new HeapPageId(file.getId(), first + i),
+                    ByteBuffer.wrap(data.get(i))));
+        }
+        file.writePages(pages);
+
+        FreeSpaceMap fsm = file.getFreeSpaceMap();
+        List<TableIndex> indexes = Database.getCatalog().getIndexes(file.getId());
+        for (Page p : pages) {
+            // recorded, but only published when the load commits
+            file.updateFreeSpace(fsm, p);
+            // a scan may have seen the page empty
+            file.updateZones(p);
+            // index entries are logged like any other update
+            for (TableIndex index : indexes) {
+                Iterator<Tuple> it = file.pageIterator(p);
+                while (it.hasNext()) {
+                    bp.insertTuple(tid, index.getFile().getId(), index.entryOf(it.next()));
+                }
+            }
+            // a scan may have cached the reserved, empty page
+            bp.discardPage(p.getId());
+        }
+    }
+}
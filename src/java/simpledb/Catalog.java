@@ -22,6 +22,7 @@ public class Catalog {
     private Map<Integer, DbFile> idToFile;
     private Map<Integer, String> idToTableName;
     private Map<Integer, String> idToPKey;
+    private Map<Integer, List<TableIndex>> idToIndexes;
     
     /**
      * Constructor.
@@ -32,6 +33,7 @@ public class Catalog {
         idToFile = new HashMap<>();
         idToTableName = new HashMap<>();
         idToPKey = new HashMap<>();
+        idToIndexes = new HashMap<>();
     }
 
     /*
@@ -45,6 +47,11 @@ public class Catalog {
      */
     public void addTable(DbFile file, String name, String pkeyField) {
         int fileId = file.getId();
+        DbFile old = idToFile.get(fileId);
+        // the replaced file is no longer reachable, release its channel
+        if (old != null && old != file) {
+            old.close();
+        }
         tableNameToId.put(name, fileId);
         idToFile.put(fileId, file);
         idToTableName.put(fileId, name);
@@ -117,17 +124,93 @@ public class Catalog {
     public String getTableName(int id) {
         return idToTableName.get(id);
     }
+
+    /**
+     * Records an index of a table. The index file becomes readable through
+     * getDatabaseFile(), but is not listed as a table of its own.
+     * @param index the index; its table must already be in the catalog
+     */
+    public void addIndex(TableIndex index) {
+        if (!idToFile.containsKey(index.getTableId())) {
+            throw new NoSuchElementException();
+        }
+        idToFile.put(index.getFile().getId(), index.getFile());
+        List<TableIndex> indexes = idToIndexes.get(index.getTableId());
+        if (indexes == null) {
+            indexes = new ArrayList<TableIndex>();
+            idToIndexes.put(index.getTableId(), indexes);
+        }
+        indexes.add(index);
+    }
+
+    /**
+     * @return the indexes of the specified table, an empty list if it has
+     *   none
+     */
+    public List<TableIndex> getIndexes(int tableid) {
+        List<TableIndex> indexes = idToIndexes.get(tableid);
+        if (indexes == null) {
+            return Collections.emptyList();
+        }
+        return Collections.unmodifiableList(indexes);
+    }
+
+    /**
+     * @return an index of the specified table on field that can find the
+     *   keys k with "k op value", preferring hash indexes for equality;
+     *   null if there is none
+     */
+    public TableIndex getIndex(int tableid, int field, Predicate.Op op) {
+        TableIndex best = null;
+        for (TableIndex index : getIndexes(tableid)) {
+            if (index.getField() == field && index.supports(op)
+                    && (best == null || index.isHash())) {
+                best = index;
+            }
+        }
+        return best;
+    }
     
-    /** Delete all tables from the catalog */
+    /** Delete all tables from the catalog, closing their files */
     public void clear() {
+        for (DbFile file : idToFile.values()) {
+            file.close();
+        }
         tableNameToId.clear();
         idToFile.clear();
         idToPKey.clear();
         idToTableName.clear();
+        idToIndexes.clear();
     }
     
+    /**
+     * Fills a new index from its table in a transaction of its own.
+     */
+    private static void buildIndex(TableIndex index) throws IOException {
+        Transaction t = new Transaction();
+        t.start();
+        try {
+            index.build(t.getId());
+            t.commit();
+        } catch (DbException | TransactionAbortedException e) {
+            t.abort();
+            throw new IOException("could not build " + index + ": " + e.getMessage());
+        }
+    }
+
     /**
      * Reads the schema from a file and creates the appropriate tables in the database.
+     * Each line has the form <tt>name (field type [pk] [btree|hash], ...) [options]</tt>.
+     * A field annotated <tt>btree</tt> or <tt>hash</tt> gets a {@link TableIndex}
+     * of that kind, stored next to the table as <tt>name.field.btree</tt> or
+     * <tt>name.field.hash</tt> and built from the table if the file is new.
+     * The options are <tt>mmap</tt>, which reads the table's pages through
+     * memory mappings (see {@link HeapFile#HeapFile(File, TupleDesc, boolean)}),
+     * <tt>pax</tt>, which opens the table as a column-wise {@link PaxFile},
+     * <tt>slotted</tt>, which opens it as a {@link SlottedFile} of
+     * variable-length records, <tt>dict</tt>, which additionally stores
+     * the string columns of a slotted table as dictionary codes, and
+     * <tt>compressed</tt>, which opens it as a {@link CompressedHeapFile}.
      * @param catalogFile
      */
     public void loadSchema(String catalogFile) {
@@ -145,6 +228,8 @@ public class Catalog {
                 ArrayList<String> names = new ArrayList<String>();
                 ArrayList<Type> types = new ArrayList<Type>();
                 String primaryKey = "";
+                // field name and kind of each index
+                ArrayList<String[]> indexed = new ArrayList<String[]>();
                 for (String e : els) {
                     String[] els2 = e.trim().split(" ");
                     names.add(els2[0].trim());
@@ -156,11 +241,39 @@ public class Catalog {
                         System.out.println("Unknown type " + els2[1]);
                         System.exit(0);
                     }
-                    if (els2.length == 3) {
-                        if (els2[2].trim().equals("pk"))
+                    for (int k = 2; k < els2.length; k++) {
+                        String ann = els2[k].trim();
+                        if (ann.equals("pk"))
                             primaryKey = els2[0].trim();
+                        else if (ann.equals("btree") || ann.equals("hash"))
+                            indexed.add(new String[] { els2[0].trim(), ann });
                         else {
-                            System.out.println("Unknown annotation " + els2[2]);
+                            System.out.println("Unknown annotation " + ann);
+                            System.exit(0);
+                        }
+                    }
+                }
+                // optional storage flags follow the column list
+                boolean memoryMapped = false;
+                boolean dict = false;
+                // page layout: heap (default), pax, slotted or compressed
+                String layout = "heap";
+                String options = line.substring(line.indexOf(")") + 1).trim();
+                if (!options.isEmpty()) {
+                    for (String opt : options.split("\\s+")) {
+                        opt = opt.toLowerCase();
+                        if (opt.equals("mmap"))
+                            memoryMapped = true;
+                        else if (opt.equals("dict"))
+                            dict = true;
+                        else if (opt.equals("pax") || opt.equals("slotted") || opt.equals("compressed")) {
+                            if (!layout.equals("heap")) {
+                                System.out.println("Table options " + layout + " and " + opt + " are exclusive");
+                                System.exit(0);
+                            }
+                            layout = opt;
+                        } else {
+                            System.out.println("Unknown table option " + opt);
                             System.exit(0);
                         }
                     }
@@ -168,9 +281,39 @@ public class Catalog {
                 Type[] typeAr = types.toArray(new Type[0]);
                 String[] namesAr = names.toArray(new String[0]);
                 TupleDesc t = new TupleDesc(typeAr, namesAr);
-                HeapFile tabHf = new HeapFile(new File(baseFolder+"/"+name + ".dat"), t);
+                if (memoryMapped && (layout.equals("pax") || layout.equals("compressed"))) {
+                    System.out.println("Table option mmap is not supported for " + layout + " tables");
+                    System.exit(0);
+                }
+                if (dict && !layout.equals("slotted")) {
+                    System.out.println("Table option dict requires slotted");
+                    System.exit(0);
+                }
+                File dataFile = new File(baseFolder+"/"+name + ".dat");
+                HeapFile tabHf;
+                if (layout.equals("pax"))
+                    tabHf = new PaxFile(dataFile, t);
+                else if (layout.equals("slotted"))
+                    tabHf = new SlottedFile(dataFile, t, memoryMapped, dict);
+                else if (layout.equals("compressed"))
+                    tabHf = new CompressedHeapFile(dataFile, t);
+                else
+                    tabHf = new HeapFile(dataFile, t, memoryMapped);
                 addTable(tabHf,name,primaryKey);
                 System.out.println("Added table : " + name + " with schema " + t);
+                for (String[] idx : indexed) {
+                    File indexFile = new File(baseFolder + "/" + name + "." + idx[0] + "." + idx[1]);
+                    boolean isNew = indexFile.length() == 0;
+                    int field = t.fieldNameToIndex(idx[0]);
+                    TableIndex index = idx[1].equals("hash")
+                            ? TableIndex.createHashIndex(indexFile, tabHf.getId(), field)
+                            : TableIndex.createBTreeIndex(indexFile, tabHf.getId(), field);
+                    addIndex(index);
+                    if (isNew && tabHf.numPages() > 0) {
+                        buildIndex(index);
+                    }
+                    System.out.println("Added " + index);
+                }
             }
         } catch (IOException e) {
             e.printStackTrace();
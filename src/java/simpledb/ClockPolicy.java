@@ -0,0 +1,109 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * ClockPolicy is the CLOCK (second chance) approximation of LRU. The tracked
+ * pages sit on a ring of slots with a reference bit each, which every access
+ * sets. Looking for victims, the clock hand sweeps the ring from where it
+ * last stopped, clearing the bits it passes: a page is a candidate once the
+ * hand reaches it with its bit clear, i.e. if it was not accessed during a
+ * full turn of the hand. Pages added without an access start with a clear
+ * bit.
+ */
+public class ClockPolicy implements ReplacementPolicy {
+    // the page in every slot of the ring, null for free slots
+    private final List<PageId> ring;
+    private final Map<PageId, Integer> slots;
+    private final BitSet referenced;
+    private final Deque<Integer> freeSlots;
+    private int hand;
+
+    public ClockPolicy() {
+        this.ring = new ArrayList<PageId>();
+        this.slots = new HashMap<PageId, Integer>();
+        this.referenced = new BitSet();
+        this.freeSlots = new ArrayDeque<Integer>();
+        this.hand = 0;
+    }
+
+    // see ReplacementPolicy.java for javadocs
+    public synchronized void pageAdded(PageId pid) {
+        slotOf(pid);
+    }
+
+    // see ReplacementPolicy.java for javadocs
+    public synchronized void pageAccessed(PageId pid) {
+        referenced.set(slotOf(pid));
+    }
+
+    // see ReplacementPolicy.java for javadocs
+    public synchronized void pageRemoved(PageId pid) {
+        Integer slot = slots.remove(pid);
+
+        if (slot != null) {
+            ring.set(slot, null);
+            referenced.clear(slot);
+            freeSlots.push(slot);
+        }
+    }
+
+    /**
+     * @return the slot of pid, which is put in a free slot if it has none
+     */
+    private int slotOf(PageId pid) {
+        Integer slot = slots.get(pid);
+
+        if (slot == null) {
+            slot = freeSlots.isEmpty() ? ring.size() : freeSlots.pop();
+            if (slot == ring.size()) {
+                ring.add(pid);
+            } else {
+                ring.set(slot, pid);
+            }
+            slots.put(pid, slot);
+        }
+        return slot;
+    }
+
+    /**
+     * Sweeps the hand around the ring at most twice, collecting the pages
+     * whose reference bit is clear when the hand reaches them. The hand
+     * stops at the first candidate, so that it is looked at first again if
+     * it is not evicted.
+     */
+    public synchronized List<PageId> evictionCandidates(int max) {
+        List<PageId> candidates = new ArrayList<PageId>();
+        int n = ring.size();
+        BitSet taken = new BitSet(n);
+        int first = -1;
+
+        for (int i = 0; i < 2 * n && candidates.size() < max; i++) {
+            int slot = (hand + i) % n;
+            PageId pid = ring.get(slot);
+
+            if (pid == null || taken.get(slot)) {
+                continue;
+            }
+            if (referenced.get(slot)) {
+                // second chance
+                referenced.clear(slot);
+                continue;
+            }
+            if (first < 0) {
+                first = slot;
+            }
+            taken.set(slot);
+            candidates.add(pid);
+        }
+        if (first >= 0) {
+            hand = first;
+        }
+        return candidates;
+    }
+
+    // see ReplacementPolicy.java for javadocs
+    public ReplacementPolicy newInstance() {
+        return new ClockPolicy();
+    }
+}
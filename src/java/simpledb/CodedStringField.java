@@ -0,0 +1,66 @@
+package simpledb;
+
+/**
+ * A StringField read from a dictionary-encoded column. It carries the
+ * integer code of its value, so equality with other fields of the same
+ * dictionary (and with a constant that was looked up once) is an integer
+ * comparison. It behaves as a plain StringField everywhere else.
+ *
+ * @see StringDictionary
+ */
+public class CodedStringField extends StringField {
+
+	private static final long serialVersionUID = 1L;
+
+	private final transient StringDictionary dict;
+	private final int code;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param dict
+	 *            the dictionary the code belongs to
+	 * @param code
+	 *            the code of this field's value
+	 */
+	CodedStringField(StringDictionary dict, int code) {
+		super(dict.decode(code), Type.STRING_LEN);
+		this.dict = dict;
+		this.code = code;
+	}
+
+	/**
+	 * @return the dictionary code of this field's value
+	 */
+	public int getCode() {
+		return code;
+	}
+
+	StringDictionary getDictionary() {
+		return dict;
+	}
+
+	public boolean equals(Object field) {
+		if (dict != null && field instanceof CodedStringField && ((CodedStringField) field).dict == dict) {
+			return ((CodedStringField) field).code == code;
+		}
+		return super.equals(field);
+	}
+
+	// hashCode is the one of the value, which the dictionary's shared
+	// String instance caches, so it agrees with plain StringFields
+
+	/**
+	 * Compare the specified field to the value of this Field. Equality tests
+	 * compare dictionary codes; other operators compare the strings.
+	 *
+	 * @see Field#compare
+	 */
+	public boolean compare(Predicate.Op op, Field val) {
+		if (dict != null && (op == Predicate.Op.EQUALS || op == Predicate.Op.NOT_EQUALS)) {
+			boolean eq = dict.codeOf((StringField) val) == code;
+			return op == Predicate.Op.EQUALS ? eq : !eq;
+		}
+		return super.compare(op, val);
+	}
+}
@@ -0,0 +1,303 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.*;
+import java.util.zip.*;
+
+/**
+ * CompressedHeapFile is a HeapFile whose pages are stored deflated on
+ * disk. Pages are compressed in writePage and inflated again in readPage,
+ * so the BufferPool and everything above it see ordinary HeapPages; only
+ * the bytes moved to and from the disk get smaller.
+ * <p>
+ * Compressed pages have variable sizes, so the data file is a sequence of
+ * blocks and a page directory in a side file (the data file name plus
+ * ".dir") records where each page lives: 16 bytes per page, holding the
+ * offset of its block, the compressed length and the space reserved for
+ * it. A rewritten page stays in its block if it still fits and moves to a
+ * new block at the end of the file otherwise. The number of pages is the
+ * number of directory entries.
+ * <p>
+ * This mode suits cold, mostly read tables, whose scans trade cheap
+ * inflation for fewer bytes read. Memory mapping is not supported.
+ */
+public class CompressedHeapFile extends HeapFile {
+
+    /** Size of one directory entry, in bytes. */
+    static final int DIR_ENTRY_SIZE = 16;
+    /** Blocks are reserved in multiples of this many bytes. */
+    static final int BLOCK_ALIGN = 64;
+
+    private final File dirFile;
+    private FileChannel dirChannel;
+    // the directory, loaded on first use
+    private long[] offsets;
+    private int[] lengths;
+    private int[] capacities;
+    private int numEntries = -1;
+    // end of the last block in the data file
+    private long dataEnd;
+
+    private final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+    private final Inflater inflater = new Inflater();
+
+    /**
+     * Constructs a compressed heap file backed by the specified file and
+     * its page directory.
+     *
+     * @param f
+     *            the file that stores the compressed pages of this file.
+     */
+    public CompressedHeapFile(File f, TupleDesc td) {
+        super(f, td, false);
+        this.dirFile = sideFiles(f)[3];
+    }
+
+    /**
+     * Loads the page directory if it is not loaded yet.
+     */
+    private synchronized void loadDirectory() throws IOException {
+        if (numEntries >= 0) {
+            return;
+        }
+        int n = (int) (dirFile.length() / DIR_ENTRY_SIZE);
+        offsets = new long[Math.max(n, 16)];
+        lengths = new int[offsets.length];
+        capacities = new int[offsets.length];
+        dataEnd = 0;
+
+        if (n > 0) {
+            DataInputStream dis = new DataInputStream(
+                    new BufferedInputStream(new FileInputStream(dirFile)));
+            try {
+                for (int i = 0; i < n; i++) {
+                    offsets[i] = dis.readLong();
+                    lengths[i] = dis.readInt();
+                    capacities[i] = dis.readInt();
+                    dataEnd = Math.max(dataEnd, offsets[i] + capacities[i]);
+                }
+            } finally {
+                dis.close();
+            }
+        }
+        numEntries = n;
+    }
+
+    private synchronized FileChannel getDirChannel() throws IOException {
+        if (dirChannel == null || !dirChannel.isOpen()) {
+            dirChannel = new RandomAccessFile(dirFile, "rw").getChannel();
+        }
+        return dirChannel;
+    }
+
+    /**
+     * Returns the number of pages in this file, i.e. the number of entries
+     * in its page directory.
+     */
+    @Override
+    public synchronized int numPages() {
+        try {
+            loadDirectory();
+        } catch (IOException e) {
+            e.printStackTrace();
+            return 0;
+        }
+        return numEntries;
+    }
+
+    /**
+     * @return the number of bytes the compressed pages take on disk
+     */
+    public synchronized long compressedSize() throws IOException {
+        loadDirectory();
+        return dataEnd;
+    }
+
+    @Override
+    synchronized void readPageData(int pageNo, ByteBuffer buf) throws IOException {
+        loadDirectory();
+        if (pageNo >= numEntries) {
+            // like a read past the end of a HeapFile
+            return;
+        }
+        ByteBuffer block = ByteBuffer.allocate(lengths[pageNo]);
+        long pos = offsets[pageNo];
+        FileChannel ch = getChannel();
+
+        while (block.hasRemaining()) {
+            int n = ch.read(block, pos);
+            if (n < 0) {
+                throw new IOException("compressed page " + pageNo + " is truncated");
+            }
+            pos += n;
+        }
+        inflater.reset();
+        inflater.setInput(block.array());
+        try {
+            int off = buf.arrayOffset() + buf.position();
+            int n = inflater.inflate(buf.array(), off, buf.remaining());
+            buf.position(buf.position() + n);
+        } catch (DataFormatException e) {
+            throw new IOException("compressed page " + pageNo + " is corrupt: " + e.getMessage());
+        }
+    }
+
+    @Override
+    synchronized void writePageData(int pageNo, ByteBuffer buf) throws IOException {
+        loadDirectory();
+        if (pageNo > numEntries) {
+            throw new IOException("page " + pageNo + " is past the end of " + getFile());
+        }
+        byte[] page = new byte[buf.remaining()];
+        buf.get(page);
+        byte[] block = compress(page);
+
+        long offset;
+        int capacity;
+        if (pageNo < numEntries && block.length <= capacities[pageNo]) {
+            offset = offsets[pageNo];
+            capacity = capacities[pageNo];
+        } else {
+            // the page grew out of its block (or is new): give it a fresh one
+            offset = dataEnd;
+            capacity = (block.length + BLOCK_ALIGN - 1) / BLOCK_ALIGN * BLOCK_ALIGN;
+            dataEnd += capacity;
+        }
+        FileChannel ch = getChannel();
+        ByteBuffer out = ByteBuffer.wrap(block);
+        long pos = offset;
+        while (out.hasRemaining()) {
+            pos += ch.write(out, pos);
+        }
+
+        // the directory entry goes out after the block it points to
+        if (pageNo == numEntries) {
+            if (numEntries == offsets.length) {
+                offsets = Arrays.copyOf(offsets, numEntries * 2);
+                lengths = Arrays.copyOf(lengths, numEntries * 2);
+                capacities = Arrays.copyOf(capacities, numEntries * 2);
+            }
+            numEntries++;
+        }
+        offsets[pageNo] = offset;
+        lengths[pageNo] = block.length;
+        capacities[pageNo] = capacity;
+
+        ByteBuffer entry = ByteBuffer.allocate(DIR_ENTRY_SIZE);
+        entry.putLong(offset).putInt(block.length).putInt(capacity).flip();
+        FileChannel dir = getDirChannel();
+        pos = (long) pageNo * DIR_ENTRY_SIZE;
+        while (entry.hasRemaining()) {
+            pos += dir.write(entry, pos);
+        }
+    }
+
+    private byte[] compress(byte[] page) {
+        deflater.reset();
+        deflater.setInput(page);
+        deflater.finish();
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(page.length / 4);
+        byte[] chunk = new byte[page.length];
+
+        while (!deflater.finished()) {
+            int n = deflater.deflate(chunk);
+            baos.write(chunk, 0, n);
+        }
+        return baos.toByteArray();
+    }
+
+    /**
+     * Writes each page through the compressing path; blocks have variable
+     * sizes, so adjacent pages cannot be gathered into a single write.
+     */
+    @Override
+    public void writePages(List<Page> pages) throws IOException {
+        for (Page p : pages) {
+            writePage(p);
+        }
+    }
+
+    /**
+     * Appends the empty pages one by one, since a page directory entry can
+     * only be added after the previous one.
+     */
+    @Override
+    synchronized int appendEmptyPages(int n) throws IOException {
+        int first = numPages();
+        
+        for (int i = 0; i < n; i++) {
+            writePageData(first + i, ByteBuffer.wrap(HeapPage.createEmptyPageData()));
+        }
+        return first;
+    }
+
+    /**
+     * Drops the directory entries from numPages on, and the blocks at the
+     * end of the data file that only they used.
+     */
+    @Override
+    synchronized void truncateData(int numPages) throws IOException {
+        loadDirectory();
+        if (numPages >= numEntries) {
+            return;
+        }
+        numEntries = numPages;
+        dataEnd = 0;
+        for (int i = 0; i < numEntries; i++) {
+            dataEnd = Math.max(dataEnd, offsets[i] + capacities[i]);
+        }
+        getDirChannel().truncate((long) numEntries * DIR_ENTRY_SIZE);
+        getChannel().truncate(dataEnd);
+    }
+
+    @Override
+    void force() throws IOException {
+        super.force();
+        getDirChannel().force(false);
+    }
+
+    @Override
+    public synchronized void close() {
+        super.close();
+        if (dirChannel != null) {
+            try {
+                dirChannel.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            dirChannel = null;
+        }
+        // reloaded from the side file on the next access
+        numEntries = -1;
+    }
+
+    /**
+     * Compresses an existing HeapFile into a new CompressedHeapFile and its
+     * page directory. Page numbers, and so RecordIds, are preserved.
+     *
+     * @param heapFile the source file, in HeapPage layout
+     * @param compressedFile the file to create
+     */
+    public static void convert(File heapFile, File compressedFile, TupleDesc td) throws IOException {
+        int pageSize = BufferPool.getPageSize();
+        compressedFile.delete();
+        sideFiles(compressedFile)[3].delete();
+        CompressedHeapFile out = new CompressedHeapFile(compressedFile, td);
+        DataInputStream dis = new DataInputStream(new BufferedInputStream(new FileInputStream(heapFile)));
+        byte[] page = new byte[pageSize];
+
+        try {
+            long numPages = heapFile.length() / pageSize;
+
+            for (int p = 0; p < numPages; p++) {
+                dis.readFully(page);
+                out.writePageData(p, ByteBuffer.wrap(page));
+            }
+        } finally {
+            dis.close();
+            out.close();
+        }
+    }
+}
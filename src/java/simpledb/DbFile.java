@@ -28,6 +28,13 @@ public interface DbFile {
      */
     public void writePage(Page p) throws IOException;
 
+    /**
+     * Releases the operating system resources (such as open file channels)
+     * held by this file. Called by the Catalog when the table is dropped or
+     * replaced; a closed file may be reopened by a later read or write.
+     */
+    public void close();
+
     /**
      * Inserts the specified tuple to the file on behalf of transaction.
      * This method will acquire a lock on the affected pages of the file, and
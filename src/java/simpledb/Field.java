@@ -14,6 +14,14 @@ public interface Field extends Serializable{
      */
     void serialize(DataOutputStream dos) throws IOException;
 
+    /**
+     * Write the bytes representing this field into buf at its position,
+     * advancing the position by {@link Type#getLen()} bytes. Writes exactly
+     * the bytes that serialize(DataOutputStream) would, without allocating.
+     * @param buf The buffer to write to.
+     */
+    void serialize(java.nio.ByteBuffer buf);
+
     /**
      * Compare the value of this field object to the passed in value.
      * @param op The operator
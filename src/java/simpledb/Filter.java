@@ -11,6 +11,8 @@ public class Filter extends Operator {
     // fields
     private Predicate p;
     private OpIterator child;
+    // the scan p is installed in as a page filter while this is open
+    private SeqScan filteredScan;
 
     /**
      * Constructor accepts a predicate to apply and a child operator to read
@@ -34,17 +36,40 @@ public class Filter extends Operator {
         return child.getTupleDesc();
     }
 
+    /**
+     * Opens the filter. If the child is a SeqScan, possibly under other
+     * Filters, the scan is told to skip the pages that cannot hold a match
+     * until the filter is closed.
+     */
     public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException {
         super.open();
+        if (filteredScan == null) {
+            OpIterator leaf = child;
+            while (leaf instanceof Filter) {
+                leaf = ((Filter) leaf).child;
+            }
+            if (leaf instanceof SeqScan) {
+                filteredScan = (SeqScan) leaf;
+                filteredScan.addPageFilter(p);
+            }
+        }
         child.open();
     }
 
     public void close() {
         child.close();
+        removePageFilter();
         super.close();
     }
 
+    private void removePageFilter() {
+        if (filteredScan != null) {
+            filteredScan.removePageFilter(p);
+            filteredScan = null;
+        }
+    }
+
     public void rewind() throws DbException, TransactionAbortedException {
         child.rewind();
     }
@@ -81,6 +106,7 @@ public class Filter extends Operator {
 
     @Override
     public void setChildren(OpIterator[] children) {
+        removePageFilter();
         child = children[0];
     }
 
@@ -0,0 +1,245 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * FreeSpaceMap keeps a coarse estimate of the free space on every page of a
+ * HeapFile, so that inserts can go straight to a page with room instead of
+ * reading (and locking) the table from its first page.
+ * <p>
+ * Each page is summarized by one byte: a bucket between 0 (full) and
+ * NUM_BUCKETS - 1 (empty), or UNKNOWN for pages the map has not seen yet.
+ * The map is only a hint: callers must check the page itself before using
+ * it and report back what they found with {@link #update}. The buckets are
+ * saved in a side file next to the table when the table is closed. The side
+ * file is removed as soon as the map changes, so after a crash the map is
+ * not persisted: it starts out with every page unknown and is rebuilt as
+ * inserts check the pages.
+ */
+class FreeSpaceMap {
+    /** Number of distinct free space buckets. */
+    static final int NUM_BUCKETS = 16;
+    /** Bucket of pages whose free space has not been observed. */
+    static final byte UNKNOWN = (byte) 0xFF;
+
+    private final File file;
+    // one bucket per page; pages at or past numEntries are UNKNOWN
+    private byte[] buckets;
+    private int numEntries;
+    // pages that may have room, i.e. whose bucket is non-zero or unknown
+    private final BitSet candidates;
+    // no page below this one is a candidate
+    private int firstCandidate;
+    // pages held back from inserts, e.g. by an uncommitted bulk load; their
+    // buckets are kept up to date but they are no candidates
+    private final BitSet reserved;
+    // true if the side file is missing or out of date
+    private boolean dirty;
+
+    /**
+     * Creates the free space map of a table, loading its side file if one
+     * exists.
+     *
+     * @param file the side file the map is persisted in
+     */
+    public FreeSpaceMap(File file) {
+        this.file = file;
+        this.buckets = new byte[0];
+        this.numEntries = 0;
+        this.candidates = new BitSet();
+        this.firstCandidate = 0;
+        this.reserved = new BitSet();
+        this.dirty = false;
+        load();
+    }
+
+    /**
+     * Returns the bucket that a page with the given free space falls in.
+     *
+     * @param free the free space on the page (in slots, bytes, ...)
+     * @param capacity the free space of an empty page, in the same unit
+     */
+    static int bucketFor(int free, int capacity) {
+        if (free <= 0 || capacity <= 0) {
+            return 0;
+        }
+        if (free >= capacity) {
+            return NUM_BUCKETS - 1;
+        }
+        // partially filled pages use buckets 1 .. NUM_BUCKETS - 2
+        return 1 + (free * (NUM_BUCKETS - 2)) / capacity;
+    }
+
+    /**
+     * Returns a page below numPages that may have room for a tuple, or -1 if
+     * every page is known to be full.
+     *
+     * @param numPages the current number of pages of the table
+     */
+    public synchronized int findPage(int numPages) {
+        // pages the map has never seen are candidates until checked
+        if (numPages > numEntries) {
+            candidates.set(numEntries, numPages);
+            firstCandidate = Math.min(firstCandidate, numEntries);
+            ensureCapacity(numPages);
+            Arrays.fill(buckets, numEntries, numPages, UNKNOWN);
+            numEntries = numPages;
+        }
+        int pageNo = candidates.nextSetBit(firstCandidate);
+        firstCandidate = pageNo < 0 ? numEntries : pageNo;
+
+        return (pageNo < 0 || pageNo >= numPages) ? -1 : pageNo;
+    }
+
+    /**
+     * Records the free space observed on a page.
+     *
+     * @param pageNo the page number
+     * @param free the free space on the page
+     * @param capacity the free space of an empty page
+     */
+    public synchronized void update(int pageNo, int free, int capacity) {
+        if (pageNo >= numEntries) {
+            ensureCapacity(pageNo + 1);
+            Arrays.fill(buckets, numEntries, pageNo + 1, UNKNOWN);
+            candidates.set(numEntries, pageNo + 1);
+            numEntries = pageNo + 1;
+        }
+        int bucket = bucketFor(free, capacity);
+
+        if (buckets[pageNo] != (byte) bucket) {
+            changed();
+            buckets[pageNo] = (byte) bucket;
+        }
+        if (bucket > 0 && !reserved.get(pageNo)) {
+            candidates.set(pageNo);
+            firstCandidate = Math.min(firstCandidate, pageNo);
+        } else {
+            candidates.clear(pageNo);
+        }
+    }
+
+    /**
+     * Holds a page back from findPage until it is released, whatever free
+     * space is recorded for it meanwhile. The page starts out full.
+     */
+    public synchronized void reserve(int pageNo) {
+        reserved.set(pageNo);
+        update(pageNo, 0, 1);
+    }
+
+    /**
+     * Makes a reserved page available to findPage again, with the free
+     * space last recorded for it.
+     */
+    public synchronized void release(int pageNo) {
+        if (reserved.get(pageNo)) {
+            reserved.clear(pageNo);
+            if (pageNo < numEntries && buckets[pageNo] != 0) {
+                candidates.set(pageNo);
+                firstCandidate = Math.min(firstCandidate, pageNo);
+            }
+        }
+    }
+
+    /**
+     * Returns the bucket of a page, or UNKNOWN.
+     */
+    public synchronized int getBucket(int pageNo) {
+        if (pageNo >= numEntries) {
+            return UNKNOWN;
+        }
+        return buckets[pageNo];
+    }
+
+    /**
+     * Forgets every page from numPages on, e.g. after the table was truncated.
+     */
+    public synchronized void truncate(int numPages) {
+        if (numPages < numEntries) {
+            Arrays.fill(buckets, numPages, numEntries, (byte) 0);
+            candidates.clear(numPages, numEntries);
+            reserved.clear(numPages, numEntries);
+            numEntries = numPages;
+            firstCandidate = Math.min(firstCandidate, numPages);
+            changed();
+        }
+    }
+
+    /**
+     * Called when the buckets change: a side file that no longer matches
+     * them must not survive a crash.
+     */
+    private void changed() {
+        if (!dirty) {
+            file.delete();
+            dirty = true;
+        }
+    }
+
+    private void ensureCapacity(int n) {
+        if (n > buckets.length) {
+            buckets = Arrays.copyOf(buckets, Math.max(n, buckets.length * 2));
+        }
+    }
+
+    /**
+     * Reads the side file, if any. A missing or unreadable file leaves every
+     * page unknown.
+     */
+    private void load() {
+        if (!file.exists()) {
+            return;
+        }
+        try {
+            DataInputStream dis = new DataInputStream(
+                    new BufferedInputStream(new FileInputStream(file)));
+            try {
+                int n = dis.readInt();
+                byte[] data = new byte[n];
+                dis.readFully(data);
+                buckets = data;
+                numEntries = n;
+                for (int i = 0; i < n; i++) {
+                    if (data[i] != 0) {
+                        candidates.set(i);
+                    }
+                }
+            } finally {
+                dis.close();
+            }
+        } catch (IOException e) {
+            // the map is only a hint; start over
+            buckets = new byte[0];
+            numEntries = 0;
+            candidates.clear();
+            file.delete();
+            dirty = true;
+        }
+        firstCandidate = 0;
+    }
+
+    /**
+     * Writes the map to its side file if it changed since it was loaded.
+     */
+    public synchronized void save() throws IOException {
+        if (!dirty) {
+            return;
+        }
+        DataOutputStream dos = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(file)));
+        try {
+            // reserved pages are saved as full
+            byte[] data = Arrays.copyOf(buckets, numEntries);
+            for (int p = reserved.nextSetBit(0); p >= 0 && p < numEntries; p = reserved.nextSetBit(p + 1)) {
+                data[p] = 0;
+            }
+            dos.writeInt(numEntries);
+            dos.write(data);
+        } finally {
+            dos.close();
+        }
+        dirty = false;
+    }
+}
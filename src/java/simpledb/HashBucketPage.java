@@ -0,0 +1,161 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.text.ParseException;
+import java.util.*;
+
+/**
+ * Each instance of HashBucketPage stores one bucket page of a
+ * HashIndexFile: the (key, page number, tuple number) entries whose key
+ * hashes to the bucket, in no particular order. A bucket that cannot be
+ * split any further continues on a chain of overflow pages.
+ * <p>
+ * The format is the local depth of the bucket, the page number of the
+ * next overflow page (0 for none) and the number of entries (ints),
+ * followed by the entries and zero padding.
+ *
+ * @see HashIndexFile
+ */
+public class HashBucketPage extends HashPage {
+
+    private static final int HEADER_SIZE = 3 * Type.INT_TYPE.getLen();
+
+    private final TupleDesc td;
+    private final int maxEntries;
+    private int localDepth;
+    private int next;
+    private final ArrayList<Tuple> entries;
+
+    /**
+     * Create a HashBucketPage from a set of bytes of data read from disk.
+     */
+    public HashBucketPage(HashPageId id, byte[] data) throws IOException {
+        super(id);
+        this.td = Database.getCatalog().getTupleDesc(id.getTableId());
+        this.maxEntries = getMaxEntries(td);
+
+        ByteBuffer buf = ByteBuffer.wrap(data);
+        this.localDepth = buf.getInt();
+        this.next = buf.getInt();
+        int n = buf.getInt();
+        if (n < 0 || n > maxEntries) {
+            throw new IOException("corrupt bucket page " + id + ": " + n + " entries");
+        }
+        this.entries = new ArrayList<Tuple>(maxEntries);
+        try {
+            for (int i = 0; i < n; i++) {
+                Tuple t = new Tuple(td);
+                for (int j = 0; j < td.numFields(); j++) {
+                    t.setField(j, td.getFieldType(j).parse(buf));
+                }
+                t.setRecordId(new RecordId(pid, i));
+                entries.add(t);
+            }
+        } catch (ParseException e) {
+            throw new IOException("corrupt bucket page " + id + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * @return the number of entries of the given schema a bucket page holds
+     */
+    static int getMaxEntries(TupleDesc td) {
+        return (BufferPool.getPageSize() - HEADER_SIZE) / td.getSize();
+    }
+
+    @Override
+    protected HashPage newPage(byte[] data) throws IOException {
+        return new HashBucketPage(pid, data);
+    }
+
+    // see Page.java for javadocs
+    public void getPageData(ByteBuffer buf) {
+        int end = buf.position() + BufferPool.getPageSize();
+        buf.putInt(localDepth);
+        buf.putInt(next);
+        buf.putInt(entries.size());
+        for (Tuple t : entries) {
+            for (int j = 0; j < td.numFields(); j++) {
+                t.getField(j).serialize(buf);
+            }
+        }
+        while (buf.position() < end) {
+            buf.put((byte) 0);
+        }
+    }
+
+    /** @return the number of hash bits all keys of this bucket share */
+    public int getLocalDepth() {
+        return localDepth;
+    }
+
+    public void setLocalDepth(int depth) {
+        beforeModify();
+        localDepth = depth;
+    }
+
+    /** @return the id of the next overflow page, or null */
+    public HashPageId getNextPageId() {
+        return next == 0 ? null : new HashPageId(pid.getTableId(), next, HashPageId.BUCKET);
+    }
+
+    public void setNextPageId(HashPageId id) {
+        beforeModify();
+        next = id == null ? 0 : id.getPageNumber();
+    }
+
+    /** @return the number of entries on this page */
+    public int getNumEntries() {
+        return entries.size();
+    }
+
+    /** @return the number of entries that can still be added to this page */
+    public int getNumEmptySlots() {
+        return maxEntries - entries.size();
+    }
+
+    /** @return the i-th entry of this page */
+    public Tuple getEntry(int i) {
+        return entries.get(i);
+    }
+
+    /**
+     * Adds an entry to the page.
+     *
+     * @throws DbException if the page is full or tupledesc is mismatch.
+     */
+    public void insertEntry(Tuple t) throws DbException {
+        if (!t.getTupleDesc().equals(td)) {
+            throw new DbException("TupleDesc is not matched");
+        }
+        if (entries.size() >= maxEntries) {
+            throw new DbException("bucket page is full");
+        }
+        beforeModify();
+        t.setRecordId(new RecordId(pid, entries.size()));
+        entries.add(t);
+    }
+
+    /**
+     * Deletes the i-th entry of the page; the last entry takes its place.
+     */
+    public void deleteEntry(int i) {
+        beforeModify();
+        Tuple last = entries.remove(entries.size() - 1);
+        if (i < entries.size()) {
+            entries.set(i, last);
+            last.setRecordId(new RecordId(pid, i));
+        }
+    }
+
+    /**
+     * Removes all entries from the page and returns them.
+     */
+    public List<Tuple> removeAll() {
+        beforeModify();
+        List<Tuple> removed = new ArrayList<Tuple>(entries);
+        entries.clear();
+        return removed;
+    }
+}
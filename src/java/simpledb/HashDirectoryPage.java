@@ -0,0 +1,57 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+
+/**
+ * Each instance of HashDirectoryPage stores one directory page of a
+ * HashIndexFile as an array of ints. Page 0 of the file holds the global
+ * depth, the number of directory pages and their page numbers; the other
+ * directory pages hold consecutive slices of the directory, whose entries
+ * are the page numbers of the buckets.
+ *
+ * @see HashIndexFile
+ */
+public class HashDirectoryPage extends HashPage {
+
+    private final int[] ints;
+
+    /**
+     * Create a HashDirectoryPage from a set of bytes of data read from disk.
+     */
+    public HashDirectoryPage(HashPageId id, byte[] data) throws IOException {
+        super(id);
+        this.ints = new int[getNumInts()];
+        ByteBuffer.wrap(data).asIntBuffer().get(ints);
+    }
+
+    /**
+     * @return the number of ints a directory page holds
+     */
+    static int getNumInts() {
+        return BufferPool.getPageSize() / Type.INT_TYPE.getLen();
+    }
+
+    @Override
+    protected HashPage newPage(byte[] data) throws IOException {
+        return new HashDirectoryPage(pid, data);
+    }
+
+    // see Page.java for javadocs
+    public void getPageData(ByteBuffer buf) {
+        for (int v : ints) {
+            buf.putInt(v);
+        }
+    }
+
+    public int getInt(int i) {
+        return ints[i];
+    }
+
+    public void setInt(int i, int v) {
+        if (ints[i] != v) {
+            beforeModify();
+            ints[i] = v;
+        }
+    }
+}
@@ -0,0 +1,574 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.*;
+
+/**
+ * HashIndexFile is an extendible hash index, stored as a DbFile, that maps
+ * the keys of a table to the record ids of its tuples. A point lookup reads
+ * one directory page and the bucket the key hashes to, instead of scanning
+ * the table.
+ * <p>
+ * The tuples of the file are the index entries (key, page number, tuple
+ * number). The low global-depth bits of the hash of a key select a
+ * directory entry, which holds the page number of the key's bucket. A full
+ * bucket is split in two on the next hash bit, doubling the directory
+ * first if the bucket is already addressed by all of its bits, so the
+ * index grows one bucket at a time and never rehashes as a whole. Keys
+ * that no split could separate, such as duplicates, go to overflow pages
+ * chained to the bucket. Deletes do not merge buckets.
+ * <p>
+ * Page 0 and the directory pages are HashDirectoryPages, buckets are
+ * HashBucketPages. All pages are read and written through the BufferPool
+ * under page locks, so updates are logged like those of any other DbFile.
+ *
+ * @see HashDirectoryPage
+ * @see HashBucketPage
+ */
+public class HashIndexFile implements DbFile {
+
+    // slots of page 0
+    private static final int GLOBAL_DEPTH = 0;
+    private static final int NUM_DIR_PAGES = 1;
+    private static final int FIRST_DIR_PAGE = 2;
+
+    private final File f;
+    private final TupleDesc td;
+    private final int tableid;
+    private final int indexedTableId;
+    // long-lived channel shared by all page reads and writes of this file,
+    // opened lazily by getChannel() and released by close()
+    private FileChannel channel;
+
+    /**
+     * Constructs a hash index backed by the specified file.
+     *
+     * @param f
+     *            the file that stores the on-disk backing store for this
+     *            index.
+     * @param keyType
+     *            the type of the indexed key
+     * @param indexedTableId
+     *            the id of the HeapFile whose record ids the index holds
+     */
+    public HashIndexFile(File f, Type keyType, int indexedTableId) {
+        this.f = f;
+        this.td = new TupleDesc(new Type[] { keyType, Type.INT_TYPE, Type.INT_TYPE },
+                new String[] { "key", "pageno", "tupleno" });
+        this.tableid = f.getAbsoluteFile().hashCode();
+        this.indexedTableId = indexedTableId;
+    }
+
+    /**
+     * Returns the File backing this HashIndexFile on disk.
+     */
+    public File getFile() {
+        return f;
+    }
+
+    // see DbFile.java for javadocs
+    public int getId() {
+        return tableid;
+    }
+
+    /**
+     * Returns the id of the table whose tuples this index points to.
+     */
+    public int getIndexedTableId() {
+        return indexedTableId;
+    }
+
+    // see DbFile.java for javadocs
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    private synchronized FileChannel getChannel() throws IOException {
+        if (channel == null || !channel.isOpen()) {
+            channel = new RandomAccessFile(f, "rw").getChannel();
+        }
+        return channel;
+    }
+
+    // see DbFile.java for javadocs
+    public synchronized void close() {
+        if (channel == null) {
+            return;
+        }
+        try {
+            channel.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        channel = null;
+    }
+
+    /**
+     * Writes page 0, one directory page and one empty bucket to an empty
+     * file.
+     */
+    private synchronized void init() throws IOException {
+        if (getChannel().size() > 0) {
+            return;
+        }
+        ByteBuffer meta = ByteBuffer.wrap(HashPage.createEmptyPageData());
+        meta.putInt(GLOBAL_DEPTH * 4, 0);
+        meta.putInt(NUM_DIR_PAGES * 4, 1);
+        meta.putInt(FIRST_DIR_PAGE * 4, 1);
+        writePageData(0, meta.array());
+
+        ByteBuffer dir = ByteBuffer.wrap(HashPage.createEmptyPageData());
+        dir.putInt(0, 2);
+        writePageData(1, dir.array());
+        writePageData(2, HashPage.createEmptyPageData());
+    }
+
+    private synchronized void writePageData(int pageNo, byte[] data) throws IOException {
+        FileChannel ch = getChannel();
+        ByteBuffer buf = ByteBuffer.wrap(data);
+        long pos = (long) BufferPool.getPageSize() * pageNo;
+
+        while (buf.hasRemaining()) {
+            pos += ch.write(buf, pos);
+        }
+    }
+
+    // see DbFile.java for javadocs
+    public Page readPage(PageId pid) {
+        HashPageId id = (HashPageId) pid;
+        try {
+            init();
+            FileChannel ch = getChannel();
+            ByteBuffer buf = ByteBuffer.allocate(BufferPool.getPageSize());
+            long pos = (long) BufferPool.getPageSize() * id.getPageNumber();
+
+            if (pos + buf.capacity() > ch.size()) {
+                throw new IllegalArgumentException("page " + id + " is past the end of " + f);
+            }
+            while (buf.hasRemaining()) {
+                int n = ch.read(buf, pos);
+                if (n < 0) {
+                    break;
+                }
+                pos += n;
+            }
+            if (id.pgcateg() == HashPageId.DIRECTORY) {
+                return new HashDirectoryPage(id, buf.array());
+            }
+            return new HashBucketPage(id, buf.array());
+        } catch (IOException e) {
+            e.printStackTrace();
+
+            throw new IllegalArgumentException();
+        }
+    }
+
+    // see DbFile.java for javadocs
+    public void writePage(Page page) throws IOException {
+        init();
+        writePageData(page.getId().getPageNumber(), page.getPageData());
+    }
+
+    /**
+     * Returns the number of pages in this HashIndexFile.
+     */
+    public int numPages() {
+        return (int) (f.length() / BufferPool.getPageSize());
+    }
+
+    /**
+     * Appends an empty page to the file.
+     *
+     * @return the number of the new page
+     */
+    private synchronized int appendEmptyPage() throws IOException {
+        init();
+        int pgNo = numPages();
+        writePageData(pgNo, HashPage.createEmptyPageData());
+        return pgNo;
+    }
+
+    /**
+     * Returns the hash of a key. The bits of Field.hashCode() are mixed so
+     * that the low bits, which select the directory entry, depend on all of
+     * them.
+     */
+    static int hash(Field key) {
+        int h = key.hashCode() * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    private static int mask(int depth) {
+        return (1 << depth) - 1;
+    }
+
+    /**
+     * @return the deepest directory that page 0 can list the pages of
+     */
+    private static int maxGlobalDepth() {
+        long entries = (long) (HashDirectoryPage.getNumInts() - FIRST_DIR_PAGE)
+                * HashDirectoryPage.getNumInts();
+        int depth = 0;
+        while (depth < 30 && (2L << depth) <= entries) {
+            depth++;
+        }
+        return depth;
+    }
+
+    /**
+     * @return the index entry pointing to record rid with key key
+     */
+    public Tuple entry(Field key, RecordId rid) {
+        Tuple t = new Tuple(td);
+        t.setField(0, key);
+        t.setField(1, new IntField(rid.getPageId().getPageNumber()));
+        t.setField(2, new IntField(rid.getTupleNumber()));
+        return t;
+    }
+
+    /**
+     * @return the record id an index entry points to
+     */
+    public RecordId recordIdOf(Tuple entry) {
+        int pgNo = ((IntField) entry.getField(1)).getValue();
+        int tupleNo = ((IntField) entry.getField(2)).getValue();
+        return new RecordId(new HeapPageId(indexedTableId, pgNo), tupleNo);
+    }
+
+    /**
+     * Method to encapsulate the process of locking/fetching a page, like
+     * BTreeFile.getPage(): the local cache of pages fetched for writing
+     * ("dirtypages") is checked first, and pages fetched for writing are
+     * marked dirty right away and added to it.
+     */
+    private HashPage getPage(TransactionId tid, HashMap<PageId, Page> dirtypages, HashPageId pid,
+            Permissions perm) throws DbException, TransactionAbortedException {
+        Page p = dirtypages.get(pid);
+        if (p != null) {
+            return (HashPage) p;
+        }
+        p = Database.getBufferPool().getPage(tid, pid, perm);
+        if (perm == Permissions.READ_WRITE) {
+            p.markDirty(true, tid);
+            dirtypages.put(pid, p);
+        }
+        return (HashPage) p;
+    }
+
+    private HashDirectoryPage getMetaPage(TransactionId tid, HashMap<PageId, Page> dirtypages,
+            Permissions perm) throws DbException, TransactionAbortedException {
+        return (HashDirectoryPage) getPage(tid, dirtypages,
+                new HashPageId(tableid, 0, HashPageId.DIRECTORY), perm);
+    }
+
+    /**
+     * Returns the directory page holding entry i, and the slot of the entry
+     * on it in slot[0].
+     */
+    private HashDirectoryPage getDirectoryPage(TransactionId tid, HashMap<PageId, Page> dirtypages,
+            HashDirectoryPage meta, int i, Permissions perm, int[] slot)
+            throws DbException, TransactionAbortedException {
+        int perPage = HashDirectoryPage.getNumInts();
+        slot[0] = i % perPage;
+        int pgNo = meta.getInt(FIRST_DIR_PAGE + i / perPage);
+        return (HashDirectoryPage) getPage(tid, dirtypages,
+                new HashPageId(tableid, pgNo, HashPageId.DIRECTORY), perm);
+    }
+
+    private HashPageId getBucketId(TransactionId tid, HashMap<PageId, Page> dirtypages,
+            HashDirectoryPage meta, int i) throws DbException, TransactionAbortedException {
+        int[] slot = new int[1];
+        HashDirectoryPage dir = getDirectoryPage(tid, dirtypages, meta, i, Permissions.READ_ONLY, slot);
+        return new HashPageId(tableid, dir.getInt(slot[0]), HashPageId.BUCKET);
+    }
+
+    private void setBucketNo(TransactionId tid, HashMap<PageId, Page> dirtypages,
+            HashDirectoryPage meta, int i, int pgNo) throws DbException, TransactionAbortedException {
+        int[] slot = new int[1];
+        HashDirectoryPage dir = getDirectoryPage(tid, dirtypages, meta, i, Permissions.READ_WRITE, slot);
+        dir.setInt(slot[0], pgNo);
+    }
+
+    /**
+     * @return the bucket key hashes to and its overflow pages, locked with
+     *   permission perm
+     */
+    private List<HashBucketPage> getChain(TransactionId tid, HashMap<PageId, Page> dirtypages,
+            int h, Permissions perm) throws DbException, TransactionAbortedException {
+        HashDirectoryPage meta = getMetaPage(tid, dirtypages, Permissions.READ_ONLY);
+        HashPageId id = getBucketId(tid, dirtypages, meta, h & mask(meta.getInt(GLOBAL_DEPTH)));
+        List<HashBucketPage> chain = new ArrayList<HashBucketPage>();
+
+        while (id != null) {
+            HashBucketPage page = (HashBucketPage) getPage(tid, dirtypages, id, perm);
+            chain.add(page);
+            id = page.getNextPageId();
+        }
+        return chain;
+    }
+
+    private HashBucketPage newBucketPage(TransactionId tid, HashMap<PageId, Page> dirtypages)
+            throws DbException, IOException, TransactionAbortedException {
+        HashPageId id = new HashPageId(tableid, appendEmptyPage(), HashPageId.BUCKET);
+        return (HashBucketPage) getPage(tid, dirtypages, id, Permissions.READ_WRITE);
+    }
+
+    // see DbFile.java for javadocs
+    public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        if (!t.getTupleDesc().equals(td)) {
+            throw new DbException("TupleDesc is not matched");
+        }
+        HashMap<PageId, Page> dirtypages = new HashMap<PageId, Page>();
+        int h = hash(t.getField(0));
+
+        while (true) {
+            List<HashBucketPage> chain = getChain(tid, dirtypages, h, Permissions.READ_WRITE);
+            for (HashBucketPage page : chain) {
+                if (page.getNumEmptySlots() > 0) {
+                    page.insertEntry(t);
+                    return new ArrayList<Page>(dirtypages.values());
+                }
+            }
+            if (canSplit(chain, h)) {
+                splitBucket(tid, dirtypages, chain, h);
+                continue;
+            }
+            HashBucketPage overflow = newBucketPage(tid, dirtypages);
+            chain.get(chain.size() - 1).setNextPageId(overflow.getId());
+            overflow.insertEntry(t);
+            return new ArrayList<Page>(dirtypages.values());
+        }
+    }
+
+    /**
+     * A full bucket is only worth splitting if some of its keys differ from
+     * the new one in the hash bits a deeper directory could use.
+     */
+    private boolean canSplit(List<HashBucketPage> chain, int h) {
+        int maxDepth = maxGlobalDepth();
+        if (chain.get(0).getLocalDepth() >= maxDepth) {
+            return false;
+        }
+        for (HashBucketPage page : chain) {
+            for (int i = 0; i < page.getNumEntries(); i++) {
+                if (((hash(page.getEntry(i).getField(0)) ^ h) & mask(maxDepth)) != 0) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Splits the bucket that hash h maps to on the next hash bit. Entries
+     * with the bit set move to a new bucket, and so do the directory entries
+     * that end in that bit. The pages of the old chain are shared out between
+     * the two buckets so that neither needs more pages than its entries take.
+     */
+    private void splitBucket(TransactionId tid, HashMap<PageId, Page> dirtypages,
+            List<HashBucketPage> chain, int h)
+            throws DbException, IOException, TransactionAbortedException {
+        int d = chain.get(0).getLocalDepth();
+        HashDirectoryPage meta = getMetaPage(tid, dirtypages, Permissions.READ_ONLY);
+        int g = meta.getInt(GLOBAL_DEPTH);
+        if (d == g) {
+            meta = getMetaPage(tid, dirtypages, Permissions.READ_WRITE);
+            doubleDirectory(tid, dirtypages, meta, g);
+            g++;
+        }
+
+        List<Tuple> lo = new ArrayList<Tuple>();
+        List<Tuple> hi = new ArrayList<Tuple>();
+        for (HashBucketPage page : chain) {
+            for (Tuple t : page.removeAll()) {
+                ((hash(t.getField(0)) >>> d & 1) == 0 ? lo : hi).add(t);
+            }
+        }
+        int perPage = HashBucketPage.getMaxEntries(td);
+        int loPages = Math.max(1, (lo.size() + perPage - 1) / perPage);
+        int hiPages = Math.max(1, (hi.size() + perPage - 1) / perPage);
+
+        List<HashBucketPage> loChain = new ArrayList<HashBucketPage>(chain.subList(0, loPages));
+        List<HashBucketPage> hiChain = new ArrayList<HashBucketPage>();
+        hiChain.add(newBucketPage(tid, dirtypages));
+        List<HashBucketPage> spare = chain.subList(loPages, chain.size());
+        hiChain.addAll(spare.subList(0, hiPages - 1));
+        // pages neither half needs stay on the old chain, empty
+        loChain.addAll(spare.subList(hiPages - 1, spare.size()));
+
+        fillChain(loChain, lo, d + 1);
+        fillChain(hiChain, hi, d + 1);
+
+        int newPgNo = hiChain.get(0).getId().getPageNumber();
+        for (int i = (h & mask(d)) | (1 << d); i < (1 << g); i += 2 << d) {
+            setBucketNo(tid, dirtypages, meta, i, newPgNo);
+        }
+    }
+
+    private void fillChain(List<HashBucketPage> chain, List<Tuple> entries, int localDepth)
+            throws DbException {
+        chain.get(0).setLocalDepth(localDepth);
+        Iterator<Tuple> it = entries.iterator();
+        for (int p = 0; p < chain.size(); p++) {
+            HashBucketPage page = chain.get(p);
+            page.setNextPageId(p + 1 < chain.size() ? chain.get(p + 1).getId() : null);
+            while (it.hasNext() && page.getNumEmptySlots() > 0) {
+                page.insertEntry(it.next());
+            }
+        }
+    }
+
+    /**
+     * Doubles the directory from depth g to g + 1, adding directory pages as
+     * needed. Each new entry points to the same bucket as the entry it
+     * differs from in the top bit only.
+     */
+    private void doubleDirectory(TransactionId tid, HashMap<PageId, Page> dirtypages,
+            HashDirectoryPage meta, int g)
+            throws DbException, IOException, TransactionAbortedException {
+        int size = 1 << g;
+        int perPage = HashDirectoryPage.getNumInts();
+        int needed = (2 * size + perPage - 1) / perPage;
+
+        for (int n = meta.getInt(NUM_DIR_PAGES); n < needed; n++) {
+            meta.setInt(FIRST_DIR_PAGE + n, appendEmptyPage());
+            meta.setInt(NUM_DIR_PAGES, n + 1);
+        }
+        for (int i = 0; i < size; i++) {
+            setBucketNo(tid, dirtypages, meta, size + i,
+                    getBucketId(tid, dirtypages, meta, i).getPageNumber());
+        }
+        meta.setInt(GLOBAL_DEPTH, g + 1);
+    }
+
+    // see DbFile.java for javadocs
+    public ArrayList<Page> deleteTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        HashMap<PageId, Page> dirtypages = new HashMap<PageId, Page>();
+
+        for (HashBucketPage page : getChain(tid, dirtypages, hash(t.getField(0)),
+                Permissions.READ_WRITE)) {
+            for (int i = 0; i < page.getNumEntries(); i++) {
+                if (sameFields(page.getEntry(i), t)) {
+                    page.deleteEntry(i);
+                    return new ArrayList<Page>(dirtypages.values());
+                }
+            }
+        }
+        throw new DbException("tuple is not in the file");
+    }
+
+    private boolean sameFields(Tuple a, Tuple b) {
+        for (int j = 0; j < td.numFields(); j++) {
+            if (!a.getField(j).equals(b.getField(j))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // see DbFile.java for javadocs
+    public DbFileIterator iterator(TransactionId tid) {
+        return new BucketIterator(tid, null);
+    }
+
+    /**
+     * Returns an iterator over the index entries with the given key.
+     */
+    public DbFileIterator indexIterator(TransactionId tid, Field key) {
+        return new BucketIterator(tid, key);
+    }
+
+    /**
+     * Returns the record ids of the tuples with the given key.
+     */
+    public List<RecordId> lookup(TransactionId tid, Field key)
+            throws DbException, TransactionAbortedException {
+        List<RecordId> rids = new ArrayList<RecordId>();
+        DbFileIterator it = indexIterator(tid, key);
+        it.open();
+        while (it.hasNext()) {
+            rids.add(recordIdOf(it.next()));
+        }
+        it.close();
+        return rids;
+    }
+
+    /**
+     * Iterates over the entries of the bucket of one key, or of all buckets,
+     * following their overflow chains.
+     */
+    private class BucketIterator extends AbstractDbFileIterator {
+        private final TransactionId tid;
+        private final Field key;
+        private Iterator<HashPageId> buckets;
+        private HashBucketPage page;
+        private int next;
+
+        BucketIterator(TransactionId tid, Field key) {
+            this.tid = tid;
+            this.key = key;
+        }
+
+        public void open() throws DbException, TransactionAbortedException {
+            HashMap<PageId, Page> dirtypages = new HashMap<PageId, Page>();
+            HashDirectoryPage meta = getMetaPage(tid, dirtypages, Permissions.READ_ONLY);
+            int g = meta.getInt(GLOBAL_DEPTH);
+
+            if (key != null) {
+                buckets = Collections.singletonList(
+                        getBucketId(tid, dirtypages, meta, hash(key) & mask(g))).iterator();
+            } else {
+                // buckets are listed by several directory entries
+                LinkedHashSet<HashPageId> ids = new LinkedHashSet<HashPageId>();
+                for (int i = 0; i < (1 << g); i++) {
+                    ids.add(getBucketId(tid, dirtypages, meta, i));
+                }
+                buckets = ids.iterator();
+            }
+            page = null;
+            next = 0;
+        }
+
+        @Override
+        protected Tuple readNext() throws DbException, TransactionAbortedException {
+            if (buckets == null) {
+                return null;
+            }
+            while (true) {
+                if (page != null && next < page.getNumEntries()) {
+                    Tuple t = page.getEntry(next++);
+                    if (key == null || key.equals(t.getField(0))) {
+                        return t;
+                    }
+                    continue;
+                }
+                HashPageId id = page == null ? null : page.getNextPageId();
+                if (id == null) {
+                    if (!buckets.hasNext()) {
+                        return null;
+                    }
+                    id = buckets.next();
+                }
+                page = (HashBucketPage) Database.getBufferPool().getPage(tid, id,
+                        Permissions.READ_ONLY);
+                next = 0;
+            }
+        }
+
+        public void rewind() throws DbException, TransactionAbortedException {
+            close();
+            open();
+        }
+
+        @Override
+        public void close() {
+            super.close();
+            buckets = null;
+            page = null;
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+
+/**
+ * HashPage holds what the pages of a HashIndexFile have in common: the
+ * page id, the dirty flag and the before image. Subclasses parse the page
+ * bytes when they are built and serialize them again in
+ * getPageData(ByteBuffer).
+ *
+ * @see HashIndexFile
+ */
+public abstract class HashPage implements Page {
+
+    protected final HashPageId pid;
+    private volatile TransactionId dirtier;
+
+    // the page bytes as of the first modification since the last commit;
+    // null while the page is unmodified (see HeapPage)
+    byte[] oldData;
+    private final Object oldDataLock = new Object();
+
+    protected HashPage(HashPageId id) {
+        this.pid = id;
+    }
+
+    /**
+     * @return the PageId associated with this page.
+     */
+    public HashPageId getId() {
+        return pid;
+    }
+
+    /**
+     * Snapshots the before image on the first modification since the last
+     * commit. Every method that changes the page calls this first.
+     */
+    protected void beforeModify() {
+        synchronized (oldDataLock) {
+            if (oldData == null) {
+                oldData = getPageData();
+            }
+        }
+    }
+
+    /**
+     * Creates a page of the same kind as this one from serialized bytes.
+     */
+    protected abstract HashPage newPage(byte[] data) throws IOException;
+
+    public byte[] getPageData() {
+        ByteBuffer buf = ByteBuffer.allocate(BufferPool.getPageSize());
+        getPageData(buf);
+        return buf.array();
+    }
+
+    /** Return a view of this page before it was modified
+        -- used by recovery */
+    public HashPage getBeforeImage() {
+        try {
+            byte[] oldDataRef = null;
+            synchronized (oldDataLock) {
+                oldDataRef = oldData;
+            }
+            return newPage(oldDataRef != null ? oldDataRef : getPageData());
+        } catch (IOException e) {
+            e.printStackTrace();
+            //should never happen -- we parsed it OK before!
+            System.exit(1);
+        }
+        return null;
+    }
+
+    // see Page.java for javadocs
+    public void getBeforeImageData(ByteBuffer buf) {
+        byte[] oldDataRef = null;
+        synchronized (oldDataLock) {
+            oldDataRef = oldData;
+        }
+        if (oldDataRef != null) {
+            buf.put(oldDataRef, 0, BufferPool.getPageSize());
+        } else {
+            getPageData(buf);
+        }
+    }
+
+    public void setBeforeImage() {
+        synchronized (oldDataLock) {
+            oldData = null;
+        }
+    }
+
+    /**
+     * Marks this page as dirty/not dirty and record that transaction
+     * that did the dirtying
+     */
+    public void markDirty(boolean dirty, TransactionId tid) {
+        this.dirtier = dirty ? tid : null;
+    }
+
+    /**
+     * Returns the tid of the transaction that last dirtied this page, or null if the page is not dirty
+     */
+    public TransactionId isDirty() {
+        return dirtier;
+    }
+
+    /**
+     * @return a byte array for an empty page, valid for every kind of page
+     */
+    public static byte[] createEmptyPageData() {
+        return new byte[BufferPool.getPageSize()];
+    }
+}
@@ -1,6 +1,9 @@
 package simpledb;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.*;
 
 /**
@@ -17,6 +20,29 @@ public class HeapFile implements DbFile {
 
     private File f;
     private TupleDesc td;
+    // long-lived channel shared by all page reads and writes of this file,
+    // opened lazily by getChannel() and released by close()
+    private FileChannel channel;
+
+    /**
+     * Number of pages covered by one mapped segment. Segments keep each
+     * MappedByteBuffer well below the 2 GB limit of a single mapping.
+     */
+    static final int PAGES_PER_SEGMENT = 1 << 14;
+
+    private final boolean memoryMapped;
+    // hints at which pages have room for inserts, created on first use
+    private FreeSpaceMap freeSpace;
+    // value ranges of the int columns of each page, created on first use
+    private ZoneMap zones;
+    // read-only mappings of the file, one per segment, created on demand
+    private MappedByteBuffer[] segments = new MappedByteBuffer[0];
+
+    /** Largest number of adjacent pages sent in one gathering write. */
+    static final int MAX_WRITE_RUN = 64;
+    // page-sized views of one reusable buffer that pages are serialized
+    // into on their way to disk; guarded by this file's lock
+    private ByteBuffer[] writeViews = new ByteBuffer[0];
     
     /**
      * Constructs a heap file backed by the specified file.
@@ -26,8 +52,27 @@ public class HeapFile implements DbFile {
      *            file.
      */
     public HeapFile(File f, TupleDesc td) {
+        this(f, td, false);
+    }
+
+    /**
+     * Constructs a heap file backed by the specified file, optionally reading
+     * its pages through read-only memory mappings of the file.
+     * <p>
+     * In memory-mapped mode, readPage builds each HeapPage directly from the
+     * mapped region, served from the OS page cache without a read syscall.
+     * Writes still go through the file channel, which the mappings observe.
+     * 
+     * @param f
+     *            the file that stores the on-disk backing store for this heap
+     *            file.
+     * @param memoryMapped
+     *            whether pages are read through memory mappings
+     */
+    public HeapFile(File f, TupleDesc td, boolean memoryMapped) {
         this.f = f;
         this.td = td;
+        this.memoryMapped = memoryMapped;
     }
 
     /**
@@ -61,35 +106,463 @@ public class HeapFile implements DbFile {
         return td;
     }
 
+    /**
+     * Returns the channel used for page I/O on this file, opening it on the
+     * first access (or after the file was closed by the Catalog).
+     */
+    synchronized FileChannel getChannel() throws IOException {
+        if (channel == null || !channel.isOpen()) {
+            channel = new RandomAccessFile(f, "rw").getChannel();
+        }
+        return channel;
+    }
+
+    /**
+     * @return true if pages of this file are read through memory mappings.
+     */
+    public boolean isMemoryMapped() {
+        return memoryMapped;
+    }
+
+    /**
+     * Returns the free space map of this file, loading it from its side
+     * file (the data file name plus ".fsm") on the first call.
+     */
+    synchronized FreeSpaceMap getFreeSpaceMap() {
+        if (freeSpace == null) {
+            freeSpace = new FreeSpaceMap(sideFiles(f)[0]);
+        }
+        return freeSpace;
+    }
+
+    /**
+     * Returns the zone map of this file, loading it from its side file (the
+     * data file name plus ".zm") on the first call.
+     */
+    synchronized ZoneMap getZoneMap() {
+        if (zones == null) {
+            zones = new ZoneMap(sideFiles(f)[1], td);
+        }
+        return zones;
+    }
+
+    /**
+     * @return the side files kept next to the data file f of a table: its
+     *   free space map and its zone map, then the string dictionary of a
+     *   SlottedFile and the page directory of a CompressedHeapFile
+     */
+    static File[] sideFiles(File f) {
+        return new File[] { new File(f.getPath() + ".fsm"), new File(f.getPath() + ".zm"),
+                new File(f.getPath() + ".dict"), new File(f.getPath() + ".dir") };
+    }
+
+    /**
+     * Marks the data file f of a temporary table, and the side files kept
+     * next to it, for deletion when the JVM exits.
+     */
+    public static void deleteOnExit(File f) {
+        f.deleteOnExit();
+        for (File side : sideFiles(f)) {
+            side.deleteOnExit();
+        }
+    }
+
+    // see DbFile.java for javadocs
+    public synchronized void close() {
+        // dropped mappings are unmapped once they are garbage collected
+        segments = new MappedByteBuffer[0];
+        if (!f.exists()) {
+            // the table was deleted; its maps go with it
+            for (File side : sideFiles(f)) {
+                side.delete();
+            }
+        }
+        if (freeSpace != null && f.exists()) {
+            try {
+                freeSpace.save();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        if (zones != null && f.exists()) {
+            try {
+                zones.save();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        if (channel == null) {
+            return;
+        }
+        try {
+            channel.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        channel = null;
+    }
+
+    /**
+     * Builds the in-memory page for the given page bytes. Subclasses that
+     * store their pages in a different layout override this.
+     */
+    protected Page createPage(HeapPageId pid, ByteBuffer data) throws IOException {
+        return new HeapPage(pid, data);
+    }
+
+    /**
+     * Inserts t into page if the page has room for it. Together with
+     * deleteFromPage, updateFreeSpace and pageIterator, this is all of
+     * HeapFile that depends on the page layout.
+     *
+     * @return false if the page is too full to hold t
+     */
+    protected boolean insertIntoPage(Page page, Tuple t) throws DbException {
+        HeapPage hpage = (HeapPage) page;
+        
+        if (hpage.getNumEmptySlots() == 0) {
+            return false;
+        }
+        hpage.insertTuple(t);
+        return true;
+    }
+
+    /**
+     * Removes t from page.
+     */
+    protected void deleteFromPage(Page page, Tuple t) throws DbException {
+        ((HeapPage) page).deleteTuple(t);
+    }
+
+    /**
+     * Records the free space left on page in the free space map.
+     */
+    protected void updateFreeSpace(FreeSpaceMap fsm, Page page) {
+        HeapPage hpage = (HeapPage) page;
+        fsm.update(hpage.getId().getPageNumber(), hpage.getNumEmptySlots(), hpage.getNumSlots());
+    }
+
+    /**
+     * Records the free space of a page that was replaced without going
+     * through insertTuple or deleteTuple, e.g. by its before-image when a
+     * transaction aborts; the map would otherwise keep the bucket of the
+     * discarded version.
+     */
+    void refreshFreeSpace(Page page) {
+        updateFreeSpace(getFreeSpaceMap(), page);
+    }
+
+    /**
+     * @return an iterator over the tuples stored on page
+     */
+    protected Iterator<Tuple> pageIterator(Page page) {
+        return ((HeapPage) page).iterator();
+    }
+
+    /**
+     * @return the tuple in slot i of page, or null if the slot is empty
+     */
+    protected Tuple tupleInSlot(Page page, int i) {
+        return ((HeapPage) page).getTupleInSlot(i);
+    }
+
+    /**
+     * Fetches the tuple with record id rid, locking its page for reading.
+     *
+     * @return the tuple, or null if its slot is empty
+     */
+    public Tuple getTuple(TransactionId tid, RecordId rid)
+            throws DbException, TransactionAbortedException {
+        Page page = Database.getBufferPool().getPage(tid, rid.getPageId(), Permissions.READ_ONLY);
+        return tupleInSlot(page, rid.getTupleNumber());
+    }
+
     // see DbFile.java for javadocs
     public Page readPage(PageId pid) throws IllegalArgumentException {
         try {
-            if (pid.getPageNumber() == numPages()) {
-                Page page = new HeapPage((HeapPageId) pid, HeapPage.createEmptyPageData());
-                writePage(page);
-                return page;
+            Page page = null;
+            // checking for and creating the new last page must not race
+            // with appendEmptyPages
+            synchronized (this) {
+                if (pid.getPageNumber() == numPages()) {
+                    page = createPage((HeapPageId) pid, ByteBuffer.wrap(HeapPage.createEmptyPageData()));
+                    writePage(page);
+                }
+            }
+            if (page != null) {
+                // already on disk
+            } else if (memoryMapped) {
+                page = createPage((HeapPageId) pid, mapPage(pid.getPageNumber()));
             } else {
-                RandomAccessFile raf = new RandomAccessFile(f, "r");
-                raf.seek(BufferPool.getPageSize() * pid.getPageNumber());
                 byte[] data = new byte[BufferPool.getPageSize()];
-                raf.read(data);
+                readPageData(pid.getPageNumber(), ByteBuffer.wrap(data));
                 
-                return new HeapPage((HeapPageId) pid, data);
+                page = createPage((HeapPageId) pid, ByteBuffer.wrap(data));
             }
+            // a known zone already covers the page, whose tuples are only
+            // decoded once a reader asks for them
+            if (!getZoneMap().isKnown(pid.getPageNumber())) {
+                updateZones(page);
+            }
+            return page;
         } catch (IOException e) {
-            // TODO Auto-generated catch block
             e.printStackTrace();
             
             throw new IllegalArgumentException();
         }
     }
 
+    /**
+     * Widens the zones of page to cover every tuple on it.
+     */
+    void updateZones(Page page) {
+        ZoneMap zones = getZoneMap();
+        int[] columns = zones.getColumns();
+        if (columns.length == 0) {
+            return;
+        }
+        int[] mins = new int[columns.length];
+        int[] maxs = new int[columns.length];
+        Arrays.fill(mins, Integer.MAX_VALUE);
+        Arrays.fill(maxs, Integer.MIN_VALUE);
+        widenIntRanges(page, columns, mins, maxs);
+        zones.observe(page.getId().getPageNumber(), mins, maxs);
+    }
+
+    /**
+     * Widens mins[c] and maxs[c] to cover the int field fields[c] of every
+     * tuple on page, reading the page bytes rather than building Tuples.
+     */
+    protected void widenIntRanges(Page page, int[] fields, int[] mins, int[] maxs) {
+        ((HeapPage) page).widenIntRanges(fields, mins, maxs);
+    }
+
     // see DbFile.java for javadocs
-    public void writePage(Page page) throws IOException {
-        RandomAccessFile raf = new RandomAccessFile(f, "rw");
-        raf.seek(BufferPool.getPageSize() * page.getId().getPageNumber());
-        raf.write(page.getPageData());
-        raf.close();
+    public synchronized void writePage(Page page) throws IOException {
+        ByteBuffer buf = getWriteViews(1)[0];
+        buf.clear();
+        page.getPageData(buf);
+        buf.flip();
+        writePageData(page.getId().getPageNumber(), buf);
+    }
+
+    /**
+     * Returns at least n page-sized views of the reusable write buffer,
+     * growing it (up to MAX_WRITE_RUN pages) or rebuilding it after a page
+     * size change.
+     */
+    private ByteBuffer[] getWriteViews(int n) {
+        int pageSize = BufferPool.getPageSize();
+        
+        if (writeViews.length < n || writeViews[0].capacity() != pageSize) {
+            int count = Math.max(n, Math.min(writeViews.length * 2, MAX_WRITE_RUN));
+            ByteBuffer all = ByteBuffer.allocate(pageSize * count);
+            writeViews = new ByteBuffer[count];
+            
+            for (int i = 0; i < count; i++) {
+                all.limit((i + 1) * pageSize);
+                all.position(i * pageSize);
+                writeViews[i] = all.slice();
+            }
+        }
+        return writeViews;
+    }
+
+    /**
+     * Writes a batch of pages of this file. Runs of adjacent pages (up to
+     * MAX_WRITE_RUN at a time) are serialized into the reusable write
+     * buffer and written with a single gathering write on the shared
+     * channel.
+     *
+     * @param pages the pages to write, in ascending page number order
+     */
+    public synchronized void writePages(List<Page> pages) throws IOException {
+        FileChannel ch = getChannel();
+        int pageSize = BufferPool.getPageSize();
+        int i = 0;
+        
+        while (i < pages.size()) {
+            int first = pages.get(i).getId().getPageNumber();
+            int end = i + 1;
+            
+            while (end < pages.size() && end - i < MAX_WRITE_RUN
+                    && pages.get(end).getId().getPageNumber() == first + (end - i)) {
+                end++;
+            }
+            int n = end - i;
+            ByteBuffer[] run = getWriteViews(n);
+            for (int j = 0; j < n; j++) {
+                run[j].clear();
+                pages.get(i + j).getPageData(run[j]);
+                run[j].flip();
+            }
+            // the channel position is only used here, under the file's lock
+            ch.position((long) pageSize * first);
+            long remaining = (long) pageSize * n;
+            while (remaining > 0) {
+                remaining -= ch.write(run, 0, n);
+            }
+            i = end;
+        }
+    }
+
+    /**
+     * Returns a read-only view of page pageNo inside the mapped segment that
+     * contains it. A segment is (re)mapped when it is missing or when the
+     * file has grown past the end of its current mapping.
+     */
+    synchronized ByteBuffer mapPage(int pageNo) throws IOException {
+        int pageSize = BufferPool.getPageSize();
+        int seg = pageNo / PAGES_PER_SEGMENT;
+        int offset = (pageNo % PAGES_PER_SEGMENT) * pageSize;
+        
+        if (seg >= segments.length) {
+            segments = Arrays.copyOf(segments, seg + 1);
+        }
+        MappedByteBuffer mapping = segments[seg];
+        
+        if (mapping == null || mapping.capacity() < offset + pageSize) {
+            FileChannel ch = getChannel();
+            long start = (long) seg * PAGES_PER_SEGMENT * pageSize;
+            long len = Math.min((long) PAGES_PER_SEGMENT * pageSize, ch.size() - start);
+            
+            if (len < offset + pageSize) {
+                throw new IOException("page " + pageNo + " is past the end of " + f);
+            }
+            mapping = ch.map(FileChannel.MapMode.READ_ONLY, start, len);
+            segments[seg] = mapping;
+        }
+        ByteBuffer view = mapping.duplicate();
+        view.position(offset);
+        view.limit(offset + pageSize);
+        
+        return view.slice();
+    }
+
+    /**
+     * Fills buf with the bytes of page pageNo using a positional read on the
+     * shared channel; bytes past the end of the file are left untouched.
+     */
+    void readPageData(int pageNo, ByteBuffer buf) throws IOException {
+        FileChannel ch = getChannel();
+        long pos = (long) BufferPool.getPageSize() * pageNo;
+        
+        while (buf.hasRemaining()) {
+            int n = ch.read(buf, pos);
+            if (n < 0) {
+                break;
+            }
+            pos += n;
+        }
+    }
+
+    /**
+     * Writes the remaining bytes of buf as page pageNo using a positional
+     * write on the shared channel.
+     */
+    void writePageData(int pageNo, ByteBuffer buf) throws IOException {
+        FileChannel ch = getChannel();
+        long pos = (long) BufferPool.getPageSize() * pageNo;
+        
+        while (buf.hasRemaining()) {
+            pos += ch.write(buf, pos);
+        }
+    }
+
+    /**
+     * Extends this file by n empty pages and returns the number of the
+     * first one. Every caller gets its own pages, so a page appended here
+     * is never handed out twice.
+     */
+    synchronized int appendEmptyPages(int n) throws IOException {
+        int first = numPages();
+        
+        if (n > 0) {
+            // writing the last page is enough; the gap reads as zeros
+            writePageData(first + n - 1, ByteBuffer.wrap(HeapPage.createEmptyPageData()));
+        }
+        return first;
+    }
+
+    /**
+     * Reserves n new pages at the end of this file for a bulk load and
+     * returns the number of the first one. The pages are empty, and the
+     * free space map holds them back from inserts until
+     * {@link #releasePages} or {@link #clearPages}.
+     *
+     * @see BulkLoader
+     */
+    synchronized int reservePages(int n) throws IOException {
+        FreeSpaceMap fsm = getFreeSpaceMap();
+        int first = numPages();
+        
+        // before the pages exist, so that no insert finds them unknown
+        for (int i = 0; i < n; i++) {
+            fsm.reserve(first + i);
+        }
+        return appendEmptyPages(n);
+    }
+
+    /**
+     * Makes pages first .. first + n - 1, reserved by a bulk load that has
+     * committed, available to inserts with the free space recorded for them.
+     */
+    void releasePages(int first, int n) {
+        FreeSpaceMap fsm = getFreeSpaceMap();
+        
+        for (int p = first; p < first + n; p++) {
+            fsm.release(p);
+        }
+    }
+
+    /**
+     * Overwrites pages first .. first + n - 1 with empty pages, undoing a
+     * bulk load, and makes them available to inserts again. Nobody else
+     * has written to the pages: the loading transaction holds them locked
+     * and the free space map keeps inserts away from them.
+     */
+    synchronized void clearPages(int first, int n) throws IOException {
+        FreeSpaceMap fsm = getFreeSpaceMap();
+        int end = Math.min(first + n, numPages());
+        
+        for (int p = first; p < end; p++) {
+            writePageData(p, ByteBuffer.wrap(HeapPage.createEmptyPageData()));
+            fsm.update(p, 1, 1);
+            fsm.release(p);
+        }
+    }
+
+    /**
+     * Cuts this file down to its first numPages pages and forgets what the
+     * free space and zone maps knew about the rest. The caller must hold
+     * exclusive locks on the removed pages and drop them from the
+     * BufferPool.
+     *
+     * @see Vacuum
+     */
+    synchronized void truncate(int numPages) throws IOException {
+        if (numPages >= numPages()) {
+            return;
+        }
+        truncateData(numPages);
+        // mappings past the new end must not be touched again
+        segments = new MappedByteBuffer[0];
+        getFreeSpaceMap().truncate(numPages);
+        getZoneMap().truncate(numPages);
+    }
+
+    /**
+     * Removes the bytes of the pages from numPages on.
+     */
+    void truncateData(int numPages) throws IOException {
+        getChannel().truncate((long) BufferPool.getPageSize() * numPages);
+    }
+
+    /**
+     * Forces the pages written so far to the disk.
+     */
+    void force() throws IOException {
+        getChannel().force(false);
     }
 
     /**
@@ -103,25 +576,51 @@ public class HeapFile implements DbFile {
     public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
             throws DbException, IOException, TransactionAbortedException {
         ArrayList<Page> list = new ArrayList<>();
-        // iterate through pages
-        for (int i = 0; i < numPages(); i++) {
-            PageId pid = new HeapPageId(getId(), i);
-            HeapPage hpage = (HeapPage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_ONLY);
-            // if the current page has empty slot, insert tuple there
-            if (hpage.getNumEmptySlots() > 0) {
-                hpage = (HeapPage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_WRITE);
-                hpage.insertTuple(t);
-                list.add(hpage);
+        FreeSpaceMap fsm = getFreeSpaceMap();
+        BufferPool bp = Database.getBufferPool();
+        int pageNo;
+        
+        // try the pages the free space map says have room; only the page
+        // that is written stays locked
+        while ((pageNo = fsm.findPage(numPages())) >= 0) {
+            PageId pid = new HeapPageId(getId(), pageNo);
+            boolean held = bp.holdsLock(tid, pid);
+            Page page = bp.getPage(tid, pid, Permissions.READ_WRITE);
+            
+            if (insertIntoPage(page, t)) {
+                updateFreeSpace(fsm, page);
+                getZoneMap().add(pageNo, t);
+                list.add(page);
                 
                 return list;
             }
+            // the hint was stale; the page was only inspected, so the lock
+            // can go if this transaction did not hold it already
+            fsm.update(pageNo, 0, 1);
+            if (!held) {
+                bp.releasePage(tid, pid);
+            }
+        }
+        // every known page is full: add one; it may still be filled by a
+        // concurrent insert before this transaction locks it
+        while (true) {
+            pageNo = appendEmptyPages(1);
+            PageId pid = new HeapPageId(getId(), pageNo);
+            Page page = bp.getPage(tid, pid, Permissions.READ_WRITE);
+            boolean inserted = insertIntoPage(page, t);
+            
+            updateFreeSpace(fsm, page);
+            if (inserted) {
+                getZoneMap().add(pageNo, t);
+                list.add(page);
+                
+                return list;
+            }
+            if (fsm.getBucket(pageNo) == FreeSpaceMap.NUM_BUCKETS - 1) {
+                throw new DbException("tuple does not fit on an empty page");
+            }
+            bp.releasePage(tid, pid);
         }
-        HeapPageId pid = new HeapPageId(getId(), numPages());
-        HeapPage hpage = (HeapPage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_WRITE);
-        hpage.insertTuple(t);
-        list.add(hpage);
-        
-        return list;
     }
 
     // see DbFile.java for javadocs
@@ -129,9 +628,10 @@ public class HeapFile implements DbFile {
             TransactionAbortedException {
         ArrayList<Page> list = new ArrayList<>();
         PageId pid = t.getRecordId().getPageId();
-        HeapPage hpage =  (HeapPage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_WRITE);
-        hpage.deleteTuple(t);
-        list.add(hpage);
+        Page page = Database.getBufferPool().getPage(tid, pid, Permissions.READ_WRITE);
+        deleteFromPage(page, t);
+        updateFreeSpace(getFreeSpaceMap(), page);
+        list.add(page);
  
         return list;
     }
@@ -149,6 +649,14 @@ public class HeapFile implements DbFile {
         private TransactionId tid;
         private int pageNum;
         private Iterator<Tuple> tuples;
+        // predicates whose matches are the only tuples the caller wants
+        private final List<Predicate> pageFilters = new ArrayList<Predicate>();
+        // pages read in a row, in order; read-ahead starts once this is 2
+        private int sequentialRun;
+        // last page handed to the buffer pool for read-ahead
+        private int prefetchedUpTo;
+        // pages of the scan cycle through this ring if the table is large
+        private ScanRing ring;
         
         // constructor
         public HeapFileIterator(HeapFile hf, TransactionId tid) {
@@ -156,20 +664,104 @@ public class HeapFile implements DbFile {
             this.tid = tid;
         }
         
+        /**
+         * Lets the iterator skip pages that the zone map shows hold no tuple
+         * satisfying p, without reading them. The tuples of the other pages
+         * are still returned whether they satisfy p or not.
+         */
+        public void addPageFilter(Predicate p) {
+            pageFilters.add(p);
+        }
+        
+        /**
+         * Undoes addPageFilter(p).
+         */
+        public void removePageFilter(Predicate p) {
+            pageFilters.remove(p);
+        }
+        
+        /**
+         * @return the first page from pageNumber on that may hold a tuple
+         *         satisfying all page filters, or numPages
+         */
+        private int nextPage(int pageNumber, int numPages) {
+            if (pageFilters.isEmpty()) {
+                return pageNumber;
+            }
+            ZoneMap zones = hf.getZoneMap();
+            
+            for (; pageNumber < numPages; pageNumber++) {
+                boolean skip = false;
+                for (Predicate p : pageFilters) {
+                    if (!zones.mayMatch(pageNumber, p)) {
+                        skip = true;
+                        break;
+                    }
+                }
+                if (!skip) {
+                    break;
+                }
+            }
+            return pageNumber;
+        }
+        
         /**
          * Opens the iterator
          * @throws DbException when there are problems opening/accessing the database.
          */
         public void open() throws DbException, TransactionAbortedException {
-            pageNum = 0;
-            tuples = openHelper(pageNum).iterator();
+            int numPages = hf.numPages();
+            
+            pageNum = nextPage(0, numPages);
+            sequentialRun = 0;
+            prefetchedUpTo = 0;
+            if (ring == null) {
+                ring = Database.getBufferPool().newScanRing(numPages);
+            }
+            if (pageNum < numPages || pageFilters.isEmpty()) {
+                tuples = hf.pageIterator(openHelper(pageNum));
+            } else {
+                tuples = Collections.<Tuple>emptyList().iterator();
+            }
+        }
+        
+        /**
+         * Asks the buffer pool to read the pages following pageNum in the
+         * background once the scan has shown itself to be sequential. The
+         * window is topped up when less than half of it is left ahead.
+         */
+        private void readAhead(int numPages) {
+            BufferPool bp = Database.getBufferPool();
+            int window = bp.getReadAheadPages();
+            
+            if (++sequentialRun < 2 || window <= 0) {
+                return;
+            }
+            if (prefetchedUpTo - pageNum >= window / 2 && prefetchedUpTo > pageNum) {
+                return;
+            }
+            // never past the last page: reading page numPages() creates it
+            int last = Math.min(pageNum + window, numPages - 1);
+            List<PageId> pids = new ArrayList<PageId>();
+            
+            for (int i = Math.max(pageNum, prefetchedUpTo) + 1; i <= last; i++) {
+                // pages the scan will skip are not worth reading either
+                if (nextPage(i, i + 1) == i) {
+                    pids.add(new HeapPageId(hf.getId(), i));
+                }
+            }
+            if (!pids.isEmpty()) {
+                bp.prefetchPages(pids, ring);
+            }
+            prefetchedUpTo = Math.max(prefetchedUpTo, last);
         }
         
-        public HeapPage openHelper(int pageNumber) throws DbException, TransactionAbortedException {
+        public Page openHelper(int pageNumber) throws DbException, TransactionAbortedException {
             if (pageNumber < 0 || pageNumber >= hf.numPages()) {
                 return null;
             }
-            return (HeapPage) Database.getBufferPool().getPage(tid, new HeapPageId(hf.getId(), pageNumber), Permissions.READ_ONLY);
+            return Database.getBufferPool().getPage(tid, new HeapPageId(hf.getId(), pageNumber),
+                    Permissions.READ_ONLY, ring);
         
         }
         
@@ -182,11 +774,13 @@ public class HeapFile implements DbFile {
             
             // looking for tuples available from page to page
             while (!tuples.hasNext()) {
-                pageNum += 1;
+                int numPages = hf.numPages();
+                pageNum = nextPage(pageNum + 1, numPages);
                 
-                if (pageNum >= hf.numPages()) { return false; }
+                if (pageNum >= numPages) { return false; }
                 
-                tuples = openHelper(pageNum).iterator();
+                readAhead(numPages);
+                tuples = hf.pageIterator(openHelper(pageNum));
             }
             // loop terminated, found tuples
             return true;
@@ -2,6 +2,7 @@ package simpledb;
 
 import java.util.*;
 import java.io.*;
+import java.nio.ByteBuffer;
 
 /**
  * Each instance of HeapPage stores data for one page of HeapFiles and 
@@ -15,13 +16,26 @@ public class HeapPage implements Page {
 
     final HeapPageId pid;
     final TupleDesc td;
-    final byte header[];
-    final Tuple tuples[];
     final int numSlots;
+    final int headerSize;
+    final int tupleSize;
+    // start of each field within a slot
+    final int[] fieldOffsets;
     private TransactionId dirtytid;
 
+    // the serialized page is the primary representation: the header bitmap
+    // and the slots are read from and written to these bytes in place
+    ByteBuffer data;
+    // false while data is borrowed from the caller (e.g. a mapped region);
+    // the bytes are copied before the first modification
+    private boolean ownsData;
+    // number of clear bits in the header, kept up to date by markSlotUsed
+    private int numEmptySlots;
+
+    // the page bytes as of the first modification since the last commit;
+    // null while the page is unmodified, i.e. its own before image
     byte[] oldData;
-    private final Byte oldDataLock=new Byte((byte)0);
+    private final Object oldDataLock = new Object();
 
     /**
      * Create a HeapPage from a set of bytes of data read from disk.
@@ -35,30 +49,45 @@ public class HeapPage implements Page {
      * <p>
      *      ceiling(no. tuple slots / 8)
      * <p>
+     * The page keeps a reference to data rather than parsing it; tuples are
+     * decoded whenever their slot is accessed and not kept by the page.
      * @see Database#getCatalog
      * @see Catalog#getTupleDesc
      * @see BufferPool#getPageSize()
      */
     public HeapPage(HeapPageId id, byte[] data) throws IOException {
+        this(id, ByteBuffer.wrap(data));
+    }
+
+    /**
+     * Create a HeapPage from the bytes between the position and the limit of
+     * the given buffer, e.g. a region of a memory-mapped HeapFile.  The
+     * buffer is read in place and its position is left unchanged; it must
+     * not be modified by the caller while the page is in use.
+     *
+     * @see #HeapPage(HeapPageId, byte[])
+     */
+    public HeapPage(HeapPageId id, ByteBuffer data) throws IOException {
         this.pid = id;
         this.td = Database.getCatalog().getTupleDesc(id.getTableId());
+        this.tupleSize = td.getSize();
         this.numSlots = getNumTuples();
-        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
+        this.headerSize = getHeaderSize();
+        this.fieldOffsets = new int[td.numFields()];
+        for (int j = 1; j < fieldOffsets.length; j++) {
+            fieldOffsets[j] = fieldOffsets[j - 1] + td.getFieldType(j - 1).getLen();
+        }
+        this.data = data.slice();
+        this.ownsData = false;
 
-        // allocate and read the header slots of this page
-        header = new byte[getHeaderSize()];
-        for (int i=0; i<header.length; i++)
-            header[i] = dis.readByte();
-        
-        tuples = new Tuple[numSlots];
-        try{
-            // allocate and read the actual records of this page
-            for (int i=0; i<tuples.length; i++)
-                tuples[i] = readNextTuple(dis,i);
-        }catch(NoSuchElementException e){
-            e.printStackTrace();
+        if (this.data.remaining() < headerSize + numSlots * tupleSize) {
+            throw new IOException("page data too short: " + this.data.remaining() + " bytes");
+        }
+        int used = 0;
+        for (int w = 0; w < numHeaderWords(); w++) {
+            used += Long.bitCount(headerWord(w));
         }
-        dis.close();
+        this.numEmptySlots = numSlots - used;
 
         setBeforeImage();
     }
@@ -87,7 +116,7 @@ public class HeapPage implements Page {
             {
                 oldDataRef = oldData;
             }
-            return new HeapPage(pid,oldDataRef);
+            return newPage(oldDataRef != null ? oldDataRef : getPageData());
         } catch (IOException e) {
             e.printStackTrace();
             //should never happen -- we parsed it OK before!
@@ -95,11 +124,34 @@ public class HeapPage implements Page {
         }
         return null;
     }
+
+    // see Page.java for javadocs
+    public void getBeforeImageData(ByteBuffer buf) {
+        byte[] oldDataRef = null;
+        synchronized(oldDataLock)
+        {
+            oldDataRef = oldData;
+        }
+        if (oldDataRef != null) {
+            buf.put(oldDataRef, 0, BufferPool.getPageSize());
+        } else {
+            getPageData(buf);
+        }
+    }
     
+    /**
+     * Creates a page of the same kind as this one from serialized bytes.
+     */
+    protected HeapPage newPage(byte[] data) throws IOException {
+        return new HeapPage(pid, data);
+    }
+
     public void setBeforeImage() {
         synchronized(oldDataLock)
         {
-            oldData = getPageData().clone();
+            // the current contents are the before image until the next
+            // modification, which snapshots them
+            oldData = null;
         }
     }
 
@@ -111,21 +163,24 @@ public class HeapPage implements Page {
     }
 
     /**
-     * Suck up tuples from the source file.
+     * @return the tuple in slot i, or null if the slot is empty or not on
+     *   this page
      */
-    private Tuple readNextTuple(DataInputStream dis, int slotId) throws NoSuchElementException {
-        // if associated bit is not set, read forward to the next tuple, and
-        // return null.
-        if (!isSlotUsed(slotId)) {
-            for (int i=0; i<td.getSize(); i++) {
-                try {
-                    dis.readByte();
-                } catch (IOException e) {
-                    throw new NoSuchElementException("error reading empty tuple");
-                }
-            }
+    public Tuple getTupleInSlot(int i) {
+        if (i < 0 || i >= getNumSlots() || !isSlotUsed(i)) {
             return null;
         }
+        return readTuple(i);
+    }
+
+    /**
+     * Decode the tuple stored in slot slotId.
+     */
+    protected Tuple readTuple(int slotId) throws NoSuchElementException {
+        // a private cursor, so that concurrent readers of the page do not
+        // disturb each other
+        ByteBuffer buf = data.duplicate();
+        buf.position(slotOffset(slotId));
 
         // read fields in the tuple
         Tuple t = new Tuple(td);
@@ -133,7 +188,7 @@ public class HeapPage implements Page {
         t.setRecordId(rid);
         try {
             for (int j=0; j<td.numFields(); j++) {
-                Field f = td.getFieldType(j).parse(dis);
+                Field f = td.getFieldType(j).parse(buf);
                 t.setField(j, f);
             }
         } catch (java.text.ParseException e) {
@@ -144,6 +199,69 @@ public class HeapPage implements Page {
         return t;
     }
 
+    /**
+     * @return the offset of slot i within the page bytes.
+     */
+    private int slotOffset(int i) {
+        return headerSize + i * tupleSize;
+    }
+
+    /**
+     * @return the offset of field j of slot i within the page bytes.
+     */
+    protected int fieldOffset(int i, int j) {
+        return slotOffset(i) + fieldOffsets[j];
+    }
+
+    /**
+     * Widens mins[c] and maxs[c] to cover the int field fields[c] of every
+     * tuple on this page. The values are read from the page bytes, without
+     * decoding any tuple.
+     */
+    void widenIntRanges(int[] fields, int[] mins, int[] maxs) {
+        for (int i = 0; i < numSlots; i++) {
+            if (!isSlotUsed(i)) {
+                continue;
+            }
+            for (int c = 0; c < fields.length; c++) {
+                int v = data.getInt(fieldOffset(i, fields[c]));
+                mins[c] = Math.min(mins[c], v);
+                maxs[c] = Math.max(maxs[c], v);
+            }
+        }
+    }
+
+    /**
+     * Snapshot the before image if this is the first modification since the
+     * last commit, and copy borrowed page bytes into a private array before
+     * they are modified.
+     */
+    private void ensureWritable() {
+        detachTuples();
+        synchronized(oldDataLock)
+        {
+            if (oldData == null) {
+                oldData = getPageData();
+            }
+        }
+        if (!ownsData) {
+            byte[] copy = new byte[data.capacity()];
+            data.duplicate().get(copy);
+            data = ByteBuffer.wrap(copy);
+            ownsData = true;
+        }
+    }
+
+    /**
+     * Gives the tuples that read their fields from the page bytes in place
+     * a private copy of those bytes. Called before the bytes are modified
+     * and before they are handed back to their owner, e.g. when the
+     * BufferPool frees the frame of this page. Tuples of a HeapPage are
+     * decoded when they are returned, so there is nothing to do here.
+     */
+    void detachTuples() {
+    }
+
     /**
      * Generates a byte array representing the contents of this page.
      * Used to serialize this page to disk.
@@ -156,64 +274,24 @@ public class HeapPage implements Page {
      * @return A byte array correspond to the bytes of this page.
      */
     public byte[] getPageData() {
-        int len = BufferPool.getPageSize();
-        ByteArrayOutputStream baos = new ByteArrayOutputStream(len);
-        DataOutputStream dos = new DataOutputStream(baos);
-
-        // create the header of the page
-        for (int i=0; i<header.length; i++) {
-            try {
-                dos.writeByte(header[i]);
-            } catch (IOException e) {
-                // this really shouldn't happen
-                e.printStackTrace();
-            }
-        }
-
-        // create the tuples
-        for (int i=0; i<tuples.length; i++) {
-
-            // empty slot
-            if (!isSlotUsed(i)) {
-                for (int j=0; j<td.getSize(); j++) {
-                    try {
-                        dos.writeByte(0);
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                    }
-
-                }
-                continue;
-            }
-
-            // non-empty slot
-            for (int j=0; j<td.numFields(); j++) {
-                Field f = tuples[i].getField(j);
-                try {
-                    f.serialize(dos);
-                
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
-            }
-        }
+        byte[] out = new byte[BufferPool.getPageSize()];
+        
+        // header and slots are kept serialized; everything past them is
+        // padding and stays zero
+        data.duplicate().get(out, 0, headerSize + numSlots * tupleSize);
 
-        // padding
-        int zerolen = BufferPool.getPageSize() - (header.length + td.getSize() * tuples.length); //- numSlots * td.getSize();
-        byte[] zeroes = new byte[zerolen];
-        try {
-            dos.write(zeroes, 0, zerolen);
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
+        return out;
+    }
 
-        try {
-            dos.flush();
-        } catch (IOException e) {
-            e.printStackTrace();
+    // see Page.java for javadocs
+    public void getPageData(ByteBuffer buf) {
+        int used = headerSize + numSlots * tupleSize;
+        ByteBuffer src = data.duplicate();
+        src.limit(used);
+        buf.put(src);
+        for (int i = used; i < BufferPool.getPageSize(); i++) {
+            buf.put((byte) 0);
         }
-
-        return baos.toByteArray();
     }
 
     /**
@@ -247,8 +325,11 @@ public class HeapPage implements Page {
         if (!isSlotUsed(tupleNo)) {
             throw new DbException("the slot is empty");
         }
-        // not physically deleting, instead, set the slot empty
+        // not physically deleting, instead, set the slot empty and clear
+        // its bytes so the page serializes as it would have been written
+        ensureWritable();
         markSlotUsed(tupleNo, false);
+        clearSlot(tupleNo);
     }
 
     /**
@@ -262,20 +343,42 @@ public class HeapPage implements Page {
         if (!t.getTupleDesc().equals(td)) {
             throw new DbException("TupleDesc is not matched");
         } else {
-            for (int i = 0; i < numSlots; i++) {
-                // there is empty slot to insert tuple
-                if (!isSlotUsed(i)) {
-                    markSlotUsed(i, true);
-                    t.setRecordId(new RecordId(getId(), i));
-                    tuples[i] = t;
-                    
-                    return;
-                }
+            int i = firstEmptySlot();
+            // there is empty slot to insert tuple
+            if (i >= 0) {
+                ensureWritable();
+                writeTuple(i, t);
+                markSlotUsed(i, true);
+                t.setRecordId(new RecordId(getId(), i));
+                
+                return;
             }
         }
         throw new DbException("this page is full");
     }
 
+    /**
+     * Zero the bytes of slot i.
+     */
+    protected void clearSlot(int i) {
+        int off = slotOffset(i);
+        for (int j = 0; j < tupleSize; j++) {
+            data.put(off + j, (byte) 0);
+        }
+    }
+
+    /**
+     * Serialize the fields of t into slot i of the page bytes.
+     */
+    protected void writeTuple(int i, Tuple t) throws DbException {
+        ByteBuffer buf = data.duplicate();
+        buf.position(slotOffset(i));
+        
+        for (int j = 0; j < td.numFields(); j++) {
+            t.getField(j).serialize(buf);
+        }
+    }
+
     /**
      * Marks this page as dirty/not dirty and record that transaction
      * that did the dirtying
@@ -295,19 +398,18 @@ public class HeapPage implements Page {
         return dirtytid;
     }
 
+    /**
+     * Returns the total number of slots on this page.
+     */
+    public int getNumSlots() {
+        return numSlots;
+    }
+
     /**
      * Returns the number of empty slots on this page.
      */
     public int getNumEmptySlots() {
-        int num = 0;
-        
-        for (int i = 0; i < numSlots; i++) {
-            if (!isSlotUsed(i)) {
-                num += 1;
-            }
-        }
-        
-        return num;
+        return numEmptySlots;
     }
 
     /**
@@ -315,18 +417,76 @@ public class HeapPage implements Page {
      */
     public boolean isSlotUsed(int i) {
         // use bitwise operator
-        return (((header[i / 8] >> (i % 8)) & 1) == 1);
+        return (((data.get(i / 8) >> (i % 8)) & 1) == 1);
     }
 
     /**
      * Abstraction to fill or clear a slot on this page.
      */
     private void markSlotUsed(int i, boolean value) {
+        byte b = data.get(i / 8);
+        byte old = b;
         if (value) {
-            header[i / 8] |= (1 << (i % 8));
+            b |= (1 << (i % 8));
+        } else {
+            b &= ~(1 << (i % 8));
+        }
+        if (b != old) {
+            numEmptySlots += value ? -1 : 1;
+            data.put(i / 8, b);
+        }
+    }
+
+    /**
+     * @return the number of 64-bit words covering the header bitmap
+     */
+    private int numHeaderWords() {
+        return (numSlots + 63) / 64;
+    }
+
+    /**
+     * Returns bits 64 * w to 64 * w + 63 of the header bitmap, with bit k of
+     * the result set if slot 64 * w + k is in use. Bits past the last slot
+     * are always clear, whatever the padding of the last header byte holds.
+     */
+    private long headerWord(int w) {
+        int off = w * 8;
+        long word;
+        
+        if (off + 8 <= headerSize) {
+            // slot i is bit i % 8 of byte i / 8, i.e. little-endian order
+            word = Long.reverseBytes(data.getLong(off));
         } else {
-            header[i / 8] ^= (1 << (i % 8));
+            word = 0;
+            for (int k = headerSize - 1; k >= off; k--) {
+                word = (word << 8) | (data.get(k) & 0xFFL);
+            }
         }
+        int valid = numSlots - w * 64;
+        if (valid < 64) {
+            word &= (1L << valid) - 1;
+        }
+        return word;
+    }
+
+    /**
+     * @return the lowest empty slot, or -1 if the page is full
+     */
+    private int firstEmptySlot() {
+        if (numEmptySlots == 0) {
+            return -1;
+        }
+        for (int w = 0; w < numHeaderWords(); w++) {
+            int valid = Math.min(64, numSlots - w * 64);
+            long free = ~headerWord(w);
+            if (valid < 64) {
+                free &= (1L << valid) - 1;
+            }
+            if (free != 0) {
+                return w * 64 + Long.numberOfTrailingZeros(free);
+            }
+        }
+        return -1;
     }
 
     /**
@@ -334,16 +494,38 @@ public class HeapPage implements Page {
      * (note that this iterator shouldn't return tuples in empty slots!)
      */
     public Iterator<Tuple> iterator() {
-        List<Tuple> tList = new ArrayList<>();
-        
-        for (int i = 0; i < numSlots; i++) {
-            // only add tuple in slots
-            if (isSlotUsed(i)) {
-                tList.add(tuples[i]);
-            }
+        // the slots in use when the iterator is created, one word at a time;
+        // their tuples are decoded as the iterator reaches them and belong
+        // to the caller
+        final long[] words = new long[numHeaderWords()];
+        for (int w = 0; w < words.length; w++) {
+            words[w] = headerWord(w);
         }
         
-        return tList.iterator();
+        return new Iterator<Tuple>() {
+            private int w = 0;
+            private long bits = words.length > 0 ? words[0] : 0;
+
+            public boolean hasNext() {
+                while (bits == 0 && w + 1 < words.length) {
+                    bits = words[++w];
+                }
+                return bits != 0;
+            }
+
+            public Tuple next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                int slot = w * 64 + Long.numberOfTrailingZeros(bits);
+                // clear the lowest set bit
+                bits &= bits - 1;
+                return readTuple(slot);
+            }
+
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
     }
 }
-
@@ -0,0 +1,103 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * IndexJoin is an index nested-loop equijoin: for each tuple of the outer
+ * (left) child it looks the matching tuples of the inner table up in an index
+ * on the inner join field, instead of rescanning the whole inner child as
+ * {@link Join} does.
+ * <p>
+ * The inner child is a plan over the indexed table whose leaf is an
+ * {@link IndexScan} on the join field, possibly under Filters on the inner
+ * table. Before each outer tuple the scan is given the outer join value and
+ * the inner child is rewound.
+ */
+public class IndexJoin extends Join {
+
+    private static final long serialVersionUID = 1L;
+    private IndexScan probe;
+    private Tuple outer;
+
+    /**
+     * Constructor.
+     *
+     * @param p
+     *            The equality predicate to join the children on
+     * @param child1
+     *            Iterator for the left(outer) relation to join
+     * @param child2
+     *            Iterator for the right(inner) relation to join: an IndexScan
+     *            with EQUALS on the field p.getField2(), possibly under
+     *            Filters
+     */
+    public IndexJoin(JoinPredicate p, OpIterator child1, OpIterator child2) {
+        super(p, child1, child2);
+        this.probe = probeOf(p, child2);
+    }
+
+    /**
+     * @return the IndexScan at the leaf of inner
+     * @throws IllegalArgumentException if p and inner do not make an index
+     *   equijoin
+     */
+    private static IndexScan probeOf(JoinPredicate p, OpIterator inner) {
+        OpIterator leaf = inner;
+        while (leaf instanceof Filter) {
+            leaf = ((Filter) leaf).getChildren()[0];
+        }
+        if (p.getOperator() != Predicate.Op.EQUALS || !(leaf instanceof IndexScan)
+                || ((IndexScan) leaf).getPredicate().getOp() != Predicate.Op.EQUALS) {
+            throw new IllegalArgumentException("not an index equijoin");
+        }
+        return (IndexScan) leaf;
+    }
+
+    /**
+     * @return the index the inner relation is probed through
+     */
+    public TableIndex getIndex() {
+        return probe.getIndex();
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        super.open();
+        outer = null;
+    }
+
+    /**
+     * Returns the next joined tuple, the concatenation of an outer tuple and
+     * an inner tuple whose join field equals the outer one, as Join does.
+     */
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        JoinPredicate p = getJoinPredicate();
+        OpIterator child1 = getChild1();
+        OpIterator child2 = getChild2();
+
+        while (true) {
+            if (outer == null) {
+                if (!child1.hasNext()) {
+                    return null;
+                }
+                outer = child1.next();
+                probe.setValue(outer.getField(p.getField1()));
+                child2.rewind();
+            }
+            while (child2.hasNext()) {
+                Tuple s = child2.next();
+                if (p.filter(outer, s)) {
+                    return merge(outer, s);
+                }
+            }
+            outer = null;
+        }
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        IndexScan leaf = probeOf(getJoinPredicate(), children[1]);
+        super.setChildren(children);
+        probe = leaf;
+    }
+}
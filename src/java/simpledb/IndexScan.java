@@ -0,0 +1,150 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * IndexScan is an access method that reads the tuples of a table whose
+ * indexed field satisfies a predicate "field op value", as found by a
+ * {@link TableIndex}, instead of every tuple of the table.
+ * <p>
+ * The record ids of the matching entries are collected when the scan is
+ * opened and sorted by page, so each page of the table is read at most once
+ * and the tuples come out in page order rather than key order. Each tuple
+ * read is checked against the predicate again, since an entry may be stale
+ * and point at a slot that now holds another tuple.
+ */
+public class IndexScan extends SeqScan {
+
+    private static final long serialVersionUID = 1L;
+    private final TransactionId tid;
+    private final TableIndex index;
+    private final Predicate.Op op;
+    private Field value;
+    private final HeapFile file;
+    private List<RecordId> rids;
+    private Predicate predicate;
+    private int pos;
+    private Tuple next;
+
+    /**
+     * Creates a scan over the tuples of the indexed table of index whose
+     * indexed field satisfies "field op value".
+     *
+     * @param tid
+     *            The transaction this scan is running as a part of.
+     * @param index
+     *            the index to look the tuples up in
+     * @param op
+     *            the comparison, which the index must support
+     * @param value
+     *            the constant to compare the indexed field with, or null
+     *            for a scan that returns nothing until it is given a value
+     *            by {@link #setValue}
+     * @param tableAlias
+     *            the alias of the table, as in {@link SeqScan}
+     */
+    public IndexScan(TransactionId tid, TableIndex index, Predicate.Op op, Field value,
+            String tableAlias) {
+        super(tid, index.getTableId(), tableAlias);
+        if (!index.supports(op)) {
+            throw new IllegalArgumentException(index + " does not support " + op);
+        }
+        this.tid = tid;
+        this.index = index;
+        this.op = op;
+        this.value = value;
+        this.file = (HeapFile) Database.getCatalog().getDatabaseFile(index.getTableId());
+    }
+
+    public TableIndex getIndex() {
+        return index;
+    }
+
+    /**
+     * Changes the constant the indexed field is compared with. Takes effect
+     * when the scan is next opened or rewound; IndexJoin uses this to probe
+     * the index once per outer tuple.
+     */
+    void setValue(Field value) {
+        this.value = value;
+    }
+
+    /**
+     * @return the predicate the scanned tuples satisfy
+     */
+    public Predicate getPredicate() {
+        return new Predicate(index.getField(), op, value);
+    }
+
+    /**
+     * Does nothing: the scan only reads the pages its index points to.
+     */
+    @Override
+    public void addPageFilter(Predicate p) {
+    }
+
+    @Override
+    public void removePageFilter(Predicate p) {
+    }
+
+    @Override
+    public void open() throws DbException, TransactionAbortedException {
+        rids = new ArrayList<RecordId>();
+        predicate = getPredicate();
+        if (value != null) {
+            DbFileIterator entries = index.entries(tid, op, value);
+            entries.open();
+            while (entries.hasNext()) {
+                rids.add(index.recordIdOf(entries.next()));
+            }
+            entries.close();
+        }
+
+        Collections.sort(rids, new Comparator<RecordId>() {
+            public int compare(RecordId a, RecordId b) {
+                int c = Integer.compare(a.getPageId().getPageNumber(), b.getPageId().getPageNumber());
+                return c != 0 ? c : Integer.compare(a.getTupleNumber(), b.getTupleNumber());
+            }
+        });
+        pos = 0;
+        next = null;
+    }
+
+    @Override
+    public boolean hasNext() throws TransactionAbortedException, DbException {
+        if (rids == null) {
+            return false;
+        }
+        while (next == null && pos < rids.size()) {
+            next = file.getTuple(tid, rids.get(pos++));
+            if (next != null && !predicate.filter(next)) {
+                next = null;
+            }
+        }
+        return next != null;
+    }
+
+    @Override
+    public Tuple next() throws NoSuchElementException,
+            TransactionAbortedException, DbException {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        Tuple t = next;
+        next = null;
+        return t;
+    }
+
+    @Override
+    public void close() {
+        rids = null;
+        next = null;
+    }
+
+    @Override
+    public void rewind() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        close();
+        open();
+    }
+}
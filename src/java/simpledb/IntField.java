@@ -40,6 +40,10 @@ public class IntField implements Field {
         dos.writeInt(value);
     }
 
+    public void serialize(java.nio.ByteBuffer buf) {
+        buf.putInt(value);
+    }
+
     /**
      * Compare the specified field to the value of this Field.
      * Return semantics are as specified by Field.compare
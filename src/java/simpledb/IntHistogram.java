@@ -261,8 +261,18 @@ public class IntHistogram {
      * */
     public double avgSelectivity()
     {
-        // some code goes here
-        return 1.0;
+        if (numTuples == 0) {
+            return 1.0;
+        }
+        // the EQUALS selectivity of a value drawn from the histogrammed
+        // values: a value falls in bucket i with probability buckets[i] / n
+        // and then matches buckets[i] / width / n of the values
+        double sel = 0;
+        for (int i = 0; i < buckets.length; i++) {
+            double w = i < buckets.length - 1 ? width : lastWidth;
+            sel += ((double) buckets[i] / numTuples) * (buckets[i] / w / numTuples);
+        }
+        return sel;
     }
     
     /**
@@ -121,22 +121,43 @@ public class Join extends Operator {
                 Tuple s = child2.next();
                 
                 if (p.filter(r, s)) {
-                    Tuple tuple = new Tuple(td);
-                    
-                    for (int i = 0; i < td1.numFields(); i++) {
-                        tuple.setField(i, r.getField(i));
-                    }
-                    for (int j = 0; j < td2.numFields(); j++) {
-                        tuple.setField(td1.numFields() + j, s.getField(j));
-                    }
-                    
-                    return tuple;
+                    return merge(r, s);
                 }
             }
             r = null;
         }
     }
 
+    /**
+     * @return the left (outer) child
+     */
+    protected OpIterator getChild1() {
+        return child1;
+    }
+
+    /**
+     * @return the right (inner) child
+     */
+    protected OpIterator getChild2() {
+        return child2;
+    }
+
+    /**
+     * @return the concatenation of a tuple of child1 and a tuple of child2
+     */
+    protected Tuple merge(Tuple t1, Tuple t2) {
+        Tuple tuple = new Tuple(td);
+
+        for (int i = 0; i < td1.numFields(); i++) {
+            tuple.setField(i, t1.getField(i));
+        }
+        for (int j = 0; j < td2.numFields(); j++) {
+            tuple.setField(td1.numFields() + j, t2.getField(j));
+        }
+
+        return tuple;
+    }
+
     @Override
     public OpIterator[] getChildren() {
         OpIterator[] iter = new OpIterator[] { child1, child2 };
@@ -13,6 +13,8 @@ import javax.swing.tree.*;
 public class JoinOptimizer {
     LogicalPlan p;
     Vector<LogicalJoinNode> joins;
+    // the table stats orderJoins was given, by base table name
+    Map<String, TableStats> stats;
 
     /**
      * Constructor
@@ -34,6 +36,10 @@ public class JoinOptimizer {
      * inner/outer here -- because OpIterator's don't provide any cardinality
      * estimates, and stats only has information about the base tables. For this
      * reason, the plan1
+     * <p>
+     * An equijoin whose right child scans a table with an index on the join
+     * field becomes an {@link IndexJoin} probing that index; any other join
+     * is a nested-loop {@link Join}.
      * 
      * @param lj
      *            The join being considered
@@ -68,12 +74,58 @@ public class JoinOptimizer {
 
         JoinPredicate p = new JoinPredicate(t1id, lj.p, t2id);
 
-        j = new Join(p,plan1,plan2);
+        OpIterator probed = lj instanceof LogicalSubplanJoinNode ? null
+                : indexedInner(plan2, lj.p, t2id);
+        if (probed != null) {
+            j = new IndexJoin(p, plan1, probed);
+        } else {
+            j = new Join(p,plan1,plan2);
+        }
 
         return j;
 
     }
 
+    /**
+     * Rewrites plan, a scan of a table under zero or more Filters, to read
+     * the table through an index on field that is probed with "field op
+     * value" for each outer tuple, as IndexJoin needs.
+     *
+     * @return the rewritten plan, or null if plan does not scan a table or
+     *         the table has no such index
+     */
+    private static OpIterator indexedInner(OpIterator plan, Predicate.Op op, int field) {
+        if (op != Predicate.Op.EQUALS) {
+            return null;
+        }
+        Filter parent = null;
+        OpIterator leaf = plan;
+        while (leaf instanceof Filter) {
+            parent = (Filter) leaf;
+            leaf = parent.getChildren()[0];
+        }
+        if (!(leaf instanceof SeqScan)) {
+            return null;
+        }
+        SeqScan scan = (SeqScan) leaf;
+        TableIndex index = Database.getCatalog().getIndex(scan.getTableId(), field, op);
+        if (index == null) {
+            return null;
+        }
+
+        OpIterator probe = new IndexScan(scan.getTransactionId(), index, op, null, scan.getAlias());
+        if (leaf instanceof IndexScan) {
+            // the scan answered a filter of the table, which now has to be
+            // applied to the probed tuples instead
+            probe = new Filter(((IndexScan) leaf).getPredicate(), probe);
+        }
+        if (parent == null) {
+            return probe;
+        }
+        parent.setChildren(new OpIterator[] { probe });
+        return plan;
+    }
+
     /**
      * Estimate the cost of a join.
      * 
@@ -102,16 +154,54 @@ public class JoinOptimizer {
      */
     public double estimateJoinCost(LogicalJoinNode j, int card1, int card2,
             double cost1, double cost2) {
+        return estimateJoinCost(j, card1, card2, cost1, cost2, true);
+    }
+
+    /**
+     * Estimate the cost of a join, as {@link #estimateJoinCost(LogicalJoinNode,
+     * int, int, double, double)}.
+     *
+     * @param rightIsTable
+     *            true if the right-hand side is the table j.t2Alias itself
+     *            rather than a join containing it, so an index of the table
+     *            can be probed
+     */
+    private double estimateJoinCost(LogicalJoinNode j, int card1, int card2,
+            double cost1, double cost2, boolean rightIsTable) {
         if (j instanceof LogicalSubplanJoinNode) {
             // A LogicalSubplanJoinNode represents a subquery.
             // You do not need to implement proper support for these for Lab 3.
             return card1 + cost1 + cost2;
-        } else {
-            // Insert your code here.
-            // HINT: You may need to use the variable "j" if you implemented
-            // a join algorithm that's more complicated than a basic
-            // nested-loops join.
-            return cost1 + (card1 * (cost2 + card2));
+        }
+        TableIndex index = rightIsTable ? rightIndex(j) : null;
+        if (index != null) {
+            String name = Database.getCatalog().getTableName(index.getTableId());
+            TableStats s = stats != null ? stats.get(name) : TableStats.getTableStats(name);
+            if (s != null) {
+                // an index join probes the index once per outer tuple and
+                // reads the average number of matches of a value
+                double sel = s.avgSelectivity(index.getField(), j.p);
+                double probe = s.estimateIndexScanCost(index, sel) + s.totalTuples() * sel;
+                return cost1 + card1 * probe;
+            }
+        }
+        return cost1 + (card1 * (cost2 + card2));
+    }
+
+    /**
+     * @return the index instantiateJoin would probe for the right-hand table
+     *         of j, or null if j is not an equijoin on an indexed field
+     */
+    private TableIndex rightIndex(LogicalJoinNode j) {
+        Integer tableid = j.t2Alias == null ? null : p.getTableId(j.t2Alias);
+        if (j.p != Predicate.Op.EQUALS || tableid == null) {
+            return null;
+        }
+        try {
+            int field = Database.getCatalog().getTupleDesc(tableid).fieldNameToIndex(j.f2PureName);
+            return Database.getCatalog().getIndex(tableid, field, j.p);
+        } catch (NoSuchElementException e) {
+            return null;
         }
     }
 
@@ -235,10 +325,12 @@ public class JoinOptimizer {
             throws ParsingException {
         //Not necessary for labs 1--3
 
+        this.stats = stats;
         // some code goes here
         // follow the algorithm in class
         PlanCache pc = new PlanCache();
-        Vector<LogicalJoinNode> optJoin = null;
+        // a query without joins has nothing to order
+        Vector<LogicalJoinNode> optJoin = new Vector<LogicalJoinNode>();
         
         for (int i = 1; i <= joins.size(); i++) {
             for (Set<LogicalJoinNode> nodeSet : enumerateSubsets(joins, i)) {
@@ -325,6 +417,8 @@ public class JoinOptimizer {
         double t1cost, t2cost;
         int t1card, t2card;
         boolean leftPkey, rightPkey;
+        // whether each side is a base relation rather than a subplan
+        boolean leftTable = true, rightTable = true;
 
         if (news.isEmpty()) { // base case -- both are base relations
             prevBest = new Vector<LogicalJoinNode>();
@@ -360,6 +454,7 @@ public class JoinOptimizer {
                 // subtree is
                 t1card = bestCard;
                 leftPkey = hasPkey(prevBest);
+                leftTable = false;
 
                 t2cost = j.t2Alias == null ? 0 : stats.get(table2Name)
                         .estimateScanCost();
@@ -376,6 +471,7 @@ public class JoinOptimizer {
                 // subtree is
                 t2card = bestCard;
                 rightPkey = hasPkey(prevBest);
+                rightTable = false;
                 t1cost = stats.get(table1Name).estimateScanCost();
                 t1card = stats.get(table1Name).estimateTableCardinality(
                         filterSelectivities.get(j.t1Alias));
@@ -389,10 +485,10 @@ public class JoinOptimizer {
         }
 
         // case where prevbest is left
-        double cost1 = estimateJoinCost(j, t1card, t2card, t1cost, t2cost);
+        double cost1 = estimateJoinCost(j, t1card, t2card, t1cost, t2cost, rightTable);
 
         LogicalJoinNode j2 = j.swapInnerOuter();
-        double cost2 = estimateJoinCost(j2, t2card, t1card, t2cost, t1cost);
+        double cost2 = estimateJoinCost(j2, t2card, t1card, t2cost, t1cost, leftTable);
         if (cost2 < cost1) {
             boolean tmp;
             j = j2;
@@ -40,6 +40,24 @@ class LockManager {
         locker.unlock();
     }
 
+    // acquire shared lock if no other transaction holds an exclusive one,
+    // without waiting
+    public boolean tryAcquireShared(TransactionId tid, PageId pid) {
+        locker.lock();
+
+        try {
+            SimpleLock slock = locks.get(pid);
+
+            if (slock == null) {
+                slock = new SimpleLock(locker, dependencyGraph);
+                locks.put(pid, slock);
+            }
+            return slock.acquireShared(tid);
+        } finally {
+            locker.unlock();
+        }
+    }
+
     // acquire exclusive lock
     public void acquireExclusive(TransactionId tid, PageId pid) throws TransactionAbortedException {
         locker.lock();
@@ -80,6 +98,19 @@ class LockManager {
         }
     }
     
+    // check whether any transaction holds a lock on the page
+    public boolean isLocked(PageId pid) {
+        locker.lock();
+
+        try {
+            SimpleLock slock = locks.get(pid);
+
+            return slock != null && !slock.getOwners().isEmpty();
+        } finally {
+            locker.unlock();
+        }
+    }
+
     // release a lock
     public void release(TransactionId tid, PageId pid) {
         locker.lock();
@@ -51,8 +51,8 @@ transaction id.
 <li> Each log record ends with a long integer file offset representing
 the position in the log file where the record began.
 
-<li> There are five record types: ABORT, COMMIT, UPDATE, BEGIN, and
-CHECKPOINT
+<li> There are six record types: ABORT, COMMIT, UPDATE, BEGIN,
+CHECKPOINT and BULK_LOAD
 
 <li> ABORT, COMMIT, and BEGIN records contain no additional data
 
@@ -67,6 +67,14 @@ of the record is an integer count of the number of transactions, as well
 as a long integer transaction id and a long integer first record offset
 for each active transaction.
 
+<li> BULK_LOAD records stand for pages appended to a table by
+BulkLoader, instead of an UPDATE record per page.  They consist of the
+integer table id, first page number and number of pages.  The pages
+are written after the record and forced before the transaction
+commits, so there is nothing to redo; undo empties the pages again.
+The loading transaction holds the pages locked and inserts are kept
+away from them, so no other transaction can have written to them.
+
 </ul>
 
 */
@@ -75,6 +83,9 @@ public class LogFile {
 
     final File logFile;
     private RandomAccessFile raf;
+    // reused to serialize the pages of update records; callers hold the
+    // LogFile lock
+    private java.nio.ByteBuffer pageBuffer;
     Boolean recoveryUndecided; // no call to recover() and no append to log
 
     static final int ABORT_RECORD = 1;
@@ -82,6 +93,7 @@ public class LogFile {
     static final int UPDATE_RECORD = 3;
     static final int BEGIN_RECORD = 4;
     static final int CHECKPOINT_RECORD = 5;
+    static final int BULK_LOAD_RECORD = 6;
     static final long NO_CHECKPOINT_ID = -1;
 
     final static int INT_SIZE = 4;
@@ -198,6 +210,7 @@ public class LogFile {
                                        Page after)
         throws IOException  {
         Debug.log("WRITE, offset = " + raf.getFilePointer());
+        forceReferenced(after);
         preAppend();
         /* update record conists of
 
@@ -218,7 +231,75 @@ public class LogFile {
         Debug.log("WRITE OFFSET = " + currentOffset);
     }
 
+    /** Write an UPDATE record to disk for the specified tid and page,
+        taking the before image from the page's snapshot bytes rather
+        than from a before-image page.
+        @param tid The transaction performing the write
+        @param page The page, whose current contents are the after image
+
+        @see simpledb.Page#getBeforeImageData
+    */
+    public  synchronized void logWrite(TransactionId tid, Page page)
+        throws IOException  {
+        Debug.log("WRITE, offset = " + raf.getFilePointer());
+        forceReferenced(page);
+        preAppend();
+
+        raf.writeInt(UPDATE_RECORD);
+        raf.writeLong(tid.getId());
+
+        writePageData(raf,page,true);
+        writePageData(raf,page,false);
+        raf.writeLong(currentOffset);
+        currentOffset = raf.getFilePointer();
+
+        Debug.log("WRITE OFFSET = " + currentOffset);
+    }
+
+    /** Force what a page about to be logged refers to outside of
+        itself, i.e. the string dictionary of a SlottedPage, so that a
+        redone record never holds a code the dictionary lost.
+    */
+    private void forceReferenced(Page page) throws IOException {
+        if (page instanceof SlottedPage) {
+            ((SlottedPage) page).forceDictionary();
+        }
+    }
+
+    /** Write a BULK_LOAD record for pages that the specified tid is
+        about to append to a table, and force the log to disk.  The
+        pages must not be written before this returns.
+
+        @param tid The transaction loading the pages
+        @param tableId The table the pages belong to
+        @param firstPage The number of the first page
+        @param numPages The number of pages
+
+        @see simpledb.BulkLoader
+    */
+    public synchronized void logBulkLoad(TransactionId tid, int tableId,
+                                         int firstPage, int numPages)
+        throws IOException {
+        Debug.log("BULK LOAD, offset = " + raf.getFilePointer());
+        preAppend();
+
+        raf.writeInt(BULK_LOAD_RECORD);
+        raf.writeLong(tid.getId());
+        raf.writeInt(tableId);
+        raf.writeInt(firstPage);
+        raf.writeInt(numPages);
+        raf.writeLong(currentOffset);
+        currentOffset = raf.getFilePointer();
+        force();
+    }
+
     void writePageData(RandomAccessFile raf, Page p) throws IOException{
+        writePageData(raf, p, false);
+    }
+
+    /** Writes p, or its before image if before is set, in the format
+        readPageData expects. */
+    void writePageData(RandomAccessFile raf, Page p, boolean before) throws IOException{
         PageId pid = p.getId();
         int pageInfo[] = pid.serialize();
 
@@ -240,9 +321,18 @@ public class LogFile {
         for (int i = 0; i < pageInfo.length; i++) {
             raf.writeInt(pageInfo[i]);
         }
-        byte[] pageData = p.getPageData();
-        raf.writeInt(pageData.length);
-        raf.write(pageData);
+        int pageSize = BufferPool.getPageSize();
+        if (pageBuffer == null || pageBuffer.capacity() != pageSize) {
+            pageBuffer = java.nio.ByteBuffer.allocate(pageSize);
+        }
+        pageBuffer.clear();
+        if (before) {
+            p.getBeforeImageData(pageBuffer);
+        } else {
+            p.getPageData(pageBuffer);
+        }
+        raf.writeInt(pageBuffer.position());
+        raf.write(pageBuffer.array(), 0, pageBuffer.position());
         //        Debug.log ("WROTE PAGE DATA, CLASS = " + pageClassName + ", table = " +  pid.getTableId() + ", page = " + pid.pageno());
     }
 
@@ -265,7 +355,7 @@ public class LogFile {
             }
             pid = (PageId)idConsts[0].newInstance(idArgs);
 
-            Constructor<?>[] pageConsts = pageClass.getDeclaredConstructors();
+            Constructor<?> pageConst = getPageConstructor(pageClass);
             int pageSize = raf.readInt();
 
             byte[] pageData = new byte[pageSize];
@@ -275,7 +365,7 @@ public class LogFile {
             pageArgs[0] = pid;
             pageArgs[1] = pageData;
 
-            newPage = (Page)pageConsts[0].newInstance(pageArgs);
+            newPage = (Page)pageConst.newInstance(pageArgs);
 
             //            Debug.log("READ PAGE OF TYPE " + pageClassName + ", table = " + newPage.getId().getTableId() + ", page = " + newPage.getId().pageno());
         } catch (ClassNotFoundException e){
@@ -295,6 +385,20 @@ public class LogFile {
 
     }
 
+    /** Find the Page(PageId id, byte[] data) constructor of a page class,
+        which may declare other constructors as well.
+    */
+    static Constructor<?> getPageConstructor(Class<?> pageClass) throws IOException {
+        for (Constructor<?> c : pageClass.getDeclaredConstructors()) {
+            Class<?>[] params = c.getParameterTypes();
+            if (params.length == 2 && PageId.class.isAssignableFrom(params[0])
+                    && params[1] == byte[].class) {
+                return c;
+            }
+        }
+        throw new IOException("no (PageId, byte[]) constructor in " + pageClass.getName());
+    }
+
     /** Write a BEGIN record for the specified transaction
         @param tid The transaction that is beginning
 
@@ -416,6 +520,12 @@ public class LogFile {
                     writePageData(logNew, before);
                     writePageData(logNew, after);
                     
+                    break;
+                case BULK_LOAD_RECORD:
+                    logNew.writeInt(raf.readInt());
+                    logNew.writeInt(raf.readInt());
+                    logNew.writeInt(raf.readInt());
+                    
                     break;
                 case CHECKPOINT_RECORD:
                     int numXactions = raf.readInt();
@@ -487,6 +597,10 @@ public class LogFile {
         synchronized (Database.getBufferPool()) {
             synchronized (this) {
                 raf.seek(offset);
+                // a page written out more than once by the transaction has
+                // several update records; only the first before-image
+                // predates the transaction
+                HashSet<PageId> restored = new HashSet<PageId>();
                 
                 while (raf.getFilePointer() < raf.length()) {
                     int recordType = raf.readInt();
@@ -497,10 +611,25 @@ public class LogFile {
                         Page before = readPageData(raf);
                         readPageData(raf);
                         
+                        if (recordId == tid && restored.add(before.getId())) {
+                            installPage(before);
+                        }
+                        
+                        break;
+                    case BULK_LOAD_RECORD:
+                        int tableId = raf.readInt();
+                        int firstPage = raf.readInt();
+                        int numPages = raf.readInt();
+                        
                         if (recordId == tid) {
-                            Database.getCatalog().getDatabaseFile(
-                                    before.getId().getTableId()).writePage(before);
-                            Database.getBufferPool().discardPage(before.getId());
+                            DbFile file = Database.getCatalog().getDatabaseFile(tableId);
+                            if (file instanceof HeapFile) {
+                                ((HeapFile) file).clearPages(firstPage, numPages);
+                            }
+                            for (int i = 0; i < numPages; i++) {
+                                Database.getBufferPool().discardPage(
+                                        new HeapPageId(tableId, firstPage + i));
+                            }
                         }
                         
                         break;
@@ -587,8 +716,14 @@ public class LogFile {
                         Page before = readPageData(raf);
                         Page after = readPageData(raf);
                         
-                        Database.getCatalog().getDatabaseFile(before.getId().getTableId()).writePage(after);
-                        Database.getBufferPool().discardPage(before.getId());
+                        installPage(after);
+                        raf.readLong();
+                        
+                        break;
+                    case BULK_LOAD_RECORD:
+                        // the pages were forced before the commit; losers
+                        // are undone below
+                        raf.seek(raf.getFilePointer() + 3 * INT_SIZE);
                         raf.readLong();
                         
                         break;
@@ -619,6 +754,22 @@ public class LogFile {
          }
     }
 
+    /** Write a page from the log to its table, drop any cached copy of
+        it and record the free space on it, which the table's free space
+        map may remember differently.
+
+        @param page The page to write
+    */
+    private void installPage(Page page) throws IOException {
+        DbFile file = Database.getCatalog().getDatabaseFile(page.getId().getTableId());
+
+        file.writePage(page);
+        Database.getBufferPool().discardPage(page.getId());
+        if (file instanceof HeapFile) {
+            ((HeapFile) file).refreshFreeSpace(page);
+        }
+    }
+
     /** Print out a human readable represenation of the log */
     public void print() throws IOException {
         // some code goes here
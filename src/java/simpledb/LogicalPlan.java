@@ -306,6 +306,9 @@ public class LogicalPlan {
 
         }
 
+        // the parsed filters and their selectivities, in the order of filters
+        ArrayList<Predicate> predicates = new ArrayList<Predicate>();
+        ArrayList<Double> selectivities = new ArrayList<Double>();
         Iterator<LogicalFilterNode> filterIt = filters.iterator();        
         while (filterIt.hasNext()) {
             LogicalFilterNode lf = filterIt.next();
@@ -334,15 +337,59 @@ public class LogicalPlan {
             } catch (NoSuchElementException e) {
                 throw new ParsingException("Unknown field " + lf.fieldQuantifiedName);
             }
-            subplanMap.put(lf.tableAlias, new Filter(p, subplan));
+            predicates.add(p);
 
             TableStats s = statsMap.get(Database.getCatalog().getTableName(this.getTableId(lf.tableAlias)));
             
             double sel= s.estimateSelectivity(subplan.getTupleDesc().fieldNameToIndex(lf.fieldQuantifiedName), lf.p, f);
+            selectivities.add(sel);
             filterSelectivities.put(lf.tableAlias, filterSelectivities.get(lf.tableAlias) * sel);
 
             //s.addSelectivityFactor(estimateFilterSelectivity(lf,statsMap));
         }
+
+        // scan a table through an index instead if one of its filters can
+        // use an index and that costs less than the sequential scan
+        for (LogicalScanNode table : tables) {
+            TableStats s = statsMap.get(Database.getCatalog().getTableName(table.t));
+            double bestCost = s.estimateScanCost();
+            TableIndex bestIndex = null;
+            int bestFilter = -1;
+
+            for (int i = 0; i < filters.size(); i++) {
+                Predicate p = predicates.get(i);
+                if (!filters.get(i).tableAlias.equals(table.alias)) {
+                    continue;
+                }
+                TableIndex index = Database.getCatalog().getIndex(table.t, p.getField(), p.getOp());
+                if (index == null) {
+                    continue;
+                }
+                double cost = s.estimateIndexScanCost(index, selectivities.get(i));
+                if (cost < bestCost) {
+                    bestCost = cost;
+                    bestIndex = index;
+                    bestFilter = i;
+                }
+            }
+            if (bestIndex != null) {
+                Predicate p = predicates.get(bestFilter);
+                subplanMap.put(table.alias, new IndexScan(t, bestIndex, p.getOp(), p.getOperand(), table.alias));
+                // the index scan applies this filter itself
+                predicates.set(bestFilter, null);
+                if (explain) {
+                    System.out.println("Scanning " + table.alias + " through the " + bestIndex
+                            + " for " + filters.get(bestFilter).fieldQuantifiedName + " " + p.getOp()
+                            + " " + p.getOperand());
+                }
+            }
+        }
+        for (int i = 0; i < filters.size(); i++) {
+            if (predicates.get(i) != null) {
+                String alias = filters.get(i).tableAlias;
+                subplanMap.put(alias, new Filter(predicates.get(i), subplanMap.get(alias)));
+            }
+        }
         
         JoinOptimizer jo = new JoinOptimizer(this,joins);
 
@@ -0,0 +1,152 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * LruKPolicy is the LRU-K replacement policy: it evicts the page whose K-th
+ * most recent access is the oldest. Pages accessed fewer than K times come
+ * first, least recently used first, so a page that a scan touches once is
+ * evicted before any page of the working set that was accessed K times.
+ * <p>
+ * Accesses are stamped with a logical clock. Repeated accesses to the same
+ * page with no access to another page in between, e.g. several tuples
+ * inserted into one page, are correlated and count as one.
+ */
+public class LruKPolicy implements ReplacementPolicy {
+
+    /** Default K: LRU-2. */
+    public static final int DEFAULT_K = 2;
+
+    private final int k;
+    private long clock;
+    private PageId lastAccessed;
+    private final Map<PageId, History> histories;
+    // tracked pages, coldest first
+    private final TreeSet<History> order;
+
+    /**
+     * The access history of a tracked page: the times of its last K
+     * accesses, 0 for accesses that did not happen.
+     */
+    private static class History {
+        final PageId pid;
+        final long id;
+        // times[next] is the K-th most recent access
+        final long[] times;
+        int next;
+
+        History(PageId pid, long id, int k) {
+            this.pid = pid;
+            this.id = id;
+            this.times = new long[k];
+        }
+
+        long kthAccess() {
+            return times[next];
+        }
+
+        long lastAccess() {
+            return times[(next + times.length - 1) % times.length];
+        }
+    }
+
+    private static final Comparator<History> COLDEST_FIRST = new Comparator<History>() {
+        public int compare(History a, History b) {
+            int c = Long.compare(a.kthAccess(), b.kthAccess());
+            if (c == 0) {
+                c = Long.compare(a.lastAccess(), b.lastAccess());
+            }
+            if (c == 0) {
+                c = Long.compare(a.id, b.id);
+            }
+            return c;
+        }
+    };
+
+    /**
+     * Creates an LRU-2 policy.
+     */
+    public LruKPolicy() {
+        this(DEFAULT_K);
+    }
+
+    /**
+     * @param k the number of accesses remembered per page; LRU-1 is LRU
+     */
+    public LruKPolicy(int k) {
+        if (k < 1) {
+            throw new IllegalArgumentException("k must be positive");
+        }
+        this.k = k;
+        this.clock = 0;
+        this.histories = new HashMap<PageId, History>();
+        this.order = new TreeSet<History>(COLDEST_FIRST);
+    }
+
+    // see ReplacementPolicy.java for javadocs
+    public synchronized void pageAdded(PageId pid) {
+        historyOf(pid);
+    }
+
+    // see ReplacementPolicy.java for javadocs
+    public synchronized void pageAccessed(PageId pid) {
+        History h = historyOf(pid);
+
+        order.remove(h);
+        clock++;
+        if (pid.equals(lastAccessed) && h.lastAccess() != 0) {
+            // correlated with the previous access: move it instead
+            h.times[(h.next + k - 1) % k] = clock;
+        } else {
+            h.times[h.next] = clock;
+            h.next = (h.next + 1) % k;
+        }
+        lastAccessed = pid;
+        order.add(h);
+    }
+
+    // see ReplacementPolicy.java for javadocs
+    public synchronized void pageRemoved(PageId pid) {
+        History h = histories.remove(pid);
+
+        if (h != null) {
+            order.remove(h);
+        }
+        if (pid.equals(lastAccessed)) {
+            lastAccessed = null;
+        }
+    }
+
+    /**
+     * @return the history of pid, which is tracked with no accesses if it
+     *   was not tracked yet
+     */
+    private History historyOf(PageId pid) {
+        History h = histories.get(pid);
+
+        if (h == null) {
+            h = new History(pid, ++clock, k);
+            histories.put(pid, h);
+            order.add(h);
+        }
+        return h;
+    }
+
+    // see ReplacementPolicy.java for javadocs
+    public synchronized List<PageId> evictionCandidates(int max) {
+        List<PageId> candidates = new ArrayList<PageId>();
+
+        for (History h : order) {
+            if (candidates.size() >= max) {
+                break;
+            }
+            candidates.add(h.pid);
+        }
+        return candidates;
+    }
+
+    // see ReplacementPolicy.java for javadocs
+    public ReplacementPolicy newInstance() {
+        return new LruKPolicy(k);
+    }
+}
@@ -7,7 +7,7 @@ package simpledb;
  * Pages may be "dirty", indicating that they have been modified since they
  * were last written out to disk.
  *
- * For recovery purposes, pages MUST have a single constructor of the form:
+ * For recovery purposes, pages MUST have a constructor of the form:
  *     Page(PageId id, byte[] data)
  */
 public interface Page {
@@ -46,14 +46,28 @@ public interface Page {
 
     public byte[] getPageData();
 
+  /**
+   * Writes the same bytes as {@link #getPageData()} into buf, starting at
+   * its position and advancing it by BufferPool.getPageSize() bytes.
+   * Lets callers serialize pages into buffers they reuse.
+   */
+    public void getPageData(java.nio.ByteBuffer buf);
+
     /** Provide a representation of this page before any modifications were made
         to it.  Used by recovery.
     */
     public Page getBeforeImage();
 
+  /**
+   * Writes the bytes of {@link #getBeforeImage()} into buf like
+   * {@link #getPageData(java.nio.ByteBuffer)}, without building the
+   * before-image page. Used to log updates.
+   */
+    public void getBeforeImageData(java.nio.ByteBuffer buf);
+
     /*
      * a transaction that wrote this page just committed it.
-     * copy current content to the before image.
+     * the current content becomes the before image.
      */
     public void setBeforeImage();
 }
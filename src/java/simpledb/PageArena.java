@@ -0,0 +1,137 @@
+package simpledb;
+
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/**
+ * PageArena is a fixed set of page-sized frames preallocated outside the Java
+ * heap, in direct ByteBuffers, together with the frame table that maps the
+ * pages of the buffer pool to their frames. Pages cached by an off-heap
+ * {@link BufferPool} are views over their frame, so the page bytes of a large
+ * pool are neither scanned nor copied by the garbage collector.
+ * <p>
+ * A frame belongs to a page until it is released. A page that left the pool
+ * while a transaction may still be reading its old view is retired instead:
+ * it keeps its frame, which is not reused before the page is released.
+ * <p>
+ * The arena counts against the direct memory limit of the JVM
+ * (-XX:MaxDirectMemorySize), not against the heap.
+ */
+class PageArena {
+    // frames are cut from buffers of at most this size, well below the 2 GB
+    // limit of a single ByteBuffer
+    private static final int CHUNK_BYTES = 1 << 30;
+
+    private final int frameSize;
+    private final int framesPerChunk;
+    private final ByteBuffer[] chunks;
+    private final int numFrames;
+    // frame of every page that owns one
+    private final Map<PageId, Integer> frameTable;
+    // pages that are no longer cached but still own their frame
+    private final Set<PageId> retired;
+    // stack of unowned frames
+    private final int[] freeFrames;
+    private int numFree;
+
+    /**
+     * Allocates the frames of the arena.
+     *
+     * @param numFrames the number of frames
+     * @param frameSize the size of a frame, i.e. the page size
+     */
+    public PageArena(int numFrames, int frameSize) {
+        this.frameSize = frameSize;
+        this.framesPerChunk = Math.max(1, CHUNK_BYTES / frameSize);
+        this.numFrames = numFrames;
+        this.chunks = new ByteBuffer[(numFrames + framesPerChunk - 1) / framesPerChunk];
+        for (int c = 0; c < chunks.length; c++) {
+            int frames = Math.min(framesPerChunk, numFrames - c * framesPerChunk);
+            chunks[c] = ByteBuffer.allocateDirect(frames * frameSize);
+        }
+        this.frameTable = new HashMap<PageId, Integer>();
+        this.retired = new HashSet<PageId>();
+        this.freeFrames = new int[numFrames];
+        for (int f = 0; f < numFrames; f++) {
+            freeFrames[f] = numFrames - 1 - f;
+        }
+        this.numFree = numFrames;
+    }
+
+    /**
+     * @return the size of a frame in bytes
+     */
+    public int getFrameSize() {
+        return frameSize;
+    }
+
+    /**
+     * @return the number of frames in the arena
+     */
+    public int getNumFrames() {
+        return numFrames;
+    }
+
+    /**
+     * @return the number of frames not owned by any page
+     */
+    public synchronized int getNumFreeFrames() {
+        return numFree;
+    }
+
+    /**
+     * Returns the frame of pid, giving pid a free frame if it does not own
+     * one yet. A retired page that asks for its frame again is cached again.
+     *
+     * @return a buffer spanning exactly the frame, or null if pid has no
+     *   frame and none is free
+     */
+    public synchronized ByteBuffer frame(PageId pid) {
+        Integer frame = frameTable.get(pid);
+
+        if (frame == null) {
+            if (numFree == 0) {
+                return null;
+            }
+            frame = freeFrames[--numFree];
+            frameTable.put(pid, frame);
+        }
+        retired.remove(pid);
+
+        ByteBuffer buf = chunks[frame / framesPerChunk].duplicate();
+        int offset = (frame % framesPerChunk) * frameSize;
+        buf.position(offset);
+        buf.limit(offset + frameSize);
+        return buf.slice();
+    }
+
+    /**
+     * Marks the frame of pid as possibly still in use by views of a page
+     * that is no longer cached.
+     */
+    public synchronized void retire(PageId pid) {
+        if (frameTable.containsKey(pid)) {
+            retired.add(pid);
+        }
+    }
+
+    /**
+     * @return the pages that were retired and not released since
+     */
+    public synchronized List<PageId> getRetired() {
+        return new ArrayList<PageId>(retired);
+    }
+
+    /**
+     * Frees the frame of pid, if it owns one. Views of the page must no
+     * longer be read, as the frame may be given to another page.
+     */
+    public synchronized void release(PageId pid) {
+        Integer frame = frameTable.remove(pid);
+
+        if (frame != null) {
+            retired.remove(pid);
+            freeFrames[numFree++] = frame;
+        }
+    }
+}
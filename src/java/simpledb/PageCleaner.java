@@ -0,0 +1,130 @@
+package simpledb;
+
+import java.io.IOException;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * PageCleaner is the background writer of a {@link BufferPool}. It writes
+ * dirty pages of completed transactions to disk ahead of eviction, so that
+ * a target fraction of the pool stays clean or free and a transaction that
+ * misses the pool finds a page to evict without writing it and forcing the
+ * log itself.
+ * <p>
+ * The pool wakes the cleaner whenever a page is read into it or a
+ * transaction commits. A round of cleaning then runs on a thread of its
+ * own, at least {@link #INTERVAL_MILLIS} after the last one unless that one
+ * reached its page limit; wakes in between are folded into the next round.
+ * The thread only exists while there is work for it.
+ *
+ * @see BufferPool#cleanPages
+ */
+class PageCleaner implements Runnable {
+
+    /** Least time between two rounds that had nothing more to write. */
+    public static final long INTERVAL_MILLIS = 100;
+
+    /** Most pages written in one round. */
+    public static final int MAX_PAGES_PER_ROUND = 64;
+
+    private final BufferPool pool;
+    private final int numPages;
+    private volatile double cleanFraction;
+    // true while a round is queued or running
+    private final AtomicBoolean scheduled;
+    // true if the cleaner was woken since the current round started
+    private final AtomicBoolean woken;
+    // System.currentTimeMillis() before which no round starts
+    private volatile long nextRound;
+    private final ScheduledThreadPoolExecutor executor;
+
+    /**
+     * @param pool the pool to clean
+     * @param numPages the number of pages of the pool
+     * @param cleanFraction the fraction of the pool to keep clean or free;
+     *   0 disables the cleaner
+     */
+    public PageCleaner(BufferPool pool, int numPages, double cleanFraction) {
+        this.pool = pool;
+        this.numPages = numPages;
+        this.scheduled = new AtomicBoolean();
+        this.woken = new AtomicBoolean();
+        this.nextRound = 0;
+        setCleanFraction(cleanFraction);
+        this.executor = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "BufferPool-cleaner");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        this.executor.setKeepAliveTime(1, TimeUnit.SECONDS);
+        this.executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * @return the fraction of the pool kept clean or free
+     */
+    public double getCleanFraction() {
+        return cleanFraction;
+    }
+
+    /**
+     * Sets the fraction of the pool to keep clean or free, between 0 and 1;
+     * 0 disables the cleaner.
+     */
+    public void setCleanFraction(double fraction) {
+        this.cleanFraction = Math.max(0, Math.min(1, fraction));
+    }
+
+    /**
+     * Schedules a round of cleaning in the background if the cleaner is
+     * enabled and no round is scheduled yet.
+     */
+    public void wake() {
+        if (cleanFraction == 0) {
+            return;
+        }
+        woken.set(true);
+        schedule();
+    }
+
+    private void schedule() {
+        if (scheduled.compareAndSet(false, true)) {
+            long delay = Math.max(0, nextRound - System.currentTimeMillis());
+            executor.schedule(this, delay, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Runs one round of cleaning.
+     */
+    public void run() {
+        int written = 0;
+        woken.set(false);
+        if (Database.getBufferPool() != pool) {
+            // replaced, e.g. by Database.resetBufferPool: the pages it still
+            // holds may be older than those written through its successor
+            scheduled.set(false);
+            return;
+        }
+        try {
+            int target = (int) Math.ceil(cleanFraction * numPages);
+            written = pool.cleanPages(target, MAX_PAGES_PER_ROUND);
+        } catch (IOException e) {
+            // the transaction that evicts the page hits the error itself
+        } finally {
+            // a full round leaves more to write: the next one may follow
+            if (written >= MAX_PAGES_PER_ROUND) {
+                nextRound = 0;
+                woken.set(true);
+            } else {
+                nextRound = System.currentTimeMillis() + INTERVAL_MILLIS;
+            }
+            scheduled.set(false);
+            if (woken.get() && cleanFraction > 0) {
+                schedule();
+            }
+        }
+    }
+}
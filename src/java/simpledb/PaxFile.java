@@ -0,0 +1,80 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+
+/**
+ * PaxFile is a HeapFile whose pages use the column-wise PaxPage layout.
+ * Inserts, deletes, free space tracking, scans and page I/O all behave as
+ * in a HeapFile; only the arrangement of the bytes inside each page
+ * differs, so that scans decode just the columns they read.
+ * <p>
+ * A PaxFile is created from an existing HeapFile with {@link #convert}.
+ *
+ * @see PaxPage
+ */
+public class PaxFile extends HeapFile {
+
+    /**
+     * Constructs a PAX file backed by the specified file. Pages are always
+     * read into private buffers: tuples of a PaxPage decode their fields
+     * lazily, so they must not read from a mapping that later writes of
+     * the same page would change under them.
+     *
+     * @param f
+     *            the file that stores the on-disk backing store for this file.
+     */
+    public PaxFile(File f, TupleDesc td) {
+        super(f, td, false);
+    }
+
+    @Override
+    protected HeapPage createPage(HeapPageId pid, ByteBuffer data) throws IOException {
+        return new PaxPage(pid, data);
+    }
+
+    /**
+     * Rewrites a HeapFile into the PaxPage layout. Slots keep their page
+     * and slot numbers, so RecordIds are the same in both files.
+     *
+     * @param heapFile the source file, in HeapPage layout
+     * @param paxFile the file to create
+     * @param td the schema of the table stored in heapFile
+     */
+    public static void convert(File heapFile, File paxFile, TupleDesc td) throws IOException {
+        int pageSize = BufferPool.getPageSize();
+        int tupleSize = td.getSize();
+        int numSlots = (pageSize * 8) / (tupleSize * 8 + 1);
+        int headerSize = (numSlots + 7) / 8;
+        int[] columnOffsets = PaxPage.columnOffsets(td, numSlots, headerSize);
+
+        byte[] in = new byte[pageSize];
+        byte[] out = new byte[pageSize];
+        DataInputStream dis = new DataInputStream(new BufferedInputStream(new FileInputStream(heapFile)));
+        OutputStream os = new BufferedOutputStream(new FileOutputStream(paxFile));
+
+        try {
+            long numPages = heapFile.length() / pageSize;
+
+            for (long p = 0; p < numPages; p++) {
+                dis.readFully(in);
+                java.util.Arrays.fill(out, (byte) 0);
+                System.arraycopy(in, 0, out, 0, headerSize);
+
+                for (int i = 0; i < numSlots; i++) {
+                    int src = headerSize + i * tupleSize;
+
+                    for (int j = 0; j < columnOffsets.length; j++) {
+                        int len = td.getFieldType(j).getLen();
+                        System.arraycopy(in, src, out, columnOffsets[j] + i * len, len);
+                        src += len;
+                    }
+                }
+                os.write(out);
+            }
+        } finally {
+            dis.close();
+            os.close();
+        }
+    }
+}
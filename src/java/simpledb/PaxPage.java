@@ -0,0 +1,199 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.NoSuchElementException;
+
+/**
+ * PaxPage stores one page of a PaxFile. It holds the same tuples as a
+ * HeapPage of the same table, but lays them out column by column (PAX,
+ * "Partition Attributes Across"): after the header bitmap, each column of
+ * the table has its own minipage holding that column's value for every
+ * slot. Column j of slot i lives at
+ * <p>
+ *      headerSize + numSlots * (size of columns 0 .. j-1) + i * size of column j
+ * <p>
+ * Tuples returned by this page leave their values in the minipages and
+ * parse a field only when it is first read, so a scan that uses a few
+ * columns of a wide table only touches those columns. Before the page
+ * bytes are modified or reused, e.g. by an off-heap BufferPool, the tuples
+ * handed out so far are given one private copy of the page to read from.
+ *
+ * @see PaxFile
+ * @see HeapPage
+ */
+public class PaxPage extends HeapPage {
+
+    // start of the minipage of each column within the page bytes
+    private final int[] columnOffsets;
+    // the bytes read by the tuples handed out since the last detachTuples;
+    // null if there are none
+    private Source lent;
+
+    /**
+     * Create a PaxPage from a set of bytes of data read from disk.
+     *
+     * @see HeapPage#HeapPage(HeapPageId, byte[])
+     */
+    public PaxPage(HeapPageId id, byte[] data) throws IOException {
+        this(id, ByteBuffer.wrap(data));
+    }
+
+    /**
+     * Create a PaxPage from the bytes between the position and the limit of
+     * the given buffer.
+     *
+     * @see HeapPage#HeapPage(HeapPageId, ByteBuffer)
+     */
+    public PaxPage(HeapPageId id, ByteBuffer data) throws IOException {
+        super(id, data);
+        this.columnOffsets = columnOffsets(td, numSlots, headerSize);
+    }
+
+    /**
+     * Computes where each column's minipage starts on a page with the given
+     * number of slots and header bytes.
+     */
+    static int[] columnOffsets(TupleDesc td, int numSlots, int headerSize) {
+        int[] offsets = new int[td.numFields()];
+        int off = headerSize;
+
+        for (int j = 0; j < offsets.length; j++) {
+            offsets[j] = off;
+            off += numSlots * td.getFieldType(j).getLen();
+        }
+        return offsets;
+    }
+
+    @Override
+    protected HeapPage newPage(byte[] data) throws IOException {
+        return new PaxPage(pid, data);
+    }
+
+    @Override
+    public PaxPage getBeforeImage() {
+        return (PaxPage) super.getBeforeImage();
+    }
+
+    @Override
+    protected int fieldOffset(int i, int j) {
+        return columnOffsets[j] + i * td.getFieldType(j).getLen();
+    }
+
+    @Override
+    protected Tuple readTuple(int slotId) throws NoSuchElementException {
+        Source source;
+
+        synchronized (this) {
+            if (lent == null) {
+                lent = new Source(data);
+            }
+            source = lent;
+        }
+        Tuple t = new LazyTuple(td, source, slotId);
+        t.setRecordId(new RecordId(pid, slotId));
+
+        return t;
+    }
+
+    @Override
+    synchronized void detachTuples() {
+        if (lent != null) {
+            synchronized (lent) {
+                lent.bytes = ByteBuffer.wrap(getPageData());
+            }
+            lent = null;
+        }
+    }
+
+    @Override
+    protected void writeTuple(int i, Tuple t) throws DbException {
+        ByteBuffer buf = data.duplicate();
+
+        for (int j = 0; j < td.numFields(); j++) {
+            buf.position(fieldOffset(i, j));
+            t.getField(j).serialize(buf);
+        }
+    }
+
+    @Override
+    protected void clearSlot(int i) {
+        for (int j = 0; j < td.numFields(); j++) {
+            int len = td.getFieldType(j).getLen();
+            int off = fieldOffset(i, j);
+
+            for (int k = 0; k < len; k++) {
+                data.put(off + k, (byte) 0);
+            }
+        }
+    }
+
+    /**
+     * The page bytes shared by a group of LazyTuples. They read it while
+     * holding its lock, so that detachTuples cannot swap in the copy while
+     * a field is being parsed.
+     */
+    private static class Source {
+        ByteBuffer bytes;
+
+        Source(ByteBuffer bytes) {
+            this.bytes = bytes;
+        }
+    }
+
+    /**
+     * A tuple of a PaxPage whose fields are parsed from the minipages on
+     * first access.
+     */
+    private class LazyTuple extends Tuple {
+        private static final long serialVersionUID = 1L;
+
+        private final Source source;
+        private final int slot;
+
+        LazyTuple(TupleDesc td, Source source, int slot) {
+            super(td);
+            this.source = source;
+            this.slot = slot;
+        }
+
+        @Override
+        public Field getField(int i) {
+            Field f = super.getField(i);
+
+            if (f == null) {
+                f = decode(i);
+                super.setField(i, f);
+            }
+            return f;
+        }
+
+        @Override
+        public java.util.Iterator<Field> fields() {
+            decodeAll();
+            return super.fields();
+        }
+
+        private void decodeAll() {
+            for (int i = 0; i < columnOffsets.length; i++) {
+                getField(i);
+            }
+        }
+
+        private Field decode(int i) {
+            Type type = td.getFieldType(i);
+
+            synchronized (source) {
+                ByteBuffer b = source.bytes.duplicate();
+                b.position(fieldOffset(slot, i));
+
+                try {
+                    return type.parse(b);
+                } catch (java.text.ParseException e) {
+                    e.printStackTrace();
+                    throw new NoSuchElementException("parsing error!");
+                }
+            }
+        }
+    }
+}
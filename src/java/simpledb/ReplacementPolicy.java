@@ -0,0 +1,47 @@
+package simpledb;
+
+import java.util.List;
+
+/**
+ * ReplacementPolicy decides which pages a {@link BufferPool} evicts when it
+ * is full. The pool reports the pages entering it, the accesses to them and
+ * the pages leaving it, and asks for eviction candidates, coldest first; the
+ * pool itself prefers clean candidates, so that an eviction does not have to
+ * write a page and force the log.
+ * <p>
+ * A policy belongs to one partition of one BufferPool. Its methods may be
+ * called concurrently.
+ */
+public interface ReplacementPolicy {
+
+    /**
+     * Called when pid is added to the pool without being accessed, e.g. by a
+     * read-ahead. Does nothing if pid is already tracked.
+     */
+    public void pageAdded(PageId pid);
+
+    /**
+     * Called whenever a transaction fetches pid from the pool; tracks pid if
+     * it is not tracked yet.
+     */
+    public void pageAccessed(PageId pid);
+
+    /**
+     * Called when pid leaves the pool. Does nothing if pid is not tracked.
+     */
+    public void pageRemoved(PageId pid);
+
+    /**
+     * Returns up to max tracked pages in the order they should be evicted,
+     * coldest first. The policy may age the pages it passes over, as CLOCK
+     * does, but it keeps tracking all of them until they are removed.
+     *
+     * @param max the maximum number of pages to return
+     */
+    public List<PageId> evictionCandidates(int max);
+
+    /**
+     * @return a new policy of the same kind and settings, tracking no pages
+     */
+    public ReplacementPolicy newInstance();
+}
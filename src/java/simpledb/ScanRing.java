@@ -0,0 +1,47 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * ScanRing is the small private set of buffer pool pages a large sequential
+ * scan cycles through. The pages the scan reads into the pool are added to
+ * its ring; once the ring is full, every page read pushes out the oldest
+ * page of the ring, which the pool then drops instead of evicting a page of
+ * the shared working set. Pages the scan finds already cached are shared and
+ * never enter the ring.
+ *
+ * @see BufferPool#newScanRing
+ */
+class ScanRing {
+    private final int size;
+    private final ArrayDeque<PageId> pages;
+
+    /**
+     * @param size the number of pages in the ring
+     */
+    public ScanRing(int size) {
+        this.size = Math.max(1, size);
+        this.pages = new ArrayDeque<PageId>();
+    }
+
+    /**
+     * @return the number of pages in the ring
+     */
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * Adds a page read by the scan to the ring.
+     *
+     * @return the page pushed out of the ring to make room for pid, or null
+     *   if the ring was not full or already held pid
+     */
+    public synchronized PageId add(PageId pid) {
+        if (pages.contains(pid)) {
+            return null;
+        }
+        pages.addLast(pid);
+        return pages.size() > size ? pages.removeFirst() : null;
+    }
+}
@@ -43,6 +43,27 @@ public class SeqScan implements OpIterator {
         this.td = file.getTupleDesc();
     }
 
+    /**
+     * Tells the scan that only tuples satisfying p are wanted, so it may
+     * skip the pages of a HeapFile that its zone map shows hold none. The
+     * scan still returns every tuple of the pages it reads; p has to be
+     * applied by a Filter, which adds it while it is open.
+     */
+    public void addPageFilter(Predicate p) {
+        if (iterator instanceof HeapFile.HeapFileIterator) {
+            ((HeapFile.HeapFileIterator) iterator).addPageFilter(p);
+        }
+    }
+
+    /**
+     * Undoes addPageFilter(p).
+     */
+    public void removePageFilter(Predicate p) {
+        if (iterator instanceof HeapFile.HeapFileIterator) {
+            ((HeapFile.HeapFileIterator) iterator).removePageFilter(p);
+        }
+    }
+
     /**
      * @return
      *       return the table name of the table the operator scans. This should
@@ -52,6 +73,20 @@ public class SeqScan implements OpIterator {
         return Database.getCatalog().getTableName(tableid);
     }
 
+    /**
+     * @return the id of the table the operator scans
+     */
+    public int getTableId() {
+        return tableid;
+    }
+
+    /**
+     * @return the transaction this scan is running as a part of
+     */
+    public TransactionId getTransactionId() {
+        return tid;
+    }
+
     /**
      * @return Return the alias of the table this operator scans.
      * */
@@ -49,6 +49,62 @@ public class SimpleDb {
         } catch (IOException e) {
                 throw new RuntimeException(e);
         }
+        } else if (args[0].equals("load")) {
+            // append a text file to a table without the per-tuple path
+            if (args.length<4 || args.length>6){
+                System.err.println("Unexpected number of arguments to load ");
+                return;
+            }
+            File tableFile=new File(args[1]);
+            File sourceTxtFile=new File(args[2]);
+            int numOfAttributes=Integer.parseInt(args[3]);
+            Type[] ts = new Type[numOfAttributes];
+            char fieldSeparator=',';
+
+            for (int i=0;i<numOfAttributes;i++)
+                ts[i]=Type.INT_TYPE;
+            if (args.length >= 5) {
+                String[] typeStringAr = args[4].split(",");
+                if (typeStringAr.length!=numOfAttributes)
+                {
+                        System.err.println("The number of types does not agree with the number of columns");
+                        return;
+                }
+                for (int i=0;i<numOfAttributes;i++) {
+                    String s = typeStringAr[i].toLowerCase();
+                    if (s.equals("int"))
+                        ts[i]=Type.INT_TYPE;
+                    else if (s.equals("string"))
+                        ts[i]=Type.STRING_TYPE;
+                    else {
+                        System.err.println("Unknown type " + s);
+                        return;
+                    }
+                }
+                if (args.length==6)
+                    fieldSeparator=args[5].charAt(0);
+            }
+
+            HeapFile table = new HeapFile(tableFile, new TupleDesc(ts));
+            Database.getCatalog().addTable(table, tableFile.getName());
+            Transaction t = new Transaction();
+            t.start();
+            long rows;
+            try {
+                rows = new BulkLoader(table, fieldSeparator).load(t.getId(), sourceTxtFile);
+            } catch (IOException e) {
+                t.abort();
+                throw e;
+            } catch (DbException e) {
+                t.abort();
+                throw e;
+            } catch (TransactionAbortedException e) {
+                t.abort();
+                throw e;
+            }
+            t.commit();
+            table.close();
+            System.out.println("Loaded " + rows + " rows into " + tableFile);
         } else if (args[0].equals("print")) {
             File tableFile = new File(args[1]);
             int columns = Integer.parseInt(args[2]);
@@ -0,0 +1,192 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+
+/**
+ * SlottedFile is a HeapFile whose pages are SlottedPages, which store
+ * tuples as variable-length records. Strings only take their actual length
+ * on disk, so a table of short strings needs a fraction of the pages (and
+ * of the scan I/O) of the fixed-width HeapPage layout.
+ * <p>
+ * A SlottedFile may also store its string columns dictionary-encoded, as
+ * integer codes into a per-table {@link StringDictionary} kept in a side
+ * file (the data file name plus ".dict"). Equality filters, joins and
+ * grouping on such columns then compare codes instead of strings.
+ * <p>
+ * Free space is tracked in bytes rather than slots; everything else,
+ * including page I/O and scans, is inherited from HeapFile. A SlottedFile
+ * is created from an existing HeapFile with {@link #convert}.
+ *
+ * @see SlottedPage
+ */
+public class SlottedFile extends HeapFile {
+
+    // true if string columns are stored as dictionary codes
+    private final boolean dictionaryEncoded;
+    // the dictionary of the string columns, loaded on first use
+    private StringDictionary dictionary;
+
+    /**
+     * Constructs a slotted file backed by the specified file.
+     *
+     * @param f
+     *            the file that stores the on-disk backing store for this file.
+     * @param memoryMapped
+     *            whether pages are read through memory mappings
+     * @param dictionaryEncoded
+     *            whether string columns are stored as dictionary codes
+     */
+    public SlottedFile(File f, TupleDesc td, boolean memoryMapped, boolean dictionaryEncoded) {
+        super(f, td, memoryMapped);
+        this.dictionaryEncoded = dictionaryEncoded;
+    }
+
+    public SlottedFile(File f, TupleDesc td, boolean memoryMapped) {
+        this(f, td, memoryMapped, false);
+    }
+
+    public SlottedFile(File f, TupleDesc td) {
+        this(f, td, false);
+    }
+
+    /**
+     * Returns the dictionary of this file's string columns, or null if they
+     * are stored inline.
+     */
+    synchronized StringDictionary getDictionary() {
+        if (dictionaryEncoded && dictionary == null) {
+            dictionary = new StringDictionary(dictionaryFile(getFile()));
+        }
+        return dictionary;
+    }
+
+    private static File dictionaryFile(File f) {
+        return sideFiles(f)[2];
+    }
+
+    @Override
+    public synchronized void close() {
+        super.close();
+        if (dictionary != null) {
+            dictionary.close();
+        }
+    }
+
+    @Override
+    protected Page createPage(HeapPageId pid, ByteBuffer data) throws IOException {
+        return new SlottedPage(pid, data);
+    }
+
+    @Override
+    protected boolean insertIntoPage(Page page, Tuple t) throws DbException {
+        if (!t.getTupleDesc().equals(getTupleDesc())) {
+            throw new DbException("TupleDesc is not matched");
+        }
+        return ((SlottedPage) page).insertRecord(
+                SlottedPage.encodeRecord(t, getTupleDesc(), getDictionary()), t);
+    }
+
+    @Override
+    protected void deleteFromPage(Page page, Tuple t) throws DbException {
+        ((SlottedPage) page).deleteTuple(t);
+    }
+
+    @Override
+    protected void updateFreeSpace(FreeSpaceMap fsm, Page page) {
+        SlottedPage spage = (SlottedPage) page;
+        fsm.update(spage.getId().getPageNumber(), spage.getFreeSpace(), spage.getCapacity());
+    }
+
+    @Override
+    protected Iterator<Tuple> pageIterator(Page page) {
+        return ((SlottedPage) page).iterator();
+    }
+
+    @Override
+    protected void widenIntRanges(Page page, int[] fields, int[] mins, int[] maxs) {
+        ((SlottedPage) page).widenIntRanges(fields, mins, maxs);
+    }
+
+    @Override
+    protected Tuple tupleInSlot(Page page, int i) {
+        return ((SlottedPage) page).getTupleInSlot(i);
+    }
+
+    /**
+     * Rewrites a HeapFile into the SlottedPage layout, packing as many
+     * tuples per page as fit. Tuples keep their order but not their
+     * RecordIds.
+     *
+     * @param heapFile the source file, in HeapPage layout
+     * @param slottedFile the file to create
+     * @param td the schema of the table stored in heapFile
+     */
+    public static void convert(File heapFile, File slottedFile, TupleDesc td)
+            throws IOException, DbException {
+        convert(heapFile, slottedFile, td, false);
+    }
+
+    /**
+     * Rewrites a HeapFile into the SlottedPage layout, optionally building
+     * the dictionary of its string columns on the way.
+     *
+     * @see #convert(File, File, TupleDesc)
+     */
+    public static void convert(File heapFile, File slottedFile, TupleDesc td,
+            boolean dictionaryEncoded) throws IOException, DbException {
+        int pageSize = BufferPool.getPageSize();
+        int tupleSize = td.getSize();
+        int numSlots = (pageSize * 8) / (tupleSize * 8 + 1);
+        int headerSize = (numSlots + 7) / 8;
+
+        byte[] in = new byte[pageSize];
+        ByteBuffer out = ByteBuffer.wrap(SlottedPage.createEmptyPageData());
+        DataInputStream dis = new DataInputStream(new BufferedInputStream(new FileInputStream(heapFile)));
+        OutputStream os = new BufferedOutputStream(new FileOutputStream(slottedFile));
+        StringDictionary dict = null;
+        if (dictionaryEncoded) {
+            dictionaryFile(slottedFile).delete();
+            dict = new StringDictionary(dictionaryFile(slottedFile));
+        }
+
+        try {
+            long numPages = heapFile.length() / pageSize;
+
+            for (long p = 0; p < numPages; p++) {
+                dis.readFully(in);
+                ByteBuffer buf = ByteBuffer.wrap(in);
+
+                for (int i = 0; i < numSlots; i++) {
+                    if (((in[i / 8] >> (i % 8)) & 1) == 0) {
+                        continue;
+                    }
+                    buf.position(headerSize + i * tupleSize);
+                    Tuple t = new Tuple(td);
+                    for (int j = 0; j < td.numFields(); j++) {
+                        t.setField(j, td.getFieldType(j).parse(buf));
+                    }
+                    byte[] record = SlottedPage.encodeRecord(t, td, dict);
+
+                    if (!SlottedPage.appendRecord(out, record)) {
+                        os.write(out.array());
+                        out = ByteBuffer.wrap(SlottedPage.createEmptyPageData());
+                        SlottedPage.appendRecord(out, record);
+                    }
+                }
+            }
+            // the last, partly filled page; like HeapFileEncoder, an empty
+            // table still gets one page
+            os.write(out.array());
+        } catch (java.text.ParseException e) {
+            throw new DbException("could not parse " + heapFile + ": " + e.getMessage());
+        } finally {
+            dis.close();
+            os.close();
+            if (dict != null) {
+                dict.close();
+            }
+        }
+    }
+}
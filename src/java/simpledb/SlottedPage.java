@@ -0,0 +1,551 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/**
+ * SlottedPage stores one page of a SlottedFile as variable-length records.
+ * Strings take their actual length on the page instead of Type.STRING_LEN
+ * bytes, so tables with short strings fit many more tuples per page.
+ * <p>
+ * The page starts with a 4-byte header: the number of slots and the
+ * offset of the lowest record byte (0 on an empty page, meaning the end of
+ * the page). The slot array follows, 4 bytes per slot: the offset and the
+ * length of its record, with offset 0 marking a free slot. Records are
+ * packed from the end of the page towards the slot array; each record
+ * holds the fields of a tuple in order, integers as 4 bytes and strings as
+ * a 2-byte length followed by their bytes. In a table with a dictionary
+ * (see {@link SlottedFile#getDictionary}), strings are stored as their
+ * 4-byte dictionary code instead and read back as CodedStringFields.
+ * <p>
+ * An all-zero page is a valid empty page. Deleting a tuple frees its slot
+ * and leaves a hole that is reclaimed by compacting the records when an
+ * insert needs the space. A tuple's RecordId is its slot number, which
+ * does not change when the page is compacted.
+ *
+ * @see SlottedFile
+ */
+public class SlottedPage implements Page {
+
+    /** Size of the page header, in bytes. */
+    static final int HEADER_SIZE = 4;
+    /** Size of one slot array entry, in bytes. */
+    static final int SLOT_SIZE = 4;
+
+    final HeapPageId pid;
+    final TupleDesc td;
+    // codes of the string columns, or null if strings are stored inline
+    private final StringDictionary dict;
+    private final int pageSize;
+    private TransactionId dirtytid;
+
+    // the serialized page, read and modified in place
+    private ByteBuffer data;
+    // false while data is borrowed from the caller; see HeapPage
+    private boolean ownsData;
+
+    // the page bytes as of the first modification since the last commit;
+    // null while the page is unmodified (see HeapPage)
+    byte[] oldData;
+    private final Object oldDataLock = new Object();
+
+    /**
+     * Create a SlottedPage from a set of bytes of data read from disk.
+     */
+    public SlottedPage(HeapPageId id, byte[] data) throws IOException {
+        this(id, ByteBuffer.wrap(data));
+    }
+
+    /**
+     * Create a SlottedPage from the bytes between the position and the
+     * limit of the given buffer. The buffer is read in place and must not be
+     * modified by the caller while the page is in use.
+     */
+    public SlottedPage(HeapPageId id, ByteBuffer data) throws IOException {
+        this.pid = id;
+        this.td = Database.getCatalog().getTupleDesc(id.getTableId());
+        DbFile file = Database.getCatalog().getDatabaseFile(id.getTableId());
+        this.dict = file instanceof SlottedFile ? ((SlottedFile) file).getDictionary() : null;
+        this.pageSize = BufferPool.getPageSize();
+        this.data = data.slice();
+        this.ownsData = false;
+
+        if (this.data.remaining() < pageSize) {
+            throw new IOException("page data too short: " + this.data.remaining() + " bytes");
+        }
+        int numSlots = getNumSlots();
+        if (HEADER_SIZE + numSlots * SLOT_SIZE > dataStart()) {
+            throw new IOException("corrupt slotted page header");
+        }
+
+        setBeforeImage();
+    }
+
+    /**
+     * @return the number of entries in the slot array, used or free
+     */
+    public int getNumSlots() {
+        return data.getShort(0) & 0xFFFF;
+    }
+
+    private void setNumSlots(int n) {
+        data.putShort(0, (short) n);
+    }
+
+    /** @return the offset of the lowest record byte */
+    private int dataStart() {
+        int start = data.getShort(2) & 0xFFFF;
+        return start == 0 ? pageSize : start;
+    }
+
+    private void setDataStart(int start) {
+        data.putShort(2, (short) (start == pageSize ? 0 : start));
+    }
+
+    private int slotOffset(int slot) {
+        return data.getShort(HEADER_SIZE + slot * SLOT_SIZE) & 0xFFFF;
+    }
+
+    private int slotLength(int slot) {
+        return data.getShort(HEADER_SIZE + slot * SLOT_SIZE + 2) & 0xFFFF;
+    }
+
+    private void setSlot(int slot, int offset, int length) {
+        data.putShort(HEADER_SIZE + slot * SLOT_SIZE, (short) offset);
+        data.putShort(HEADER_SIZE + slot * SLOT_SIZE + 2, (short) length);
+    }
+
+    /**
+     * Returns true if associated slot on this page is filled.
+     */
+    public boolean isSlotUsed(int i) {
+        return i >= 0 && i < getNumSlots() && slotOffset(i) != 0;
+    }
+
+    /**
+     * @return the number of tuples stored on this page
+     */
+    public int getNumTuples() {
+        int n = 0;
+        for (int i = 0; i < getNumSlots(); i++) {
+            if (isSlotUsed(i)) {
+                n++;
+            }
+        }
+        return n;
+    }
+
+    /**
+     * @return the number of bytes available for new records and slots,
+     *   counting the holes left by deleted records
+     */
+    public int getFreeSpace() {
+        int used = HEADER_SIZE + getNumSlots() * SLOT_SIZE;
+        for (int i = 0; i < getNumSlots(); i++) {
+            if (isSlotUsed(i)) {
+                used += slotLength(i);
+            }
+        }
+        return pageSize - used;
+    }
+
+    /**
+     * @return the free space of an empty page
+     */
+    public int getCapacity() {
+        return pageSize - HEADER_SIZE;
+    }
+
+    /**
+     * Serializes the fields of t into a record.
+     *
+     * @param dict the dictionary that encodes string fields, or null to
+     *   store them inline
+     */
+    static byte[] encodeRecord(Tuple t, TupleDesc td, StringDictionary dict) throws DbException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        DataOutputStream dos = new DataOutputStream(baos);
+
+        try {
+            for (int j = 0; j < td.numFields(); j++) {
+                Field f = t.getField(j);
+                if (td.getFieldType(j) == Type.INT_TYPE) {
+                    dos.writeInt(((IntField) f).getValue());
+                } else if (dict != null) {
+                    int code = dict.codeOf((StringField) f);
+                    dos.writeInt(code >= 0 ? code : dict.encode(((StringField) f).getValue()));
+                } else {
+                    String s = ((StringField) f).getValue();
+                    if (s.length() > Type.STRING_LEN) {
+                        s = s.substring(0, Type.STRING_LEN);
+                    }
+                    dos.writeShort(s.length());
+                    dos.writeBytes(s);
+                }
+            }
+            dos.flush();
+        } catch (IOException e) {
+            throw new DbException("could not serialize tuple: " + e.getMessage());
+        }
+        return baos.toByteArray();
+    }
+
+    /**
+     * Decode the tuple stored in slot slotId.
+     */
+    private Tuple readTuple(int slotId) throws NoSuchElementException {
+        ByteBuffer buf = data.duplicate();
+        buf.position(slotOffset(slotId));
+
+        Tuple t = new Tuple(td);
+        t.setRecordId(new RecordId(pid, slotId));
+        for (int j = 0; j < td.numFields(); j++) {
+            if (td.getFieldType(j) == Type.INT_TYPE) {
+                t.setField(j, new IntField(buf.getInt()));
+            } else if (dict != null) {
+                t.setField(j, new CodedStringField(dict, buf.getInt()));
+            } else {
+                byte[] bs = new byte[buf.getShort() & 0xFFFF];
+                buf.get(bs);
+                t.setField(j, new StringField(new String(bs), Type.STRING_LEN));
+            }
+        }
+        return t;
+    }
+
+    /**
+     * Widens mins[c] and maxs[c] to cover the int field fields[c] of every
+     * tuple on this page, reading the records in place without decoding
+     * any tuple.
+     *
+     * @param fields int fields of the table, in ascending order
+     */
+    void widenIntRanges(int[] fields, int[] mins, int[] maxs) {
+        ByteBuffer buf = data.duplicate();
+
+        for (int i = 0; i < getNumSlots(); i++) {
+            if (!isSlotUsed(i)) {
+                continue;
+            }
+            buf.position(slotOffset(i));
+            int c = 0;
+            for (int j = 0; j < td.numFields() && c < fields.length; j++) {
+                if (td.getFieldType(j) == Type.INT_TYPE) {
+                    int v = buf.getInt();
+                    if (j == fields[c]) {
+                        mins[c] = Math.min(mins[c], v);
+                        maxs[c] = Math.max(maxs[c], v);
+                        c++;
+                    }
+                } else if (dict != null) {
+                    buf.position(buf.position() + 4);
+                } else {
+                    int len = buf.getShort() & 0xFFFF;
+                    buf.position(buf.position() + len);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the tuple in slot i, or null if the slot is empty or not on
+     *   this page
+     */
+    public Tuple getTupleInSlot(int i) {
+        return isSlotUsed(i) ? readTuple(i) : null;
+    }
+
+    /**
+     * Snapshot the before image on the first modification since the last
+     * commit, and copy borrowed page bytes before they are modified.
+     */
+    private void ensureWritable() {
+        synchronized (oldDataLock) {
+            if (oldData == null) {
+                oldData = getPageData();
+            }
+        }
+        if (!ownsData) {
+            byte[] copy = new byte[pageSize];
+            data.duplicate().get(copy);
+            data = ByteBuffer.wrap(copy);
+            ownsData = true;
+        }
+    }
+
+    /**
+     * Moves all records to the end of the page, so that the holes left by
+     * deleted records become contiguous free space. Slot numbers are kept.
+     */
+    private void compact() {
+        int numSlots = getNumSlots();
+        byte[] packed = new byte[pageSize];
+        int end = pageSize;
+        ByteBuffer src = data.duplicate();
+
+        for (int i = 0; i < numSlots; i++) {
+            if (isSlotUsed(i)) {
+                int len = slotLength(i);
+                end -= len;
+                src.position(slotOffset(i));
+                src.get(packed, end, len);
+                setSlot(i, end, len);
+            }
+        }
+        ByteBuffer dst = data.duplicate();
+        int slotEnd = HEADER_SIZE + numSlots * SLOT_SIZE;
+        dst.position(slotEnd);
+        dst.put(packed, slotEnd, pageSize - slotEnd);
+        setDataStart(end);
+    }
+
+    /**
+     * Adds the specified tuple to the page; the tuple should be updated to reflect
+     *  that it is now stored on this page.
+     * @throws DbException if the page does not have room for the tuple or
+     *         tupledesc is mismatch.
+     * @param t The tuple to add.
+     */
+    public void insertTuple(Tuple t) throws DbException {
+        if (!t.getTupleDesc().equals(td)) {
+            throw new DbException("TupleDesc is not matched");
+        }
+        if (!insertRecord(encodeRecord(t, td, dict), t)) {
+            throw new DbException("this page is full");
+        }
+    }
+
+    /**
+     * Stores record in a free slot if there is room for it.
+     * @return false if the page is too full
+     */
+    boolean insertRecord(byte[] record, Tuple t) {
+        int numSlots = getNumSlots();
+        int slot = 0;
+
+        while (slot < numSlots && isSlotUsed(slot)) {
+            slot++;
+        }
+        int slotBytes = slot == numSlots ? SLOT_SIZE : 0;
+        if (record.length + slotBytes > getFreeSpace()) {
+            return false;
+        }
+        ensureWritable();
+        if (HEADER_SIZE + numSlots * SLOT_SIZE + slotBytes + record.length > dataStart()) {
+            compact();
+        }
+        if (slot == numSlots) {
+            setNumSlots(numSlots + 1);
+        }
+        int start = dataStart() - record.length;
+        ByteBuffer buf = data.duplicate();
+        buf.position(start);
+        buf.put(record);
+        setDataStart(start);
+        setSlot(slot, start, record.length);
+
+        if (t != null) {
+            t.setRecordId(new RecordId(pid, slot));
+        }
+        return true;
+    }
+
+    /**
+     * Delete the specified tuple from the page; its slot becomes free.
+     * @throws DbException if this tuple is not on this page, or tuple slot is
+     *         already empty.
+     * @param t The tuple to delete
+     */
+    public void deleteTuple(Tuple t) throws DbException {
+        RecordId rid = t.getRecordId();
+        int slot = rid.getTupleNumber();
+
+        if (!rid.getPageId().equals(pid) || slot < 0 || slot >= getNumSlots()) {
+            throw new DbException("tuple is not in page");
+        }
+        if (!isSlotUsed(slot)) {
+            throw new DbException("the slot is empty");
+        }
+        ensureWritable();
+        // clear the record bytes so the page serializes as it would have
+        // been written
+        int off = slotOffset(slot);
+        for (int i = 0; i < slotLength(slot); i++) {
+            data.put(off + i, (byte) 0);
+        }
+        setSlot(slot, 0, 0);
+        if (off == dataStart()) {
+            // the lowest record went away; the free space grows by it
+            int start = pageSize;
+            for (int i = 0; i < getNumSlots(); i++) {
+                if (isSlotUsed(i)) {
+                    start = Math.min(start, slotOffset(i));
+                }
+            }
+            setDataStart(start);
+        }
+    }
+
+    /**
+     * Appends record to a page being built from scratch, e.g. by a bulk
+     * conversion, using a new slot at the end of the slot array.
+     *
+     * @param page the page bytes, starting at position 0
+     * @return false if the page has no room left for the record
+     */
+    static boolean appendRecord(ByteBuffer page, byte[] record) {
+        int pageSize = page.capacity();
+        int numSlots = page.getShort(0) & 0xFFFF;
+        int start = page.getShort(2) & 0xFFFF;
+        if (start == 0) {
+            start = pageSize;
+        }
+        if (HEADER_SIZE + (numSlots + 1) * SLOT_SIZE + record.length > start) {
+            return false;
+        }
+        start -= record.length;
+        ByteBuffer buf = page.duplicate();
+        buf.position(start);
+        buf.put(record);
+        page.putShort(HEADER_SIZE + numSlots * SLOT_SIZE, (short) start);
+        page.putShort(HEADER_SIZE + numSlots * SLOT_SIZE + 2, (short) record.length);
+        page.putShort(0, (short) (numSlots + 1));
+        page.putShort(2, (short) start);
+        return true;
+    }
+
+    /**
+     * Static method to generate a byte array corresponding to an empty
+     * SlottedPage.
+     */
+    public static byte[] createEmptyPageData() {
+        return new byte[BufferPool.getPageSize()];
+    }
+
+    /**
+     * @return the PageId associated with this page.
+     */
+    public HeapPageId getId() {
+        return pid;
+    }
+
+    /**
+     * Marks this page as dirty/not dirty and record that transaction
+     * that did the dirtying
+     */
+    public void markDirty(boolean dirty, TransactionId tid) {
+        dirtytid = dirty ? tid : null;
+    }
+
+    /**
+     * Returns the tid of the transaction that last dirtied this page, or null if the page is not dirty
+     */
+    public TransactionId isDirty() {
+        return dirtytid;
+    }
+
+    /**
+     * Generates a byte array representing the contents of this page.
+     */
+    public byte[] getPageData() {
+        byte[] out = new byte[pageSize];
+        data.duplicate().get(out);
+        return out;
+    }
+
+    // see Page.java for javadocs
+    public void getPageData(ByteBuffer buf) {
+        ByteBuffer src = data.duplicate();
+        src.limit(pageSize);
+        buf.put(src);
+    }
+
+    /**
+     * Forces the dictionary entries this page may refer to to disk; called
+     * by LogFile before the page is logged.
+     */
+    void forceDictionary() throws IOException {
+        if (dict != null) {
+            dict.force();
+        }
+    }
+
+    /** Return a view of this page before it was modified
+        -- used by recovery */
+    public SlottedPage getBeforeImage() {
+        try {
+            byte[] oldDataRef = null;
+            synchronized (oldDataLock) {
+                oldDataRef = oldData;
+            }
+            return new SlottedPage(pid, oldDataRef != null ? oldDataRef : getPageData());
+        } catch (IOException e) {
+            e.printStackTrace();
+            //should never happen -- we parsed it OK before!
+            System.exit(1);
+        }
+        return null;
+    }
+
+    // see Page.java for javadocs
+    public void getBeforeImageData(ByteBuffer buf) {
+        byte[] oldDataRef = null;
+        synchronized (oldDataLock) {
+            oldDataRef = oldData;
+        }
+        if (oldDataRef != null) {
+            buf.put(oldDataRef, 0, pageSize);
+        } else {
+            getPageData(buf);
+        }
+    }
+
+    public void setBeforeImage() {
+        synchronized (oldDataLock) {
+            // snapshotted again by the next modification
+            oldData = null;
+        }
+    }
+
+    /**
+     * @return an iterator over all tuples on this page (calling remove on this iterator throws an UnsupportedOperationException)
+     */
+    public Iterator<Tuple> iterator() {
+        // remember which slots are in use now; their tuples are decoded from
+        // the page bytes as the iterator reaches them, and not kept
+        int numSlots = getNumSlots();
+        final int[] used = new int[numSlots];
+        int n = 0;
+
+        for (int i = 0; i < numSlots; i++) {
+            if (isSlotUsed(i)) {
+                used[n++] = i;
+            }
+        }
+        final int count = n;
+
+        return new Iterator<Tuple>() {
+            private int next = 0;
+
+            public boolean hasNext() {
+                // skip slots freed since the iterator was created
+                while (next < count && !isSlotUsed(used[next])) {
+                    next++;
+                }
+                return next < count;
+            }
+
+            public Tuple next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return readTuple(used[next++]);
+            }
+
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+}
@@ -0,0 +1,220 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * StringDictionary maps the distinct strings of a table to small integer
+ * codes, so that string columns can be stored as codes and compared as
+ * integers. Codes are assigned in order of first appearance and never
+ * change or get reused.
+ * <p>
+ * The dictionary is persisted in an append-only side file next to the
+ * table: every new string is appended as soon as its code is assigned, and
+ * {@link #force} makes the appended strings durable. LogFile forces the
+ * dictionary of a page before it logs the page, so no log record that
+ * recovery may redo refers to a code the side file lost in a crash.
+ * Strings whose inserting transaction aborted simply stay in the
+ * dictionary.
+ *
+ * @see CodedStringField
+ */
+class StringDictionary {
+    private final File file;
+    // values[code] for every code below size
+    private volatile String[] values;
+    private volatile int size;
+    private final HashMap<String, Integer> codes;
+    // bytes of the complete entries in the side file
+    private long length;
+    // appends new entries to the side file, opened on the first new entry
+    private DataOutputStream out;
+    private FileOutputStream outFile;
+    // true if entries were appended since the side file was last forced
+    private boolean unforced;
+
+    // the last field looked up by codeOf; filters compare every tuple
+    // against the same operand field
+    private volatile Probe lastProbe;
+
+    private static class Probe {
+        final StringField field;
+        final int code;
+        // the size of the dictionary when a missing field was looked up;
+        // the probe is stale once strings were added since
+        final int size;
+
+        Probe(StringField field, int code, int size) {
+            this.field = field;
+            this.code = code;
+            this.size = size;
+        }
+    }
+
+    /**
+     * Creates the dictionary of a table, loading its side file if one
+     * exists.
+     *
+     * @param file the side file the dictionary is persisted in
+     */
+    public StringDictionary(File file) {
+        this.file = file;
+        this.values = new String[16];
+        this.size = 0;
+        this.codes = new HashMap<String, Integer>();
+        load();
+    }
+
+    /**
+     * Returns the code of s, assigning (and appending) a new one if s is not
+     * in the dictionary yet.
+     */
+    public synchronized int encode(String s) throws IOException {
+        Integer code = codes.get(s);
+
+        if (code != null) {
+            return code;
+        }
+        if (out == null) {
+            outFile = new FileOutputStream(file, true);
+            // cut off a partly written last entry, which load() skipped;
+            // entries appended after it would be read at the wrong offset
+            outFile.getChannel().truncate(length);
+            out = new DataOutputStream(new BufferedOutputStream(outFile));
+        }
+        writeEntry(out, s);
+        out.flush();
+        length += entrySize(s);
+        unforced = true;
+        return add(s);
+    }
+
+    /**
+     * Forces the strings appended so far to disk.
+     */
+    public synchronized void force() throws IOException {
+        if (unforced) {
+            out.flush();
+            outFile.getFD().sync();
+            unforced = false;
+        }
+    }
+
+    /**
+     * @return the string with the given code
+     * @throws NoSuchElementException if no string has the code
+     */
+    public String decode(int code) {
+        // reading size first makes every entry below it visible
+        if (code < 0 || code >= size) {
+            throw new NoSuchElementException("no string with code " + code);
+        }
+        return values[code];
+    }
+
+    /**
+     * @return the code of s, or -1 if s is not in the dictionary
+     */
+    public synchronized int lookup(String s) {
+        Integer code = codes.get(s);
+        return code == null ? -1 : code;
+    }
+
+    /**
+     * Returns the code of the value of f in this dictionary, or -1 if the
+     * value does not occur. Fields coded by this dictionary are answered
+     * without a lookup, and so is a repeated probe with the same field
+     * while the dictionary has not grown.
+     */
+    public int codeOf(StringField f) {
+        if (f instanceof CodedStringField && ((CodedStringField) f).getDictionary() == this) {
+            return ((CodedStringField) f).getCode();
+        }
+        Probe probe = lastProbe;
+        if (probe != null && probe.field == f && (probe.code >= 0 || probe.size == size)) {
+            return probe.code;
+        }
+        synchronized (this) {
+            probe = new Probe(f, lookup(f.getValue()), size);
+        }
+        lastProbe = probe;
+        return probe.code;
+    }
+
+    /**
+     * @return the number of strings in the dictionary
+     */
+    public int size() {
+        return size;
+    }
+
+    private int add(String s) {
+        int code = size;
+
+        if (code == values.length) {
+            values = Arrays.copyOf(values, code * 2);
+        }
+        values[code] = s;
+        codes.put(s, code);
+        size = code + 1;
+        return code;
+    }
+
+    private static void writeEntry(DataOutputStream dos, String s) throws IOException {
+        dos.writeShort(s.length());
+        dos.writeBytes(s);
+    }
+
+    /**
+     * @return the number of bytes writeEntry writes for s
+     */
+    private static int entrySize(String s) {
+        return 2 + s.length();
+    }
+
+    /**
+     * Reads the side file, if any. A partly written last entry is ignored,
+     * and cut off before the next entry is appended.
+     */
+    private void load() {
+        if (!file.exists()) {
+            return;
+        }
+        try {
+            DataInputStream dis = new DataInputStream(
+                    new BufferedInputStream(new FileInputStream(file)));
+            try {
+                while (true) {
+                    byte[] bs = new byte[dis.readUnsignedShort()];
+                    dis.readFully(bs);
+                    String s = new String(bs);
+                    add(s);
+                    length += entrySize(s);
+                }
+            } catch (EOFException e) {
+                // end of the dictionary
+            } finally {
+                dis.close();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Forces and closes the side file; it is reopened by the next new entry.
+     */
+    public synchronized void close() {
+        if (out == null) {
+            return;
+        }
+        try {
+            force();
+            out.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        out = null;
+        outFile = null;
+    }
+}
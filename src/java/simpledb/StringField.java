@@ -66,6 +66,23 @@ public class StringField implements Field {
 			dos.write((byte) 0);
 	}
 
+	/**
+	 * Write this string to buf, in the same maxSize + 4 byte format as
+	 * serialize(DataOutputStream). Like DataOutputStream.writeBytes, each
+	 * character is written as its low-order byte.
+	 * 
+	 * @param buf
+	 *            Where the string is written
+	 */
+	public void serialize(java.nio.ByteBuffer buf) {
+		int len = Math.min(value.length(), maxSize);
+		buf.putInt(len);
+		for (int i = 0; i < len; i++)
+			buf.put((byte) value.charAt(i));
+		for (int i = len; i < maxSize; i++)
+			buf.put((byte) 0);
+	}
+
 	/**
 	 * Compare the specified field to the value of this Field. Return semantics
 	 * are as specified by Field.compare
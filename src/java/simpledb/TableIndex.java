@@ -0,0 +1,191 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * A TableIndex is a secondary index over one field of a HeapFile. Its
+ * entries (key, page number, tuple number) are stored either in a
+ * HashIndexFile, which answers equality lookups, or in a BTreeFile keyed on
+ * the entry key, which also answers range lookups.
+ * <p>
+ * The Catalog records the indexes of each table, the BufferPool adds and
+ * removes entries as tuples are inserted into and deleted from the table,
+ * and IndexScan reads the tuples an index lookup points to.
+ *
+ * @see Catalog#addIndex
+ * @see IndexScan
+ */
+public class TableIndex {
+
+    private final DbFile file;
+    private final int tableid;
+    private final int field;
+
+    /**
+     * Creates an index over a field of a table from an index file.
+     *
+     * @param file
+     *            a HashIndexFile, or a BTreeFile with the entry schema of
+     *            entryDesc() keyed on its first field
+     * @param tableid
+     *            the id of the indexed HeapFile
+     * @param field
+     *            the indexed field of the table
+     * @throws IllegalArgumentException if file is not a suitable index file
+     */
+    public TableIndex(DbFile file, int tableid, int field) {
+        if (!(file instanceof HashIndexFile)
+                && !(file instanceof BTreeFile && ((BTreeFile) file).keyField() == 0)) {
+            throw new IllegalArgumentException("not an index file: " + file);
+        }
+        this.file = file;
+        this.tableid = tableid;
+        this.field = field;
+    }
+
+    /**
+     * @return the schema of the entries of an index on a key of type keyType
+     */
+    public static TupleDesc entryDesc(Type keyType) {
+        return new TupleDesc(new Type[] { keyType, Type.INT_TYPE, Type.INT_TYPE },
+                new String[] { "key", "pageno", "tupleno" });
+    }
+
+    /**
+     * Creates a B+ tree index stored in file f over a field of a table.
+     */
+    public static TableIndex createBTreeIndex(File f, int tableid, int field) {
+        Type keyType = Database.getCatalog().getTupleDesc(tableid).getFieldType(field);
+        return new TableIndex(new BTreeFile(f, 0, entryDesc(keyType)), tableid, field);
+    }
+
+    /**
+     * Creates a hash index stored in file f over a field of a table.
+     */
+    public static TableIndex createHashIndex(File f, int tableid, int field) {
+        Type keyType = Database.getCatalog().getTupleDesc(tableid).getFieldType(field);
+        return new TableIndex(new HashIndexFile(f, keyType, tableid), tableid, field);
+    }
+
+    /** @return the file the entries of this index are stored in */
+    public DbFile getFile() {
+        return file;
+    }
+
+    /** @return the id of the indexed table */
+    public int getTableId() {
+        return tableid;
+    }
+
+    /** @return the indexed field of the table */
+    public int getField() {
+        return field;
+    }
+
+    /** @return true if this is a hash index */
+    public boolean isHash() {
+        return file instanceof HashIndexFile;
+    }
+
+    /**
+     * @return true if the index can find the keys k with "k op value"
+     *   without reading all entries
+     */
+    public boolean supports(Predicate.Op op) {
+        switch (op) {
+        case EQUALS:
+            return true;
+        case GREATER_THAN:
+        case GREATER_THAN_OR_EQ:
+        case LESS_THAN:
+        case LESS_THAN_OR_EQ:
+            return !isHash();
+        default:
+            return false;
+        }
+    }
+
+    /**
+     * Returns an iterator over the entries whose key k satisfies "k op
+     * value".
+     *
+     * @throws IllegalArgumentException if the index does not support op
+     */
+    public DbFileIterator entries(TransactionId tid, Predicate.Op op, Field value) {
+        if (!supports(op)) {
+            throw new IllegalArgumentException("index does not support " + op);
+        }
+        if (isHash()) {
+            return ((HashIndexFile) file).indexIterator(tid, value);
+        }
+        return ((BTreeFile) file).indexIterator(tid, new IndexPredicate(op, value));
+    }
+
+    /**
+     * @return the index entry of t, a tuple of the indexed table that is
+     *   stored in the table
+     */
+    public Tuple entryOf(Tuple t) {
+        return entry(t.getField(field), t.getRecordId());
+    }
+
+    private Tuple entry(Field key, RecordId rid) {
+        Tuple e = new Tuple(file.getTupleDesc());
+        e.setField(0, key);
+        e.setField(1, new IntField(rid.getPageId().getPageNumber()));
+        e.setField(2, new IntField(rid.getTupleNumber()));
+        return e;
+    }
+
+    /**
+     * @return the record id of the tuple an entry points to
+     */
+    public RecordId recordIdOf(Tuple entry) {
+        int pgNo = ((IntField) entry.getField(1)).getValue();
+        int tupleNo = ((IntField) entry.getField(2)).getValue();
+        return new RecordId(new HeapPageId(tableid, pgNo), tupleNo);
+    }
+
+    /**
+     * Adds the entry of t, which was just stored at record id
+     * t.getRecordId().
+     *
+     * @return the pages that were modified
+     */
+    ArrayList<Page> insertEntry(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        return file.insertTuple(tid, entryOf(t));
+    }
+
+    /**
+     * Removes the entry of t, which was just deleted from record id rid.
+     *
+     * @return the pages that were modified
+     */
+    ArrayList<Page> deleteEntry(TransactionId tid, Tuple t, RecordId rid)
+            throws DbException, IOException, TransactionAbortedException {
+        return file.deleteTuple(tid, entry(t.getField(field), rid));
+    }
+
+    /**
+     * Adds the entries of all tuples of the table to an empty index.
+     */
+    public void build(TransactionId tid)
+            throws DbException, IOException, TransactionAbortedException {
+        DbFileIterator it = Database.getCatalog().getDatabaseFile(tableid).iterator(tid);
+        BufferPool bp = Database.getBufferPool();
+
+        it.open();
+        while (it.hasNext()) {
+            bp.insertTuple(tid, file.getId(), entryOf(it.next()));
+        }
+        it.close();
+    }
+
+    public String toString() {
+        return (isHash() ? "hash" : "btree") + " index on "
+                + Database.getCatalog().getTableName(tableid) + "."
+                + Database.getCatalog().getTupleDesc(tableid).getFieldName(field);
+    }
+}
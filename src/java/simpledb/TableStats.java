@@ -216,6 +216,39 @@ public class TableStats {
         return ((HeapFile) file).numPages() * ioCostPerPage;
     }
 
+    /**
+     * Estimates the cost of reading the tuples that satisfy a predicate of
+     * the given selectivity through an index, the way IndexScan does: the
+     * index pages of the lookup, then each table page holding a match once.
+     * Matches are assumed to be spread evenly over the table, so k of them
+     * touch n * (1 - (1 - 1/n)^k) of its n pages.
+     *
+     * @param index an index of this table
+     * @param selectivityFactor the selectivity of the indexed predicate
+     * @return The estimated cost of the index scan, comparable to
+     *         {@link #estimateScanCost()}
+     */
+    public double estimateIndexScanCost(TableIndex index, double selectivityFactor) {
+        DbFile file = Database.getCatalog().getDatabaseFile(tableid);
+        int pages = ((HeapFile) file).numPages();
+        double matches = numTuples * selectivityFactor;
+        double entriesPerPage = Math.max(1,
+                BufferPool.getPageSize() / index.getFile().getTupleDesc().getSize());
+
+        // a hash lookup reads the directory and the bucket, a B+ tree lookup
+        // one page per level of a tree of half full pages
+        double lookupPages = 2;
+        if (!index.isHash()) {
+            double fanout = Math.max(2, entriesPerPage / 2);
+            double leaves = Math.max(1, numTuples / (entriesPerPage / 2));
+            lookupPages = 1 + Math.ceil(Math.log(leaves) / Math.log(fanout));
+        }
+        double indexPages = lookupPages + matches / entriesPerPage;
+        double tablePages = pages == 0 ? 0 : pages * (1 - Math.pow(1 - 1.0 / pages, matches));
+
+        return (indexPages + tablePages) * ioCostPerPage;
+    }
+
     /**
      * This method returns the number of tuples in the relation, given that a
      * predicate with selectivity selectivityFactor is applied.
@@ -241,8 +274,26 @@ public class TableStats {
      * expected selectivity. You may estimate this value from the histograms.
      * */
     public double avgSelectivity(int field, Predicate.Op op) {
-        // some code goes here
-        return 1.0;
+        Object histogram = histograms[field];
+        double eq;
+
+        if (histogram instanceof IntHistogram) {
+            eq = ((IntHistogram) histogram).avgSelectivity();
+        } else {
+            eq = ((StringHistogram) histogram).avgSelectivity();
+        }
+
+        switch (op) {
+        case EQUALS:
+        case LIKE:
+            return eq;
+        case NOT_EQUALS:
+            return 1 - eq;
+        default:
+            // a range with an unknown bound splits the values in half on
+            // average
+            return 0.5;
+        }
     }
 
     /**
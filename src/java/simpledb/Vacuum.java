@@ -0,0 +1,173 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Vacuum compacts a HeapFile (or any of its layouts) online: it moves the
+ * live tuples of the last pages of the file into free slots of earlier
+ * pages, then truncates the empty pages off the end of the file.
+ * <p>
+ * Tuples are moved by deleting them and inserting a copy through the
+ * BufferPool, so the moves are logged, locked and reflected in the indexes
+ * of the table like any other update; inserts fill the lowest page with room
+ * first. The work is split into short transactions of at most
+ * {@link #setBatchSize batch size} moves, so other transactions only wait
+ * for the pages of one batch. A batch that is aborted, e.g. to break a
+ * deadlock, is retried.
+ * <p>
+ * Vacuuming stops when a moved tuple no longer lands on an earlier page,
+ * i.e. when the pages before the one being emptied are full.
+ */
+public class Vacuum {
+
+    /** Default number of tuples moved by one transaction. */
+    public static final int DEFAULT_BATCH_SIZE = 64;
+
+    private final HeapFile file;
+    private int batchSize = DEFAULT_BATCH_SIZE;
+    private long tuplesMoved;
+
+    /**
+     * Constructor.
+     *
+     * @param file
+     *            the table to compact; must be in the Catalog
+     */
+    public Vacuum(HeapFile file) {
+        this.file = file;
+    }
+
+    /**
+     * Sets the number of tuples moved by one transaction.
+     */
+    public void setBatchSize(int batchSize) {
+        this.batchSize = Math.max(1, batchSize);
+    }
+
+    /**
+     * @return the number of tuples moved by the last run
+     */
+    public long getTuplesMoved() {
+        return tuplesMoved;
+    }
+
+    /**
+     * Compacts the table and truncates its empty trailing pages.
+     *
+     * @return the number of pages removed from the file
+     */
+    public int run() throws IOException, DbException {
+        int before = file.numPages();
+        tuplesMoved = 0;
+
+        int page = before - 1;
+        while (page > 0) {
+            int moved = 0;
+            boolean full = false;
+            Transaction t = new Transaction();
+            t.start();
+            try {
+                List<Tuple> tuples = liveTuples(t.getId(), page, batchSize);
+                for (Tuple tuple : tuples) {
+                    if (moveTuple(t.getId(), tuple) >= page) {
+                        full = true;
+                        break;
+                    }
+                    moved++;
+                }
+                t.commit();
+                tuplesMoved += moved;
+                if (full) {
+                    break;
+                }
+                if (tuples.size() < batchSize) {
+                    // the page is empty now
+                    page--;
+                }
+            } catch (TransactionAbortedException e) {
+                t.abort();
+            } catch (DbException e) {
+                t.abort();
+                throw e;
+            } catch (IOException e) {
+                t.abort();
+                throw e;
+            }
+        }
+
+        truncate();
+        return before - file.numPages();
+    }
+
+    /**
+     * @return up to max tuples of page pageNo, locked for writing
+     */
+    private List<Tuple> liveTuples(TransactionId tid, int pageNo, int max)
+            throws DbException, TransactionAbortedException {
+        Page page = Database.getBufferPool().getPage(tid,
+                new HeapPageId(file.getId(), pageNo), Permissions.READ_WRITE);
+        List<Tuple> tuples = new ArrayList<Tuple>();
+        Iterator<Tuple> it = file.pageIterator(page);
+
+        while (it.hasNext() && tuples.size() < max) {
+            tuples.add(it.next());
+        }
+        return tuples;
+    }
+
+    /**
+     * Deletes t and inserts a copy of it.
+     *
+     * @return the number of the page the copy was inserted into
+     */
+    private int moveTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        BufferPool bp = Database.getBufferPool();
+        Tuple copy = new Tuple(t.getTupleDesc());
+        for (int i = 0; i < t.getTupleDesc().numFields(); i++) {
+            copy.setField(i, t.getField(i));
+        }
+        bp.deleteTuple(tid, t);
+        bp.insertTuple(tid, file.getId(), copy);
+        return copy.getRecordId().getPageId().getPageNumber();
+    }
+
+    /**
+     * Removes the empty pages at the end of the file, keeping at least one
+     * page. The pages are locked exclusively until they are gone.
+     */
+    private void truncate() throws IOException, DbException {
+        while (true) {
+            Transaction t = new Transaction();
+            t.start();
+            try {
+                BufferPool bp = Database.getBufferPool();
+                int numPages = file.numPages();
+                int keep = numPages;
+                while (keep > 1) {
+                    Page page = bp.getPage(t.getId(), new HeapPageId(file.getId(), keep - 1),
+                            Permissions.READ_WRITE);
+                    if (file.pageIterator(page).hasNext()) {
+                        break;
+                    }
+                    keep--;
+                }
+                file.truncate(keep);
+                for (int p = keep; p < numPages; p++) {
+                    bp.discardPage(new HeapPageId(file.getId(), p));
+                }
+                t.commit();
+                return;
+            } catch (TransactionAbortedException e) {
+                t.abort();
+            } catch (DbException e) {
+                t.abort();
+                throw e;
+            } catch (IOException e) {
+                t.abort();
+                throw e;
+            }
+        }
+    }
+}
@@ -0,0 +1,259 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * ZoneMap keeps the smallest and largest value of every int column on every
+ * page of a HeapFile, so that scans with a predicate on such a column can
+ * skip pages that cannot hold a matching tuple without reading them.
+ * <p>
+ * Unlike {@link FreeSpaceMap}, which is only a hint, a zone must cover every
+ * value on its page. Zones only ever widen: inserts add their values, pages
+ * read from disk add theirs, and deleted values simply stay covered. Pages
+ * the map has not seen are unknown and always read. The map is persisted in
+ * a side file next to the table when the table is closed; the side file is
+ * removed as soon as the zones in memory differ from it, so after a crash
+ * the zones are rebuilt from scratch rather than trusted.
+ */
+class ZoneMap {
+    private final File file;
+    // the int columns of the table, and their number
+    private final int[] columns;
+    private final int numColumns;
+    // zone of column c on page p at [p * numColumns + c]; a page without
+    // tuples has min > max
+    private int[] mins;
+    private int[] maxs;
+    // pages whose zones are known
+    private final BitSet known;
+    // true if the side file is missing or out of date
+    private boolean dirty;
+
+    /**
+     * Creates the zone map of a table, loading its side file if one exists.
+     *
+     * @param file the side file the map is persisted in
+     * @param td the schema of the table
+     */
+    public ZoneMap(File file, TupleDesc td) {
+        this.file = file;
+        int n = 0;
+        int[] cols = new int[td.numFields()];
+        for (int i = 0; i < td.numFields(); i++) {
+            if (td.getFieldType(i) == Type.INT_TYPE) {
+                cols[n++] = i;
+            }
+        }
+        this.columns = Arrays.copyOf(cols, n);
+        this.numColumns = n;
+        this.mins = new int[0];
+        this.maxs = new int[0];
+        this.known = new BitSet();
+        this.dirty = !file.exists();
+        load();
+    }
+
+    /**
+     * Widens the zones of a page to cover the int fields of t.
+     */
+    public synchronized void add(int pageNo, Tuple t) {
+        if (numColumns == 0) {
+            return;
+        }
+        if (!known.get(pageNo)) {
+            // without the rest of the page the zone is still unknown
+            return;
+        }
+        int base = pageNo * numColumns;
+        for (int c = 0; c < numColumns; c++) {
+            int v = ((IntField) t.getField(columns[c])).getValue();
+            if (v < mins[base + c]) {
+                changed();
+                mins[base + c] = v;
+            }
+            if (v > maxs[base + c]) {
+                changed();
+                maxs[base + c] = v;
+            }
+        }
+    }
+
+    /**
+     * @return the int columns of the table, in ascending order
+     */
+    public int[] getColumns() {
+        return columns.clone();
+    }
+
+    /**
+     * @return true if the zones of the page are known
+     */
+    public synchronized boolean isKnown(int pageNo) {
+        return known.get(pageNo);
+    }
+
+    /**
+     * Widens the zones of a page to cover the given ranges, which makes the
+     * zones of an unknown page known.
+     *
+     * @param mins the smallest value of each column of getColumns() on the
+     *   page, or Integer.MAX_VALUE if it has no tuples
+     * @param maxs the largest value of each column, or Integer.MIN_VALUE
+     */
+    public synchronized void observe(int pageNo, int[] mins, int[] maxs) {
+        if (numColumns == 0) {
+            return;
+        }
+        int base = pageNo * numColumns;
+        if (!known.get(pageNo)) {
+            changed();
+            ensureCapacity(pageNo + 1);
+            System.arraycopy(mins, 0, this.mins, base, numColumns);
+            System.arraycopy(maxs, 0, this.maxs, base, numColumns);
+            known.set(pageNo);
+            return;
+        }
+        for (int c = 0; c < numColumns; c++) {
+            if (mins[c] < this.mins[base + c]) {
+                changed();
+                this.mins[base + c] = mins[c];
+            }
+            if (maxs[c] > this.maxs[base + c]) {
+                changed();
+                this.maxs[base + c] = maxs[c];
+            }
+        }
+    }
+
+    /**
+     * Returns false if no tuple on the page can satisfy p, i.e. the page is
+     * known and the zone of the predicate's column excludes its operand.
+     */
+    public synchronized boolean mayMatch(int pageNo, Predicate p) {
+        if (!known.get(pageNo) || !(p.getOperand() instanceof IntField)) {
+            return true;
+        }
+        int c = Arrays.binarySearch(columns, p.getField());
+        if (c < 0) {
+            return true;
+        }
+        int min = mins[pageNo * numColumns + c];
+        int max = maxs[pageNo * numColumns + c];
+        int v = ((IntField) p.getOperand()).getValue();
+        if (min > max) {
+            // no tuples
+            return false;
+        }
+
+        switch (p.getOp()) {
+        case EQUALS:
+        case LIKE:
+            return min <= v && v <= max;
+        case NOT_EQUALS:
+            return min != v || max != v;
+        case GREATER_THAN:
+            return max > v;
+        case GREATER_THAN_OR_EQ:
+            return max >= v;
+        case LESS_THAN:
+            return min < v;
+        case LESS_THAN_OR_EQ:
+            return min <= v;
+        default:
+            return true;
+        }
+    }
+
+    /**
+     * Forgets every page from numPages on, e.g. after the table was truncated.
+     */
+    public synchronized void truncate(int numPages) {
+        if (known.length() > numPages) {
+            changed();
+            known.clear(numPages, known.length());
+        }
+    }
+
+    /**
+     * Called before the zones change: a side file that no longer matches
+     * them must not survive a crash.
+     */
+    private void changed() {
+        if (!dirty) {
+            file.delete();
+            dirty = true;
+        }
+    }
+
+    private void ensureCapacity(int pages) {
+        int n = pages * numColumns;
+        if (n > mins.length) {
+            int size = Math.max(n, mins.length * 2);
+            mins = Arrays.copyOf(mins, size);
+            maxs = Arrays.copyOf(maxs, size);
+        }
+    }
+
+    /**
+     * Reads the side file, if any. A missing or unreadable file leaves every
+     * page unknown.
+     */
+    private void load() {
+        if (!file.exists()) {
+            return;
+        }
+        try {
+            DataInputStream dis = new DataInputStream(
+                    new BufferedInputStream(new FileInputStream(file)));
+            try {
+                int pages = dis.readInt();
+                if (dis.readInt() != numColumns) {
+                    throw new IOException("zone map of a different schema");
+                }
+                ensureCapacity(pages);
+                for (int p = 0; p < pages; p++) {
+                    if (dis.readBoolean()) {
+                        known.set(p);
+                    }
+                    for (int c = 0; c < numColumns; c++) {
+                        mins[p * numColumns + c] = dis.readInt();
+                        maxs[p * numColumns + c] = dis.readInt();
+                    }
+                }
+            } finally {
+                dis.close();
+            }
+        } catch (IOException e) {
+            known.clear();
+            file.delete();
+            dirty = true;
+        }
+    }
+
+    /**
+     * Writes the map to its side file.
+     */
+    public synchronized void save() throws IOException {
+        if (numColumns == 0 || !dirty) {
+            return;
+        }
+        int pages = known.length();
+        DataOutputStream dos = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(file)));
+        try {
+            dos.writeInt(pages);
+            dos.writeInt(numColumns);
+            for (int p = 0; p < pages; p++) {
+                dos.writeBoolean(known.get(p));
+                for (int c = 0; c < numColumns; c++) {
+                    dos.writeInt(known.get(p) ? mins[p * numColumns + c] : 0);
+                    dos.writeInt(known.get(p) ? maxs[p * numColumns + c] : 0);
+                }
+            }
+        } finally {
+            dos.close();
+        }
+        dirty = false;
+    }
+}
@@ -0,0 +1,233 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.*;
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class BTreeFileTest extends SimpleDbTestBase {
+    private BTreeFile bf;
+    private TransactionId tid;
+
+    /**
+     * Set up initial resources for each unit test.
+     */
+    @Before public void setUp() throws Exception {
+        // small pages give deep trees with few tuples
+        BufferPool.setPageSize(256);
+        super.setUp();
+        bf = createBTreeFile(Utility.getTupleDesc(2));
+        tid = new TransactionId();
+    }
+
+    @After public void tearDown() throws Exception {
+        Database.getBufferPool().transactionComplete(tid);
+        BufferPool.resetPageSize();
+    }
+
+    private BTreeFile createBTreeFile(TupleDesc td) throws IOException {
+        File f = File.createTempFile("btree", ".dat");
+        f.deleteOnExit();
+        BTreeFile file = new BTreeFile(f, 0, td);
+        Database.getCatalog().addTable(file, SystemTestUtil.getUUID());
+        return file;
+    }
+
+    /**
+     * Inserts n tuples with keys drawn from 0 .. range - 1 and returns them.
+     */
+    private List<ArrayList<Integer>> insertRandom(TransactionId tid, int n, int range,
+            long seed) throws Exception {
+        Random rand = new Random(seed);
+        List<ArrayList<Integer>> rows = new ArrayList<ArrayList<Integer>>();
+        for (int i = 0; i < n; i++) {
+            int key = rand.nextInt(range);
+            Database.getBufferPool().insertTuple(tid, bf.getId(),
+                    Utility.getHeapTuple(new int[] { key, i }));
+            rows.add(new ArrayList<Integer>(Arrays.asList(key, i)));
+        }
+        return rows;
+    }
+
+    private List<Tuple> collect(DbFileIterator it) throws Exception {
+        List<Tuple> ts = new ArrayList<Tuple>();
+        it.open();
+        while (it.hasNext()) {
+            ts.add(it.next());
+        }
+        it.close();
+        return ts;
+    }
+
+    private static int key(Tuple t) {
+        return ((IntField) t.getField(0)).getValue();
+    }
+
+    /**
+     * Unit test for BTreeFile.insertTuple(): splits grow the tree by more
+     * than one level and a scan returns all tuples in key order
+     */
+    @Test public void insertAndScan() throws Exception {
+        List<ArrayList<Integer>> rows = insertRandom(tid, 2000, 500, 1);
+        Database.getBufferPool().transactionComplete(tid);
+
+        tid = new TransactionId();
+        SystemTestUtil.matchTuples(bf, tid, rows);
+
+        List<Tuple> ts = collect(bf.iterator(tid));
+        assertEquals(2000, ts.size());
+        for (int i = 1; i < ts.size(); i++) {
+            assertTrue(key(ts.get(i - 1)) <= key(ts.get(i)));
+        }
+
+        BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) Database.getBufferPool().getPage(tid,
+                BTreeRootPtrPage.getId(bf.getId()), Permissions.READ_ONLY);
+        assertEquals(BTreePageId.INTERNAL, rootPtr.getRootId().pgcateg());
+        BTreeInternalPage root = (BTreeInternalPage) Database.getBufferPool().getPage(tid,
+                rootPtr.getRootId(), Permissions.READ_ONLY);
+        assertEquals(BTreePageId.INTERNAL, root.getChildCategory());
+    }
+
+    /**
+     * Unit test for BTreeFile.indexIterator() and rangeIterator()
+     */
+    @Test public void lookups() throws Exception {
+        List<ArrayList<Integer>> rows = insertRandom(tid, 1500, 300, 2);
+
+        for (int k : new int[] { -1, 0, 17, 150, 299, 300 }) {
+            int eq = 0;
+            int lt = 0;
+            int ge = 0;
+            for (ArrayList<Integer> r : rows) {
+                if (r.get(0) == k) eq++;
+                if (r.get(0) < k) lt++;
+                if (r.get(0) >= k) ge++;
+            }
+            IntField f = new IntField(k);
+            List<Tuple> ts = collect(bf.indexIterator(tid, new IndexPredicate(Predicate.Op.EQUALS, f)));
+            assertEquals(eq, ts.size());
+            for (Tuple t : ts) {
+                assertEquals(k, key(t));
+            }
+            assertEquals(lt, collect(bf.indexIterator(tid,
+                    new IndexPredicate(Predicate.Op.LESS_THAN, f))).size());
+            assertEquals(ge, collect(bf.indexIterator(tid,
+                    new IndexPredicate(Predicate.Op.GREATER_THAN_OR_EQ, f))).size());
+            assertEquals(rows.size() - eq, collect(bf.indexIterator(tid,
+                    new IndexPredicate(Predicate.Op.NOT_EQUALS, f))).size());
+        }
+
+        int n = 0;
+        for (ArrayList<Integer> r : rows) {
+            if (r.get(0) > 100 && r.get(0) <= 120) n++;
+        }
+        assertEquals(n, collect(bf.rangeIterator(tid, new IntField(100), false,
+                new IntField(120), true)).size());
+    }
+
+    /**
+     * Unit test for BTreeFile.deleteTuple(): merges shrink the tree and the
+     * freed pages are reused once the deleting transaction commits
+     */
+    @Test public void deleteAndReuse() throws Exception {
+        insertRandom(tid, 2000, 400, 3);
+        Database.getBufferPool().transactionComplete(tid);
+        int numPages = bf.numPages();
+
+        tid = new TransactionId();
+        List<Tuple> ts = collect(bf.iterator(tid));
+        Collections.shuffle(ts, new Random(4));
+        List<ArrayList<Integer>> kept = new ArrayList<ArrayList<Integer>>();
+        for (int i = 0; i < ts.size(); i++) {
+            if (i < 1900) {
+                Database.getBufferPool().deleteTuple(tid, ts.get(i));
+            } else {
+                kept.add(SystemTestUtil.tupleToList(ts.get(i)));
+            }
+        }
+        Database.getBufferPool().transactionComplete(tid);
+
+        tid = new TransactionId();
+        SystemTestUtil.matchTuples(bf, tid, kept);
+        try {
+            bf.deleteTuple(tid, ts.get(0));
+            fail("deleted a tuple that is not in the file");
+        } catch (DbException e) {
+            // expected
+        }
+
+        // reinserting the deleted tuples fills the freed pages
+        insertRandom(tid, 1900, 400, 3);
+        Database.getBufferPool().transactionComplete(tid);
+        assertTrue(bf.numPages() <= numPages + 5);
+    }
+
+    /**
+     * Unit test for aborting inserts and deletes that split and merge pages
+     */
+    @Test public void abort() throws Exception {
+        List<ArrayList<Integer>> rows = insertRandom(tid, 500, 100, 5);
+        Database.getBufferPool().transactionComplete(tid);
+
+        // pages evicted by the pool on the way are restored from the log
+        Transaction t = new Transaction();
+        t.start();
+        insertRandom(t.getId(), 1000, 100, 6);
+        for (Tuple tup : collect(bf.iterator(t.getId())).subList(0, 700)) {
+            Database.getBufferPool().deleteTuple(t.getId(), tup);
+        }
+        t.abort();
+
+        tid = new TransactionId();
+        SystemTestUtil.matchTuples(bf, tid, rows);
+    }
+
+    /**
+     * Unit test for a B+ tree keyed on a string field
+     */
+    @Test public void stringKeys() throws Exception {
+        BufferPool.setPageSize(1024);
+        bf = createBTreeFile(new TupleDesc(new Type[] { Type.STRING_TYPE, Type.INT_TYPE }));
+
+        List<String> keys = new ArrayList<String>();
+        for (int i = 0; i < 300; i++) {
+            keys.add("key" + (i * 7919 % 1000));
+        }
+        for (int i = 0; i < keys.size(); i++) {
+            Tuple t = new Tuple(bf.getTupleDesc());
+            t.setField(0, new StringField(keys.get(i), Type.STRING_LEN));
+            t.setField(1, new IntField(i));
+            Database.getBufferPool().insertTuple(tid, bf.getId(), t);
+        }
+        Collections.sort(keys);
+
+        List<Tuple> ts = collect(bf.iterator(tid));
+        assertEquals(keys.size(), ts.size());
+        for (int i = 0; i < ts.size(); i++) {
+            assertEquals(keys.get(i), ((StringField) ts.get(i).getField(0)).getValue());
+        }
+        StringField f = new StringField("key5", Type.STRING_LEN);
+        int n = 0;
+        for (String k : keys) {
+            if (k.compareTo("key5") > 0) n++;
+        }
+        assertEquals(n, collect(bf.indexIterator(tid,
+                new IndexPredicate(Predicate.Op.GREATER_THAN, f))).size());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BTreeFileTest.class);
+    }
+}
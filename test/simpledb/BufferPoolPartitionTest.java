@@ -0,0 +1,133 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class BufferPoolPartitionTest extends SimpleDbTestBase {
+    private ArrayList<ArrayList<Integer>> tuples;
+    private HeapFile hf;
+
+    /**
+     * Set up a table larger than the partitioned pools of the tests.
+     */
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        tuples = new ArrayList<ArrayList<Integer>>();
+        hf = SystemTestUtil.createRandomHeapFile(2, 15000, 1000, null, tuples);
+        assertTrue(hf.numPages() > 20);
+    }
+
+    /**
+     * Unit test for the number of partitions of a pool
+     */
+    @Test public void numPartitions() {
+        assertEquals(1, new BufferPool(BufferPool.DEFAULT_PAGES).getNumPartitions());
+        assertEquals(4, new BufferPool(4 * BufferPool.MIN_PARTITION_PAGES).getNumPartitions());
+        assertEquals(BufferPool.MAX_PARTITIONS, new BufferPool(1 << 20).getNumPartitions());
+        assertEquals(3, new BufferPool(10, false, new ClockPolicy(), 3).getNumPartitions());
+    }
+
+    /**
+     * Unit test for a partitioned pool keeping the pages it can hold: pages
+     * are evicted from any partition once the whole pool is full
+     */
+    @Test public void eviction() throws Exception {
+        BufferPool bp = Database.resetBufferPool(new BufferPool(8, false, new LruKPolicy(), 4));
+        bp.setReadAheadPages(0);
+        TransactionId tid = new TransactionId();
+        Page[] pages = new Page[hf.numPages()];
+        for (int p = 0; p < pages.length; p++) {
+            pages[p] = bp.getPage(tid, new HeapPageId(hf.getId(), p), Permissions.READ_ONLY);
+            assertEquals(new HeapPageId(hf.getId(), p), pages[p].getId());
+        }
+        int cached = 0;
+        for (int p = pages.length - 8; p < pages.length; p++) {
+            if (pages[p] == bp.getPage(tid, pages[p].getId(), Permissions.READ_ONLY)) {
+                cached++;
+            }
+        }
+        // the partitions evict their own pages first, so a few of the last
+        // pages read may have made room for the others
+        assertTrue(cached >= 4);
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * Unit test for readers scanning a table through a small partitioned
+     * pool at the same time
+     */
+    @Test public void concurrentScans() throws Exception {
+        Database.resetBufferPool(new BufferPool(16, false, new ClockPolicy(), 4));
+        final List<Throwable> errors = Collections.synchronizedList(new ArrayList<Throwable>());
+        Thread[] readers = new Thread[6];
+        for (int i = 0; i < readers.length; i++) {
+            final boolean random = i % 2 == 0;
+            readers[i] = new Thread() {
+                public void run() {
+                    try {
+                        TransactionId tid = new TransactionId();
+                        if (random) {
+                            readRandomPages(tid);
+                        } else {
+                            SystemTestUtil.matchTuples(new SeqScan(tid, hf.getId()), tuples);
+                        }
+                        Database.getBufferPool().transactionComplete(tid);
+                    } catch (Throwable e) {
+                        errors.add(e);
+                    }
+                }
+            };
+            readers[i].start();
+        }
+        for (Thread reader : readers) {
+            reader.join();
+        }
+        assertEquals(Collections.emptyList(), errors);
+    }
+
+    private void readRandomPages(TransactionId tid) throws Exception {
+        Random random = new Random();
+        for (int i = 0; i < 4 * hf.numPages(); i++) {
+            HeapPageId pid = new HeapPageId(hf.getId(), random.nextInt(hf.numPages()));
+            Page p = Database.getBufferPool().getPage(tid, pid, Permissions.READ_ONLY);
+            assertEquals(pid, p.getId());
+        }
+    }
+
+    /**
+     * Unit test for a transaction dirtying more pages than a partition holds:
+     * its pages are written when evicted and its changes survive the pool
+     */
+    @Test public void dirtyPagesSurvive() throws Exception {
+        BufferPool bp = Database.resetBufferPool(new BufferPool(8, false, new ClockPolicy(), 4));
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 3000; i++) {
+            Tuple t = Utility.getHeapTuple(new int[] { i, -i });
+            bp.insertTuple(tid, hf.getId(), t);
+            tuples.add(SystemTestUtil.tupleToList(t));
+        }
+        // read the whole table as well, evicting pages of every partition
+        SystemTestUtil.matchTuples(new SeqScan(tid, hf.getId()), tuples);
+        bp.transactionComplete(tid);
+        bp.flushAllPages();
+
+        Database.resetBufferPool(new BufferPool(8, false, new ClockPolicy(), 4));
+        SystemTestUtil.matchTuples(hf, tuples);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BufferPoolPartitionTest.class);
+    }
+}
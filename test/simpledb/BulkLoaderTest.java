@@ -0,0 +1,144 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.*;
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class BulkLoaderTest extends SimpleDbTestBase {
+    private ArrayList<ArrayList<Integer>> tuples;
+    private HeapFile hf;
+    private File input;
+
+    /**
+     * Set up initial resources for each unit test.
+     */
+    @Before public void setUp() throws Exception {
+        tuples = new ArrayList<ArrayList<Integer>>();
+        hf = SystemTestUtil.createRandomHeapFile(2, 600, null, tuples);
+
+        input = File.createTempFile("rows", ".txt");
+        input.deleteOnExit();
+    }
+
+    /**
+     * Writes rows first .. first + n - 1 to the input file, plus one
+     * malformed line.
+     */
+    private List<ArrayList<Integer>> writeInput(int first, int n) throws IOException {
+        List<ArrayList<Integer>> rows = new ArrayList<ArrayList<Integer>>();
+        PrintWriter out = new PrintWriter(new FileWriter(input));
+        for (int i = first; i < first + n; i++) {
+            out.print(i + "," + (-i) + (i % 7 == 0 ? "\r\n" : "\n"));
+            rows.add(new ArrayList<Integer>(Arrays.asList(i, -i)));
+            if (i == first + n / 2) {
+                out.print("12,x\n");
+            }
+        }
+        out.close();
+        return rows;
+    }
+
+    /**
+     * Unit test for BulkLoader.load(): rows of every chunk are appended in
+     * full pages, in input order, and recorded in the free space map
+     */
+    @Test public void loadAndScan() throws Exception {
+        int numPages = hf.numPages();
+        List<ArrayList<Integer>> rows = writeInput(1000, 5000);
+
+        Transaction t = new Transaction();
+        t.start();
+        BulkLoader loader = new BulkLoader(hf, ',');
+        loader.setChunkSize(8000);
+        loader.setNumThreads(3);
+        assertEquals(5000, loader.load(t.getId(), input));
+        t.commit();
+
+        tuples.addAll(rows);
+        SystemTestUtil.matchTuples(hf, tuples);
+
+        HeapPage first = (HeapPage) hf.readPage(new HeapPageId(hf.getId(), numPages));
+        Iterator<Tuple> it = first.iterator();
+        assertEquals(1000, ((IntField) it.next().getField(0)).getValue());
+        assertEquals(0, first.getNumEmptySlots());
+        FreeSpaceMap fsm = hf.getFreeSpaceMap();
+        assertEquals(0, fsm.getBucket(numPages));
+        assertTrue(fsm.getBucket(hf.numPages() - 1) > 0);
+
+        // later inserts go to pages with room, not past the loaded ones
+        TransactionId tid = new TransactionId();
+        int total = hf.numPages();
+        Database.getBufferPool().insertTuple(tid, hf.getId(), Utility.getHeapTuple(1, 2));
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(total, hf.numPages());
+    }
+
+    /**
+     * Unit test for the BULK_LOAD log record: aborting the load empties its
+     * pages again
+     */
+    @Test public void abortLoad() throws Exception {
+        writeInput(0, 3000);
+
+        Transaction t = new Transaction();
+        t.start();
+        BulkLoader loader = new BulkLoader(hf, ',');
+        loader.setChunkSize(5000);
+        loader.load(t.getId(), input);
+        assertTrue(hf.numPages() > 2);
+        t.abort();
+
+        SystemTestUtil.matchTuples(hf, tuples);
+    }
+
+    /**
+     * Unit test for the isolation of a load: its pages are locked by the
+     * loading transaction and kept from inserts until it commits
+     */
+    @Test public void hiddenUntilCommit() throws Exception {
+        int numPages = hf.numPages();
+        writeInput(0, 3000);
+
+        Transaction t = new Transaction();
+        t.start();
+        new BulkLoader(hf, ',').load(t.getId(), input);
+        int loaded = hf.numPages();
+        assertTrue(loaded > numPages);
+        BufferPool bp = Database.getBufferPool();
+        FreeSpaceMap fsm = hf.getFreeSpaceMap();
+        // the last loaded page has room, but only the old pages are found
+        assertTrue(fsm.getBucket(loaded - 1) > 0);
+        assertTrue(fsm.findPage(loaded) < numPages);
+        for (int p = numPages; p < loaded; p++) {
+            assertTrue(bp.holdsLock(t.getId(), new HeapPageId(hf.getId(), p)));
+        }
+
+        // mark the old pages full, so that the next insert needs a loaded one
+        for (int p = fsm.findPage(loaded); p >= 0 && p < numPages; p = fsm.findPage(loaded)) {
+            fsm.update(p, 0, 1);
+        }
+        assertEquals(-1, fsm.findPage(loaded));
+        t.commit();
+        assertEquals(loaded - 1, fsm.findPage(loaded));
+        TransactionId tid = new TransactionId();
+        bp.insertTuple(tid, hf.getId(), Utility.getHeapTuple(1, 2));
+        bp.transactionComplete(tid);
+        assertEquals(loaded, hf.numPages());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BulkLoaderTest.class);
+    }
+}
@@ -0,0 +1,118 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class CompressedHeapFileTest extends SimpleDbTestBase {
+    private ArrayList<ArrayList<Integer>> tuples;
+    private HeapFile hf;
+    private File file;
+    private CompressedHeapFile cf;
+    private TransactionId tid;
+
+    /**
+     * Set up initial resources for each unit test.
+     */
+    @Before public void setUp() throws Exception {
+        tuples = new ArrayList<ArrayList<Integer>>();
+        // small values, like the codes and flags of an archival table
+        hf = SystemTestUtil.createRandomHeapFile(4, 3000, 16, null, tuples);
+        file = File.createTempFile("table", ".z");
+        HeapFile.deleteOnExit(file);
+        CompressedHeapFile.convert(hf.getFile(), file, hf.getTupleDesc());
+
+        cf = new CompressedHeapFile(file, hf.getTupleDesc());
+        Database.getCatalog().addTable(cf, SystemTestUtil.getUUID());
+        tid = new TransactionId();
+    }
+
+    @After public void tearDown() throws Exception {
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Unit test for CompressedHeapFile.convert(): same pages, fewer bytes
+     */
+    @Test public void convertAndScan() throws Exception {
+        assertEquals(hf.numPages(), cf.numPages());
+        assertTrue(cf.compressedSize() * 3 < hf.getFile().length());
+        SystemTestUtil.matchTuples(cf, tuples);
+
+        HeapPageId pid = new HeapPageId(cf.getId(), 1);
+        HeapPage page = (HeapPage) cf.readPage(pid);
+        HeapPage expected = (HeapPage) hf.readPage(new HeapPageId(hf.getId(), 1));
+        assertArrayEquals(expected.getPageData(), page.getPageData());
+    }
+
+    /**
+     * Unit test for CompressedHeapFile.writePage() and new pages, surviving
+     * a reopen of the file
+     */
+    @Test public void writeAndReopen() throws Exception {
+        // rewrite a page with data that no longer compresses as well
+        HeapPageId pid = new HeapPageId(cf.getId(), 0);
+        HeapPage page = (HeapPage) cf.readPage(pid);
+        Iterator<Tuple> it = page.iterator();
+        Random rand = new Random(0);
+        ArrayList<Tuple> removed = new ArrayList<Tuple>();
+        while (it.hasNext()) {
+            removed.add(it.next());
+        }
+        for (Tuple t : removed) {
+            page.deleteTuple(t);
+            page.insertTuple(Utility.getHeapTuple(new int[] {
+                    rand.nextInt(), rand.nextInt(), rand.nextInt(), rand.nextInt() }));
+        }
+        long before = cf.compressedSize();
+        cf.writePage(page);
+        assertTrue(cf.compressedSize() > before);
+
+        // a page appended through the BufferPool
+        int numPages = cf.numPages();
+        for (int i = 0; i < page.getNumSlots() + 1; i++) {
+            Database.getBufferPool().insertTuple(tid, cf.getId(), Utility.getHeapTuple(i, 4));
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        Database.getBufferPool().flushAllPages();
+        assertTrue(cf.numPages() > numPages);
+        int total = cf.numPages();
+        cf.close();
+
+        CompressedHeapFile reopened = new CompressedHeapFile(file, hf.getTupleDesc());
+        Database.getCatalog().addTable(reopened, SystemTestUtil.getUUID());
+        assertEquals(total, reopened.numPages());
+        HeapPage copy = (HeapPage) reopened.readPage(new HeapPageId(reopened.getId(), 0));
+        assertArrayEquals(page.getPageData(), copy.getPageData());
+    }
+
+    /**
+     * Unit test for closing a CompressedHeapFile whose data file was
+     * deleted: its page directory is deleted as well
+     */
+    @Test public void directoryDeletedWithTable() throws Exception {
+        File dir = HeapFile.sideFiles(file)[3];
+        assertTrue(dir.exists());
+
+        assertTrue(file.delete());
+        cf.close();
+        assertFalse(dir.exists());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(CompressedHeapFileTest.class);
+    }
+}
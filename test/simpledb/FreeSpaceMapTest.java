@@ -0,0 +1,163 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class FreeSpaceMapTest extends SimpleDbTestBase {
+
+    private File file;
+
+    /**
+     * Set up initial resources for each unit test.
+     */
+    @Before public void createFile() throws Exception {
+        file = File.createTempFile("table", ".fsm");
+        file.delete();
+        file.deleteOnExit();
+    }
+
+    /**
+     * Unit test for FreeSpaceMap.findPage() on pages it has not seen
+     */
+    @Test public void unknownPagesAreCandidates() {
+        FreeSpaceMap fsm = new FreeSpaceMap(file);
+        assertEquals(-1, fsm.findPage(0));
+        assertEquals(0, fsm.findPage(3));
+
+        fsm.update(0, 0, 10);
+        assertEquals(1, fsm.findPage(3));
+        fsm.update(1, 0, 10);
+        fsm.update(2, 0, 10);
+        assertEquals(-1, fsm.findPage(3));
+        // a page appended since is unknown again
+        assertEquals(3, fsm.findPage(4));
+    }
+
+    /**
+     * Unit test for FreeSpaceMap.update() freeing space on an earlier page
+     */
+    @Test public void freedPageIsFound() {
+        FreeSpaceMap fsm = new FreeSpaceMap(file);
+        for (int i = 0; i < 5; i++) {
+            fsm.update(i, 0, 10);
+        }
+        assertEquals(-1, fsm.findPage(5));
+        fsm.update(3, 1, 10);
+        assertEquals(3, fsm.findPage(5));
+        fsm.update(1, 10, 10);
+        assertEquals(1, fsm.findPage(5));
+        assertEquals(FreeSpaceMap.NUM_BUCKETS - 1, fsm.getBucket(1));
+    }
+
+    /**
+     * Unit test for FreeSpaceMap.reserve(): a reserved page is not found
+     * until it is released, and is saved as full
+     */
+    @Test public void reservedPages() throws Exception {
+        FreeSpaceMap fsm = new FreeSpaceMap(file);
+        fsm.update(0, 0, 10);
+        fsm.reserve(1);
+        fsm.update(1, 5, 10);
+        assertEquals(-1, fsm.findPage(2));
+        fsm.save();
+        assertEquals(0, new FreeSpaceMap(file).getBucket(1));
+
+        fsm.release(1);
+        assertEquals(1, fsm.findPage(2));
+        assertEquals(FreeSpaceMap.bucketFor(5, 10), fsm.getBucket(1));
+    }
+
+    /**
+     * Unit test for FreeSpaceMap.save() and loading the side file
+     */
+    @Test public void saveAndLoad() throws Exception {
+        FreeSpaceMap fsm = new FreeSpaceMap(file);
+        fsm.update(0, 0, 10);
+        fsm.update(1, 0, 10);
+        fsm.update(2, 5, 10);
+        fsm.save();
+
+        FreeSpaceMap loaded = new FreeSpaceMap(file);
+        assertEquals(2, loaded.findPage(3));
+        assertEquals(FreeSpaceMap.bucketFor(5, 10), loaded.getBucket(2));
+
+        // a change makes the side file stale, so it is removed until the
+        // next save, and a crash meanwhile starts the map over
+        loaded.update(2, 0, 10);
+        assertFalse(file.exists());
+        assertEquals(FreeSpaceMap.UNKNOWN, new FreeSpaceMap(file).getBucket(0));
+        loaded.save();
+        assertTrue(file.exists());
+    }
+
+    /**
+     * Unit test for closing a HeapFile whose data file was deleted: its side
+     * files are deleted as well
+     */
+    @Test public void sideFilesDeletedWithTable() throws Exception {
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 1000, null, null);
+        hf.getFreeSpaceMap().update(0, 0, 10);
+        hf.close();
+        File[] sides = HeapFile.sideFiles(hf.getFile());
+        assertTrue(sides[0].exists());
+
+        assertTrue(hf.getFile().delete());
+        hf.close();
+        for (File side : sides) {
+            assertFalse(side.exists());
+        }
+    }
+
+    /**
+     * Unit test for aborting a transaction that filled a page, with the page
+     * still in the BufferPool and written to disk before the abort: the
+     * restored page has room again and the next insert uses it
+     */
+    @Test public void abortRestoresFreeSpace() throws Exception {
+        for (boolean flushed : new boolean[] { false, true }) {
+            HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 1, null, null);
+            BufferPool bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+            int numPages = hf.numPages();
+            TransactionId tid = new TransactionId();
+            int slots = ((HeapPage) bp.getPage(tid, new HeapPageId(hf.getId(), 0),
+                    Permissions.READ_ONLY)).getNumSlots();
+            bp.transactionComplete(tid);
+
+            Transaction t = new Transaction();
+            t.start();
+            for (int i = 1; i < slots; i++) {
+                bp.insertTuple(t.getId(), hf.getId(), Utility.getHeapTuple(new int[] { i, 2 }));
+            }
+            assertEquals(numPages, hf.numPages());
+            assertEquals(0, hf.getFreeSpaceMap().getBucket(0));
+            if (flushed) {
+                bp.flushPages(t.getId());
+            }
+            t.abort();
+
+            t = new Transaction();
+            t.start();
+            bp.insertTuple(t.getId(), hf.getId(), Utility.getHeapTuple(new int[] { 7, 7 }));
+            t.commit();
+            assertEquals(numPages, hf.numPages());
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(FreeSpaceMapTest.class);
+    }
+}
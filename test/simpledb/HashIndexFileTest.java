@@ -0,0 +1,169 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.*;
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class HashIndexFileTest extends SimpleDbTestBase {
+    private HashIndexFile index;
+    private TransactionId tid;
+
+    /**
+     * Set up initial resources for each unit test.
+     */
+    @Before public void setUp() throws Exception {
+        // small pages make buckets split and the directory span many pages
+        BufferPool.setPageSize(256);
+        super.setUp();
+        index = createIndex(Type.INT_TYPE);
+        tid = new TransactionId();
+    }
+
+    @After public void tearDown() throws Exception {
+        Database.getBufferPool().transactionComplete(tid);
+        BufferPool.resetPageSize();
+    }
+
+    private HashIndexFile createIndex(Type keyType) throws IOException {
+        File f = File.createTempFile("hash", ".dat");
+        f.deleteOnExit();
+        HashIndexFile file = new HashIndexFile(f, keyType, 42);
+        Database.getCatalog().addTable(file, SystemTestUtil.getUUID());
+        return file;
+    }
+
+    private static RecordId rid(int i) {
+        return new RecordId(new HeapPageId(42, i / 10), i % 10);
+    }
+
+    private void insert(TransactionId tid, Field key, RecordId rid) throws Exception {
+        Database.getBufferPool().insertTuple(tid, index.getId(), index.entry(key, rid));
+    }
+
+    /**
+     * Unit test for HashIndexFile.insertTuple() and lookup(): splits and
+     * directory doubling keep every key reachable
+     */
+    @Test public void insertAndLookup() throws Exception {
+        for (int i = 0; i < 3000; i++) {
+            insert(tid, new IntField(i * 7), rid(i));
+        }
+        Database.getBufferPool().transactionComplete(tid);
+
+        tid = new TransactionId();
+        for (int i = 0; i < 3000; i++) {
+            assertEquals(Collections.singletonList(rid(i)), index.lookup(tid, new IntField(i * 7)));
+        }
+        assertTrue(index.lookup(tid, new IntField(1)).isEmpty());
+
+        int n = 0;
+        DbFileIterator it = index.iterator(tid);
+        it.open();
+        while (it.hasNext()) {
+            it.next();
+            n++;
+        }
+        it.close();
+        assertEquals(3000, n);
+
+        // 3000 entries of 12 bytes need more than one 64 entry directory page
+        HashDirectoryPage meta = (HashDirectoryPage) Database.getBufferPool().getPage(tid,
+                new HashPageId(index.getId(), 0, HashPageId.DIRECTORY), Permissions.READ_ONLY);
+        assertTrue(meta.getInt(1) > 1);
+    }
+
+    /**
+     * Unit test for duplicate keys, which overflow their bucket instead of
+     * splitting it
+     */
+    @Test public void duplicates() throws Exception {
+        Set<RecordId> expected = new HashSet<RecordId>();
+        for (int i = 0; i < 200; i++) {
+            insert(tid, new IntField(5), rid(i));
+            insert(tid, new IntField(i + 100), rid(i + 1000));
+            expected.add(rid(i));
+        }
+        int numPages = index.numPages();
+        assertEquals(expected, new HashSet<RecordId>(index.lookup(tid, new IntField(5))));
+        assertTrue(numPages < 100);
+
+        Tuple t = index.entry(new IntField(5), rid(17));
+        Database.getBufferPool().deleteTuple(tid, lookupEntry(t));
+        expected.remove(rid(17));
+        assertEquals(expected, new HashSet<RecordId>(index.lookup(tid, new IntField(5))));
+        try {
+            index.deleteTuple(tid, t);
+            fail("deleted an entry that is not in the index");
+        } catch (DbException e) {
+            // expected
+        }
+    }
+
+    private Tuple lookupEntry(Tuple t) throws Exception {
+        DbFileIterator it = index.indexIterator(tid, t.getField(0));
+        it.open();
+        while (it.hasNext()) {
+            Tuple e = it.next();
+            if (index.recordIdOf(e).equals(index.recordIdOf(t))) {
+                it.close();
+                return e;
+            }
+        }
+        it.close();
+        return null;
+    }
+
+    /**
+     * Unit test for aborting inserts that split buckets
+     */
+    @Test public void abort() throws Exception {
+        for (int i = 0; i < 100; i++) {
+            insert(tid, new IntField(i), rid(i));
+        }
+        Database.getBufferPool().transactionComplete(tid);
+
+        Transaction t = new Transaction();
+        t.start();
+        for (int i = 100; i < 2000; i++) {
+            insert(t.getId(), new IntField(i), rid(i));
+        }
+        t.abort();
+
+        tid = new TransactionId();
+        for (int i = 0; i < 200; i++) {
+            assertEquals(i < 100 ? 1 : 0, index.lookup(tid, new IntField(i)).size());
+        }
+    }
+
+    /**
+     * Unit test for a hash index on a string key
+     */
+    @Test public void stringKeys() throws Exception {
+        BufferPool.setPageSize(1024);
+        index = createIndex(Type.STRING_TYPE);
+        for (int i = 0; i < 300; i++) {
+            insert(tid, new StringField("key" + i, Type.STRING_LEN), rid(i));
+        }
+        for (int i = 0; i < 300; i++) {
+            assertEquals(Collections.singletonList(rid(i)),
+                    index.lookup(tid, new StringField("key" + i, Type.STRING_LEN)));
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(HashIndexFileTest.class);
+    }
+}
@@ -77,6 +77,40 @@ public class HeapFileReadTest extends SimpleDbTestBase {
         assertFalse(page.isSlotUsed(20));
     }
 
+    /**
+     * Unit test for HeapFile.close(): a closed file reopens its channel on
+     * the next page access.
+     */
+    @Test
+    public void closeAndReread() throws Exception {
+        HeapPageId pid = new HeapPageId(hf.getId(), 0);
+        hf.readPage(pid);
+        hf.close();
+        // close twice is harmless
+        hf.close();
+
+        HeapPage page = (HeapPage) hf.readPage(pid);
+        assertEquals(484, page.getNumEmptySlots());
+    }
+
+    /**
+     * Unit test for HeapFile.readPage() in memory-mapped mode
+     */
+    @Test
+    public void readPageMapped() throws Exception {
+        HeapPageId pid = new HeapPageId(hf.getId(), 0);
+        HeapPage expected = (HeapPage) hf.readPage(pid);
+
+        HeapFile mapped = new HeapFile(hf.getFile(), td, true);
+        Database.getCatalog().addTable(mapped, SystemTestUtil.getUUID());
+        assertTrue(mapped.isMemoryMapped());
+        HeapPage page = (HeapPage) mapped.readPage(pid);
+
+        assertEquals(484, page.getNumEmptySlots());
+        assertArrayEquals(expected.getPageData(), page.getPageData());
+        mapped.close();
+    }
+
     @Test
     public void testIteratorBasic() throws Exception {
         HeapFile smallFile = SystemTestUtil.createRandomHeapFile(2, 3, null,
@@ -121,6 +155,30 @@ public class HeapFileReadTest extends SimpleDbTestBase {
         it.close();
     }
 
+    /**
+     * Unit test for HeapFileIterator with read-ahead: every tuple is returned
+     * exactly once, whether or not the page was prefetched.
+     */
+    @Test
+    public void testIteratorReadAhead() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile bigFile = SystemTestUtil.createRandomHeapFile(2, 10000,
+                null, tuples);
+        assertTrue(bigFile.numPages() > Database.getBufferPool().getReadAheadPages());
+
+        DbFileIterator it = bigFile.iterator(tid);
+        it.open();
+        int count = 0;
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            assertEquals(tuples.get(count).get(0).intValue(),
+                    ((IntField) t.getField(0)).getValue());
+            count += 1;
+        }
+        assertEquals(tuples.size(), count);
+        it.close();
+    }
+
     /**
      * JUnit suite target
      */
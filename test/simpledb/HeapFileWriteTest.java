@@ -86,6 +86,28 @@ public class HeapFileWriteTest extends TestUtil.CreateHeapFile {
         it.close();
     }
 
+    /**
+     * Unit test for HeapFile.writePages() with a run of adjacent pages and a
+     * gap between runs
+     */
+    @Test public void writePages() throws Exception {
+        int tableId = empty.getId();
+        byte[] data = HeapPage.createEmptyPageData();
+        java.util.List<Page> pages = new java.util.ArrayList<Page>();
+        for (int pageNo : new int[] { 0, 1, 2, 4 }) {
+            HeapPage page = new HeapPage(new HeapPageId(tableId, pageNo), data);
+            page.insertTuple(Utility.getHeapTuple(pageNo, 2));
+            pages.add(page);
+        }
+        empty.writePages(pages);
+        assertEquals(5, empty.numPages());
+
+        for (Page expected : pages) {
+            Page page = empty.readPage(expected.getId());
+            assertArrayEquals(expected.getPageData(), page.getPageData());
+        }
+    }
+
     /**
      * JUnit suite target
      */
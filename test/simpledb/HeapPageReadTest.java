@@ -12,6 +12,7 @@ import org.junit.Before;
 import org.junit.Test;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
 import static org.junit.Assert.assertTrue;
 import junit.framework.JUnit4TestAdapter;
 
@@ -99,6 +100,19 @@ public class HeapPageReadTest extends SimpleDbTestBase {
         }
     }
 
+    /**
+     * Unit test for HeapPage.iterator(): every pass decodes its own tuples,
+     * which the page does not keep
+     */
+    @Test public void iteratorDecodesAgain() throws Exception {
+        HeapPage page = new HeapPage(pid, EXAMPLE_DATA);
+        Tuple first = page.iterator().next();
+        Tuple again = page.iterator().next();
+
+        assertNotSame(first, again);
+        assertTrue(TestUtil.compareTuples(first, again));
+    }
+
     /**
      * Unit test for HeapPage.getNumEmptySlots()
      */
@@ -1,9 +1,12 @@
 package simpledb;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.LinkedList;
 
@@ -85,6 +88,110 @@ public class HeapPageWriteTest extends SimpleDbTestBase {
         }
     }
 
+    /**
+     * Unit test for HeapPage modifications: the page works on its own copy of
+     * the bytes it was built from, and serializes what was changed.
+     */
+    @Test public void modifyKeepsInputData() throws Exception {
+        byte[] input = HeapPageReadTest.EXAMPLE_DATA.clone();
+        HeapPage page = new HeapPage(pid, input);
+        Tuple first = page.iterator().next();
+        page.deleteTuple(first);
+        page.insertTuple(Utility.getHeapTuple(new int[] { 6, 830 }));
+
+        assertArrayEquals(HeapPageReadTest.EXAMPLE_DATA, input);
+
+        HeapPage copy = new HeapPage(pid, page.getPageData());
+        assertEquals(page.getNumEmptySlots(), copy.getNumEmptySlots());
+        Iterator<Tuple> expected = page.iterator();
+        Iterator<Tuple> actual = copy.iterator();
+        while (expected.hasNext()) {
+            assertTrue(TestUtil.compareTuples(expected.next(), actual.next()));
+        }
+    }
+
+    /**
+     * Unit test for HeapPage.getPageData(ByteBuffer): writes the bytes of
+     * getPageData() at the buffer's position
+     */
+    @Test public void pageDataIntoBuffer() throws Exception {
+        HeapPage page = new HeapPage(pid, HeapPageReadTest.EXAMPLE_DATA);
+        page.insertTuple(Utility.getHeapTuple(new int[] { 6, 830 }));
+
+        int pageSize = BufferPool.getPageSize();
+        java.nio.ByteBuffer buf = java.nio.ByteBuffer.allocate(pageSize + 3);
+        buf.position(3);
+        page.getPageData(buf);
+        assertEquals(pageSize + 3, buf.position());
+
+        byte[] written = new byte[pageSize];
+        System.arraycopy(buf.array(), 3, written, 0, pageSize);
+        assertArrayEquals(page.getPageData(), written);
+    }
+
+    /**
+     * Unit test for HeapPage.getBeforeImage(): the snapshot is taken on the
+     * first modification and dropped again by setBeforeImage()
+     */
+    @Test public void lazyBeforeImage() throws Exception {
+        HeapPage page = new HeapPage(pid, HeapPageReadTest.EXAMPLE_DATA);
+        assertTrue(page.oldData == null);
+        assertArrayEquals(HeapPageReadTest.EXAMPLE_DATA, page.getBeforeImage().getPageData());
+
+        page.insertTuple(Utility.getHeapTuple(new int[] { 6, 830 }));
+        page.insertTuple(Utility.getHeapTuple(new int[] { 7, 831 }));
+        assertArrayEquals(HeapPageReadTest.EXAMPLE_DATA, page.getBeforeImage().getPageData());
+
+        int pageSize = BufferPool.getPageSize();
+        java.nio.ByteBuffer buf = java.nio.ByteBuffer.allocate(pageSize);
+        page.getBeforeImageData(buf);
+        assertArrayEquals(HeapPageReadTest.EXAMPLE_DATA, buf.array());
+
+        page.setBeforeImage();
+        assertTrue(page.oldData == null);
+        assertArrayEquals(page.getPageData(), page.getBeforeImage().getPageData());
+    }
+
+    /**
+     * Unit test for the header bitmap: free slots are counted and found
+     * across word boundaries, ignoring padding bits past the last slot
+     */
+    @Test public void slotBitmap() throws Exception {
+        byte[] full = new byte[BufferPool.getPageSize()];
+        Arrays.fill(full, (byte) 0xFF);
+        HeapPage page = new HeapPage(pid, full);
+        int numSlots = page.getNumSlots();
+        assertEquals(0, page.getNumEmptySlots());
+
+        int[] freed = { 0, 63, 64, numSlots - 1 };
+        HashMap<Integer, Tuple> bySlot = new HashMap<Integer, Tuple>();
+        Iterator<Tuple> it = page.iterator();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            bySlot.put(t.getRecordId().getTupleNumber(), t);
+        }
+        assertEquals(numSlots, bySlot.size());
+        for (int slot : freed) {
+            page.deleteTuple(bySlot.get(slot));
+        }
+        assertEquals(freed.length, page.getNumEmptySlots());
+
+        int count = 0;
+        it = page.iterator();
+        while (it.hasNext()) {
+            assertTrue(page.isSlotUsed(it.next().getRecordId().getTupleNumber()));
+            count++;
+        }
+        assertEquals(numSlots - freed.length, count);
+
+        for (int slot : freed) {
+            Tuple t = Utility.getHeapTuple(new int[] { slot, slot });
+            page.insertTuple(t);
+            assertEquals(slot, t.getRecordId().getTupleNumber());
+        }
+        assertEquals(0, page.getNumEmptySlots());
+    }
+
     /**
      * Unit test for HeapPage.deleteTuple() with false tuples
      */
@@ -0,0 +1,200 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.*;
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class IndexJoinTest extends SimpleDbTestBase {
+    private ArrayList<ArrayList<Integer>> small;
+    private ArrayList<ArrayList<Integer>> large;
+    private HeapFile smallFile;
+    private HeapFile largeFile;
+
+    /**
+     * Set up a small table and a large table with a B+ tree index on its
+     * first field and a hash index on its second.
+     */
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        small = new ArrayList<ArrayList<Integer>>();
+        smallFile = SystemTestUtil.createRandomHeapFile(2, 20, 100, null, small, "s");
+        Database.getCatalog().addTable(smallFile, "small");
+        large = new ArrayList<ArrayList<Integer>>();
+        largeFile = SystemTestUtil.createRandomHeapFile(2, 3000, 100, null, large, "l");
+        Database.getCatalog().addTable(largeFile, "large");
+
+        TableIndex btree = TableIndex.createBTreeIndex(tempFile(), largeFile.getId(), 0);
+        TableIndex hash = TableIndex.createHashIndex(tempFile(), largeFile.getId(), 1);
+        Database.getCatalog().addIndex(btree);
+        Database.getCatalog().addIndex(hash);
+        Transaction t = new Transaction();
+        t.start();
+        btree.build(t.getId());
+        hash.build(t.getId());
+        t.commit();
+    }
+
+    private static File tempFile() throws IOException {
+        File f = File.createTempFile("index", ".dat");
+        f.deleteOnExit();
+        return f;
+    }
+
+    /** @return the rows of small joined with the rows of large on s.f1 = l.f2 */
+    private List<ArrayList<Integer>> expected(int f1, int f2, Predicate inner) {
+        List<ArrayList<Integer>> out = new ArrayList<ArrayList<Integer>>();
+        for (ArrayList<Integer> s : small) {
+            for (ArrayList<Integer> l : large) {
+                if (s.get(f1).equals(l.get(f2)) && (inner == null
+                        || inner.filter(Utility.getHeapTuple(new int[] { l.get(0), l.get(1) })))) {
+                    ArrayList<Integer> row = new ArrayList<Integer>(s);
+                    row.addAll(l);
+                    out.add(row);
+                }
+            }
+        }
+        return out;
+    }
+
+    /**
+     * Unit test for IndexJoin over both kinds of index, and with a filter
+     * over the inner index scan
+     */
+    @Test public void join() throws Exception {
+        TransactionId tid = new TransactionId();
+        for (int f = 0; f < 2; f++) {
+            TableIndex index = Database.getCatalog().getIndex(largeFile.getId(), f,
+                    Predicate.Op.EQUALS);
+            JoinPredicate p = new JoinPredicate(1, Predicate.Op.EQUALS, f);
+            IndexJoin j = new IndexJoin(p, new SeqScan(tid, smallFile.getId(), "small"),
+                    new IndexScan(tid, index, Predicate.Op.EQUALS, null, "large"));
+            SystemTestUtil.matchTuples(j, expected(1, f, null));
+            assertSame(index, j.getIndex());
+        }
+
+        Predicate inner = new Predicate(0, Predicate.Op.GREATER_THAN, new IntField(50));
+        IndexJoin j = new IndexJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 1),
+                new SeqScan(tid, smallFile.getId(), "small"),
+                new Filter(inner, new IndexScan(tid, Database.getCatalog().getIndex(
+                        largeFile.getId(), 1, Predicate.Op.EQUALS), Predicate.Op.EQUALS, null, "large")));
+        SystemTestUtil.matchTuples(j, expected(0, 1, inner));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Unit test for IndexJoin.setChildren(): the join reads the new children
+     * and probes the index of the new inner scan
+     */
+    @Test public void setChildren() throws Exception {
+        TransactionId tid = new TransactionId();
+        TableIndex index = Database.getCatalog().getIndex(largeFile.getId(), 0, Predicate.Op.EQUALS);
+        IndexScan probe = new IndexScan(tid, index, Predicate.Op.EQUALS, null, "large");
+        IndexJoin j = new IndexJoin(new JoinPredicate(1, Predicate.Op.EQUALS, 0),
+                new SeqScan(tid, smallFile.getId(), "small"), probe);
+
+        Predicate outer = new Predicate(0, Predicate.Op.LESS_THAN, new IntField(50));
+        j.setChildren(new OpIterator[] {
+                new Filter(outer, new SeqScan(tid, smallFile.getId(), "small")),
+                new IndexScan(tid, index, Predicate.Op.EQUALS, null, "large") });
+
+        List<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>();
+        for (ArrayList<Integer> row : expected(1, 0, null)) {
+            if (row.get(0) < 50) {
+                expected.add(row);
+            }
+        }
+        SystemTestUtil.matchTuples(j, expected);
+        // the replaced inner scan was never probed
+        assertNull(probe.getPredicate().getOperand());
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Unit test for JoinOptimizer.instantiateJoin(): equijoins against an
+     * indexed table scan become index joins, keeping filters on that table
+     */
+    @Test public void instantiateJoin() throws Exception {
+        TransactionId tid = new TransactionId();
+        LogicalJoinNode lj = new LogicalJoinNode("small", "large", "small.s0", "large.l1",
+                Predicate.Op.EQUALS);
+        OpIterator j = JoinOptimizer.instantiateJoin(lj, new SeqScan(tid, smallFile.getId(), "small"),
+                new SeqScan(tid, largeFile.getId(), "large"));
+        assertTrue(j instanceof IndexJoin);
+        SystemTestUtil.matchTuples(j, expected(0, 1, null));
+
+        Predicate inner = new Predicate(0, Predicate.Op.LESS_THAN, new IntField(30));
+        j = JoinOptimizer.instantiateJoin(lj, new SeqScan(tid, smallFile.getId(), "small"),
+                new Filter(inner, new SeqScan(tid, largeFile.getId(), "large")));
+        assertTrue(j instanceof IndexJoin);
+        SystemTestUtil.matchTuples(j, expected(0, 1, inner));
+
+        // an index scan answering a filter gives way to the join probe
+        j = JoinOptimizer.instantiateJoin(lj, new SeqScan(tid, smallFile.getId(), "small"),
+                new IndexScan(tid, Database.getCatalog().getIndex(largeFile.getId(), 0,
+                        Predicate.Op.LESS_THAN), Predicate.Op.LESS_THAN, new IntField(30), "large"));
+        assertTrue(j instanceof IndexJoin);
+        SystemTestUtil.matchTuples(j, expected(0, 1, inner));
+
+        // no index on the small table, and none for inequalities
+        assertFalse(JoinOptimizer.instantiateJoin(lj.swapInnerOuter(),
+                new SeqScan(tid, largeFile.getId(), "large"),
+                new SeqScan(tid, smallFile.getId(), "small")) instanceof IndexJoin);
+        assertFalse(JoinOptimizer.instantiateJoin(new LogicalJoinNode("small", "large", "small.s0",
+                "large.l1", Predicate.Op.LESS_THAN), new SeqScan(tid, smallFile.getId(), "small"),
+                new SeqScan(tid, largeFile.getId(), "large")) instanceof IndexJoin);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Unit test for JoinOptimizer.estimateJoinCost() and orderJoins(): the
+     * small table drives an index join into the large one
+     */
+    @Test public void estimateJoinCost() throws Exception {
+        TransactionId tid = new TransactionId();
+        TableStats smallStats = new TableStats(smallFile.getId(), TableStats.IOCOSTPERPAGE);
+        TableStats largeStats = new TableStats(largeFile.getId(), TableStats.IOCOSTPERPAGE);
+        TableStats.setTableStats("small", smallStats);
+        TableStats.setTableStats("large", largeStats);
+
+        LogicalPlan lp = new Parser().generateLogicalPlan(tid,
+                "SELECT * FROM small, large WHERE small.s0 = large.l1;");
+        LogicalJoinNode lj = new LogicalJoinNode("small", "large", "small.s0", "large.l1",
+                Predicate.Op.EQUALS);
+        JoinOptimizer jo = new JoinOptimizer(lp, new Vector<LogicalJoinNode>());
+        double indexed = jo.estimateJoinCost(lj, 20, 3000, smallStats.estimateScanCost(),
+                largeStats.estimateScanCost());
+        double nested = jo.estimateJoinCost(lj.swapInnerOuter(), 3000, 20,
+                largeStats.estimateScanCost(), smallStats.estimateScanCost());
+        assertTrue(indexed < nested);
+        assertTrue(indexed > smallStats.estimateScanCost());
+
+        HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+        stats.put("small", smallStats);
+        stats.put("large", largeStats);
+        HashMap<String, Double> selectivities = new HashMap<String, Double>();
+        selectivities.put("small", 1.0);
+        selectivities.put("large", 1.0);
+        Vector<LogicalJoinNode> joins = new Vector<LogicalJoinNode>();
+        joins.add(lj.swapInnerOuter());
+        Vector<LogicalJoinNode> order = new JoinOptimizer(lp, joins).orderJoins(stats,
+                selectivities, false);
+        assertEquals("large", order.get(0).t2Alias);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(IndexJoinTest.class);
+    }
+}
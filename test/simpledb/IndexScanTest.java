@@ -0,0 +1,207 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.*;
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class IndexScanTest extends SimpleDbTestBase {
+    private ArrayList<ArrayList<Integer>> tuples;
+    private HeapFile hf;
+    private TableIndex btree;
+    private TableIndex hash;
+
+    /**
+     * Set up initial resources for each unit test.
+     */
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        tuples = new ArrayList<ArrayList<Integer>>();
+        hf = SystemTestUtil.createRandomHeapFile(2, 5000, 1000, null, tuples, "field");
+        Database.getCatalog().addTable(hf, "t");
+
+        btree = TableIndex.createBTreeIndex(tempFile(), hf.getId(), 0);
+        hash = TableIndex.createHashIndex(tempFile(), hf.getId(), 1);
+        Database.getCatalog().addIndex(btree);
+        Database.getCatalog().addIndex(hash);
+
+        Transaction t = new Transaction();
+        t.start();
+        btree.build(t.getId());
+        hash.build(t.getId());
+        t.commit();
+    }
+
+    private static File tempFile() throws IOException {
+        File f = File.createTempFile("index", ".dat");
+        f.deleteOnExit();
+        return f;
+    }
+
+    private List<ArrayList<Integer>> matching(int field, Predicate.Op op, int v) {
+        Predicate p = new Predicate(field, op, new IntField(v));
+        List<ArrayList<Integer>> rows = new ArrayList<ArrayList<Integer>>();
+        for (ArrayList<Integer> r : tuples) {
+            if (p.filter(Utility.getHeapTuple(new int[] { r.get(0), r.get(1) }))) {
+                rows.add(r);
+            }
+        }
+        return rows;
+    }
+
+    /**
+     * Unit test for Catalog.addIndex() and getIndex()
+     */
+    @Test public void catalog() {
+        Catalog c = Database.getCatalog();
+        assertEquals(2, c.getIndexes(hf.getId()).size());
+        assertSame(btree, c.getIndex(hf.getId(), 0, Predicate.Op.LESS_THAN));
+        assertSame(hash, c.getIndex(hf.getId(), 1, Predicate.Op.EQUALS));
+        assertNull(c.getIndex(hf.getId(), 1, Predicate.Op.LESS_THAN));
+        assertNull(c.getIndex(hf.getId(), 0, Predicate.Op.NOT_EQUALS));
+        assertSame(btree.getFile(), c.getDatabaseFile(btree.getFile().getId()));
+
+        // index files are not tables
+        Iterator<Integer> it = c.tableIdIterator();
+        while (it.hasNext()) {
+            assertEquals(hf.getId(), (int) it.next());
+        }
+    }
+
+    /**
+     * Unit test for IndexScan over B+ tree and hash indexes
+     */
+    @Test public void scan() throws Exception {
+        TransactionId tid = new TransactionId();
+        for (Predicate.Op op : new Predicate.Op[] { Predicate.Op.EQUALS, Predicate.Op.LESS_THAN,
+                Predicate.Op.GREATER_THAN_OR_EQ }) {
+            IndexScan scan = new IndexScan(tid, btree, op, new IntField(500), "t");
+            SystemTestUtil.matchTuples(scan, matching(0, op, 500));
+        }
+        IndexScan scan = new IndexScan(tid, hash, Predicate.Op.EQUALS, new IntField(3), "t");
+        SystemTestUtil.matchTuples(scan, matching(1, Predicate.Op.EQUALS, 3));
+        assertEquals("t.field0", scan.getTupleDesc().getFieldName(0));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Unit test for index maintenance by BufferPool.insertTuple() and
+     * deleteTuple()
+     */
+    @Test public void maintenance() throws Exception {
+        TransactionId tid = new TransactionId();
+        Database.getBufferPool().insertTuple(tid, hf.getId(), Utility.getHeapTuple(new int[] { 2000, 3 }));
+        tuples.add(new ArrayList<Integer>(Arrays.asList(2000, 3)));
+
+        IndexScan scan = new IndexScan(tid, btree, Predicate.Op.EQUALS, new IntField(500), "t");
+        scan.open();
+        List<Tuple> deleted = new ArrayList<Tuple>();
+        while (scan.hasNext()) {
+            deleted.add(scan.next());
+        }
+        scan.close();
+        for (Tuple t : deleted) {
+            Database.getBufferPool().deleteTuple(tid, t);
+            tuples.remove(SystemTestUtil.tupleToList(t));
+        }
+
+        SystemTestUtil.matchTuples(new IndexScan(tid, btree, Predicate.Op.GREATER_THAN,
+                new IntField(-1), "t"), tuples);
+        SystemTestUtil.matchTuples(new IndexScan(tid, hash, Predicate.Op.EQUALS,
+                new IntField(3), "t"), matching(1, Predicate.Op.EQUALS, 3));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Unit test for IndexScan over a stale index entry: the slot it points
+     * at was reused by a tuple that does not match, behind the index's back
+     */
+    @Test public void staleEntry() throws Exception {
+        TransactionId tid = new TransactionId();
+        IndexScan scan = new IndexScan(tid, btree, Predicate.Op.EQUALS, new IntField(500), "t");
+        scan.open();
+        assertTrue(scan.hasNext());
+        Tuple t = scan.next();
+        scan.close();
+
+        HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid,
+                t.getRecordId().getPageId(), Permissions.READ_WRITE);
+        page.deleteTuple(t);
+        Tuple other = Utility.getHeapTuple(new int[] { -1, -1 });
+        page.insertTuple(other);
+        assertEquals(t.getRecordId(), other.getRecordId());
+
+        List<ArrayList<Integer>> expected = matching(0, Predicate.Op.EQUALS, 500);
+        expected.remove(SystemTestUtil.tupleToList(t));
+        SystemTestUtil.matchTuples(new IndexScan(tid, btree, Predicate.Op.EQUALS,
+                new IntField(500), "t"), expected);
+        Database.getBufferPool().transactionComplete(tid, false);
+    }
+
+    private static boolean usesIndexScan(OpIterator plan) {
+        if (plan instanceof IndexScan) {
+            return true;
+        }
+        if (plan instanceof Operator) {
+            for (OpIterator child : ((Operator) plan).getChildren()) {
+                if (child != null && usesIndexScan(child)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private OpIterator plan(TransactionId tid, String field, Predicate.Op op, String v)
+            throws Exception {
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(hf.getId(), "t");
+        lp.addFilter("t." + field, op, v);
+        lp.addProjectField("t.field0", null);
+        Map<String, TableStats> stats = new HashMap<String, TableStats>();
+        stats.put("t", new TableStats(hf.getId(), TableStats.IOCOSTPERPAGE));
+        return lp.physicalPlan(tid, stats, false);
+    }
+
+    /**
+     * Unit test for LogicalPlan.physicalPlan(): selective predicates on an
+     * indexed field are answered by an index scan, others by a sequential
+     * scan and a filter
+     */
+    @Test public void planning() throws Exception {
+        TransactionId tid = new TransactionId();
+        OpIterator plan = plan(tid, "field0", Predicate.Op.EQUALS, "500");
+        assertTrue(usesIndexScan(plan));
+        SystemTestUtil.matchTuples(plan, project(matching(0, Predicate.Op.EQUALS, 500)));
+
+        assertTrue(usesIndexScan(plan(tid, "field0", Predicate.Op.LESS_THAN, "0")));
+        assertTrue(usesIndexScan(plan(tid, "field1", Predicate.Op.EQUALS, "3")));
+        // nearly all rows match
+        assertFalse(usesIndexScan(plan(tid, "field0", Predicate.Op.GREATER_THAN, "3")));
+        assertFalse(usesIndexScan(plan(tid, "field1", Predicate.Op.NOT_EQUALS, "3")));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    private static List<ArrayList<Integer>> project(List<ArrayList<Integer>> rows) {
+        List<ArrayList<Integer>> out = new ArrayList<ArrayList<Integer>>();
+        for (ArrayList<Integer> r : rows) {
+            out.add(new ArrayList<Integer>(r.subList(0, 1)));
+        }
+        return out;
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(IndexScanTest.class);
+    }
+}
@@ -0,0 +1,162 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class PageArenaTest extends SimpleDbTestBase {
+    private ArrayList<ArrayList<Integer>> tuples;
+    private HeapFile hf;
+
+    /**
+     * Set up an off-heap buffer pool smaller than the table.
+     */
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        // no background reads, which would race the checks of where pages
+        // are cached
+        Database.resetBufferPool(10, true).setReadAheadPages(0);
+        tuples = new ArrayList<ArrayList<Integer>>();
+        hf = SystemTestUtil.createRandomHeapFile(2, 12000, 1000, null, tuples);
+        assertTrue(hf.numPages() > 10);
+    }
+
+    private static HeapPage page(TransactionId tid, HeapFile hf, int pageNo) throws Exception {
+        return (HeapPage) Database.getBufferPool().getPage(tid, new HeapPageId(hf.getId(), pageNo),
+                Permissions.READ_ONLY);
+    }
+
+    /**
+     * Unit test for PageArena frame allocation, retirement and release
+     */
+    @Test public void frames() {
+        PageArena arena = new PageArena(2, 64);
+        PageId p0 = new HeapPageId(1, 0);
+        PageId p1 = new HeapPageId(1, 1);
+        PageId p2 = new HeapPageId(1, 2);
+
+        ByteBuffer f0 = arena.frame(p0);
+        assertTrue(f0.isDirect());
+        assertEquals(64, f0.remaining());
+        f0.put(0, (byte) 7);
+        assertEquals(7, arena.frame(p0).get(0));
+        assertNotNull(arena.frame(p1));
+        assertNull(arena.frame(p2));
+        assertEquals(0, arena.getNumFreeFrames());
+
+        arena.retire(p0);
+        assertEquals(Arrays.asList(p0), arena.getRetired());
+        assertNull(arena.frame(p2));
+        arena.release(p0);
+        assertTrue(arena.getRetired().isEmpty());
+        assertNotNull(arena.frame(p2));
+
+        // asking for the frame again makes a retired page cached again
+        arena.retire(p1);
+        assertNotNull(arena.frame(p1));
+        assertTrue(arena.getRetired().isEmpty());
+    }
+
+    /**
+     * Unit test for scanning a table larger than an off-heap pool: cached
+     * pages are views of their frames
+     */
+    @Test public void scan() throws Exception {
+        assertTrue(Database.getBufferPool().isOffHeap());
+        for (int i = 0; i < 2; i++) {
+            TransactionId tid = new TransactionId();
+            SystemTestUtil.matchTuples(new SeqScan(tid, hf.getId()), tuples);
+            Database.getBufferPool().transactionComplete(tid);
+        }
+        for (int pageNo : new int[] { hf.numPages() - 1, 0 }) {
+            // one page per transaction: a page evicted while locked keeps
+            // its frame until the lock is released
+            TransactionId tid = new TransactionId();
+            assertTrue(page(tid, hf, pageNo).data.isDirect());
+            Database.getBufferPool().transactionComplete(tid);
+        }
+    }
+
+    /**
+     * Unit test for modified pages leaving their frame and moving back on
+     * commit and abort
+     */
+    @Test public void commitAndAbort() throws Exception {
+        BufferPool bp = Database.getBufferPool();
+        TransactionId tid = new TransactionId();
+        Tuple first = page(tid, hf, 0).iterator().next();
+        bp.transactionComplete(tid);
+
+        tid = new TransactionId();
+        bp.deleteTuple(tid, first);
+        HeapPage modified = page(tid, hf, 0);
+        assertFalse(modified.data.isDirect());
+        bp.transactionComplete(tid, false);
+
+        tid = new TransactionId();
+        HeapPage restored = page(tid, hf, 0);
+        assertTrue(restored.data.isDirect());
+        assertNotNull(restored.getTupleInSlot(first.getRecordId().getTupleNumber()));
+        bp.deleteTuple(tid, restored.getTupleInSlot(first.getRecordId().getTupleNumber()));
+        TransactionId dirtier = tid;
+        bp.transactionComplete(tid);
+
+        tid = new TransactionId();
+        HeapPage committed = page(tid, hf, 0);
+        assertTrue(committed.data.isDirect());
+        assertEquals(dirtier, committed.isDirty());
+        assertNull(committed.getTupleInSlot(first.getRecordId().getTupleNumber()));
+        bp.transactionComplete(tid);
+
+        // written pages are clean views, and the table reads back the same
+        bp.flushAllPages();
+        tid = new TransactionId();
+        assertNull(page(tid, hf, 0).isDirty());
+        tuples.remove(new ArrayList<Integer>(Arrays.asList(((IntField) first.getField(0)).getValue(),
+                ((IntField) first.getField(1)).getValue())));
+        SystemTestUtil.matchTuples(new SeqScan(tid, hf.getId()), tuples);
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * Unit test for a tuple of a PaxFile outliving the frame of its page:
+     * the tuple keeps its values once another page takes the frame
+     */
+    @Test public void paxTupleOutlivesFrame() throws Exception {
+        BufferPool bp = Database.resetBufferPool(1, true);
+        bp.setReadAheadPages(0);
+        File f = File.createTempFile("table", ".pax");
+        HeapFile.deleteOnExit(f);
+        PaxFile.convert(hf.getFile(), f, hf.getTupleDesc());
+        PaxFile pf = new PaxFile(f, hf.getTupleDesc());
+        Database.getCatalog().addTable(pf, SystemTestUtil.getUUID());
+
+        TransactionId tid = new TransactionId();
+        HeapPage paxPage = page(tid, pf, 0);
+        assertTrue(paxPage.data.isDirect());
+        Tuple held = paxPage.iterator().next();
+        bp.transactionComplete(tid);
+
+        tid = new TransactionId();
+        assertTrue(page(tid, hf, 1).data.isDirect());
+        bp.transactionComplete(tid);
+        assertEquals(tuples.get(0), SystemTestUtil.tupleToList(held));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PageArenaTest.class);
+    }
+}
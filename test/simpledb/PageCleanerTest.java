@@ -0,0 +1,106 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class PageCleanerTest extends SimpleDbTestBase {
+    private HeapFile hf;
+    private BufferPool bp;
+
+    /**
+     * Set up a table and a pool whose cleaner only runs when asked to.
+     */
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        hf = SystemTestUtil.createRandomHeapFile(2, 3000, null, null);
+        Database.getCatalog().addTable(hf, "cleaned");
+        bp = Database.resetBufferPool(20);
+        bp.setReadAheadPages(0);
+        bp.setCleanFraction(0);
+    }
+
+    /**
+     * Inserts a tuple into every page of the table on behalf of tid.
+     * @return the pages dirtied
+     */
+    private List<Page> dirtyAllPages(TransactionId tid) throws Exception {
+        List<Page> pages = new ArrayList<Page>();
+        for (int p = 0; p < hf.numPages(); p++) {
+            HeapPage page = (HeapPage) bp.getPage(tid, new HeapPageId(hf.getId(), p),
+                    Permissions.READ_WRITE);
+            Iterator<Tuple> it = page.iterator();
+            Tuple t = it.next();
+            page.deleteTuple(t);
+            page.markDirty(true, tid);
+            pages.add(page);
+        }
+        return pages;
+    }
+
+    /**
+     * Unit test for BufferPool.cleanPages(): the pages of committed
+     * transactions are written up to the target, those of running ones not
+     */
+    @Test public void cleanPages() throws Exception {
+        int numPages = hf.numPages();
+        assertTrue(numPages > 2 && numPages < 10);
+        TransactionId committed = new TransactionId();
+        List<Page> pages = dirtyAllPages(committed);
+        bp.transactionComplete(committed);
+
+        // the 20 - numPages free pages count towards the target
+        assertEquals(2, bp.cleanPages(22 - numPages, 10));
+        assertEquals(0, bp.cleanPages(22 - numPages, 10));
+        assertEquals(numPages - 2, bp.cleanPages(20, 10));
+
+        for (Page page : pages) {
+            assertNull(page.isDirty());
+            // written to disk
+            HeapPage onDisk = (HeapPage) hf.readPage(page.getId());
+            assertEquals(((HeapPage) page).getNumEmptySlots(), onDisk.getNumEmptySlots());
+        }
+
+        TransactionId running = new TransactionId();
+        pages = dirtyAllPages(running);
+        assertEquals(0, bp.cleanPages(20, 10));
+        for (Page page : pages) {
+            assertEquals(running, page.isDirty());
+        }
+        bp.transactionComplete(running, false);
+    }
+
+    /**
+     * Unit test for the cleaner writing the pages of a transaction in the
+     * background once it commits
+     */
+    @Test public void background() throws Exception {
+        bp.setCleanFraction(1);
+        TransactionId tid = new TransactionId();
+        List<Page> pages = dirtyAllPages(tid);
+        bp.transactionComplete(tid);
+
+        long deadline = System.currentTimeMillis() + 10000;
+        for (Page page : pages) {
+            while (page.isDirty() != null && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            assertNull(page.isDirty());
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PageCleanerTest.class);
+    }
+}
@@ -0,0 +1,132 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class PaxFileTest extends SimpleDbTestBase {
+    private ArrayList<ArrayList<Integer>> tuples;
+    private PaxFile pf;
+    private TransactionId tid;
+
+    /**
+     * Set up initial resources for each unit test.
+     */
+    @Before public void setUp() throws Exception {
+        tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(5, 1200, null, tuples);
+        File f = File.createTempFile("table", ".pax");
+        HeapFile.deleteOnExit(f);
+        PaxFile.convert(hf.getFile(), f, hf.getTupleDesc());
+
+        pf = new PaxFile(f, hf.getTupleDesc());
+        Database.getCatalog().addTable(pf, SystemTestUtil.getUUID());
+        tid = new TransactionId();
+    }
+
+    @After public void tearDown() throws Exception {
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Unit test for PaxFile.convert(): the converted file scans to the same
+     * tuples, in the same order
+     */
+    @Test public void convertAndScan() throws Exception {
+        assertEquals(6, pf.numPages());
+        SystemTestUtil.matchTuples(pf, tuples);
+
+        DbFileIterator it = pf.iterator(tid);
+        it.open();
+        for (ArrayList<Integer> expected : tuples) {
+            Tuple t = it.next();
+            // read the columns out of order
+            for (int j = expected.size() - 1; j >= 0; j--) {
+                assertEquals(expected.get(j).intValue(), ((IntField) t.getField(j)).getValue());
+            }
+        }
+        assertFalse(it.hasNext());
+        it.close();
+    }
+
+    /**
+     * Unit test for PaxPage.insertTuple() and deleteTuple()
+     */
+    @Test public void insertAndDelete() throws Exception {
+        HeapPageId pid = new HeapPageId(pf.getId(), 5);
+        PaxPage page = (PaxPage) pf.readPage(pid);
+        int empty = page.getNumEmptySlots();
+
+        Tuple inserted = Utility.getHeapTuple(new int[] { 1, 2, 3, 4, 5 });
+        page.insertTuple(inserted);
+        assertEquals(empty - 1, page.getNumEmptySlots());
+
+        // the serialized page decodes to the inserted values
+        PaxPage copy = new PaxPage(pid, page.getPageData());
+        Tuple last = null;
+        Iterator<Tuple> it = copy.iterator();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            if (t.getRecordId().equals(inserted.getRecordId())) {
+                last = t;
+            }
+        }
+        assertNotNull(last);
+        assertEquals(new IntField(4), last.getField(3));
+
+        // a tuple handed out before its slot is cleared keeps its values
+        Tuple first = copy.iterator().next();
+        ArrayList<Integer> expected = tuples.get(5 * page.getNumSlots());
+        copy.deleteTuple(first);
+        for (int j = 0; j < expected.size(); j++) {
+            assertEquals(expected.get(j).intValue(), ((IntField) first.getField(j)).getValue());
+        }
+        assertFalse(copy.isSlotUsed(first.getRecordId().getTupleNumber()));
+    }
+
+    /**
+     * Unit test for tuples of a PaxPage whose slot is reused before their
+     * fields are read: held tuples keep the old values, new ones read the
+     * new values
+     */
+    @Test public void slotReused() throws Exception {
+        PaxPage page = (PaxPage) pf.readPage(new HeapPageId(pf.getId(), 0));
+        Tuple held = page.iterator().next();
+        page.deleteTuple(held);
+        page.insertTuple(Utility.getHeapTuple(new int[] { 1, 2, 3, 4, 5 }));
+
+        assertEquals(tuples.get(0), SystemTestUtil.tupleToList(held));
+        Tuple reused = page.iterator().next();
+        assertEquals(held.getRecordId(), reused.getRecordId());
+        assertEquals(new IntField(5), reused.getField(4));
+        assertEquals(new IntField(1), reused.getField(0));
+    }
+
+    /**
+     * Unit test for PaxPage.getBeforeImage()
+     */
+    @Test public void beforeImage() throws Exception {
+        PaxPage page = (PaxPage) pf.readPage(new HeapPageId(pf.getId(), 0));
+        page.deleteTuple(page.iterator().next());
+        PaxPage before = page.getBeforeImage();
+
+        assertEquals(page.getNumEmptySlots() - 1, before.getNumEmptySlots());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PaxFileTest.class);
+    }
+}
@@ -0,0 +1,139 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class ReplacementPolicyTest extends SimpleDbTestBase {
+
+    private static PageId pid(int pageNo) {
+        return new HeapPageId(1, pageNo);
+    }
+
+    private static List<PageId> pids(int... pageNos) {
+        List<PageId> out = new ArrayList<PageId>();
+        for (int p : pageNos) {
+            out.add(pid(p));
+        }
+        return out;
+    }
+
+    /**
+     * Unit test for ClockPolicy: accessed pages get a second chance
+     */
+    @Test public void clock() {
+        ClockPolicy clock = new ClockPolicy();
+        clock.pageAccessed(pid(0));
+        clock.pageAccessed(pid(1));
+        clock.pageAdded(pid(2));
+
+        // only the page added without an access is cold on the first turn
+        assertEquals(pids(2, 0, 1), clock.evictionCandidates(3));
+        // the hand stays on the first candidate, whose bit is still clear
+        clock.pageAccessed(pid(0));
+        assertEquals(pids(2, 1), clock.evictionCandidates(2));
+
+        clock.pageRemoved(pid(2));
+        clock.pageAdded(pid(3));
+        assertEquals(pids(3, 0, 1), clock.evictionCandidates(5));
+        clock.pageRemoved(pid(7));
+        assertEquals(pids(3), clock.evictionCandidates(1));
+    }
+
+    /**
+     * Unit test for LruKPolicy: pages accessed twice outlive pages scanned
+     * once, and correlated accesses count once
+     */
+    @Test public void lruK() {
+        LruKPolicy lru = new LruKPolicy();
+        for (int i = 0; i < 2; i++) {
+            lru.pageAccessed(pid(0));
+            lru.pageAccessed(pid(1));
+        }
+        lru.pageAccessed(pid(2));
+        lru.pageAccessed(pid(2));
+        lru.pageAccessed(pid(3));
+        lru.pageAdded(pid(4));
+        lru.pageAdded(pid(0));
+
+        assertEquals(pids(4, 2, 3, 0, 1), lru.evictionCandidates(10));
+        assertEquals(pids(4, 2), lru.evictionCandidates(2));
+
+        // still correlated with the last access, which was to the same page
+        lru.pageAccessed(pid(3));
+        lru.pageRemoved(pid(4));
+        assertEquals(pids(2, 3, 0, 1), lru.evictionCandidates(10));
+        lru.pageAccessed(pid(2));
+        lru.pageAccessed(pid(3));
+        assertEquals(pids(0, 1, 2, 3), lru.evictionCandidates(10));
+
+        // LRU-1 is plain LRU
+        LruKPolicy lru1 = new LruKPolicy(1);
+        lru1.pageAccessed(pid(0));
+        lru1.pageAccessed(pid(1));
+        lru1.pageAccessed(pid(0));
+        assertEquals(pids(1, 0), lru1.evictionCandidates(10));
+    }
+
+    /**
+     * Unit test for BufferPool eviction: LRU-2 keeps the working set cached
+     * across a scan, and both policies keep a dirty page while there are
+     * clean pages to evict
+     */
+    @Test public void eviction() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 15000, 1000, null, tuples);
+        int numPages = hf.numPages();
+        assertTrue(numPages > 20);
+
+        BufferPool bp = Database.resetBufferPool(new BufferPool(8, false, new LruKPolicy()));
+        TransactionId tid = new TransactionId();
+        Page[] hot = new Page[2];
+        for (int i = 0; i < 2; i++) {
+            for (int p = 0; p < hot.length; p++) {
+                hot[p] = bp.getPage(tid, new HeapPageId(hf.getId(), p), Permissions.READ_ONLY);
+            }
+        }
+        for (int p = hot.length; p < numPages; p++) {
+            bp.getPage(tid, new HeapPageId(hf.getId(), p), Permissions.READ_ONLY);
+        }
+        for (int p = 0; p < hot.length; p++) {
+            assertSame(hot[p], bp.getPage(tid, new HeapPageId(hf.getId(), p), Permissions.READ_ONLY));
+        }
+        bp.transactionComplete(tid);
+
+        for (ReplacementPolicy policy : new ReplacementPolicy[] { new ClockPolicy(), new LruKPolicy() }) {
+            bp = Database.resetBufferPool(new BufferPool(8, false, policy));
+            TransactionId writer = new TransactionId();
+            Tuple t = Utility.getHeapTuple(new int[] { 1, 2 });
+            bp.insertTuple(writer, hf.getId(), t);
+            PageId dirtyPid = t.getRecordId().getPageId();
+            Page dirty = bp.getPage(writer, dirtyPid, Permissions.READ_WRITE);
+
+            TransactionId reader = new TransactionId();
+            for (int p = 0; p < numPages; p++) {
+                if (p != dirtyPid.getPageNumber()) {
+                    bp.getPage(reader, new HeapPageId(hf.getId(), p), Permissions.READ_ONLY);
+                }
+            }
+            bp.transactionComplete(reader);
+            assertSame(dirty, bp.getPage(writer, dirtyPid, Permissions.READ_WRITE));
+            assertEquals(writer, dirty.isDirty());
+            bp.transactionComplete(writer, false);
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ReplacementPolicyTest.class);
+    }
+}
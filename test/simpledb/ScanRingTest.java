@@ -0,0 +1,100 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class ScanRingTest extends SimpleDbTestBase {
+    private HeapFile small;
+    private HeapFile large;
+    private ArrayList<ArrayList<Integer>> largeTuples;
+
+    /**
+     * Set up a small table that fits the pool and a large one that does not.
+     */
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        small = SystemTestUtil.createRandomHeapFile(2, 2000, null, null);
+        largeTuples = new ArrayList<ArrayList<Integer>>();
+        large = SystemTestUtil.createRandomHeapFile(2, 40000, 1000, null, largeTuples);
+        Database.getCatalog().addTable(large, "large");
+        assertTrue(large.numPages() > BufferPool.DEFAULT_PAGES);
+    }
+
+    /**
+     * Unit test for ScanRing.add()
+     */
+    @Test public void add() {
+        ScanRing ring = new ScanRing(2);
+        assertNull(ring.add(new HeapPageId(1, 0)));
+        assertNull(ring.add(new HeapPageId(1, 1)));
+        assertNull(ring.add(new HeapPageId(1, 1)));
+        assertEquals(new HeapPageId(1, 0), ring.add(new HeapPageId(1, 2)));
+        assertEquals(new HeapPageId(1, 1), ring.add(new HeapPageId(1, 3)));
+    }
+
+    /**
+     * Unit test for BufferPool.newScanRing(): only large tables get a ring,
+     * which is larger than the read-ahead window
+     */
+    @Test public void newScanRing() {
+        BufferPool bp = Database.getBufferPool();
+        assertNull(bp.newScanRing(small.numPages()));
+        ScanRing ring = bp.newScanRing(large.numPages());
+        assertNotNull(ring);
+        assertTrue(ring.getSize() > bp.getReadAheadPages());
+        assertTrue(ring.getSize() < BufferPool.DEFAULT_PAGES / 4);
+    }
+
+    /**
+     * @return the pages of the small table, read into the pool by tid
+     */
+    private Page[] readSmall(TransactionId tid) throws Exception {
+        Page[] pages = new Page[small.numPages()];
+        for (int p = 0; p < pages.length; p++) {
+            pages[p] = Database.getBufferPool().getPage(tid, new HeapPageId(small.getId(), p),
+                    Permissions.READ_ONLY);
+        }
+        return pages;
+    }
+
+    private void assertCached(TransactionId tid, Page[] pages) throws Exception {
+        for (Page page : pages) {
+            assertSame(page, Database.getBufferPool().getPage(tid, page.getId(), Permissions.READ_ONLY));
+        }
+    }
+
+    /**
+     * Unit test for a scan of the large table and the construction of its
+     * statistics leaving the pages of the small table cached
+     */
+    @Test public void scanKeepsWorkingSet() throws Exception {
+        TransactionId tid = new TransactionId();
+        Page[] hot = readSmall(tid);
+
+        TransactionId scanner = new TransactionId();
+        SystemTestUtil.matchTuples(new SeqScan(scanner, large.getId()), largeTuples);
+        Database.getBufferPool().transactionComplete(scanner);
+        assertCached(tid, hot);
+
+        TableStats stats = new TableStats(large.getId(), TableStats.IOCOSTPERPAGE);
+        assertEquals(largeTuples.size(), stats.totalTuples());
+        assertCached(tid, hot);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ScanRingTest.class);
+    }
+}
@@ -0,0 +1,225 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.*;
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class SlottedFileTest extends SimpleDbTestBase {
+    private TupleDesc td;
+    private SlottedFile sf;
+    private TransactionId tid;
+
+    /**
+     * Set up initial resources for each unit test.
+     */
+    @Before public void setUp() throws Exception {
+        td = new TupleDesc(new Type[] { Type.INT_TYPE, Type.STRING_TYPE },
+                new String[] { "id", "name" });
+        File f = File.createTempFile("table", ".slotted");
+        HeapFile.deleteOnExit(f);
+        sf = new SlottedFile(f, td);
+        Database.getCatalog().addTable(sf, SystemTestUtil.getUUID());
+        tid = new TransactionId();
+    }
+
+    @After public void tearDown() throws Exception {
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    private Tuple tuple(int id, String name) {
+        Tuple t = new Tuple(td);
+        t.setField(0, new IntField(id));
+        t.setField(1, new StringField(name, Type.STRING_LEN));
+        return t;
+    }
+
+    /**
+     * Unit test for SlottedFile.insertTuple(): short strings pack many more
+     * tuples per page than the fixed-width layout
+     */
+    @Test public void insertAndScan() throws Exception {
+        int n = 1000;
+        for (int i = 0; i < n; i++) {
+            Database.getBufferPool().insertTuple(tid, sf.getId(), tuple(i, "s" + i));
+        }
+        int heapSlots = (BufferPool.getPageSize() * 8) / (td.getSize() * 8 + 1);
+        int heapPages = (n + heapSlots - 1) / heapSlots;
+        assertTrue(sf.numPages() * 5 <= heapPages);
+
+        DbFileIterator it = sf.iterator(tid);
+        it.open();
+        int count = 0;
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            int id = ((IntField) t.getField(0)).getValue();
+            assertEquals(new StringField("s" + id, Type.STRING_LEN), t.getField(1));
+            count++;
+        }
+        it.close();
+        assertEquals(n, count);
+    }
+
+    /**
+     * Unit test for SlottedPage.deleteTuple(): freed slots and holes are
+     * reused, compacting the page when needed
+     */
+    @Test public void deleteAndReuse() throws Exception {
+        HeapPageId pid = new HeapPageId(sf.getId(), 0);
+        SlottedPage page = new SlottedPage(pid, SlottedPage.createEmptyPageData());
+        int capacity = page.getFreeSpace();
+
+        ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+        try {
+            for (int i = 0; ; i++) {
+                Tuple t = tuple(i, "abcdefghijklmnopqrstuvwxyz");
+                page.insertTuple(t);
+                tuples.add(t);
+            }
+        } catch (DbException e) {
+            // page is full
+        }
+        assertTrue(page.getFreeSpace() < capacity / 10);
+
+        // free two records in the middle; together they hold a longer one
+        page.deleteTuple(tuples.get(10));
+        page.deleteTuple(tuples.get(11));
+        Tuple longer = tuple(-1, "abcdefghijklmnopqrstuvwxyz0123456789");
+        page.insertTuple(longer);
+        assertEquals(10, longer.getRecordId().getTupleNumber());
+
+        // the page survives a round trip through its serialized form
+        SlottedPage copy = new SlottedPage(pid, page.getPageData());
+        assertEquals(tuples.size() - 1, copy.getNumTuples());
+        Iterator<Tuple> it = copy.iterator();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            int slot = t.getRecordId().getTupleNumber();
+            Tuple expected = slot == 10 ? longer : tuples.get(slot);
+            assertEquals(expected.getField(0), t.getField(0));
+            assertEquals(expected.getField(1), t.getField(1));
+        }
+        assertEquals(0, page.getBeforeImage().getNumTuples());
+    }
+
+    /**
+     * Unit test for SlottedPage.getTupleInSlot() and iterator(): tuples are
+     * decoded from the page bytes, so changing a returned or inserted tuple
+     * does not change the page
+     */
+    @Test public void tuplesNotCached() throws Exception {
+        HeapPageId pid = new HeapPageId(sf.getId(), 0);
+        SlottedPage page = new SlottedPage(pid, SlottedPage.createEmptyPageData());
+        Tuple inserted = tuple(1, "one");
+        page.insertTuple(inserted);
+        page.insertTuple(tuple(2, "two"));
+
+        inserted.setField(1, new StringField("changed", Type.STRING_LEN));
+        Tuple read = page.getTupleInSlot(0);
+        assertEquals("one", ((StringField) read.getField(1)).getValue());
+        assertNotSame(read, page.getTupleInSlot(0));
+
+        // a slot freed while iterating is skipped
+        Iterator<Tuple> it = page.iterator();
+        page.deleteTuple(read);
+        assertEquals(2, ((IntField) it.next().getField(0)).getValue());
+        assertFalse(it.hasNext());
+    }
+
+    /**
+     * Unit test for SlottedFile.convert()
+     */
+    @Test public void convert() throws Exception {
+        File txt = File.createTempFile("table", ".txt");
+        txt.deleteOnExit();
+        PrintWriter pw = new PrintWriter(new FileWriter(txt));
+        for (int i = 0; i < 200; i++) {
+            pw.println(i + ",name" + i);
+        }
+        pw.close();
+        File dat = File.createTempFile("table", ".dat");
+        dat.deleteOnExit();
+        HeapFileEncoder.convert(txt, dat, BufferPool.getPageSize(), 2,
+                new Type[] { Type.INT_TYPE, Type.STRING_TYPE });
+
+        File out = File.createTempFile("table", ".slotted");
+        HeapFile.deleteOnExit(out);
+        SlottedFile.convert(dat, out, td);
+        SlottedFile converted = new SlottedFile(out, td);
+        Database.getCatalog().addTable(converted, SystemTestUtil.getUUID());
+        assertEquals(1, converted.numPages());
+
+        DbFileIterator it = converted.iterator(tid);
+        it.open();
+        for (int i = 0; i < 200; i++) {
+            Tuple t = it.next();
+            assertEquals(new IntField(i), t.getField(0));
+            assertEquals(new StringField("name" + i, Type.STRING_LEN), t.getField(1));
+        }
+        assertFalse(it.hasNext());
+        it.close();
+    }
+
+    /**
+     * Unit test for a dictionary-encoded SlottedFile: strings are stored as
+     * codes, compare by code and survive reopening the file
+     */
+    @Test public void dictionaryEncoded() throws Exception {
+        File f = File.createTempFile("table", ".slotted");
+        HeapFile.deleteOnExit(f);
+        SlottedFile coded = new SlottedFile(f, td, false, true);
+        Database.getCatalog().addTable(coded, SystemTestUtil.getUUID());
+
+        String[] countries = { "France", "Japan", "Peru" };
+        for (int i = 0; i < 600; i++) {
+            Database.getBufferPool().insertTuple(tid, coded.getId(), tuple(i, countries[i % 3]));
+        }
+        assertEquals(3, coded.getDictionary().size());
+        Database.getBufferPool().transactionComplete(tid);
+        Database.getBufferPool().flushAllPages();
+        coded.close();
+
+        // a new instance over the same files decodes the same values
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        SlottedFile reopened = new SlottedFile(f, td, false, true);
+        Database.getCatalog().addTable(reopened, SystemTestUtil.getUUID());
+        tid = new TransactionId();
+
+        Predicate japan = new Predicate(1, Predicate.Op.EQUALS,
+                new StringField("Japan", Type.STRING_LEN));
+        HashSet<Field> distinct = new HashSet<Field>();
+        int matches = 0;
+        DbFileIterator it = reopened.iterator(tid);
+        it.open();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            CodedStringField name = (CodedStringField) t.getField(1);
+            int id = ((IntField) t.getField(0)).getValue();
+            assertEquals(countries[id % 3], name.getValue());
+            if (japan.filter(t)) {
+                matches++;
+            }
+            distinct.add(name);
+        }
+        it.close();
+        assertEquals(200, matches);
+        assertEquals(3, distinct.size());
+        assertTrue(distinct.contains(new StringField("Peru", Type.STRING_LEN)));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(SlottedFileTest.class);
+    }
+}
@@ -0,0 +1,99 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.*;
+import java.util.NoSuchElementException;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class StringDictionaryTest extends SimpleDbTestBase {
+
+    private File file;
+
+    /**
+     * Set up initial resources for each unit test.
+     */
+    @Before public void createFile() throws Exception {
+        file = File.createTempFile("table", ".dict");
+        file.delete();
+        file.deleteOnExit();
+    }
+
+    /**
+     * Unit test for StringDictionary.codeOf(): a repeated probe that missed
+     * finds the string once it was added
+     */
+    @Test public void probeAfterAdd() throws Exception {
+        StringDictionary dict = new StringDictionary(file);
+        StringField peru = new StringField("Peru", Type.STRING_LEN);
+
+        assertEquals(-1, dict.codeOf(peru));
+        assertEquals(-1, dict.codeOf(peru));
+        int code = dict.encode("Peru");
+        assertEquals(code, dict.codeOf(peru));
+        assertEquals("Peru", dict.decode(code));
+        dict.close();
+    }
+
+    /**
+     * Unit test for StringDictionary.decode() of a code that was never
+     * assigned
+     */
+    @Test(expected = NoSuchElementException.class) public void decodeUnknown() {
+        new StringDictionary(file).decode(0);
+    }
+
+    /**
+     * Unit test for StringDictionary.force(): forced entries are on disk
+     * and load into a new instance
+     */
+    @Test public void forceAndLoad() throws Exception {
+        StringDictionary dict = new StringDictionary(file);
+        dict.encode("France");
+        dict.encode("Japan");
+        dict.force();
+
+        StringDictionary loaded = new StringDictionary(file);
+        assertEquals(2, loaded.size());
+        assertEquals(1, loaded.lookup("Japan"));
+        dict.close();
+    }
+
+    /**
+     * Unit test for loading a side file whose last entry was only partly
+     * written: the entry is dropped and the next one is appended in its
+     * place
+     */
+    @Test public void truncatedEntry() throws Exception {
+        StringDictionary dict = new StringDictionary(file);
+        dict.encode("France");
+        dict.encode("Japan");
+        dict.close();
+        DataOutputStream dos = new DataOutputStream(new FileOutputStream(file, true));
+        dos.writeShort(10);
+        dos.writeBytes("Per");
+        dos.close();
+
+        dict = new StringDictionary(file);
+        assertEquals(2, dict.size());
+        assertEquals(2, dict.encode("Chile"));
+        dict.close();
+
+        StringDictionary loaded = new StringDictionary(file);
+        assertEquals(3, loaded.size());
+        assertEquals("Chile", loaded.decode(2));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(StringDictionaryTest.class);
+    }
+}
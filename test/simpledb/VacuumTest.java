@@ -0,0 +1,150 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.*;
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class VacuumTest extends SimpleDbTestBase {
+    private ArrayList<ArrayList<Integer>> tuples;
+    private HeapFile hf;
+    private TableIndex index;
+
+    /**
+     * Set up a table with an index on its first field.
+     */
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        tuples = new ArrayList<ArrayList<Integer>>();
+        hf = SystemTestUtil.createRandomHeapFile(2, 3000, null, tuples);
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+
+        File f = File.createTempFile("index", ".dat");
+        f.deleteOnExit();
+        index = TableIndex.createBTreeIndex(f, hf.getId(), 0);
+        Database.getCatalog().addIndex(index);
+        Transaction t = new Transaction();
+        t.start();
+        index.build(t.getId());
+        t.commit();
+    }
+
+    /**
+     * Deletes all tuples but every keepEvery-th one, or all of them if
+     * keepEvery is 0.
+     */
+    private void deleteAllBut(int keepEvery) throws Exception {
+        Transaction t = new Transaction();
+        t.start();
+        DbFileIterator it = hf.iterator(t.getId());
+        List<Tuple> doomed = new ArrayList<Tuple>();
+        int i = 0;
+        it.open();
+        while (it.hasNext()) {
+            Tuple tuple = it.next();
+            if (keepEvery == 0 || i++ % keepEvery != 0) {
+                doomed.add(tuple);
+            }
+        }
+        it.close();
+        for (Tuple tuple : doomed) {
+            Database.getBufferPool().deleteTuple(t.getId(), tuple);
+            tuples.remove(SystemTestUtil.tupleToList(tuple));
+        }
+        t.commit();
+    }
+
+    /**
+     * Unit test for Vacuum.run() after most tuples were deleted: the file
+     * shrinks and the table and its index still hold the live tuples
+     */
+    @Test public void compact() throws Exception {
+        deleteAllBut(10);
+        int before = hf.numPages();
+        TransactionId tid = new TransactionId();
+        int perPage = ((HeapPage) Database.getBufferPool().getPage(tid,
+                new HeapPageId(hf.getId(), 0), Permissions.READ_ONLY)).getNumSlots();
+        Database.getBufferPool().transactionComplete(tid);
+
+        Vacuum v = new Vacuum(hf);
+        v.setBatchSize(50);
+        int removed = v.run();
+        assertEquals(before - removed, hf.numPages());
+        assertTrue(hf.numPages() <= (tuples.size() + perPage - 1) / perPage + 1);
+        assertTrue(v.getTuplesMoved() > 0);
+
+        tid = new TransactionId();
+        SystemTestUtil.matchTuples(hf, tid, tuples);
+        SystemTestUtil.matchTuples(new IndexScan(tid, index, Predicate.Op.GREATER_THAN,
+                new IntField(Integer.MIN_VALUE), "t"), tuples);
+
+        // the table is still usable
+        Database.getBufferPool().insertTuple(tid, hf.getId(), Utility.getHeapTuple(new int[] { 7, 7 }));
+        tuples.add(new ArrayList<Integer>(Arrays.asList(7, 7)));
+        SystemTestUtil.matchTuples(hf, tid, tuples);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Unit test for Vacuum.getTuplesMoved() when the run stops because the
+     * earlier pages are full: the moves of the last batch are counted too
+     */
+    @Test public void tuplesMovedWhenFull() throws Exception {
+        // keep the first 300 tuples of each of the 6 pages
+        int keep = 300;
+        Transaction t = new Transaction();
+        t.start();
+        DbFileIterator it = hf.iterator(t.getId());
+        List<Tuple> doomed = new ArrayList<Tuple>();
+        it.open();
+        while (it.hasNext()) {
+            Tuple tuple = it.next();
+            if (tuple.getRecordId().getTupleNumber() >= keep) {
+                doomed.add(tuple);
+            }
+        }
+        it.close();
+        for (Tuple tuple : doomed) {
+            Database.getBufferPool().deleteTuple(t.getId(), tuple);
+            tuples.remove(SystemTestUtil.tupleToList(tuple));
+        }
+        int perPage = ((HeapPage) Database.getBufferPool().getPage(t.getId(),
+                new HeapPageId(hf.getId(), 0), Permissions.READ_ONLY)).getNumSlots();
+        t.commit();
+        assertEquals(6, hf.numPages());
+
+        // pages 5 and 4 fit into the free slots of pages 0 to 2; page 3 only
+        // partly, after which its next tuple lands on page 3 again
+        Vacuum v = new Vacuum(hf);
+        v.setBatchSize(1000);
+        v.run();
+        assertEquals(3 * (perPage - keep), v.getTuplesMoved());
+        assertEquals(4, hf.numPages());
+        SystemTestUtil.matchTuples(hf, tuples);
+    }
+
+    /**
+     * Unit test for Vacuum.run() on an emptied table, which keeps one page
+     */
+    @Test public void emptyTable() throws Exception {
+        deleteAllBut(0);
+        new Vacuum(hf).run();
+        assertEquals(1, hf.numPages());
+        SystemTestUtil.matchTuples(hf, tuples);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(VacuumTest.class);
+    }
+}
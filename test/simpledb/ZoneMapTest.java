@@ -0,0 +1,210 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class ZoneMapTest extends SimpleDbTestBase {
+
+    private File file;
+    private TupleDesc td;
+
+    /**
+     * Set up initial resources for each unit test.
+     */
+    @Before public void createFile() throws Exception {
+        file = File.createTempFile("table", ".zm");
+        file.delete();
+        file.deleteOnExit();
+        td = new TupleDesc(new Type[] { Type.INT_TYPE, Type.STRING_TYPE, Type.INT_TYPE });
+    }
+
+    private Tuple tuple(int a, int b) {
+        Tuple t = new Tuple(td);
+        t.setField(0, new IntField(a));
+        t.setField(1, new StringField("x", Type.STRING_LEN));
+        t.setField(2, new IntField(b));
+        return t;
+    }
+
+    private static Predicate pred(int field, Predicate.Op op, int v) {
+        return new Predicate(field, op, new IntField(v));
+    }
+
+    /**
+     * Unit test for ZoneMap.mayMatch() on known, empty and unknown pages
+     */
+    @Test public void mayMatch() {
+        ZoneMap zm = new ZoneMap(file, td);
+        zm.observe(0, new int[] { 10, 5 }, new int[] { 20, 5 });
+        zm.observe(1, new int[] { Integer.MAX_VALUE, Integer.MAX_VALUE },
+                new int[] { Integer.MIN_VALUE, Integer.MIN_VALUE });
+
+        assertTrue(zm.mayMatch(0, pred(0, Predicate.Op.EQUALS, 15)));
+        assertFalse(zm.mayMatch(0, pred(0, Predicate.Op.EQUALS, 21)));
+        assertFalse(zm.mayMatch(0, pred(0, Predicate.Op.LESS_THAN, 10)));
+        assertTrue(zm.mayMatch(0, pred(0, Predicate.Op.LESS_THAN_OR_EQ, 10)));
+        assertFalse(zm.mayMatch(0, pred(0, Predicate.Op.GREATER_THAN, 20)));
+        assertTrue(zm.mayMatch(0, pred(0, Predicate.Op.GREATER_THAN_OR_EQ, 20)));
+        assertFalse(zm.mayMatch(0, pred(2, Predicate.Op.NOT_EQUALS, 5)));
+        assertTrue(zm.mayMatch(0, pred(2, Predicate.Op.NOT_EQUALS, 6)));
+        assertFalse(zm.mayMatch(1, pred(0, Predicate.Op.NOT_EQUALS, 0)));
+        assertTrue(zm.mayMatch(2, pred(0, Predicate.Op.EQUALS, 0)));
+
+        // inserts widen the zone
+        zm.add(0, tuple(30, 5));
+        assertTrue(zm.mayMatch(0, pred(0, Predicate.Op.EQUALS, 25)));
+        zm.add(1, tuple(1, 1));
+        assertTrue(zm.mayMatch(1, pred(2, Predicate.Op.EQUALS, 1)));
+        assertFalse(zm.mayMatch(1, pred(2, Predicate.Op.EQUALS, 2)));
+
+        zm.truncate(1);
+        assertTrue(zm.mayMatch(1, pred(2, Predicate.Op.EQUALS, 2)));
+    }
+
+    /**
+     * Unit test for saving and loading the side file, which is dropped as
+     * soon as the zones change
+     */
+    @Test public void saveAndLoad() throws Exception {
+        ZoneMap zm = new ZoneMap(file, td);
+        zm.observe(0, new int[] { 10, 5 }, new int[] { 10, 5 });
+        zm.save();
+        assertTrue(file.exists());
+
+        zm = new ZoneMap(file, td);
+        assertFalse(zm.mayMatch(0, pred(0, Predicate.Op.GREATER_THAN, 10)));
+        assertTrue(zm.mayMatch(1, pred(0, Predicate.Op.GREATER_THAN, 10)));
+        zm.add(0, tuple(11, 5));
+        assertFalse(file.exists());
+        zm.save();
+
+        zm = new ZoneMap(file, td);
+        assertTrue(zm.mayMatch(0, pred(0, Predicate.Op.GREATER_THAN, 10)));
+    }
+
+    /**
+     * Unit test for reading the int ranges of HeapPage, PaxPage and
+     * SlottedPage from their bytes
+     */
+    @Test public void widenIntRanges() throws Exception {
+        HeapFile[] files = {
+            new HeapFile(tempTable(), td),
+            new PaxFile(tempTable(), td),
+            new SlottedFile(tempTable(), td),
+            new SlottedFile(tempTable(), td, false, true),
+        };
+        int[] fields = { 0, 2 };
+        TransactionId tid = new TransactionId();
+
+        for (HeapFile file : files) {
+            Database.getCatalog().addTable(file, SystemTestUtil.getUUID());
+            for (int i = 0; i < 50; i++) {
+                Database.getBufferPool().insertTuple(tid, file.getId(), tuple(i * 17 % 41, -i));
+            }
+            Page page = Database.getBufferPool().getPage(tid,
+                    new HeapPageId(file.getId(), 0), Permissions.READ_ONLY);
+            int[] mins = { Integer.MAX_VALUE, Integer.MAX_VALUE };
+            int[] maxs = { Integer.MIN_VALUE, Integer.MIN_VALUE };
+            file.widenIntRanges(page, fields, mins, maxs);
+
+            int[] expectedMins = { Integer.MAX_VALUE, Integer.MAX_VALUE };
+            int[] expectedMaxs = { Integer.MIN_VALUE, Integer.MIN_VALUE };
+            Iterator<Tuple> it = file.pageIterator(page);
+            assertTrue(it.hasNext());
+            while (it.hasNext()) {
+                Tuple t = it.next();
+                for (int c = 0; c < fields.length; c++) {
+                    int v = ((IntField) t.getField(fields[c])).getValue();
+                    expectedMins[c] = Math.min(expectedMins[c], v);
+                    expectedMaxs[c] = Math.max(expectedMaxs[c], v);
+                }
+            }
+            assertArrayEquals(expectedMins, mins);
+            assertArrayEquals(expectedMaxs, maxs);
+        }
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    private static File tempTable() throws Exception {
+        File f = File.createTempFile("table", ".dat");
+        HeapFile.deleteOnExit(f);
+        return f;
+    }
+
+    /**
+     * Unit test for a filtered scan skipping the pages of a clustered table
+     */
+    @Test public void scanSkipsPages() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        for (int i = 0; i < 5000; i++) {
+            tuples.add(new ArrayList<Integer>(Arrays.asList(i, i % 7)));
+        }
+        File f = File.createTempFile("table", ".dat");
+        HeapFile.deleteOnExit(f);
+        HeapFileEncoder.convert(tuples, f, BufferPool.getPageSize(), 2);
+        HeapFile hf = Utility.openHeapFile(2, f);
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+        int last = hf.numPages() - 1;
+        assertTrue(last > 2);
+
+        // the first scan reads every page and learns the zones
+        Predicate p = pred(0, Predicate.Op.LESS_THAN, 100);
+        TransactionId tid = new TransactionId();
+        SystemTestUtil.matchTuples(new Filter(p, new SeqScan(tid, hf.getId())), tuples.subList(0, 100));
+        Database.getBufferPool().transactionComplete(tid);
+
+        tid = new TransactionId();
+        SystemTestUtil.matchTuples(new Filter(p, new SeqScan(tid, hf.getId())), tuples.subList(0, 100));
+        assertTrue(Database.getBufferPool().holdsLock(tid, new HeapPageId(hf.getId(), 0)));
+        assertFalse(Database.getBufferPool().holdsLock(tid, new HeapPageId(hf.getId(), last)));
+
+        // an inserted tuple widens the zone of its page
+        Database.getBufferPool().insertTuple(tid, hf.getId(), Utility.getHeapTuple(new int[] { -1, 3 }));
+        List<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>();
+        expected.add(new ArrayList<Integer>(Arrays.asList(-1, 3)));
+        SystemTestUtil.matchTuples(new Filter(pred(0, Predicate.Op.LESS_THAN, 0),
+                new SeqScan(tid, hf.getId())), expected);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Unit test for Filter installing its page filter in a SeqScan only
+     * while the Filter is open
+     */
+    @Test public void pageFilterWhileOpen() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 5000, null, tuples);
+        Predicate p = pred(0, Predicate.Op.LESS_THAN, Integer.MIN_VALUE);
+        TransactionId tid = new TransactionId();
+        // learn the zones
+        SystemTestUtil.matchTuples(new SeqScan(tid, hf.getId()), tuples);
+
+        SeqScan scan = new SeqScan(tid, hf.getId());
+        Filter filter = new Filter(p, scan);
+        SystemTestUtil.matchTuples(scan, tuples);
+
+        filter.open();
+        assertFalse(filter.hasNext());
+        assertFalse(scan.hasNext());
+        filter.close();
+        SystemTestUtil.matchTuples(scan, tuples);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ZoneMapTest.class);
+    }
+}